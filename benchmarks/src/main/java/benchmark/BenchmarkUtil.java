@@ -0,0 +1,67 @@
+package benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import commons.Config;
+import commons.RisoTreeUtil;
+
+/**
+ * Synthetic inputs shared by the benchmarks. Everything is generated from {@link #seed} so that
+ * two runs measure the same data.
+ */
+public class BenchmarkUtil {
+
+  public static final long seed = 20190601L;
+
+  /**
+   * @param random
+   * @param size
+   * @param range ids are drawn from [0, range)
+   * @return sorted distinct ids
+   */
+  public static int[] randomSortedArray(Random random, int size, int range) {
+    TreeSet<Integer> ids = new TreeSet<>();
+    while (ids.size() < Math.min(size, range)) {
+      ids.add(random.nextInt(range));
+    }
+    int[] array = new int[ids.size()];
+    int i = 0;
+    for (int id : ids) {
+      array[i++] = id;
+    }
+    return array;
+  }
+
+  /**
+   * Path neighbors of a node with the paths PN_i and PN_i_j over {@code labelCount} labels.
+   *
+   * @param random
+   * @param labelCount
+   * @param pnSize size of each PN
+   * @param range ids are drawn from [0, range)
+   * @param ignoreRatio ratio of the ignored ([]) PNs
+   * @return
+   */
+  public static Map<String, int[]> randomPathNeighbors(Random random, int labelCount, int pnSize,
+      int range, double ignoreRatio) {
+    Map<String, int[]> pathNeighbors = new HashMap<>();
+    for (int i = 0; i < labelCount; i++) {
+      String path = RisoTreeUtil.getAttachName(Config.PNPrefix, "" + i);
+      pathNeighbors.put(path, randomPN(random, pnSize, range, ignoreRatio));
+      for (int j = 0; j < labelCount; j++) {
+        pathNeighbors.put(RisoTreeUtil.getAttachName(path, "" + j),
+            randomPN(random, pnSize, range, ignoreRatio));
+      }
+    }
+    return pathNeighbors;
+  }
+
+  private static int[] randomPN(Random random, int pnSize, int range, double ignoreRatio) {
+    if (random.nextDouble() < ignoreRatio) {
+      return new int[0];
+    }
+    return randomSortedArray(random, pnSize, range);
+  }
+}
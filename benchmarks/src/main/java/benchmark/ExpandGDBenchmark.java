@@ -0,0 +1,70 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.gis.spatial.rtree.RTreeIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link RTreeIndex#getExpandGD(Map, Map, int)}, the PN expansion evaluated for every candidate
+ * child when a spatial object is inserted. One invocation evaluates all the children of a node.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ExpandGDBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int pnSize;
+
+  @Param({"5"})
+  public int labelCount;
+
+  @Param({"0.0", "0.2"})
+  public double ignoreRatio;
+
+  @Param({"-1", "200"})
+  public int maxPNSize;
+
+  private static final int childCount = 50;
+  private static final int range = 1000000;
+
+  private List<Map<String, int[]>> childrenPNs;
+  private Map<String, int[]> insertPNs;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkUtil.seed);
+    childrenPNs = new ArrayList<>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      childrenPNs.add(
+          BenchmarkUtil.randomPathNeighbors(random, labelCount, pnSize, range, ignoreRatio));
+    }
+    insertPNs = BenchmarkUtil.randomPathNeighbors(random, labelCount, pnSize, range, ignoreRatio);
+  }
+
+  @Benchmark
+  public void getExpandGD(Blackhole blackhole) {
+    int max = maxPNSize == -1 ? Integer.MAX_VALUE : maxPNSize;
+    for (Map<String, int[]> childPNs : childrenPNs) {
+      blackhole.consume(RTreeIndex.getExpandGD(childPNs, insertPNs, max));
+    }
+  }
+}
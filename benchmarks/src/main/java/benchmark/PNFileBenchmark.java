@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import commons.ReadWriteUtil;
+
+/**
+ * Parse a leaf node PN file ({@link ReadWriteUtil#readLeafNodesPathNeighbors(String)}) as it is
+ * done when the PNs are loaded into the tree. The file is written once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(2)
+public class PNFileBenchmark {
+
+  @Param({"1000"})
+  public int leafCount;
+
+  @Param({"10", "200"})
+  public int pnSize;
+
+  @Param({"4"})
+  public int labelCount;
+
+  private File file;
+
+  @Setup
+  public void setUp() throws Exception {
+    Random random = new Random(BenchmarkUtil.seed);
+    Map<Long, Map<String, int[]>> pathNeighbors = new HashMap<>();
+    for (long leafId = 0; leafId < leafCount; leafId++) {
+      pathNeighbors.put(leafId,
+          BenchmarkUtil.randomPathNeighbors(random, labelCount, pnSize, 10000000, 0.1));
+    }
+    file = File.createTempFile("leaf_pn", ".txt");
+    ReadWriteUtil.writeLeafNodesPathNeighbors(pathNeighbors, file.getAbsolutePath());
+  }
+
+  @TearDown
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Benchmark
+  public Map<Long, Map<String, int[]>> readLeafNodesPathNeighbors() throws Exception {
+    return ReadWriteUtil.readLeafNodesPathNeighbors(file.getAbsolutePath());
+  }
+}
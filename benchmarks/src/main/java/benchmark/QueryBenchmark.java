@@ -0,0 +1,141 @@
+package benchmark;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherDecoder;
+import graph.RisoTreeQueryPN;
+
+/**
+ * End-to-end LAGAQ queries on a RisoTree built from {@link #dataDir}: the leaf traversal with the
+ * PN pruning alone, LAGAQ-Range, LAGAQ-KNN and LAGAQ-Join. The default data directory is the small
+ * graph in the test resources; pass a full dataset with
+ * {@code -p dataDir=... -p rangeQuery=... -p knnQuery=... -p joinQuery=...}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+  @Param({"../src/test/resources/data/smallGraph"})
+  public String dataDir;
+
+  @Param({"2"})
+  public int MAX_HOPNUM;
+
+  @Param({"-1"})
+  public int maxPNSize;
+
+  /**
+   * LAGAQ-Range query with the range predicates.
+   */
+  @Param({"match (a0:`2`)--(a1:`1`) where 0 <= a0.longitude <= 4 and 0 <= a0.latitude <= 5 "
+      + "return id(a0), id(a1)"})
+  public String rangeQuery;
+
+  /**
+   * Query without spatial predicates whose spatial query node is a0.
+   */
+  @Param({"match (a0:`2`)--(a1:`1`) return id(a0), id(a1)"})
+  public String knnQuery;
+
+  @Param({"1.0,1.0"})
+  public String knnPoint;
+
+  @Param({"2"})
+  public int K;
+
+  /**
+   * Query without spatial predicates whose spatial query nodes are a0 and a2.
+   */
+  @Param({"match (a0:`2`)--(a1:`1`)--(a2:`2`) return id(a0), id(a1), id(a2)"})
+  public String joinQuery;
+
+  @Param({"5.0"})
+  public double distance;
+
+  private RisoTreeDatabase database;
+  private RisoTreeQueryPN risoTreeQueryPN;
+  private Query_Graph rangeQueryGraph;
+  private Query_Graph knnQueryGraph;
+  private Query_Graph joinQueryGraph;
+  private PrintStream stdout;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    // the queries print their statistics
+    stdout = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {}
+    }));
+    database = new RisoTreeDatabase(dataDir, maxPNSize);
+    risoTreeQueryPN = new RisoTreeQueryPN(database.service, database.dataset, MAX_HOPNUM);
+    rangeQueryGraph = CypherDecoder.getQueryGraph(rangeQuery, database.service);
+
+    String[] coordinate = knnPoint.split(",");
+    double x = Double.parseDouble(coordinate[0]), y = Double.parseDouble(coordinate[1]);
+    knnQueryGraph =
+        CypherDecoder.getQueryGraph(knnQuery, "a0", new MyRectangle(x, y, x, y), database.service);
+
+    Map<String, MyRectangle> joinPredicates = new HashMap<>();
+    joinPredicates.put("a0", new MyRectangle(-180, -90, 180, 90));
+    joinPredicates.put("a2", new MyRectangle(-180, -90, 180, 90));
+    joinQueryGraph = CypherDecoder.getQueryGraph(joinQuery, joinPredicates, database.service);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws Exception {
+    database.close();
+    System.setOut(stdout);
+  }
+
+  @Benchmark
+  public Map<Integer, Collection<Long>> leafTraversal() throws Exception {
+    try (Transaction tx = database.service.beginTx()) {
+      Map<Integer, Collection<Long>> candidateSet =
+          risoTreeQueryPN.getCandidateSetWithIgnore(rangeQueryGraph);
+      tx.success();
+      return candidateSet;
+    }
+  }
+
+  @Benchmark
+  public long range() throws Exception {
+    risoTreeQueryPN.queryWithIgnore(rangeQuery);
+    return risoTreeQueryPN.result_count;
+  }
+
+  @Benchmark
+  public List<long[]> knn() throws Exception {
+    return risoTreeQueryPN.LAGAQ_KNN(knnQueryGraph, K);
+  }
+
+  @Benchmark
+  public List<Long[]> join() throws Exception {
+    return risoTreeQueryPN.LAGAQ_Join(joinQueryGraph, distance);
+  }
+}
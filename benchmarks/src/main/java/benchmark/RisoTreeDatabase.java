@@ -0,0 +1,76 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.io.fs.FileUtils;
+import commons.Config;
+import commons.Neo4jGraphUtility;
+import dataprocess.Wikidata;
+import graph.Construct_RisoTree;
+import graph.LoadDataNoOSM;
+
+/**
+ * A RisoTree database built from a data directory into a temporary directory, following the
+ * construction steps in the README. The data directory has graph.txt, entity.txt, the label file
+ * (label_graph.txt or graph_label.txt) and the label string map (label_string.txt or
+ * entity_string_label.txt). The name of the directory is used as the dataset.
+ */
+public class RisoTreeDatabase {
+
+  public final String dataset;
+  public final GraphDatabaseService service;
+  private final File workDir;
+
+  /**
+   * @param dataDir
+   * @param maxPNSize -1 for no limit
+   * @throws Exception
+   */
+  public RisoTreeDatabase(String dataDir, int maxPNSize) throws Exception {
+    File dir = new File(dataDir).getCanonicalFile();
+    dataset = dir.getName();
+    String graphPath = new File(dir, "graph.txt").getPath();
+    String entityPath = new File(dir, "entity.txt").getPath();
+    String labelPath = existingFile(dir, "label_graph.txt", "graph_label.txt");
+    String labelStringPath = existingFile(dir, "label_string.txt", "entity_string_label.txt");
+
+    workDir = Files.createTempDirectory("risotree_benchmark").toFile();
+    String dbPath = new File(workDir, "neo4j-community-3.4.12_Gleenes_1.0_-1_new_version")
+        .getPath();
+    String spatialNodePNPath = new File(workDir, "spatialNodesZeroOneHopPN.txt").getPath();
+    String containIDPath = new File(workDir, "containID.txt").getPath();
+    String PNPath = new File(workDir, "PathNeighbors").getPath();
+
+    Wikidata.generateZeroOneHopPNForSpatialNodes(graphPath, labelPath, entityPath,
+        labelStringPath, maxPNSize, 1, spatialNodePNPath);
+    Wikidata.loadAllEntities(entityPath, labelPath, labelStringPath, dbPath);
+    LoadDataNoOSM.loadGraphEdgesNoMap(dbPath, graphPath);
+    new LoadDataNoOSM(new Config(), true).wikiConstructRTree(dbPath, dataset, entityPath,
+        spatialNodePNPath, 1.0, maxPNSize);
+    Construct_RisoTree.wikiGenerateContainSpatialID(dbPath, dataset, containIDPath);
+    for (int hop = 0; hop < 3; hop++) {
+      Construct_RisoTree.wikiConstructPNSingleHop(containIDPath, dbPath, graphPath, labelPath,
+          labelStringPath, hop, PNPath, maxPNSize);
+    }
+    Construct_RisoTree.wikiLoadAllHopPN(PNPath, "0,1,2", dbPath, containIDPath);
+
+    service = Neo4jGraphUtility.getDatabaseService(dbPath);
+  }
+
+  private static String existingFile(File dir, String... names) throws IOException {
+    for (String name : names) {
+      File file = new File(dir, name);
+      if (file.exists()) {
+        return file.getPath();
+      }
+    }
+    throw new IOException(String.format("none of %s exists in %s!", String.join(", ", names), dir));
+  }
+
+  public void close() throws IOException {
+    service.shutdown();
+    FileUtils.deleteRecursively(workDir);
+  }
+}
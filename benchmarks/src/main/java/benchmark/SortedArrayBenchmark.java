@@ -0,0 +1,83 @@
+package benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import commons.ArrayUtil;
+import commons.Util;
+
+/**
+ * Sorted id list operations used by the PN construction, maintenance and candidate intersection.
+ * The two inputs are random sorted sets drawn from a range of {@code size / density} ids, so
+ * density controls how much they overlap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SortedArrayBenchmark {
+
+  @Param({"100", "10000", "1000000"})
+  public int size;
+
+  @Param({"0.1", "0.5"})
+  public double density;
+
+  private int[] array1;
+  private int[] array2;
+  private List<Integer> list1;
+  private List<Integer> list2;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(BenchmarkUtil.seed);
+    int range = (int) (size / density);
+    array1 = BenchmarkUtil.randomSortedArray(random, size, range);
+    array2 = BenchmarkUtil.randomSortedArray(random, size, range);
+    list1 = ArrayUtil.intArrayToList(array1);
+    list2 = ArrayUtil.intArrayToList(array2);
+  }
+
+  @Benchmark
+  public int[] sortedArrayMerge() {
+    return Util.sortedArrayMerge(array1, array2);
+  }
+
+  @Benchmark
+  public int[] arraysDifference() {
+    return Util.arraysDifference(array1, array2);
+  }
+
+  @Benchmark
+  public int sortedArraysDifferenceCount() {
+    return Util.sortedArraysDifferenceCount(array1, array2);
+  }
+
+  @Benchmark
+  public List<Integer> sortedListIntersectArray() {
+    return ArrayUtil.sortedListIntersect(list1, array2);
+  }
+
+  @Benchmark
+  public List<Integer> sortedListIntersectList() {
+    return ArrayUtil.sortedListIntersect(list1, list2);
+  }
+
+  @Benchmark
+  public List<Integer> sortedListMerge() {
+    return Util.sortedListMerge(list1, list2);
+  }
+}
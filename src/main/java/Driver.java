@@ -1,3 +1,4 @@
+import java.io.File;
 import java.util.Arrays;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -6,10 +7,15 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import commons.Config;
+import commons.Enums.CacheMode;
 import commons.Enums.ClearCacheMethod;
 import commons.Enums.ExperimentMethod;
+import commons.Enums.LoadMode;
 import commons.GraphUtil;
 import commons.Util;
+import commons.metrics.FileMetricsExporter;
+import commons.metrics.JmxMetricsExporter;
+import dataprocess.HilbertRelabel;
 import dataprocess.OtherDatasets;
 import dataprocess.Wikidata;
 import experiment.Alpha;
@@ -19,29 +25,43 @@ import experiment.ExperimentSpaceSelectivity;
 import experiment.MaintenanceExperiment;
 import experiment.MaxPNSize;
 import experiment.Prepare;
+import experiment.WorkloadReplay;
 import experiment.Join.Distance;
 import experiment.KNN.KCount;
 import experiment.KNN.QueryNodeCount;
 import graph.Construct_RisoTree;
+import graph.EdgeImporter;
+import graph.GridPointIndex;
+import graph.IndexPageCache;
+import graph.IndexWarmUp;
+import graph.LeafPathCache;
 import graph.LoadDataNoOSM;
+import graph.RisoTreeQueryPN;
+import graph.SelectivityStatistics;
+import graph.SpatialFirst_List;
 
 public class Driver {
 
   // function names
   private static enum FunctionName {
     convertSingleToBidirectinalGraph, // data preprocess
-    refineGraphPropertyEdge, // wikidata preprocess
+    refineGraphPropertyEdge, wikiExtractAll, // wikidata preprocess
+    hilbertRelabel, // id locality before loading
 
     tree, containID, // tree construction
     LoadNonSpatialEntity, GetSpatialNodeMap, LoadGraphEdges, loadGraphEdgesNoMap, CalculateCount, LoadAll, // graph
                                                                                                            // load
-    constructPN, loadPN, // PN load
+    parallelLoadGraphEdges, // sorted parallel edge load
+    constructPN, loadPN, loadBloomFilter, // PN load
+    buildReachabilityIndex, // reachability
 
     /**
      * analyze
      */
     getSpatialIndexSize, // rtree spatial index
     getPNSizeDistribution, getPNNonEmptyCount, // PN
+    buildSelectivityStatistics, // predicate selectivity
+    buildGridPointIndex, // point-only layer
     overlapAnalysis, areaAnalysis, treeNodesAvgArea, // area
     degreeSD, degreeAvg, // graph degree
     visualizeLeafNodes,
@@ -50,6 +70,7 @@ public class Driver {
      * for wikidata
      */
     wikidataLoadGraph, wikiLoadEdges, // load graph nodes and edges and spatial attributes
+    wikiParallelLoadEdges, // sorted parallel edge load
     wikisetZeroOneHopPNForSpatialNodes, wikigenerateZeroOneHopPNForSpatialNodes, //
 
     wikiGenerateContainSpatialID, generateSafeNodes, // one time prepare
@@ -74,6 +95,7 @@ public class Driver {
     KCountExperimentSingleMethod, // KNN k count
     multiQueryPathsSingleMethod, // kNN multiple query paths
     joinDistanceSingleMethod, // Join distance
+    workloadReplay, // throughput and latency under load
 
     /**
      * add experiment
@@ -134,6 +156,9 @@ public class Driver {
   private static final String input1 = "input1";
   private static final String input2 = "input2";
 
+  private static final String gridSize = "gridSize";
+  private static final String threadCount = "threadCount";
+
   // Expand spatial label
   private static final String newlabelListString = "newlabelListString";
 
@@ -152,6 +177,33 @@ public class Driver {
   private static final String clearCacheMethod = "clearCacheMethod";
   private static final String kValue = "kValue";// knn
   private static final String joinDistance = "joinDistance";// Join
+  // Workload replay
+  private static final String requestCount = "requestCount";
+  private static final String loadMode = "loadMode";
+  private static final String rate = "rate";
+  private static final String cacheMode = "cacheMode";
+  // simulated index page cache
+  private static final String indexPageCapacity = "indexPageCapacity";
+  private static final String indexPageMissPenalty = "indexPageMissPenalty";
+  private static final String warmUpBudget = "warmUpBudget";
+  private static final String warmUpOnOpen = "warmUpOnOpen";
+  // leaf path cache
+  private static final String leafPathCapacity = "leafPathCapacity";
+  // bloom filters of the ignored PNs
+  private static final String bloomFilter = "bloomFilter";
+  // decoded queries by shape
+  private static final String queryTemplateCache = "queryTemplateCache";
+  // spatial-first
+  private static final String blockBatchSize = "blockBatchSize";
+  // grid point index
+  private static final String gridPointIndexPath = "gridPointIndexPath";
+  // predicate selectivity
+  private static final String statisticsPath = "statisticsPath";
+  // reachability pruning
+  private static final String reachabilityIndexPath = "reachabilityIndexPath";
+  // metrics exporters
+  private static final String metricsPath = "metricsPath";
+  private static final String jmxMetrics = "jmxMetrics";
 
   private static final String ratio = "ratio";
   private static final String edgePath = "edgePath";
@@ -192,6 +244,9 @@ public class Driver {
     options.addOption(inputPath, "inputPath", true, "The input path for analyze");
     options.addOption(input1, "inputPath1", true, "The input 1 for analyze");
     options.addOption(input2, "inputPath2", true, "The input 2 for analyze");
+    options.addOption(gridSize, "gridSize", true,
+        "grid size of the spatial histogram or the grid point index");
+    options.addOption(threadCount, "threadCount", true, "number of worker threads");
 
     // Expand spatial label
     options.addOption(newlabelListString, "newlabelListString", true, "new labels for spatial");
@@ -213,6 +268,35 @@ public class Driver {
     options.addOption(clearCacheMethod, "clearCacheMethod", true, "clearCacheMethod");
     options.addOption(kValue, "kValue", true, "kValue"); // knn
     options.addOption(joinDistance, "joinDistance", true, "joinDistance"); // knn
+    options.addOption(requestCount, "requestCount", true, "number of replayed requests");
+    options.addOption(loadMode, "loadMode", true, "CLOSED or OPEN loop");
+    options.addOption(rate, "rate", true, "arrival rate (queries per second) of the OPEN loop");
+    options.addOption(cacheMode, "cacheMode", true, "WARM, COLD, PRELOAD or INDEX_COLD");
+    options.addOption(warmUpBudget, "warmUpBudget", true, "time budget (ms) of the index warm-up");
+    options.addOption(warmUpOnOpen, "warmUpOnOpen", true,
+        "whether to warm up the index when the query service opens the database");
+    options.addOption(leafPathCapacity, "leafPathCapacity", true,
+        "number of leaf nodes in the leaf path cache of each layer. Enables the cache");
+    options.addOption(bloomFilter, "bloomFilter", true,
+        "whether to filter the leaf candidates by the bloom filters from loadBloomFilter");
+    options.addOption(queryTemplateCache, "queryTemplateCache", true,
+        "whether to reuse the decoded LAGAQ-Range queries of the same shape");
+    options.addOption(blockBatchSize, "blockBatchSize", true,
+        "spatial ids verified by one query of SPATIAL_FIRST. 0 is one query per leaf node");
+    options.addOption(gridPointIndexPath, "gridPointIndexPath", true,
+        "grid point index used instead of the RisoTree for the dataset layer");
+    options.addOption(statisticsPath, "statisticsPath", true,
+        "selectivity statistics used to order the spatial predicates");
+    options.addOption(reachabilityIndexPath, "reachabilityIndexPath", true,
+        "reachability index from buildReachabilityIndex. Requires mapPath of the same graph");
+    options.addOption(metricsPath, "metricsPath", true,
+        "file the phase percentiles are appended to after each workload replay");
+    options.addOption(jmxMetrics, "jmxMetrics", true,
+        "whether to register the phase percentiles as MXBeans after each workload replay");
+    options.addOption(indexPageCapacity, "indexPageCapacity", true,
+        "number of index nodes in the simulated index page cache");
+    options.addOption(indexPageMissPenalty, "indexPageMissPenalty", true,
+        "time (us) charged to each miss of the simulated index page cache");
 
     options.addOption(ratio, "ratio", true, "sampling ratio");
     options.addOption(edgePath, "edgePath", true, "edge path");
@@ -233,6 +317,59 @@ public class Driver {
         help();
       }
 
+      // the index reads go through the simulated page cache for an INDEX cold-cache run
+      if (cmd.hasOption(indexPageCapacity) || cmd.hasOption(indexPageMissPenalty)
+          || ClearCacheMethod.INDEX.name().equals(cmd.getOptionValue(clearCacheMethod))) {
+        RisoTreeQueryPN.indexPageCacheUsed = true;
+        IndexPageCache.defaultCapacity = Integer.parseInt(cmd.getOptionValue(indexPageCapacity,
+            "" + IndexPageCache.defaultCapacity));
+        IndexPageCache.defaultMissPenaltyNanos =
+            Long.parseLong(cmd.getOptionValue(indexPageMissPenalty, "0")) * 1000;
+      }
+      if (cmd.hasOption(leafPathCapacity)) {
+        RisoTreeQueryPN.leafPathCacheUsed = true;
+        LeafPathCache.defaultLeafCapacity =
+            Integer.parseInt(cmd.getOptionValue(leafPathCapacity));
+      }
+      if (cmd.hasOption(bloomFilter)) {
+        RisoTreeQueryPN.bloomFilterUsed = Boolean.parseBoolean(cmd.getOptionValue(bloomFilter));
+      }
+      if (cmd.hasOption(queryTemplateCache)) {
+        RisoTreeQueryPN.queryTemplateCacheUsed =
+            Boolean.parseBoolean(cmd.getOptionValue(queryTemplateCache));
+      }
+      if (cmd.hasOption(warmUpBudget)) {
+        IndexWarmUp.budgetMillis = Long.parseLong(cmd.getOptionValue(warmUpBudget));
+      }
+      if (cmd.hasOption(warmUpOnOpen)) {
+        IndexWarmUp.warmUpOnOpen = Boolean.parseBoolean(cmd.getOptionValue(warmUpOnOpen));
+      }
+      if (cmd.hasOption(blockBatchSize)) {
+        SpatialFirst_List.blockBatchSize = Integer.parseInt(cmd.getOptionValue(blockBatchSize));
+      }
+      if (cmd.hasOption(gridPointIndexPath)) {
+        RisoTreeQueryPN.gridPointIndexes.put(cmd.getOptionValue(dataset),
+            GridPointIndex.read(cmd.getOptionValue(gridPointIndexPath)));
+      }
+      if (cmd.hasOption(statisticsPath)) {
+        SelectivityStatistics statistics =
+            SelectivityStatistics.read(cmd.getOptionValue(statisticsPath));
+        RisoTreeQueryPN.statistics = statistics;
+        SpatialFirst_List.statistics = statistics;
+      }
+      if (cmd.hasOption(reachabilityIndexPath)) {
+        RisoTreeQueryPN.loadReachabilityIndex(cmd.getOptionValue(reachabilityIndexPath),
+            cmd.getOptionValue(mapPath));
+      }
+      if (cmd.hasOption(metricsPath)) {
+        RisoTreeQueryPN.metricsRegistry
+            .addExporter(new FileMetricsExporter(cmd.getOptionValue(metricsPath)));
+      }
+      if (Boolean.parseBoolean(cmd.getOptionValue(jmxMetrics))) {
+        RisoTreeQueryPN.metricsRegistry
+            .addExporter(new JmxMetricsExporter(RisoTreeQueryPN.metricsRegistry));
+      }
+
       if (cmd.hasOption(function)) {
         String functionNameString = cmd.getOptionValue(function);
         FunctionName functionName = getFunctionEnum(functionNameString);
@@ -244,6 +381,20 @@ public class Driver {
             Wikidata.refineGraphPropertyEdge(cmd.getOptionValue(inputPath),
                 cmd.getOptionValue(graphPath), cmd.getOptionValue(outputPath));
             break;
+          case hilbertRelabel:
+            HilbertRelabel.relabel(cmd.getOptionValue(graphPath), cmd.getOptionValue(entityPath),
+                cmd.getOptionValue(labelListPath), cmd.getOptionValue(outputPath));
+            if (cmd.hasOption(dataDir)) {
+              HilbertRelabel.relabelWikidataSideFiles(cmd.getOptionValue(dataDir),
+                  cmd.getOptionValue(outputPath) + File.separator + HilbertRelabel.idMapFileName,
+                  cmd.getOptionValue(outputPath));
+            }
+            break;
+          case wikiExtractAll:
+            new Wikidata(cmd.getOptionValue(dataDir), cmd.getOptionValue(inputPath)).extractAll(
+                Integer.parseInt(cmd.getOptionValue(threadCount,
+                    "" + Runtime.getRuntime().availableProcessors())));
+            break;
           case tree:
             new LoadDataNoOSM(new Config(), true).batchRTreeInsertOneHopAware(
                 cmd.getOptionValue(dbPath), cmd.getOptionValue(dataset),
@@ -273,6 +424,12 @@ public class Driver {
             LoadDataNoOSM.loadGraphEdgesNoMap(cmd.getOptionValue(dbPath),
                 cmd.getOptionValue(graphPath));
             break;
+          case parallelLoadGraphEdges:
+            EdgeImporter.loadGraphEdges(cmd.getOptionValue(mapPath), cmd.getOptionValue(graphPath),
+                cmd.getOptionValue(dbPath), cmd.getOptionValue(outputPath),
+                Integer.parseInt(cmd.getOptionValue(threadCount,
+                    "" + Runtime.getRuntime().availableProcessors())));
+            break;
           case CalculateCount:
             new LoadDataNoOSM(new Config(), true).CalculateCount(cmd.getOptionValue(dbPath),
                 cmd.getOptionValue(dataset));
@@ -301,6 +458,16 @@ public class Driver {
                 Integer.parseInt(cmd.getOptionValue(MAX_HOPNUM)), cmd.getOptionValue(dbPath));
             break;
 
+          case loadBloomFilter:
+            Construct_RisoTree.loadBloomFilter(cmd.getOptionValue(PNPathAndPrefix),
+                Integer.parseInt(cmd.getOptionValue(hop)), cmd.getOptionValue(dbPath));
+            break;
+
+          case buildReachabilityIndex:
+            Analyze.buildReachabilityIndex(cmd.getOptionValue(graphPath),
+                cmd.getOptionValue(outputPath));
+            break;
+
           /**
            * analyze
            */
@@ -312,6 +479,17 @@ public class Driver {
             Analyze.getPNSizeDistribution(cmd.getOptionValue(dbPath), cmd.getOptionValue(dataset),
                 cmd.getOptionValue(outputPath));
             break;
+          case buildGridPointIndex:
+            Analyze.buildGridPointIndex(cmd.getOptionValue(dbPath), cmd.getOptionValue(dataset),
+                Integer.parseInt(cmd.getOptionValue(gridSize, "100")),
+                Integer.parseInt(cmd.getOptionValue(MAX_HOPNUM)),
+                Integer.parseInt(cmd.getOptionValue(maxPNSize)), cmd.getOptionValue(outputPath));
+            break;
+          case buildSelectivityStatistics:
+            Analyze.buildSelectivityStatistics(cmd.getOptionValue(dbPath),
+                cmd.getOptionValue(dataset), Integer.parseInt(cmd.getOptionValue(gridSize, "100")),
+                cmd.getOptionValue(outputPath));
+            break;
           case getPNNonEmptyCount:
             Analyze.getPNNonEmptyCount(cmd.getOptionValue(inputPath),
                 cmd.getOptionValue(outputPath));
@@ -352,6 +530,12 @@ public class Driver {
             Wikidata.loadEdges(cmd.getOptionValue(graphPropertyEdgePath),
                 cmd.getOptionValue(propertyMapPath), cmd.getOptionValue(dbPath));
             break;
+          case wikiParallelLoadEdges:
+            EdgeImporter.loadPropertyEdges(cmd.getOptionValue(graphPropertyEdgePath),
+                cmd.getOptionValue(dbPath), cmd.getOptionValue(outputPath),
+                Integer.parseInt(cmd.getOptionValue(threadCount,
+                    "" + Runtime.getRuntime().availableProcessors())));
+            break;
           case wikisetZeroOneHopPNForSpatialNodes:
             Wikidata.setZeroOneHopPNForSpatialNodes(cmd.getOptionValue(dbPath),
                 cmd.getOptionValue(graphPath), cmd.getOptionValue(labelListPath),
@@ -502,6 +686,18 @@ public class Driver {
                 ClearCacheMethod.valueOf(cmd.getOptionValue(clearCacheMethod)),
                 cmd.getOptionValue(outputPath));
             break;
+          case workloadReplay:
+            WorkloadReplay.replayExperiment(cmd.getOptionValue(dbPath), cmd.getOptionValue(dataset),
+                cmd.getOptionValue(method), Integer.parseInt(cmd.getOptionValue(MAX_HOPNUM)),
+                cmd.getOptionValue(queryPath), Integer.parseInt(cmd.getOptionValue(queryCount)),
+                Integer.parseInt(cmd.getOptionValue(requestCount)),
+                LoadMode.valueOf(cmd.getOptionValue(loadMode)),
+                Integer.parseInt(cmd.getOptionValue(threadCount)),
+                Double.parseDouble(cmd.getOptionValue(rate, "0")),
+                CacheMode.valueOf(cmd.getOptionValue(cacheMode)), cmd.getOptionValue(password),
+                ClearCacheMethod.valueOf(cmd.getOptionValue(clearCacheMethod, "SINGLE")),
+                cmd.getOptionValue(outputPath));
+            break;
           // add prepare one time run
           case convertGraphToEdgeFormat:
             GraphUtil.convertGraphToEdgeFormat(cmd.getOptionValue(graphPath),
@@ -0,0 +1,218 @@
+package bloomfilter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Blocked bloom filter. The bitmap is divided into 512-bit blocks (one 64-byte cache line). A key
+ * is hashed once into 64 bits: the high 32 bits choose the block, and the probes inside that block
+ * are h1 + i * h2 with h1 the low and h2 the high 32 bits, so a membership test touches a single
+ * cache line. The block uses the top bits of the high half while the probes use its low 9 bits.
+ *
+ * Layout of the backing long array (also the on-disk layout, little endian): one header block of 8
+ * longs (numOfHash << 32 | blockCount, elementsCount, 6 reserved) followed by the blocks. The header
+ * takes a whole block so that the blocks are cache-line aligned whenever the buffer itself is, e.g.
+ * a direct or memory-mapped buffer. A filter can be a view over an existing long[] or ByteBuffer
+ * without copying.
+ */
+public class BlockedBloomFilter {
+    public static final int BLOCK_WORDS = 8;
+    public static final int BLOCK_BITS = BLOCK_WORDS * Long.SIZE;
+    public static final int HEADER_WORDS = BLOCK_WORDS;
+    private static final int MAX_NUM_OF_HASH = 16;
+
+    private final LongBuffer words;
+    private final int blockCount;
+    private final int numOfHash;
+    private final int seed;
+
+    /**
+     * Constructor with desired false positive probability. Blocking makes the real false positive
+     * probability slightly higher than {@code fpp}.
+     *
+     * @param elementsCount expected number of elements to be stored
+     * @param fpp desired false positive probability
+     * @param seed hash function seed
+     */
+    public BlockedBloomFilter(int elementsCount, double fpp, int seed) {
+        long bitCount = (long) Math.ceil(-(Math.max(1, elementsCount) * Math.log(fpp))
+                / (Math.pow(Math.log(2), 2)));
+        this.blockCount = (int) Math.max(1, (bitCount + BLOCK_BITS - 1) / BLOCK_BITS);
+        long numOfHash = Math.round(Math.log(2) * blockCount * BLOCK_BITS / Math.max(1, elementsCount));
+        this.numOfHash = (int) Math.max(1, Math.min(MAX_NUM_OF_HASH, numOfHash));
+        this.seed = seed;
+        this.words = LongBuffer.wrap(new long[HEADER_WORDS + blockCount * BLOCK_WORDS]);
+        words.put(0, ((long) this.numOfHash << 32) | blockCount);
+    }
+
+    private BlockedBloomFilter(LongBuffer words, int seed) {
+        this.words = words;
+        this.seed = seed;
+        long header = words.get(0);
+        this.blockCount = (int) header;
+        this.numOfHash = (int) (header >>> 32);
+        if (words.limit() < HEADER_WORDS + (long) blockCount * BLOCK_WORDS) {
+            throw new IllegalArgumentException(String.format(
+                    "buffer has %d longs while %d blocks are required", words.limit(), blockCount));
+        }
+    }
+
+    /**
+     * View over a long array from {@link #toLongArray()} (e.g. a node property). No copy.
+     *
+     * @param longArray
+     * @param seed the seed used when building the filter
+     * @return
+     */
+    public static BlockedBloomFilter wrap(long[] longArray, int seed) {
+        return new BlockedBloomFilter(LongBuffer.wrap(longArray), seed);
+    }
+
+    /**
+     * View over a buffer written by {@link #writeTo(ByteBuffer)}, starting at its current position.
+     * No copy, so a memory-mapped file can be queried directly.
+     *
+     * @param buffer
+     * @param seed the seed used when building the filter
+     * @return
+     */
+    public static BlockedBloomFilter wrap(ByteBuffer buffer, int seed) {
+        ByteBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        return new BlockedBloomFilter(view.asLongBuffer(), seed);
+    }
+
+    public void add(int key) {
+        long hash = Murmur3.hashInt64(key, seed);
+        int offset = getBlockOffset(hash);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numOfHash; i++) {
+            int position = (h1 + i * h2) & (BLOCK_BITS - 1);
+            int index = offset + (position >>> 6);
+            words.put(index, words.get(index) | (1L << position));
+        }
+        words.put(1, words.get(1) + 1);
+    }
+
+    public boolean contains(int key) {
+        long hash = Murmur3.hashInt64(key, seed);
+        return containsHash(getBlockOffset(hash), hash);
+    }
+
+    /**
+     * @param keys
+     * @return whether all the keys might be in the filter
+     */
+    public boolean containsAll(int[] keys) {
+        for (int key : keys) {
+            if (!contains(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Batch membership test. All the hashes are computed before probing so that the block loads of
+     * different keys can overlap.
+     *
+     * @param keys
+     * @return the keys that might be in the filter, in the input order
+     */
+    public int[] filter(int[] keys) {
+        long[] hashes = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            hashes[i] = Murmur3.hashInt64(keys[i], seed);
+        }
+        int[] res = new int[keys.length];
+        int count = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (containsHash(getBlockOffset(hashes[i]), hashes[i])) {
+                res[count++] = keys[i];
+            }
+        }
+        if (count == keys.length) {
+            return res;
+        }
+        int[] trimmed = new int[count];
+        System.arraycopy(res, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    private boolean containsHash(int offset, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < numOfHash; i++) {
+            int position = (h1 + i * h2) & (BLOCK_BITS - 1);
+            if ((words.get(offset + (position >>> 6)) & (1L << position)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Map the high 32 bits to [0, blockCount) by multiply-shift instead of modulo.
+     */
+    private int getBlockOffset(long hash) {
+        int block = (int) (((hash >>> 32) * blockCount) >>> 32);
+        return HEADER_WORDS + block * BLOCK_WORDS;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getNumOfHash() {
+        return numOfHash;
+    }
+
+    public long getElementsCount() {
+        return words.get(1);
+    }
+
+    public int getSizeInBytes() {
+        return (HEADER_WORDS + blockCount * BLOCK_WORDS) * Long.BYTES;
+    }
+
+    /**
+     * @return the backing array if this filter is backed by a whole long array, otherwise a copy.
+     */
+    public long[] toLongArray() {
+        int length = HEADER_WORDS + blockCount * BLOCK_WORDS;
+        if (words.hasArray() && words.arrayOffset() == 0 && words.array().length == length) {
+            return words.array();
+        }
+        long[] longArray = new long[length];
+        for (int i = 0; i < length; i++) {
+            longArray[i] = words.get(i);
+        }
+        return longArray;
+    }
+
+    /**
+     * Write the filter in the on-disk layout at the current position of {@code buffer}.
+     *
+     * @param buffer should have {@link #getSizeInBytes()} remaining
+     */
+    public void writeTo(ByteBuffer buffer) {
+        ByteBuffer view = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        LongBuffer target = view.asLongBuffer();
+        int length = HEADER_WORDS + blockCount * BLOCK_WORDS;
+        for (int i = 0; i < length; i++) {
+            target.put(i, words.get(i));
+        }
+        buffer.position(buffer.position() + length * Long.BYTES);
+    }
+
+    /**
+     * Expected false positive probability treating the filter as a standard one.
+     *
+     * @return
+     */
+    public double getFpp() {
+        long bitCount = (long) blockCount * BLOCK_BITS;
+        return Math.pow(1 - Math.exp(-1.0 * numOfHash * getElementsCount() / bitCount), numOfHash);
+    }
+}
@@ -280,6 +280,19 @@ public class Murmur3 implements MurmurConstants {
         return fmix(h1, Integer.BYTES); // Integer.BYTES is equal to 4
     }
 
+    /**
+     * Compute a 64-bit Murmur3 style hash for a single int value.
+     *
+     * @param value the int value to hash
+     * @param seed  the seed to use for the hash calculation
+     * @return the computed hash value as a long
+     */
+    public static long hashInt64(int value, long seed) {
+        long h1 = seed ^ mixK1(value & 0xFFFFFFFFL);
+        h1 ^= Integer.BYTES;
+        return fmix64(h1);
+    }
+
     private static int mixK1(int k1) {
         k1 *= X86_32_C1;
         k1 = Integer.rotateLeft(k1, 15);
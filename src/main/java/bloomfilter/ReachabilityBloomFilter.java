@@ -1,274 +1,536 @@
 package bloomfilter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
 
+/**
+ * Reachability index with interval and bloom filter labels (GRAIL/BFL style). The graph is first
+ * condensed into a DAG of strongly connected components (SCC). Each SCC keeps:
+ * <ul>
+ * <li>a DFS interval: if the interval of u contains the one of v, u reaches v;</li>
+ * <li>an out label (hashes of the DAG sinks it reaches) and an in label (hashes of the DAG sources
+ * reaching it): if u reaches v, out(v) is a subset of out(u) and in(u) is a subset of in(v).</li>
+ * </ul>
+ * SCC ids are in reverse topological order, so u cannot reach v if id(u) < id(v). A query falls back
+ * to a pruned DFS on the DAG only when all the label tests are inconclusive.
+ *
+ * The index is immutable after construction and safe to be queried by multiple threads. Build it
+ * with the graph in the direction the query traverses, e.g. the bidirectional graph for the
+ * undirected query patterns. On a bidirectional graph the sccs are the connected components and
+ * the DAG has no edge, so reachability degrades to connectivity (see
+ * {@link #isConnectivityOnly()}). Node ids are the graph ids of the graph file, not neo4j ids.
+ */
 public class ReachabilityBloomFilter {
     private static final int K = 5;
-    private static final int D = 320 * K;
-    private static List<Node> nodes = new ArrayList<>();
-    private static int visit_current, cur;
-    private static List<Pair<Pair<Node, Node>, Integer>> queries = new ArrayList<>();
-
-    public static class Node {
-        private int outNodesSize, inNodesSize;
-        private int[] outNodes, inNodes;
-        private int visited;
-        private int[] inLabels = new int[K];
-        private int[] outLabels = new int[K];
-        private Pair<Integer, Integer> labelInterval;
-        private int inHash, outHash;
-
-        // getters, setters, etc.
-        public int getOutboundSize() {
-            return outNodesSize;
+    private static final int LABEL_BITS = K * Integer.SIZE;
+    private static final int SEED = 5000;
+    private static final int VERSION = 1;
+
+    private final int nodeCount;
+    private final int sccCount;
+    // node id -> scc id
+    private final int[] component;
+    // DAG of sccs in CSR format
+    private final int[] dagOffsets;
+    private final int[] dagTargets;
+    private final int[] intervalStart;
+    private final int[] intervalEnd;
+    // K ints for each scc
+    private final int[] inLabels;
+    private final int[] outLabels;
+
+    private final ThreadLocal<VisitState> visitStates = new ThreadLocal<VisitState>() {
+        @Override
+        protected VisitState initialValue() {
+            return new VisitState(sccCount);
         }
-
-        public void setOutboundSize(int n_O_SZ) {
-            outNodesSize = n_O_SZ;
+    };
+
+    /**
+     * Per-thread DFS state, so that queries do not share visit marks.
+     */
+    private static class VisitState {
+        final int[] stamps;
+        int current = 0;
+        int[] stack = new int[64];
+
+        VisitState(int sccCount) {
+            stamps = new int[sccCount];
         }
 
-        public Node() {
-            // Initialize the arrays and other fields
-            outNodes = new int[0];
-            inNodes = new int[0];
-            labelInterval = new Pair<>(-1, -1);
+        int next() {
+            current++;
+            if (current == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                current = 1;
+            }
+            return current;
         }
     }
 
-    public static class Pair<T, U> {
-        T first;
-        U second;
+    private ReachabilityBloomFilter(int nodeCount, int sccCount, int[] component, int[] dagOffsets,
+                                    int[] dagTargets, int[] intervalStart, int[] intervalEnd, int[] inLabels,
+                                    int[] outLabels) {
+        this.nodeCount = nodeCount;
+        this.sccCount = sccCount;
+        this.component = component;
+        this.dagOffsets = dagOffsets;
+        this.dagTargets = dagTargets;
+        this.intervalStart = intervalStart;
+        this.intervalEnd = intervalEnd;
+        this.inLabels = inLabels;
+        this.outLabels = outLabels;
+    }
 
-        public Pair(T first, U second) {
-            this.first = first;
-            this.second = second;
+    /**
+     * Build from the adjacency list graph read by {@code GraphUtil.ReadGraph}.
+     *
+     * @param graph out neighbors of each node
+     * @return
+     */
+    public static ReachabilityBloomFilter build(List<? extends List<Integer>> graph) {
+        int n = graph.size();
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            offsets[i + 1] = offsets[i] + graph.get(i).size();
         }
-
-        public T getFirst() {
-            return first;
+        int[] targets = new int[offsets[n]];
+        for (int i = 0; i < n; i++) {
+            int pos = offsets[i];
+            for (int neighbor : graph.get(i)) {
+                targets[pos++] = neighbor;
+            }
         }
+        return build(offsets, targets);
+    }
 
-        public void setFirst(T first) {
-            this.first = first;
+    /**
+     * Build from a CSR graph.
+     *
+     * @param offsets out edges of node i are targets[offsets[i]...offsets[i+1]-1]
+     * @param targets
+     * @return
+     */
+    public static ReachabilityBloomFilter build(int[] offsets, int[] targets) {
+        int n = offsets.length - 1;
+        int[] component = new int[n];
+        int sccCount = tarjan(offsets, targets, component);
+
+        // DAG of sccs
+        int[] dagOffsets = new int[sccCount + 1];
+        for (int u = 0; u < n; u++) {
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                if (component[u] != component[targets[i]]) {
+                    dagOffsets[component[u] + 1]++;
+                }
+            }
         }
-
-        public U getSecond() {
-            return second;
+        for (int c = 0; c < sccCount; c++) {
+            dagOffsets[c + 1] += dagOffsets[c];
+        }
+        int[] dagTargets = new int[dagOffsets[sccCount]];
+        int[] fillPos = Arrays.copyOf(dagOffsets, sccCount);
+        int[] inDegree = new int[sccCount];
+        for (int u = 0; u < n; u++) {
+            for (int i = offsets[u]; i < offsets[u + 1]; i++) {
+                int cu = component[u], cv = component[targets[i]];
+                if (cu != cv) {
+                    dagTargets[fillPos[cu]++] = cv;
+                    inDegree[cv]++;
+                }
+            }
         }
 
-        public void setSecond(U second) {
-            this.second = second;
+        // Tarjan ids are in reverse topological order: every DAG edge goes to a smaller id.
+        int[] outLabels = new int[sccCount * K];
+        for (int c = 0; c < sccCount; c++) {
+            if (dagOffsets[c] == dagOffsets[c + 1]) {
+                setLabelBit(outLabels, c, c);
+            }
+            for (int i = dagOffsets[c]; i < dagOffsets[c + 1]; i++) {
+                unionLabel(outLabels, c, dagTargets[i]);
+            }
+        }
+        int[] inLabels = new int[sccCount * K];
+        for (int c = sccCount - 1; c >= 0; c--) {
+            if (inDegree[c] == 0) {
+                setLabelBit(inLabels, c, c);
+            }
+            for (int i = dagOffsets[c]; i < dagOffsets[c + 1]; i++) {
+                unionLabel(inLabels, dagTargets[i], c);
+            }
         }
-    }
 
-    public static void read_graph(String filename) {
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(filename));
-            String header = br.readLine();
-            int n = Integer.parseInt(br.readLine());
-            nodes = new ArrayList<>(n);
-            List<List<Integer>> outNodes = new ArrayList<>(n), inNodes = new ArrayList<>(n);
+        int[] intervalStart = new int[sccCount];
+        int[] intervalEnd = new int[sccCount];
+        assignIntervals(dagOffsets, dagTargets, inDegree, intervalStart, intervalEnd);
 
-            for (int i = 0; i < n; i++) {
-                nodes.add(new Node());
-                outNodes.add(new ArrayList<>());
-                inNodes.add(new ArrayList<>());
-            }
+        return new ReachabilityBloomFilter(n, sccCount, component, dagOffsets, dagTargets,
+                intervalStart, intervalEnd, inLabels, outLabels);
+    }
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(" ");
-                int u = Integer.parseInt(parts[0]);
-                for (int i = 1; i < parts.length; i++) {
-                    int v = Integer.parseInt(parts[i]);
-                    outNodes.get(u).add(v);
-                    inNodes.get(v).add(u);
+    /**
+     * Iterative Tarjan algorithm.
+     *
+     * @return the number of sccs
+     */
+    private static int tarjan(int[] offsets, int[] targets, int[] component) {
+        int n = component.length;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] edgePos = new int[n];
+        int[] callStack = new int[n];
+        int[] sccStack = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+        int counter = 0, sccCount = 0, callTop = 0, sccTop = 0;
+
+        for (int s = 0; s < n; s++) {
+            if (index[s] != -1) {
+                continue;
+            }
+            index[s] = low[s] = counter++;
+            edgePos[s] = offsets[s];
+            callStack[callTop++] = s;
+            sccStack[sccTop++] = s;
+            onStack[s] = true;
+            while (callTop > 0) {
+                int v = callStack[callTop - 1];
+                if (edgePos[v] < offsets[v + 1]) {
+                    int w = targets[edgePos[v]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        edgePos[w] = offsets[w];
+                        callStack[callTop++] = w;
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                callTop--;
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = sccStack[--sccTop];
+                        onStack[w] = false;
+                        component[w] = sccCount;
+                    } while (w != v);
+                    sccCount++;
+                }
+                if (callTop > 0) {
+                    int u = callStack[callTop - 1];
+                    low[u] = Math.min(low[u], low[v]);
                 }
             }
+        }
+        return sccCount;
+    }
 
-            for (int u = 0; u < n; u++) {
-                Node node = nodes.get(u);
-                node.outNodesSize = outNodes.get(u).size();
-                node.outNodes = outNodes.get(u).stream().mapToInt(i -> i).toArray();
-                node.inNodesSize = inNodes.get(u).size();
-                node.inNodes = inNodes.get(u).stream().mapToInt(i -> i).toArray();
+    /**
+     * Iterative DFS from the DAG sources. [start, end) of a descendant is inside the one of its
+     * ancestor in the DFS tree.
+     */
+    private static void assignIntervals(int[] dagOffsets, int[] dagTargets, int[] inDegree,
+                                        int[] intervalStart, int[] intervalEnd) {
+        int sccCount = inDegree.length;
+        Arrays.fill(intervalStart, -1);
+        int[] edgePos = new int[sccCount];
+        int[] stack = new int[sccCount];
+        int counter = 0;
+        for (int s = sccCount - 1; s >= 0; s--) {
+            if (inDegree[s] != 0 || intervalStart[s] != -1) {
+                continue;
+            }
+            int top = 0;
+            stack[top++] = s;
+            intervalStart[s] = counter++;
+            edgePos[s] = dagOffsets[s];
+            while (top > 0) {
+                int v = stack[top - 1];
+                if (edgePos[v] < dagOffsets[v + 1]) {
+                    int w = dagTargets[edgePos[v]++];
+                    if (intervalStart[w] == -1) {
+                        intervalStart[w] = counter++;
+                        edgePos[w] = dagOffsets[w];
+                        stack[top++] = w;
+                    }
+                    continue;
+                }
+                intervalEnd[v] = counter;
+                top--;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    // Random number generator
-    private static final Random random = new Random();
-
-    // inHash method
-    private static int inHashCounter = 0;
-    private static int inHashValue = random.nextInt(Integer.MAX_VALUE);
+    private static void setLabelBit(int[] labels, int c, int key) {
+        int bit = (Murmur3.hashInt(key, SEED) & Integer.MAX_VALUE) % LABEL_BITS;
+        labels[c * K + bit / Integer.SIZE] |= 1 << (bit % Integer.SIZE);
+    }
 
-    private static int inHash() {
-        int n = nodes.size();
-        if (inHashCounter >= n / D) {
-            inHashCounter = 0;
-            inHashValue = random.nextInt(Integer.MAX_VALUE);
+    private static void unionLabel(int[] labels, int target, int source) {
+        for (int j = 0; j < K; j++) {
+            labels[target * K + j] |= labels[source * K + j];
         }
-        inHashCounter++;
-        return inHashValue;
     }
 
-
-    private static int outHashCounter = 0;
-    private static int outHashValue = random.nextInt(Integer.MAX_VALUE);
-
-    private static int outHash() {
-        int n = nodes.size();
-        if (outHashCounter >= n / D) {
-            outHashCounter = 0;
-            outHashValue = random.nextInt(Integer.MAX_VALUE);
+    /**
+     * Whether there is a directed path from u to v.
+     *
+     * @param u node id
+     * @param v node id
+     * @return
+     */
+    public boolean reach(int u, int v) {
+        checkNode(u);
+        checkNode(v);
+        int cu = component[u], cv = component[v];
+        if (cu == cv) {
+            return true;
+        }
+        Boolean decision = decide(cu, cv);
+        if (decision != null) {
+            return decision;
         }
-        outHashCounter++;
-        return outHashValue;
+        return search(cu, cv);
     }
 
-
-    // dfs_in method
-    private static void dfs_in(Node u) {
-        u.visited = visit_current;
-        if (u.inNodesSize == 0) {
-            int hu = inHash();
-            u.inLabels[(hu >> 5) % K] |= 1 << (hu & 31);
-        } else {
-            for (int i = 0; i < K; i++) {
-                u.inLabels[i] = 0;
-            }
-            for (int i = 0; i < u.inNodesSize; i++) {
-                Node v = nodes.get(u.inNodes[i]);
-                if (v.visited != visit_current) {
-                    dfs_in(v);
-                }
-                for (int j = 0; j < K; j++) {
-                    u.inLabels[j] |= v.inLabels[j];
-                }
+    /**
+     * @param u
+     * @param targets
+     * @return whether u reaches any of {@code targets}
+     */
+    public boolean reachAny(int u, int[] targets) {
+        for (int v : targets) {
+            if (reach(u, v)) {
+                return true;
             }
         }
+        return false;
     }
 
+    /**
+     * @param v
+     * @param sources
+     * @return whether any of {@code sources} reaches v
+     */
+    public boolean reachedByAny(int v, int[] sources) {
+        for (int u : sources) {
+            if (reach(u, v)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-    private static void dfs_out(Node u) {
-        u.visited = visit_current;
-        u.labelInterval.setFirst(cur++);
-        if (u.outNodesSize == 0) {
-            int hu = outHash();
-            u.outLabels[(hu >> 5) % K] |= (1 << (hu & 31));
-        } else {
-            for (int i = 0; i < K; i++) {
-                u.outLabels[i] = 0;
+    /**
+     * Decide by labels only.
+     *
+     * @return null if the labels cannot decide
+     */
+    private Boolean decide(int cu, int cv) {
+        if (cu < cv) {
+            return false;
+        }
+        if (intervalStart[cu] <= intervalStart[cv] && intervalEnd[cv] <= intervalEnd[cu]) {
+            return true;
+        }
+        for (int j = 0; j < K; j++) {
+            if ((outLabels[cv * K + j] & ~outLabels[cu * K + j]) != 0
+                    || (inLabels[cu * K + j] & ~inLabels[cv * K + j]) != 0) {
+                return false;
             }
-            for (int i = 0; i < u.outNodesSize; i++) {
-                Node v = nodes.get(u.outNodes[i]);
-                if (v.visited != visit_current) {
-                    dfs_out(v);
+        }
+        return null;
+    }
+
+    /**
+     * DFS on the DAG pruned by the labels.
+     */
+    private boolean search(int cu, int cv) {
+        VisitState state = visitStates.get();
+        int stamp = state.next();
+        int top = 0;
+        state.stack[top++] = cu;
+        state.stamps[cu] = stamp;
+        while (top > 0) {
+            int c = state.stack[--top];
+            for (int i = dagOffsets[c]; i < dagOffsets[c + 1]; i++) {
+                int w = dagTargets[i];
+                if (state.stamps[w] == stamp) {
+                    continue;
                 }
-                for (int j = 0; j < K; j++) {
-                    u.outLabels[j] |= v.outLabels[j];
+                state.stamps[w] = stamp;
+                if (w == cv) {
+                    return true;
+                }
+                Boolean decision = decide(w, cv);
+                if (decision == null) {
+                    if (top == state.stack.length) {
+                        state.stack = Arrays.copyOf(state.stack, top * 2);
+                    }
+                    state.stack[top++] = w;
+                } else if (decision) {
+                    return true;
                 }
             }
         }
-        u.labelInterval.setSecond(cur);
+        return false;
     }
 
+    private void checkNode(int id) {
+        if (id < 0 || id >= nodeCount) {
+            throw new IllegalArgumentException(
+                    String.format("node %d is out of range [0, %d)", id, nodeCount));
+        }
+    }
 
-    public static void index_construction() {
-        long start_at = System.currentTimeMillis();
+    public int getNodeCount() {
+        return nodeCount;
+    }
 
-        visit_current++;
-        for (Node u : nodes) {
-            if (u.outNodesSize == 0) {
-                dfs_in(u);
-            }
-        }
-        visit_current++;
-        cur = 0;
-        for (Node u : nodes) {
-            if (u.inNodesSize == 0) {
-                dfs_out(u);
-            }
-        }
+    public int getSccCount() {
+        return sccCount;
+    }
 
-        long end_at = System.currentTimeMillis();
-        System.out.printf("index time: %.3fs\n", (end_at - start_at) / 1000.0);
-        // Calculate and print index size
-        long index_size = 0;
-        for (Node u : nodes) {
-            index_size += (u.inNodesSize == 0) ? Integer.BYTES : u.inLabels.length * Integer.BYTES;
-            index_size += (u.outNodesSize == 0) ? Integer.BYTES : u.outLabels.length * Integer.BYTES;
-            index_size += Integer.BYTES * 2; // L_interval의 크기
-        }
-        System.out.printf("index space: %.3fMB\n", index_size / (1024.0 * 1024.0));
+    /**
+     * @param u node id
+     * @return the scc id of u
+     */
+    public int getComponent(int u) {
+        checkNode(u);
+        return component[u];
     }
 
-    public static void read_queries(String filename) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] parts = line.split(" ");
-                Node u = nodes.get(Integer.parseInt(parts[0]));
-                Node v = nodes.get(Integer.parseInt(parts[1]));
-                int r = Integer.parseInt(parts[2]);
-                queries.add(new Pair<>(new Pair<>(u, v), r));
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Whether the DAG of sccs has no edge, e.g. for a bidirectional graph whose sccs are its
+     * connected components. Then u reaches v if and only if they are in the same scc, and
+     * {@link #getComponent(int)} answers the query without the labels.
+     *
+     * @return
+     */
+    public boolean isConnectivityOnly() {
+        return dagTargets.length == 0;
     }
 
-    public static void run_queries() {
-        // Implement the logic to run queries
-        for (Pair<Pair<Node, Node>, Integer> query : queries) {
-            Node u = query.first.first;
-            Node v = query.first.second;
-            visit_current++;
-            boolean result = reach(u, v);
-            query.second = result ? 1 : 0;
+    /**
+     * @return index size in bytes
+     */
+    public long getSize() {
+        return 4L * (component.length + dagOffsets.length + dagTargets.length + intervalStart.length
+                + intervalEnd.length + inLabels.length + outLabels.length);
+    }
+
+    public void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(path), 1 << 20))) {
+            out.writeInt(VERSION);
+            out.writeInt(K);
+            out.writeInt(nodeCount);
+            out.writeInt(sccCount);
+            for (int[] array : new int[][] {component, dagOffsets, dagTargets, intervalStart,
+                    intervalEnd, inLabels, outLabels}) {
+                out.writeInt(array.length);
+                for (int value : array) {
+                    out.writeInt(value);
+                }
+            }
         }
     }
 
-    public static boolean reach(Node u, Node v) {
-        if (u.labelInterval.first <= v.labelInterval.first && u.labelInterval.second >= v.labelInterval.second) {
-            return true;
+    public static ReachabilityBloomFilter read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(path), 1 << 20))) {
+            int version = in.readInt();
+            int k = in.readInt();
+            if (version != VERSION || k != K) {
+                throw new IOException(
+                        String.format("%s has version %d and K %d, expect %d and %d", path, version, k,
+                                VERSION, K));
+            }
+            int nodeCount = in.readInt();
+            int sccCount = in.readInt();
+            int[][] arrays = new int[7][];
+            for (int i = 0; i < arrays.length; i++) {
+                arrays[i] = new int[in.readInt()];
+                for (int j = 0; j < arrays[i].length; j++) {
+                    arrays[i][j] = in.readInt();
+                }
+            }
+            return new ReachabilityBloomFilter(nodeCount, sccCount, arrays[0], arrays[1], arrays[2],
+                    arrays[3], arrays[4], arrays[5], arrays[6]);
         }
+    }
 
-        for (int i = 0; i < u.outNodesSize; i++) {
-            Node w = nodes.get(u.outNodes[i]);
-            if (w.visited != visit_current) {
-                w.visited = visit_current;
-                if (reach(w, v)) {
-                    return true;
+    /**
+     * Read the graph file in the format of the original program: a header line, the node count, then
+     * "u v1 v2 ..." lines of out neighbors.
+     *
+     * @param filename
+     * @return
+     * @throws IOException
+     */
+    public static List<List<Integer>> readGraphFile(String filename) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            br.readLine();
+            int n = Integer.parseInt(br.readLine().trim());
+            List<List<Integer>> graph = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                graph.add(new ArrayList<>());
+            }
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts[0].isEmpty()) {
+                    continue;
+                }
+                int u = Integer.parseInt(parts[0]);
+                for (int i = 1; i < parts.length; i++) {
+                    graph.get(u).add(Integer.parseInt(parts[i]));
                 }
             }
+            return graph;
         }
-        return false;
     }
 
-    // Main method
-    public static void main(String[] args) {
-        // Ensure that args contain necessary file names
+    public static void main(String[] args) throws IOException {
         if (args.length < 2) {
-            System.err.println("Usage: BloomFilter <graphFile> <queryFile>");
+            System.err.println("Usage: ReachabilityBloomFilter <graphFile> <queryFile>");
             return;
         }
 
-        read_graph(args[0]);
-        index_construction();
-        read_queries(args[1]);
-        run_queries();
-        // Implement any additional logic as required
-    }
+        long start = System.currentTimeMillis();
+        ReachabilityBloomFilter index = build(readGraphFile(args[0]));
+        System.out.printf("index time: %.3fs\n", (System.currentTimeMillis() - start) / 1000.0);
+        System.out.printf("index space: %.3fMB\n", index.getSize() / (1024.0 * 1024.0));
 
-    // Other utility methods as needed
+        // query lines: u v expected
+        int count = 0, wrong = 0;
+        start = System.currentTimeMillis();
+        try (BufferedReader br = new BufferedReader(new FileReader(args[1]))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(" ");
+                boolean result =
+                        index.reach(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+                if (parts.length > 2 && result != (Integer.parseInt(parts[2]) == 1)) {
+                    wrong++;
+                }
+                count++;
+            }
+        }
+        System.out.printf("%d queries, %d wrong, query time: %.3fs\n", count, wrong,
+                (System.currentTimeMillis() - start) / 1000.0);
+    }
 }
-
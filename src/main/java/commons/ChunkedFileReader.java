@@ -0,0 +1,145 @@
+package commons;
+
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parallel reading of a large text file. The file is split into line-aligned chunks that are
+ * memory-mapped and parsed by a thread pool, while the results are consumed on the calling thread
+ * in file order.
+ */
+public class ChunkedFileReader {
+
+  public static final long defaultChunkSize = 64L * 1024 * 1024;
+
+  /**
+   * Parse the lines of a chunk. Called by the worker threads.
+   */
+  public interface ChunkParser<T> {
+    T parse(List<String> lines) throws Exception;
+  }
+
+  /**
+   * Consume the result of a chunk. Called by the calling thread in file order.
+   */
+  public interface ChunkConsumer<T> {
+    void accept(T result) throws Exception;
+  }
+
+  /**
+   * Parse all the chunks of a file in parallel and consume the results in order. At most
+   * {@code 2 * threadCount} chunks are in flight so memory does not depend on the file size.
+   *
+   * @param path
+   * @param chunkSize bytes of a chunk, less than 2GB
+   * @param threadCount
+   * @param parser
+   * @param consumer
+   * @return number of chunks
+   * @throws Exception
+   */
+  public static <T> int process(String path, long chunkSize, int threadCount,
+      ChunkParser<T> parser, ChunkConsumer<T> consumer) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    try (RandomAccessFile file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel()) {
+      List<Long> boundaries = getChunkBoundaries(channel, chunkSize);
+      int chunkCount = boundaries.size() - 1;
+      Deque<Future<T>> pending = new ArrayDeque<>();
+      int next = 0;
+      while (next < chunkCount || !pending.isEmpty()) {
+        while (next < chunkCount && pending.size() < threadCount * 2) {
+          long start = boundaries.get(next), end = boundaries.get(next + 1);
+          pending.add(executor.submit(() -> parser.parse(readLines(channel, start, end))));
+          next++;
+        }
+        consumer.accept(pending.poll().get());
+      }
+      return chunkCount;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Split the file into chunks of about {@code chunkSize} bytes. Each boundary is right after a
+   * '\n', so every line is entirely in one chunk.
+   *
+   * @param channel
+   * @param chunkSize
+   * @return the boundaries, starting with 0 and ending with the file size
+   * @throws Exception
+   */
+  public static List<Long> getChunkBoundaries(FileChannel channel, long chunkSize)
+      throws Exception {
+    long size = channel.size();
+    List<Long> boundaries = new ArrayList<>();
+    boundaries.add(0L);
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    long position = chunkSize;
+    while (position < size) {
+      long boundary = size;
+      long scan = position;
+      search: while (scan < size) {
+        buffer.clear();
+        int read = channel.read(buffer, scan);
+        if (read <= 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          if (buffer.get(i) == '\n') {
+            boundary = scan + i + 1;
+            break search;
+          }
+        }
+        scan += read;
+      }
+      if (boundary < size) {
+        boundaries.add(boundary);
+      }
+      position = boundary + chunkSize;
+    }
+    boundaries.add(size);
+    return boundaries;
+  }
+
+  /**
+   * Read the non-empty lines in [start, end) without the line terminators.
+   *
+   * @param channel
+   * @param start
+   * @param end
+   * @return
+   * @throws Exception
+   */
+  public static List<String> readLines(FileChannel channel, long start, long end)
+      throws Exception {
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    CharBuffer chars = StandardCharsets.UTF_8.decode(buffer);
+    List<String> lines = new ArrayList<>();
+    int lineStart = 0;
+    int length = chars.length();
+    for (int i = 0; i <= length; i++) {
+      if (i < length && chars.get(i) != '\n') {
+        continue;
+      }
+      int lineEnd = i > lineStart && chars.get(i - 1) == '\r' ? i - 1 : i;
+      if (lineEnd > lineStart) {
+        lines.add(chars.subSequence(lineStart, lineEnd).toString());
+      }
+      lineStart = i + 1;
+    }
+    return lines;
+  }
+}
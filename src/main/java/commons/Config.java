@@ -28,6 +28,12 @@ public class Config {
   public final static String PNPrefix = "PN";
   public final static String PNSizePrefix = "PNSize";
   public final static String PNSeparator = "_";
+  /**
+   * Bloom filter of an ignored PN is stored as BF_... with the same suffix as PN_...
+   */
+  public final static String BFPrefix = "BF";
+  public final static int bloomFilterSeed = 5000;
+  public final static double bloomFilterFpp = 0.05;
   public final static String BBoxName = "bbox";
   public final static int graphNodeCount = 47116657;
   public final static int logInterval = 5000000;
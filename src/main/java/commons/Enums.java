@@ -17,12 +17,33 @@ public class Enums {
     wikidata, wikidata_2, wikidata_100,
   }
 
+  /**
+   * SINGLE and DOUBLE drop the OS page cache with sudo. INDEX only resets the simulated index page
+   * cache (graph.IndexPageCache), so neither a password nor a database restart is needed.
+   */
   public static enum ClearCacheMethod {
-    SINGLE, DOUBLE, NULL,
+    SINGLE, DOUBLE, NULL, INDEX,
+  }
+
+  /**
+   * CLOSED: each client issues its next query when the previous one returns. OPEN: queries arrive
+   * at a fixed rate no matter how many are running.
+   */
+  public static enum LoadMode {
+    CLOSED, OPEN,
+  }
+
+  /**
+   * WARM: replay the queries once before measuring. COLD: drop the OS page cache before opening
+   * the database. PRELOAD: clear the cache as COLD and preload the index (graph.IndexWarmUp) after
+   * opening the database. INDEX_COLD: start from an empty simulated index page cache.
+   */
+  public static enum CacheMode {
+    WARM, COLD, PRELOAD, INDEX_COLD,
   }
 
   public static enum ExperimentMethod {
-    NAIVE, RISOTREE, SPATIAL_FIRST,
+    NAIVE, RISOTREE, SPATIAL_FIRST, COST_BASED,
   }
 
   public static enum QueryType {
@@ -32,6 +53,20 @@ public class Enums {
   public static enum QueryStatistic {
     check_path_time, get_iterator_time, iterate_time, set_label_time, remove_label_time, result_count, overlap_leaf_node_count, candidate_count, run_time, page_hit_count, check_paths_time, visit_spatial_object_count, check_overlap_time, /////
     spatial_time, graph_time, overlap_object_count,
+    bloom_filter_check_count, bloom_filter_pass_count, bloom_filter_false_positive_estimate,
+  }
+
+  /**
+   * Phases traced in nanoseconds by {@link commons.metrics.PhaseTrace}. Phases may nest, e.g., the
+   * path_check of the visited R-tree nodes is within range_traversal.
+   */
+  public static enum QueryPhase {
+    decode, range_traversal, path_check, candidate_intersection, verification, set_label,
+    remove_label, total,
+  }
+
+  public static enum MaintenancePhase {
+    get_graph_node_pn, convert_id, update_pn, update_safe_nodes, create_edge, total,
   }
 
   public static enum MaintenanceStatistic {
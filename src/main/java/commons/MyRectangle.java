@@ -69,6 +69,21 @@ public class MyRectangle {
       return null;
   }
 
+  /**
+   * Whether {@code rectangle} is fully inside this rectangle (boundary included).
+   *
+   * @param rectangle
+   * @return
+   */
+  public boolean contains(MyRectangle rectangle) {
+    return min_x <= rectangle.min_x && min_y <= rectangle.min_y && rectangle.max_x <= max_x
+        && rectangle.max_y <= max_y;
+  }
+
+  public boolean contains(MyPoint point) {
+    return min_x <= point.x && point.x <= max_x && min_y <= point.y && point.y <= max_y;
+  }
+
   public boolean isSame(MyRectangle other) {
     double epsilon = Math.pow(0.1, 12);
     return Math.abs(min_x - other.min_x) < epsilon && Math.abs(min_y - other.min_y) < epsilon
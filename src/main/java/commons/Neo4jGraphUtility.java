@@ -13,11 +13,29 @@ import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import org.neo4j.graphdb.factory.GraphDatabaseSettings;
+import org.neo4j.kernel.NeoStoreDataSource;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 
 public class Neo4jGraphUtility {
 
   private static final Logger LOGGER = Logger.getLogger(Neo4jGraphUtility.class.getName());
 
+  /**
+   * Get the key of a database for the caches that must not be shared by databases. A procedure
+   * gets a new GraphDatabaseService for each call, so the service itself cannot be the key. The
+   * data source is shared by all the services of a database and replaced when it restarts.
+   *
+   * @param service
+   * @return
+   */
+  public static Object getDatabaseKey(GraphDatabaseService service) {
+    if (service instanceof GraphDatabaseAPI) {
+      return ((GraphDatabaseAPI) service).getDependencyResolver()
+          .resolveDependency(NeoStoreDataSource.class);
+    }
+    return service;
+  }
+
   /**
    * Check if a label is spatial by checking whether the first node found using {@code findNodes} is
    * a spatial node or not. It is not an accurate logic but is enough for generating query graph for
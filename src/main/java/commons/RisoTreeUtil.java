@@ -14,6 +14,10 @@ public class RisoTreeUtil {
     return StringUtils.replace(PNName, Config.PNPrefix, Config.PNSizePrefix, 1);
   }
 
+  public static String getBFName(String PNName) {
+    return StringUtils.replace(PNName, Config.PNPrefix, Config.BFPrefix, 1);
+  }
+
   public static String getAttachName(String prefix, String attachment) {
     return prefix + "_" + attachment;
   }
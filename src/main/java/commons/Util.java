@@ -940,8 +940,16 @@ public class Util {
   }
 
 
+  /**
+   * Switch off the progress output of {@link #println(Object)}, e.g., when many queries run
+   * concurrently and the synchronized System.out would serialize them.
+   */
+  public static volatile boolean printEnabled = true;
+
   public static void println(Object o) {
-    System.out.println(o);
+    if (printEnabled) {
+      System.out.println(o);
+    }
   }
 
   /**
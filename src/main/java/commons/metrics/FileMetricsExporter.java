@@ -0,0 +1,45 @@
+package commons.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Append each snapshot to a local tab-separated file, one line per metric. The header is written
+ * when the file is created.
+ */
+public class FileMetricsExporter implements MetricsExporter {
+
+  private final String outputPath;
+
+  public FileMetricsExporter(String outputPath) {
+    this.outputPath = outputPath;
+  }
+
+  @Override
+  public synchronized void export(Map<String, Histogram> histograms) throws Exception {
+    boolean exists = new File(outputPath).exists();
+    long timestamp = System.currentTimeMillis();
+    try (FileWriter writer = new FileWriter(outputPath, true)) {
+      if (!exists) {
+        writer.write(
+            "timestamp\tname\t" + String.join("\t", MetricsRegistry.summaryColumns) + "\n");
+      }
+      for (String name : histograms.keySet()) {
+        double[] summary = MetricsRegistry.summarize(histograms.get(name));
+        StringBuilder line = new StringBuilder();
+        line.append(timestamp).append("\t").append(name).append("\t").append((long) summary[0]);
+        for (int i = 1; i < summary.length; i++) {
+          line.append("\t").append(String.format("%.3f", summary[i]));
+        }
+        writer.write(line.append("\n").toString());
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FileMetricsExporter(" + outputPath + ")";
+  }
+}
@@ -0,0 +1,21 @@
+package commons.metrics;
+
+/**
+ * A histogram of {@link MetricsRegistry} exposed through JMX. The times are in microseconds.
+ */
+public interface HistogramMXBean {
+
+  long getCount();
+
+  double getMean();
+
+  double getP50();
+
+  double getP90();
+
+  double getP99();
+
+  double getP999();
+
+  double getMax();
+}
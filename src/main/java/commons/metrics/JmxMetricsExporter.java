@@ -0,0 +1,117 @@
+package commons.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Register an MXBean 'risotree:type=Metrics,name={metric}' for each metric in the platform MBean
+ * server, e.g., to watch the p99 of a phase in JConsole. The beans read the registry when they are
+ * queried; an export only registers the metrics that appear after the previous one.
+ */
+public class JmxMetricsExporter implements MetricsExporter {
+
+  public static final String domain = "risotree";
+
+  private final MetricsRegistry registry;
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private final Set<ObjectName> registered = new HashSet<>();
+
+  public JmxMetricsExporter(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public synchronized void export(Map<String, Histogram> histograms) throws Exception {
+    for (String name : histograms.keySet()) {
+      ObjectName objectName = getObjectName(name);
+      if (registered.contains(objectName)) {
+        continue;
+      }
+      if (!server.isRegistered(objectName)) {
+        server.registerMBean(
+            new StandardMBean(new HistogramBean(registry, name), HistogramMXBean.class, true),
+            objectName);
+      }
+      registered.add(objectName);
+    }
+  }
+
+  /**
+   * Unregister the beans registered by this exporter.
+   *
+   * @throws Exception
+   */
+  public synchronized void close() throws Exception {
+    for (ObjectName objectName : registered) {
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+    }
+    registered.clear();
+  }
+
+  public static ObjectName getObjectName(String name) throws Exception {
+    return new ObjectName(domain + ":type=Metrics,name=" + ObjectName.quote(name));
+  }
+
+  @Override
+  public String toString() {
+    return "JmxMetricsExporter(" + domain + ")";
+  }
+
+  private static class HistogramBean implements HistogramMXBean {
+    private final MetricsRegistry registry;
+    private final String name;
+
+    HistogramBean(MetricsRegistry registry, String name) {
+      this.registry = registry;
+      this.name = name;
+    }
+
+    private double summary(int column) {
+      Histogram histogram = registry.getHistogram(name);
+      return histogram == null ? 0 : MetricsRegistry.summarize(histogram)[column];
+    }
+
+    @Override
+    public long getCount() {
+      return (long) summary(0);
+    }
+
+    @Override
+    public double getMean() {
+      return summary(1);
+    }
+
+    @Override
+    public double getP50() {
+      return summary(2);
+    }
+
+    @Override
+    public double getP90() {
+      return summary(3);
+    }
+
+    @Override
+    public double getP99() {
+      return summary(4);
+    }
+
+    @Override
+    public double getP999() {
+      return summary(5);
+    }
+
+    @Override
+    public double getMax() {
+      return summary(6);
+    }
+  }
+}
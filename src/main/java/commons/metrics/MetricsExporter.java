@@ -0,0 +1,16 @@
+package commons.metrics;
+
+import java.util.Map;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Destination of the {@link MetricsRegistry} snapshots.
+ */
+public interface MetricsExporter {
+
+  /**
+   * @param histograms metric name -> histogram of nanoseconds. Owned by the exporter.
+   * @throws Exception
+   */
+  void export(Map<String, Histogram> histograms) throws Exception;
+}
@@ -0,0 +1,110 @@
+package commons.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Named HDR histograms of nanosecond timings. Recording is lock-free and can be done by the
+ * concurrent request contexts. The snapshots are pushed to the registered exporters by
+ * {@link #export()}.
+ */
+public class MetricsRegistry {
+
+  private static final Logger LOGGER = Logger.getLogger(MetricsRegistry.class.getName());
+
+  private static final MetricsRegistry defaultRegistry = new MetricsRegistry();
+
+  /**
+   * Significant value digits of the histograms. 3 keeps the error within 0.1%.
+   */
+  public static final int significantDigits = 3;
+
+  public static final String[] summaryColumns =
+      {"count", "mean(us)", "p50(us)", "p90(us)", "p99(us)", "p999(us)", "max(us)"};
+
+  public volatile boolean enabled = true;
+
+  private final Map<String, ConcurrentHistogram> histograms = new ConcurrentHashMap<>();
+  private final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+  /**
+   * @return the registry shared by the query and maintenance classes
+   */
+  public static MetricsRegistry getDefault() {
+    return defaultRegistry;
+  }
+
+  /**
+   * @param name
+   * @param nanos
+   */
+  public void record(String name, long nanos) {
+    histograms.computeIfAbsent(name, key -> new ConcurrentHistogram(significantDigits))
+        .recordValue(Math.max(nanos, 0));
+  }
+
+  /**
+   * @param name
+   * @return a copy of the histogram, or null if nothing is recorded for {@code name}
+   */
+  public Histogram getHistogram(String name) {
+    ConcurrentHistogram histogram = histograms.get(name);
+    return histogram == null ? null : histogram.copy();
+  }
+
+  /**
+   * @return copies of all the histograms ordered by name
+   */
+  public Map<String, Histogram> snapshot() {
+    Map<String, Histogram> snapshot = new TreeMap<>();
+    for (String name : histograms.keySet()) {
+      snapshot.put(name, histograms.get(name).copy());
+    }
+    return snapshot;
+  }
+
+  public void addExporter(MetricsExporter exporter) {
+    exporters.add(exporter);
+  }
+
+  public void removeExporter(MetricsExporter exporter) {
+    exporters.remove(exporter);
+  }
+
+  /**
+   * Push a snapshot to every exporter. A failing exporter does not stop the others.
+   */
+  public void export() {
+    Map<String, Histogram> snapshot = snapshot();
+    for (MetricsExporter exporter : exporters) {
+      try {
+        exporter.export(snapshot);
+      } catch (Exception e) {
+        LOGGER.warning(String.format("%s fails to export: %s", exporter, e.getMessage()));
+      }
+    }
+  }
+
+  /**
+   * The columns reported for a histogram, in microseconds except the count.
+   *
+   * @param histogram of nanoseconds
+   * @return count, mean, p50, p90, p99, p999 and max. See {@link #summaryColumns}.
+   */
+  public static double[] summarize(Histogram histogram) {
+    return new double[] {histogram.getTotalCount(), histogram.getMean() / 1000.0,
+        histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+        histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0};
+  }
+
+  public void reset() {
+    histograms.clear();
+  }
+}
@@ -0,0 +1,118 @@
+package commons.metrics;
+
+/**
+ * Nanosecond time of each phase of one request (a query or an update). The spans of a phase are
+ * accumulated until the request is published to a {@link MetricsRegistry}, so the histogram of a
+ * phase holds one value per request rather than one per span. Not thread-safe; a trace belongs to
+ * one request context just like the tracking variables.
+ *
+ * <pre>
+ * long start = PhaseTrace.start();
+ * ...
+ * trace.stop(QueryPhase.verification, start);
+ * </pre>
+ *
+ * @param <P> the phases
+ */
+public class PhaseTrace<P extends Enum<P>> {
+
+  private final String name;
+  private final P[] phases;
+  private final long[] phaseNanos;
+  /**
+   * Whether a phase has spans, so that a span shorter than the timer resolution is still recorded.
+   */
+  private final boolean[] phaseTraced;
+  private long beginNanos = -1;
+
+  /**
+   * @param name prefix of the metric names, e.g., the class name
+   * @param phaseType
+   */
+  public PhaseTrace(String name, Class<P> phaseType) {
+    this.name = name;
+    this.phases = phaseType.getEnumConstants();
+    this.phaseNanos = new long[phases.length];
+    this.phaseTraced = new boolean[phases.length];
+  }
+
+  public static long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Mark the beginning of the request. Ignored if the request has begun, so that a nested entry
+   * point does not restart the total time.
+   */
+  public void begin() {
+    if (beginNanos == -1) {
+      beginNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * End a span of {@code phase}.
+   *
+   * @param phase
+   * @param start returned by {@link #start()}
+   * @return the span time in nanoseconds
+   */
+  public long stop(P phase, long start) {
+    long elapsed = System.nanoTime() - start;
+    phaseNanos[phase.ordinal()] += elapsed;
+    phaseTraced[phase.ordinal()] = true;
+    return elapsed;
+  }
+
+  public long getNanos(P phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /**
+   * Record the phases of the request into {@code registry} as '{name}.{category}.{phase}' and
+   * reset the trace for the next request. The time since {@link #begin()} is recorded to the
+   * {@code totalPhase}. A phase without spans is not recorded.
+   *
+   * @param registry
+   * @param category e.g., the query type
+   * @param totalPhase
+   */
+  public void publish(MetricsRegistry registry, String category, P totalPhase) {
+    if (beginNanos != -1) {
+      phaseNanos[totalPhase.ordinal()] = System.nanoTime() - beginNanos;
+      phaseTraced[totalPhase.ordinal()] = true;
+    }
+    if (registry.enabled) {
+      for (P phase : phases) {
+        if (phaseTraced[phase.ordinal()]) {
+          registry.record(getMetricName(category, phase), phaseNanos[phase.ordinal()]);
+        }
+      }
+    }
+    clear();
+  }
+
+  public String getMetricName(String category, P phase) {
+    return String.format("%s.%s.%s", name, category, phase);
+  }
+
+  public void clear() {
+    for (int i = 0; i < phaseNanos.length; i++) {
+      phaseNanos[i] = 0;
+      phaseTraced[i] = false;
+    }
+    beginNanos = -1;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (P phase : phases) {
+      if (builder.length() > 1) {
+        builder.append(", ");
+      }
+      builder.append(phase).append("=").append(phaseNanos[phase.ordinal()]);
+    }
+    return builder.append("}").toString();
+  }
+}
@@ -0,0 +1,584 @@
+package cypher.middleware;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.Clause;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.Match;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.OrderBy;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.Query;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.Return;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.SingleQuery;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.SortItem;
+import org.neo4j.cypher.internal.frontend.v3_4.ast.Statement;
+import org.neo4j.cypher.internal.frontend.v3_4.parser.CypherParser;
+import org.neo4j.cypher.internal.v3_4.expressions.And;
+import org.neo4j.cypher.internal.v3_4.expressions.Ands;
+import org.neo4j.cypher.internal.v3_4.expressions.Expression;
+import org.neo4j.cypher.internal.v3_4.expressions.FunctionInvocation;
+import org.neo4j.cypher.internal.v3_4.expressions.GreaterThan;
+import org.neo4j.cypher.internal.v3_4.expressions.GreaterThanOrEqual;
+import org.neo4j.cypher.internal.v3_4.expressions.InequalityExpression;
+import org.neo4j.cypher.internal.v3_4.expressions.LabelName;
+import org.neo4j.cypher.internal.v3_4.expressions.MapExpression;
+import org.neo4j.cypher.internal.v3_4.expressions.NodePattern;
+import org.neo4j.cypher.internal.v3_4.expressions.NumberLiteral;
+import org.neo4j.cypher.internal.v3_4.expressions.PatternElement;
+import org.neo4j.cypher.internal.v3_4.expressions.PatternPart;
+import org.neo4j.cypher.internal.v3_4.expressions.Property;
+import org.neo4j.cypher.internal.v3_4.expressions.PropertyKeyName;
+import org.neo4j.cypher.internal.v3_4.expressions.RelationshipChain;
+import org.neo4j.cypher.internal.v3_4.expressions.UnarySubtract;
+import org.neo4j.cypher.internal.v3_4.expressions.Variable;
+import commons.Config;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import commons.Query_Graph.LabelType;
+import scala.Tuple2;
+import scala.collection.JavaConversions;
+
+/**
+ * Compile a Cypher query to {@link Query_Graph} by visiting the AST of {@link CypherParser}. The
+ * edges are read from the match patterns rather than from the plan of 'explain', so a query is
+ * decoded without invoking the planner or even a database. The supported spatial predicates are
+ * <ul>
+ * <li>range: {@code minx <= a.longitude <= maxx and miny <= a.latitude <= maxy}</li>
+ * <li>join: {@code distance(a, b) <= d}</li>
+ * <li>knn: {@code order by distance(a, point({longitude: x, latitude: y})) limit k}</li>
+ * </ul>
+ * where a distance operand is a node variable, {@code point(a)} or
+ * {@code point({longitude: a.longitude, latitude: a.latitude})}.
+ */
+public class CypherCompiler {
+
+  private static final String distanceFunctionName = "distance";
+  private static final String pointFunctionName = "point";
+
+  /**
+   * The decoded components of a query. Never modified after compiled so that it can be shared by
+   * the cache. Use {@link #getQueryGraph()} to get a Query_Graph to work on.
+   */
+  public static class CompiledQuery {
+    /**
+     * Query graph skeleton with the range predicates.
+     */
+    private final Query_Graph query_Graph;
+    /**
+     * node variable -> query rectangle of the range predicates.
+     */
+    public final Map<String, MyRectangle> spatialPredicates;
+    /**
+     * node variable -> offsets of the literals of minx, miny, maxx and maxy in the query text.
+     */
+    public final Map<String, int[]> spatialPredicateOffsets;
+
+    /**
+     * knn predicate. null if the query does not have one.
+     */
+    public final String knnVariable;
+    public final double[] knnPoint;
+    public final int k;
+
+    /**
+     * join predicate. null if the query does not have one.
+     */
+    public final String[] joinVariables;
+    public final double distance;
+
+    /**
+     * whether the return clause has a LIMIT or a SKIP, so the rows can be a subset of the matches
+     */
+    public final boolean limited;
+
+    private CompiledQuery(Query_Graph query_Graph, Map<String, MyRectangle> spatialPredicates,
+        Map<String, int[]> spatialPredicateOffsets, String knnVariable, double[] knnPoint, int k,
+        String[] joinVariables, double distance, boolean limited) {
+      this.query_Graph = query_Graph;
+      this.spatialPredicates = Collections.unmodifiableMap(spatialPredicates);
+      this.spatialPredicateOffsets = Collections.unmodifiableMap(spatialPredicateOffsets);
+      this.knnVariable = knnVariable;
+      this.knnPoint = knnPoint;
+      this.k = k;
+      this.joinVariables = joinVariables;
+      this.distance = distance;
+      this.limited = limited;
+    }
+
+    /**
+     * @return a copy of the query graph with the range predicates
+     */
+    public Query_Graph getQueryGraph() {
+      return copy(query_Graph);
+    }
+
+    /**
+     * @return a copy of the query graph without any spatial predicate
+     */
+    public Query_Graph getQueryGraphWithoutSpatialPredicate() {
+      Query_Graph copy = copy(query_Graph);
+      for (int i = 0; i < copy.Has_Spa_Predicate.length; i++) {
+        copy.Has_Spa_Predicate[i] = false;
+        copy.spa_predicate[i] = null;
+      }
+      return copy;
+    }
+  }
+
+  /**
+   * Compiled queries keyed by the normalized query text.
+   */
+  private static final int cacheCapacity = 10000;
+  private static final LinkedHashMap<String, CompiledQuery> cache =
+      new LinkedHashMap<String, CompiledQuery>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledQuery> eldest) {
+          return size() > cacheCapacity;
+        }
+      };
+
+  public static long hitCount = 0;
+  public static long missCount = 0;
+
+  /**
+   * Get the compiled query from the cache, or compile and cache it.
+   *
+   * @param query
+   * @return
+   */
+  public static CompiledQuery getCompiledQuery(String query) {
+    String key = normalize(query);
+    synchronized (cache) {
+      CompiledQuery compiledQuery = cache.get(key);
+      if (compiledQuery != null) {
+        hitCount++;
+        return compiledQuery;
+      }
+      missCount++;
+    }
+    CompiledQuery compiledQuery = compile(query);
+    synchronized (cache) {
+      cache.put(key, compiledQuery);
+    }
+    return compiledQuery;
+  }
+
+  /**
+   * Drop all the compiled queries.
+   */
+  public static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Normalize the query text for the cache key: trim and collapse the whitespaces out of the
+   * quoted strings. Keywords are not case-normalized because the labels are case-sensitive.
+   *
+   * @param query
+   * @return
+   */
+  public static String normalize(String query) {
+    StringBuilder builder = new StringBuilder(query.length());
+    char quote = 0;
+    boolean space = false;
+    for (char c : query.trim().toCharArray()) {
+      if (quote == 0 && Character.isWhitespace(c)) {
+        space = true;
+        continue;
+      }
+      if (space) {
+        builder.append(' ');
+        space = false;
+      }
+      if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+        quote = c;
+      } else if (c == quote) {
+        quote = 0;
+      }
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Compile a query without the cache.
+   *
+   * @param query
+   * @return
+   */
+  public static CompiledQuery compile(String query) {
+    Statement statement = new CypherParser().parse(query, null);
+    if (!(statement instanceof Query) || !(((Query) statement).part() instanceof SingleQuery)) {
+      throw new IllegalArgumentException(query + " is not a single query!");
+    }
+    return new Visitor(query).visit((SingleQuery) ((Query) statement).part());
+  }
+
+  /**
+   * Visit the clauses of a single query and collect the query graph and the spatial predicates.
+   */
+  private static class Visitor {
+    private final String query;
+    private final Map<String, Integer> nodeVariableIdMap = new LinkedHashMap<>();
+    private final List<String> labels = new ArrayList<>();
+    private final List<TreeSet<Integer>> edges = new ArrayList<>();
+
+    // variable -> {minx, miny, maxx, maxy}
+    private final Map<String, Double[]> ranges = new LinkedHashMap<>();
+    private final Map<String, int[]> rangeOffsets = new HashMap<>();
+    private String knnVariable = null;
+    private double[] knnPoint = null;
+    private int k = -1;
+    private String[] joinVariables = null;
+    private double distance = -1;
+    private boolean limited = false;
+
+    Visitor(String query) {
+      this.query = query;
+    }
+
+    CompiledQuery visit(SingleQuery singleQuery) {
+      for (Clause clause : JavaConversions.seqAsJavaList(singleQuery.clauses())) {
+        if (clause instanceof Match) {
+          visitMatch((Match) clause);
+        } else if (clause instanceof Return) {
+          visitReturn((Return) clause);
+        } else {
+          throw new IllegalArgumentException(
+              String.format("%s: %s clause is not supported!", query, clause.name()));
+        }
+      }
+      return build();
+    }
+
+    private void visitMatch(Match match) {
+      if (match.optional()) {
+        throw new IllegalArgumentException(query + ": optional match is not supported!");
+      }
+      for (PatternPart part : JavaConversions.seqAsJavaList(match.pattern().patternParts())) {
+        visitPatternElement(part.element());
+      }
+      if (match.where().isDefined()) {
+        visitPredicate(match.where().get().expression());
+      }
+    }
+
+    /**
+     * @param element
+     * @return id of the rightmost node of the element
+     */
+    private int visitPatternElement(PatternElement element) {
+      if (element instanceof NodePattern) {
+        return visitNodePattern((NodePattern) element);
+      }
+      if (element instanceof RelationshipChain) {
+        RelationshipChain chain = (RelationshipChain) element;
+        int left = visitPatternElement(chain.element());
+        int right = visitNodePattern(chain.rightNode());
+        edges.get(left).add(right);
+        edges.get(right).add(left);
+        return right;
+      }
+      throw new IllegalArgumentException(
+          String.format("%s: pattern %s is not supported!", query, element));
+    }
+
+    private int visitNodePattern(NodePattern nodePattern) {
+      if (nodePattern.variable().isEmpty()) {
+        throw new IllegalArgumentException(query + ": every node requires a variable!");
+      }
+      String variable = nodePattern.variable().get().name();
+      Integer id = nodeVariableIdMap.get(variable);
+      if (id == null) {
+        id = nodeVariableIdMap.size();
+        nodeVariableIdMap.put(variable, id);
+        labels.add(null);
+        edges.add(new TreeSet<>());
+      }
+      List<LabelName> labelNames = JavaConversions.seqAsJavaList(nodePattern.labels());
+      if (labelNames.size() > 1) {
+        throw new IllegalArgumentException(
+            String.format("%s: %s has more than one label!", query, variable));
+      }
+      if (labelNames.size() == 1) {
+        labels.set(id, labelNames.get(0).name());
+      }
+      return id;
+    }
+
+    /**
+     * Visit the conjuncts of the where clause. Only the spatial predicates are decoded, the others
+     * are left to the cypher query.
+     *
+     * @param expression
+     */
+    private void visitPredicate(Expression expression) {
+      if (expression instanceof And) {
+        visitPredicate(((And) expression).lhs());
+        visitPredicate(((And) expression).rhs());
+      } else if (expression instanceof Ands) {
+        for (Expression conjunct : JavaConversions.setAsJavaSet(((Ands) expression).exprs())) {
+          visitPredicate(conjunct);
+        }
+      } else if (expression instanceof InequalityExpression) {
+        visitInequality((InequalityExpression) expression);
+      }
+    }
+
+    private void visitInequality(InequalityExpression inequality) {
+      // normalize to lower <= upper
+      boolean greater =
+          inequality instanceof GreaterThan || inequality instanceof GreaterThanOrEqual;
+      Expression lower = greater ? inequality.rhs() : inequality.lhs();
+      Expression upper = greater ? inequality.lhs() : inequality.rhs();
+
+      if (isDistance(lower) && !isDistance(upper)) {
+        visitDistancePredicate((FunctionInvocation) lower, getNumber(upper));
+        return;
+      }
+      // a lower bound of a distance is left to the cypher query
+      if (isDistance(upper)) {
+        return;
+      }
+      visitBound(upper, lower, true);
+      visitBound(lower, upper, false);
+    }
+
+    /**
+     * Record {@code bound <= property} (isLower) or {@code property <= bound} if it is a bound of
+     * the location.
+     */
+    private void visitBound(Expression expression, Expression bound, boolean isLower) {
+      Double value = getNumber(bound);
+      if (value == null || !(expression instanceof Property)) {
+        return;
+      }
+      Property property = (Property) expression;
+      if (!(property.map() instanceof Variable)) {
+        return;
+      }
+      int axis = getAxis(property.propertyKey());
+      if (axis == -1) {
+        return;
+      }
+      String variable = ((Variable) property.map()).name();
+      Double[] range = ranges.get(variable);
+      if (range == null) {
+        range = new Double[4];
+        ranges.put(variable, range);
+        rangeOffsets.put(variable, new int[4]);
+      }
+      int index = isLower ? axis : axis + 2;
+      if (range[index] != null) {
+        throw new IllegalArgumentException(String.format("%s: %s has more than one %s bound!",
+            query, variable, property.propertyKey().name()));
+      }
+      range[index] = value;
+      rangeOffsets.get(variable)[index] = bound.position().offset();
+    }
+
+    private void visitDistancePredicate(FunctionInvocation function, Double value) {
+      if (value == null) {
+        throw new IllegalArgumentException(query + ": the distance must be a number!");
+      }
+      Object[] operands = getDistanceOperands(function);
+      if (!(operands[0] instanceof String) || !(operands[1] instanceof String)) {
+        throw new IllegalArgumentException(
+            query + ": a distance predicate requires two node variables!");
+      }
+      if (joinVariables != null) {
+        throw new IllegalArgumentException(query + ": more than one distance predicate!");
+      }
+      joinVariables = new String[] {(String) operands[0], (String) operands[1]};
+      distance = value;
+    }
+
+    private void visitReturn(Return returnClause) {
+      limited = returnClause.limit().isDefined() || returnClause.skip().isDefined();
+      if (!returnClause.orderBy().isDefined()) {
+        return;
+      }
+      OrderBy orderBy = returnClause.orderBy().get();
+      List<SortItem> sortItems = JavaConversions.seqAsJavaList(orderBy.sortItems());
+      if (sortItems.size() != 1 || !isDistance(sortItems.get(0).expression())) {
+        return;
+      }
+      Object[] operands = getDistanceOperands((FunctionInvocation) sortItems.get(0).expression());
+      int variableIndex = operands[0] instanceof String ? 0 : 1;
+      if (!(operands[variableIndex] instanceof String)
+          || !(operands[1 - variableIndex] instanceof double[])) {
+        throw new IllegalArgumentException(
+            query + ": knn requires a node variable and a constant point!");
+      }
+      if (!returnClause.limit().isDefined()
+          || getNumber(returnClause.limit().get().expression()) == null) {
+        throw new IllegalArgumentException(query + ": knn requires a limit!");
+      }
+      knnVariable = (String) operands[variableIndex];
+      knnPoint = (double[]) operands[1 - variableIndex];
+      k = getNumber(returnClause.limit().get().expression()).intValue();
+    }
+
+    /**
+     * @param function distance(x, y)
+     * @return each operand is either a node variable (String) or a point (double[])
+     */
+    private Object[] getDistanceOperands(FunctionInvocation function) {
+      List<Expression> args = JavaConversions.seqAsJavaList(function.args());
+      if (args.size() != 2) {
+        throw new IllegalArgumentException(
+            String.format("%s: %s requires 2 arguments!", query, function.name()));
+      }
+      return new Object[] {getLocation(args.get(0)), getLocation(args.get(1))};
+    }
+
+    private Object getLocation(Expression expression) {
+      if (expression instanceof Variable) {
+        return ((Variable) expression).name();
+      }
+      if (expression instanceof FunctionInvocation
+          && ((FunctionInvocation) expression).name().equalsIgnoreCase(pointFunctionName)
+          && ((FunctionInvocation) expression).args().size() == 1) {
+        Expression arg =
+            JavaConversions.seqAsJavaList(((FunctionInvocation) expression).args()).get(0);
+        if (arg instanceof Variable) {
+          return ((Variable) arg).name();
+        }
+        if (arg instanceof MapExpression) {
+          return getLocation((MapExpression) arg);
+        }
+      }
+      throw new IllegalArgumentException(
+          String.format("%s: %s is not a location!", query, expression));
+    }
+
+    /**
+     * {longitude: x, latitude: y} or {longitude: a.longitude, latitude: a.latitude}
+     */
+    private Object getLocation(MapExpression map) {
+      Expression[] coordinates = new Expression[2];
+      for (Tuple2<PropertyKeyName, Expression> item : JavaConversions
+          .seqAsJavaList(map.items())) {
+        int axis = getAxis(item._1());
+        if (axis != -1) {
+          coordinates[axis] = item._2();
+        }
+      }
+      if (coordinates[0] != null && coordinates[1] != null) {
+        Double x = getNumber(coordinates[0]), y = getNumber(coordinates[1]);
+        if (x != null && y != null) {
+          return new double[] {x, y};
+        }
+        if (coordinates[0] instanceof Property && coordinates[1] instanceof Property) {
+          Expression xMap = ((Property) coordinates[0]).map();
+          Expression yMap = ((Property) coordinates[1]).map();
+          if (xMap instanceof Variable && xMap.equals(yMap)) {
+            return ((Variable) xMap).name();
+          }
+        }
+      }
+      throw new IllegalArgumentException(String.format("%s: %s is not a location!", query, map));
+    }
+
+    private CompiledQuery build() {
+      int nodeCount = nodeVariableIdMap.size();
+      Query_Graph query_Graph = new Query_Graph(nodeCount, LabelType.STRING);
+      for (Map.Entry<String, Integer> entry : nodeVariableIdMap.entrySet()) {
+        int id = entry.getValue();
+        query_Graph.nodeVariables[id] = entry.getKey();
+        query_Graph.label_list_string[id] = labels.get(id);
+        query_Graph.graph.set(id, new ArrayList<>(edges.get(id)));
+      }
+
+      Map<String, MyRectangle> spatialPredicates = new HashMap<>();
+      for (Map.Entry<String, Double[]> entry : ranges.entrySet()) {
+        String variable = entry.getKey();
+        Double[] range = entry.getValue();
+        for (Double bound : range) {
+          if (bound == null) {
+            throw new IllegalArgumentException(
+                String.format("%s does not contain all the range values of %s!", query, variable));
+          }
+        }
+        Integer id = nodeVariableIdMap.get(variable);
+        if (id == null) {
+          throw new IllegalArgumentException(
+              String.format("%s: %s does not exist in the query graph!", query, variable));
+        }
+        MyRectangle rectangle = new MyRectangle(range[0], range[1], range[2], range[3]);
+        spatialPredicates.put(variable, rectangle);
+        query_Graph.Has_Spa_Predicate[id] = true;
+        query_Graph.spa_predicate[id] = rectangle;
+      }
+      checkVariable(knnVariable);
+      if (joinVariables != null) {
+        checkVariable(joinVariables[0]);
+        checkVariable(joinVariables[1]);
+      }
+      return new CompiledQuery(query_Graph, spatialPredicates, rangeOffsets, knnVariable, knnPoint,
+          k, joinVariables, distance, limited);
+    }
+
+    private void checkVariable(String variable) {
+      if (variable != null && !nodeVariableIdMap.containsKey(variable)) {
+        throw new IllegalArgumentException(
+            String.format("%s: %s does not exist in the query graph!", query, variable));
+      }
+    }
+  }
+
+  private static boolean isDistance(Expression expression) {
+    return expression instanceof FunctionInvocation
+        && ((FunctionInvocation) expression).name().equalsIgnoreCase(distanceFunctionName);
+  }
+
+  /**
+   * @param propertyKeyName
+   * @return 0 for longitude, 1 for latitude and -1 otherwise
+   */
+  private static int getAxis(PropertyKeyName propertyKeyName) {
+    String name = propertyKeyName.name();
+    if (name.equals(Config.longitude_property_name)) {
+      return 0;
+    }
+    if (name.equals(Config.latitude_property_name)) {
+      return 1;
+    }
+    return -1;
+  }
+
+  /**
+   * @param expression
+   * @return null if the expression is not a number literal
+   */
+  private static Double getNumber(Expression expression) {
+    if (expression instanceof NumberLiteral) {
+      return Double.parseDouble(((NumberLiteral) expression).stringVal());
+    }
+    if (expression instanceof UnarySubtract) {
+      Double value = getNumber(((UnarySubtract) expression).rhs());
+      return value == null ? null : -value;
+    }
+    return null;
+  }
+
+  private static Query_Graph copy(Query_Graph query_Graph) {
+    int nodeCount = query_Graph.graph.size();
+    Query_Graph copy = new Query_Graph(nodeCount, LabelType.STRING);
+    for (int i = 0; i < nodeCount; i++) {
+      copy.graph.set(i, new ArrayList<>(query_Graph.graph.get(i)));
+    }
+    System.arraycopy(query_Graph.label_list_string, 0, copy.label_list_string, 0, nodeCount);
+    System.arraycopy(query_Graph.nodeVariables, 0, copy.nodeVariables, 0, nodeCount);
+    System.arraycopy(query_Graph.Has_Spa_Predicate, 0, copy.Has_Spa_Predicate, 0, nodeCount);
+    System.arraycopy(query_Graph.spa_predicate, 0, copy.spa_predicate, 0, nodeCount);
+    return copy;
+  }
+}
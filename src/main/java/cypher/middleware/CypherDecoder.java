@@ -31,6 +31,8 @@ public class CypherDecoder {
 
   /**
    * Convert a Cypher query to Query_Graph format, including graph structure and spatial predicates.
+   * The query is compiled by {@link CypherCompiler}. A query it does not support is decoded from
+   * the explain plan by the service.
    *
    * @param query
    * @param service
@@ -39,8 +41,11 @@ public class CypherDecoder {
    */
   public static Query_Graph getQueryGraph(String query, GraphDatabaseService service)
       throws Exception {
-    Map<String, MyRectangle> spatialPredicates = getSpatialPredicates(query);
-    return getQueryGraph(query, spatialPredicates, service);
+    try {
+      return CypherCompiler.getCompiledQuery(query).getQueryGraph();
+    } catch (IllegalArgumentException e) {
+      return getQueryGraph(query, getSpatialPredicatesFromAst(query), service);
+    }
   }
 
   /**
@@ -51,6 +56,23 @@ public class CypherDecoder {
    * @throws Exception
    */
   public static Map<String, MyRectangle> getSpatialPredicates(String query) throws Exception {
+    try {
+      return new HashMap<>(CypherCompiler.getCompiledQuery(query).spatialPredicates);
+    } catch (IllegalArgumentException e) {
+      return getSpatialPredicatesFromAst(query);
+    }
+  }
+
+  /**
+   * Get the spatial predicates from the string of the parsed AST, for the queries not supported
+   * by {@link CypherCompiler}.
+   *
+   * @param query
+   * @return
+   * @throws Exception
+   */
+  private static Map<String, MyRectangle> getSpatialPredicatesFromAst(String query)
+      throws Exception {
     Map<String, MyRectangle> spatialPredicates = new HashMap<>();
     CypherParser parser = new CypherParser();
 
@@ -193,25 +215,8 @@ public class CypherDecoder {
    */
   public static Query_Graph getQueryGraph(String query, String spatialNode, MyRectangle rectangle,
       GraphDatabaseService service) {
-    String[] nodeStrings = getNodeStrings(query);
-    HashMap<String, Integer> nodeVariableIdMap = getNodeVariableIdMap(nodeStrings);
-    String[] labelList = getQueryLabelList(nodeVariableIdMap, nodeStrings);
-    Result result = service.execute("explain " + query);
-    ExecutionPlanDescription planDescription = result.getExecutionPlanDescription();
-    List<ExecutionPlanDescription> plans = ExecutionPlanDescriptionUtil.getRequired(planDescription);
-    ArrayList<ArrayList<Integer>> graphStructure = getGraphStructure(plans, nodeVariableIdMap);
-
-    Query_Graph query_Graph = new Query_Graph(nodeVariableIdMap.size(), LabelType.STRING);
-    query_Graph.graph = graphStructure;
-    query_Graph.label_list_string = labelList;
-    int spatialId = nodeVariableIdMap.get(spatialNode);
-    query_Graph.Has_Spa_Predicate[spatialId] = true;
-    query_Graph.spa_predicate[spatialId] = rectangle;
-    String[] nodeVariables = new String[nodeVariableIdMap.size()];
-    for (String variable : nodeVariableIdMap.keySet()) {
-      nodeVariables[nodeVariableIdMap.get(variable)] = variable;
-    }
-    query_Graph.nodeVariables = nodeVariables;
+    Query_Graph query_Graph = getQueryGraphWithoutSpatialPredicate(query, service);
+    setSpatialPredicate(query_Graph, spatialNode, rectangle);
     return query_Graph;
   }
 
@@ -225,7 +230,8 @@ public class CypherDecoder {
   }
 
   /**
-   * Extract Query_Graph components except for the spatial predicates by using service running
+   * Extract Query_Graph components except for the spatial predicates. The query is compiled by
+   * {@link CypherCompiler}. A query it does not support is decoded by using service running
    * explain xxx. Assume labelType is String.
    *
    * @param query
@@ -234,6 +240,14 @@ public class CypherDecoder {
    */
   public static Query_Graph getQueryGraphWithoutSpatialPredicate(String query,
       GraphDatabaseService service) {
+    try {
+      return CypherCompiler.getCompiledQuery(query).getQueryGraphWithoutSpatialPredicate();
+    } catch (IllegalArgumentException e) {
+      return getQueryGraphByExplain(query, service);
+    }
+  }
+
+  private static Query_Graph getQueryGraphByExplain(String query, GraphDatabaseService service) {
     String[] nodeStrings = getNodeStrings(query);
     HashMap<String, Integer> nodeVariableIdMap = getNodeVariableIdMap(nodeStrings);
     String[] labelList = getQueryLabelList(nodeVariableIdMap, nodeStrings);
@@ -286,7 +300,8 @@ public class CypherDecoder {
       treeGraph.add(new TreeSet<>());
     }
     for (ExecutionPlanDescription planDescription : plans) {
-      String[] edge = ExecutionPlanDescriptionUtil.getEdgeInExpandExpressionPlanNode(planDescription);
+      String[] edge =
+          ExecutionPlanDescriptionUtil.getEdgeInExpandExpressionPlanNode(planDescription);
       int id1 = nodeVariableIdMap.get(edge[0]);
       int id2 = nodeVariableIdMap.get(edge[1]);
       treeGraph.get(id1).add(id2);
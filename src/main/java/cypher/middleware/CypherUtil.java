@@ -1,6 +1,10 @@
 package cypher.middleware;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
+import commons.Config;
 
 public class CypherUtil {
   public static String removeWhere(String query) {
@@ -11,4 +15,193 @@ public class CypherUtil {
         StringUtils.splitByWholeSeparator(afterWherePartString, " return ")[1];
     return matchPartString + " return " + returnPartString;
   }
+
+  /**
+   * Split a query for the rewrite with the candidate sets. The spatial predicates are removed
+   * because the candidates satisfy them, while the other conjuncts of the where clause have to be
+   * kept.
+   *
+   * @param query 'match ... where ... return ...'
+   * @return the match part, the return part and the non-spatial predicates joined by ' and '
+   *         ("" if there is none). Each predicate is parenthesized so that it can be appended to
+   *         other conjuncts.
+   */
+  public static String[] splitQueryParts(String query) {
+    String[] queryParts = StringUtils.splitByWholeSeparator(removeWhere(query), " return ");
+    List<String> predicates = new ArrayList<>();
+    for (String predicate : getNonSpatialPredicates(query)) {
+      predicates.add("(" + predicate + ")");
+    }
+    return new String[] {queryParts[0], queryParts[1], String.join(" and ", predicates)};
+  }
+
+  /**
+   * Split a query at the ' where ' and the last ' return ' regardless of the keyword case.
+   *
+   * @param query 'match ... [where ...] return ...'
+   * @return the match part, the where clause ("" if there is none) and the return part, without
+   *         the keywords
+   */
+  public static String[] splitClauses(String query) {
+    String lowerCase = query.toLowerCase();
+    int returnIndex = lowerCase.lastIndexOf(" return ");
+    if (returnIndex == -1) {
+      throw new IllegalArgumentException(query + " does not have a ' return '!");
+    }
+    String returnPart = query.substring(returnIndex + " return ".length());
+    int whereIndex = lowerCase.indexOf(" where ");
+    if (whereIndex == -1 || whereIndex > returnIndex) {
+      return new String[] {query.substring(0, returnIndex), "", returnPart};
+    }
+    return new String[] {query.substring(0, whereIndex),
+        query.substring(whereIndex + " where ".length(), returnIndex).trim(), returnPart};
+  }
+
+  /**
+   * Remove the spatial predicates from the where clause and keep the others.
+   *
+   * @param query 'match ... where ... return ...'
+   * @return the query without a where clause if all its predicates are spatial
+   */
+  public static String removeSpatialPredicates(String query) {
+    String[] queryParts = splitQueryParts(query);
+    if (queryParts[2].isEmpty()) {
+      return queryParts[0] + " return " + queryParts[1];
+    }
+    return queryParts[0] + " where " + queryParts[2] + " return " + queryParts[1];
+  }
+
+  /**
+   * Get the conjuncts of the where clause other than the spatial predicates (the bounds of the
+   * location and the distance predicates), e.g., {@code a1.name = 'x'}. The conjuncts are split at
+   * the ' and ' out of the quotes and parentheses, and the whitespaces are normalized.
+   *
+   * @param query
+   * @return the conjuncts in the query order. Empty if there is no where clause.
+   */
+  public static List<String> getNonSpatialPredicates(String query) {
+    List<String> predicates = new ArrayList<>();
+    String lowerCase = query.toLowerCase();
+    int whereIndex = lowerCase.indexOf(" where ");
+    if (whereIndex == -1) {
+      return predicates;
+    }
+    int returnIndex = lowerCase.lastIndexOf(" return ");
+    if (returnIndex < whereIndex) {
+      returnIndex = query.length();
+    }
+    String where = query.substring(whereIndex + " where ".length(), returnIndex);
+    for (String conjunct : splitConjuncts(where)) {
+      conjunct = conjunct.trim().replaceAll("\\s+", " ");
+      if (!conjunct.isEmpty() && !isSpatialPredicate(conjunct)) {
+        predicates.add(conjunct);
+      }
+    }
+    return predicates;
+  }
+
+  private static List<String> splitConjuncts(String where) {
+    List<String> conjuncts = new ArrayList<>();
+    int length = where.length();
+    int depth = 0;
+    int start = 0;
+    int i = 0;
+    while (i < length) {
+      char c = where.charAt(i);
+      if (c == '\'' || c == '"' || c == '`') {
+        i++;
+        while (i < length && where.charAt(i) != c) {
+          i += where.charAt(i) == '\\' ? 2 : 1;
+        }
+      } else if (c == '(' || c == '[' || c == '{') {
+        depth++;
+      } else if (c == ')' || c == ']' || c == '}') {
+        depth--;
+      } else if (depth == 0 && where.regionMatches(true, i, " and ", 0, 5)) {
+        conjuncts.add(where.substring(start, i));
+        start = i + 5;
+        i = start;
+        continue;
+      }
+      i++;
+    }
+    conjuncts.add(where.substring(Math.min(start, length)));
+    return conjuncts;
+  }
+
+  private static boolean isSpatialPredicate(String conjunct) {
+    String lon = Pattern.quote(Config.longitude_property_name);
+    String lat = Pattern.quote(Config.latitude_property_name);
+    return conjunct.matches(String.format(".*\\.(%s|%s)\\b.*", lon, lat))
+        || conjunct.toLowerCase().startsWith("distance(");
+  }
+
+  /**
+   * Replace the number literals out of the quotes by the parameters $prefix0, $prefix1, ... A '-'
+   * right before the digits is part of the literal unless it follows an operand.
+   *
+   * @param query
+   * @param parameterPrefix
+   * @param literals the literal texts are added here
+   * @param offsets the offsets of the literals in the query are added here
+   * @return the query with the literals abstracted
+   */
+  public static String abstractLiterals(String query, String parameterPrefix,
+      List<String> literals, List<Integer> offsets) {
+    StringBuilder builder = new StringBuilder(query.length());
+    int length = query.length();
+    int i = 0;
+    while (i < length) {
+      char c = query.charAt(i);
+      int end = i + 1;
+      if (c == '\'' || c == '"' || c == '`') {
+        while (end < length && query.charAt(end) != c) {
+          end += query.charAt(end) == '\\' ? 2 : 1;
+        }
+        end = Math.min(end + 1, length);
+      } else if (Character.isJavaIdentifierStart(c)) {
+        while (end < length && Character.isJavaIdentifierPart(query.charAt(end))) {
+          end++;
+        }
+      } else if (Character.isDigit(c) || (c == '-' && isDigit(query, i + 1) && (i == 0
+          || !isOperandEnd(query.charAt(i - 1))))) {
+        end = skipDigits(query, i + 1);
+        if (end < length && query.charAt(end) == '.' && isDigit(query, end + 1)) {
+          end = skipDigits(query, end + 1);
+        }
+        if (end < length && (query.charAt(end) == 'e' || query.charAt(end) == 'E')) {
+          int exponent = end + 1;
+          if (exponent < length && "+-".indexOf(query.charAt(exponent)) != -1) {
+            exponent++;
+          }
+          if (isDigit(query, exponent)) {
+            end = skipDigits(query, exponent);
+          }
+        }
+        builder.append('$').append(parameterPrefix).append(literals.size());
+        literals.add(query.substring(i, end));
+        offsets.add(i);
+        i = end;
+        continue;
+      }
+      builder.append(query, i, end);
+      i = end;
+    }
+    return builder.toString();
+  }
+
+  private static boolean isDigit(String string, int index) {
+    return index < string.length() && Character.isDigit(string.charAt(index));
+  }
+
+  private static int skipDigits(String string, int index) {
+    while (isDigit(string, index)) {
+      index++;
+    }
+    return index;
+  }
+
+  private static boolean isOperandEnd(char c) {
+    return Character.isJavaIdentifierPart(c) || c == ')' || c == ']' || c == '}';
+  }
 }
@@ -0,0 +1,390 @@
+package dataprocess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import commons.Entity;
+import commons.GraphUtil;
+import commons.OwnMethods;
+import commons.ReadWriteUtil;
+import commons.Util;
+
+/**
+ * Offline relabelling of the graph ids before loading (LoadDataNoOSM or Wikidata), so that the
+ * ids, and thus the neo4j ids and the PN lists, have spatial and graph locality. The spatial
+ * entities are ordered by the Hilbert curve of their location. Every other node is assigned to its
+ * nearest spatial anchor by a multi-source BFS started from the anchors in Hilbert order. The new
+ * ids are given group by group in the anchor order, and in BFS order within a group. Nodes not
+ * reachable from any spatial entity are appended by BFS of their components.
+ * <p>
+ * The graph, entity and label files are rewritten with the new ids together with a map file
+ * {@code oldId,newId} for the external ids. The other files keyed by the graph ids, e.g., the
+ * Wikidata files, are rewritten with that map by {@link #relabelWikidataSideFiles}. The loaders
+ * must read all the files from the output directory, never a mix of old and new ids.
+ */
+public class HilbertRelabel {
+
+  private static final Logger LOGGER = Logger.getLogger(HilbertRelabel.class.getName());
+
+  public static final String idMapFileName = "id_map.txt";
+
+  /**
+   * The spatial extent is divided into 2^hilbertOrder cells in each dimension.
+   */
+  public static int hilbertOrder = 16;
+
+  /**
+   * Relabel the files and write them with the same file names into {@code outputDir}.
+   *
+   * @param graphPath
+   * @param entityPath
+   * @param labelPath null if no label file. Either a label list (one label per line) or a graph
+   *        label file in the graph format.
+   * @param outputDir
+   * @throws Exception
+   */
+  public static void relabel(String graphPath, String entityPath, String labelPath,
+      String outputDir) throws Exception {
+    Util.checkPathExist(graphPath);
+    Util.checkPathExist(entityPath);
+    ArrayList<ArrayList<Integer>> graph = GraphUtil.ReadGraph(graphPath);
+    ArrayList<Entity> entities = GraphUtil.ReadEntity(entityPath);
+    if (graph.size() != entities.size()) {
+      throw new Exception(String.format("graph has %d nodes but there are %d entities!",
+          graph.size(), entities.size()));
+    }
+    new File(outputDir).mkdirs();
+
+    long start = System.currentTimeMillis();
+    int[] newIds = computeNewIds(graph, entities);
+    LOGGER.info(String.format("compute new ids time: %d ms", System.currentTimeMillis() - start));
+
+    GraphUtil.writeGraphArrayList(relabelGraph(graph, newIds),
+        getOutputPath(outputDir, graphPath));
+    GraphUtil.writeEntityToFile(relabelEntities(entities, newIds),
+        getOutputPath(outputDir, entityPath));
+    if (labelPath != null) {
+      relabelLabels(labelPath, newIds, getOutputPath(outputDir, labelPath));
+    }
+    writeIdMap(newIds, outputDir + File.separator + idMapFileName);
+  }
+
+  private static String getOutputPath(String outputDir, String inputPath) {
+    return outputDir + File.separator + new File(inputPath).getName();
+  }
+
+  /**
+   * @param graph
+   * @param entities
+   * @return newIds[oldId]
+   */
+  public static int[] computeNewIds(List<? extends List<Integer>> graph, List<Entity> entities) {
+    int nodeCount = graph.size();
+    // nodes in the BFS discovery order
+    int[] order = new int[nodeCount];
+    // rank of the group (anchor or unreachable component) each node belongs to
+    int[] group = new int[nodeCount];
+    Arrays.fill(group, -1);
+
+    int tail = 0;
+    List<Integer> anchors = getSpatialIdsInHilbertOrder(entities);
+    for (int anchor : anchors) {
+      group[anchor] = tail;
+      order[tail++] = anchor;
+    }
+    int groupCount = tail;
+    int head = 0;
+    int next = 0;
+    while (true) {
+      while (head < tail) {
+        int node = order[head++];
+        for (int neighbor : graph.get(node)) {
+          if (group[neighbor] == -1) {
+            group[neighbor] = group[node];
+            order[tail++] = neighbor;
+          }
+        }
+      }
+      while (next < nodeCount && group[next] != -1) {
+        next++;
+      }
+      if (next == nodeCount) {
+        break;
+      }
+      group[next] = groupCount++;
+      order[tail++] = next;
+    }
+
+    // counting sort by group, stable in the BFS order
+    int[] groupStarts = new int[groupCount + 1];
+    for (int id = 0; id < nodeCount; id++) {
+      groupStarts[group[id] + 1]++;
+    }
+    for (int i = 1; i <= groupCount; i++) {
+      groupStarts[i] += groupStarts[i - 1];
+    }
+    int[] newIds = new int[nodeCount];
+    for (int node : order) {
+      newIds[node] = groupStarts[group[node]]++;
+    }
+    return newIds;
+  }
+
+  /**
+   * @param entities
+   * @return ids of the spatial entities sorted by the Hilbert index of their locations
+   */
+  public static List<Integer> getSpatialIdsInHilbertOrder(List<Entity> entities) {
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+    List<Integer> ids = new ArrayList<>();
+    for (int id = 0; id < entities.size(); id++) {
+      Entity entity = entities.get(id);
+      if (entity.IsSpatial) {
+        ids.add(id);
+        minX = Math.min(minX, entity.lon);
+        minY = Math.min(minY, entity.lat);
+        maxX = Math.max(maxX, entity.lon);
+        maxY = Math.max(maxY, entity.lat);
+      }
+    }
+    long side = 1L << hilbertOrder;
+    long[] keys = new long[entities.size()];
+    for (int id : ids) {
+      Entity entity = entities.get(id);
+      keys[id] = hilbertIndex(hilbertOrder, getCell(entity.lon, minX, maxX, side),
+          getCell(entity.lat, minY, maxY, side));
+    }
+    Collections.sort(ids, (id1, id2) -> {
+      int compare = Long.compare(keys[id1], keys[id2]);
+      return compare != 0 ? compare : Integer.compare(id1, id2);
+    });
+    return ids;
+  }
+
+  private static long getCell(double value, double min, double max, long side) {
+    if (max == min) {
+      return 0;
+    }
+    long cell = (long) ((value - min) / (max - min) * side);
+    return Math.max(0, Math.min(side - 1, cell));
+  }
+
+  /**
+   * Distance of cell (x, y) along the Hilbert curve filling a 2^order * 2^order grid.
+   *
+   * @param order
+   * @param x in [0, 2^order)
+   * @param y in [0, 2^order)
+   * @return
+   */
+  public static long hilbertIndex(int order, long x, long y) {
+    long n = 1L << order;
+    long d = 0;
+    for (long s = n / 2; s > 0; s /= 2) {
+      long rx = (x & s) > 0 ? 1 : 0;
+      long ry = (y & s) > 0 ? 1 : 0;
+      d += s * s * ((3 * rx) ^ ry);
+      // rotate the quadrant
+      if (ry == 0) {
+        if (rx == 1) {
+          x = n - 1 - x;
+          y = n - 1 - y;
+        }
+        long t = x;
+        x = y;
+        y = t;
+      }
+    }
+    return d;
+  }
+
+  /**
+   * @param graph
+   * @param newIds
+   * @return the graph with new ids. Neighbors are sorted.
+   */
+  public static ArrayList<ArrayList<Integer>> relabelGraph(List<? extends List<Integer>> graph,
+      int[] newIds) {
+    ArrayList<ArrayList<Integer>> newGraph = new ArrayList<>(graph.size());
+    for (int i = 0; i < graph.size(); i++) {
+      newGraph.add(null);
+    }
+    for (int id = 0; id < graph.size(); id++) {
+      ArrayList<Integer> neighbors = new ArrayList<>(graph.get(id).size());
+      for (int neighbor : graph.get(id)) {
+        neighbors.add(newIds[neighbor]);
+      }
+      Collections.sort(neighbors);
+      newGraph.set(newIds[id], neighbors);
+    }
+    return newGraph;
+  }
+
+  public static ArrayList<Entity> relabelEntities(List<Entity> entities, int[] newIds) {
+    Entity[] newEntities = new Entity[entities.size()];
+    for (int id = 0; id < entities.size(); id++) {
+      Entity entity = entities.get(id);
+      Entity newEntity = new Entity(newIds[id]);
+      newEntity.IsSpatial = entity.IsSpatial;
+      newEntity.lon = entity.lon;
+      newEntity.lat = entity.lat;
+      newEntities[newIds[id]] = newEntity;
+    }
+    return new ArrayList<>(Arrays.asList(newEntities));
+  }
+
+  /**
+   * Move the labels of each node to its new id. The label ids are kept.
+   *
+   * @param labelPath a label list or a graph label file. A graph label file has the node count in
+   *        the first line and {@code id,count,labels...} in the others.
+   * @param newIds
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void relabelLabels(String labelPath, int[] newIds, String outputPath)
+      throws Exception {
+    List<String> lines = ReadWriteUtil.readFileAllLines(labelPath);
+    if (lines.size() > 1 && lines.get(1).contains(",")) {
+      ArrayList<ArrayList<Integer>> labels = GraphUtil.ReadGraph(labelPath);
+      ArrayList<ArrayList<Integer>> newLabels = new ArrayList<>(labels.size());
+      for (int i = 0; i < labels.size(); i++) {
+        newLabels.add(null);
+      }
+      for (int id = 0; id < labels.size(); id++) {
+        newLabels.set(newIds[id], labels.get(id));
+      }
+      GraphUtil.writeGraphArrayList(newLabels, outputPath);
+    } else {
+      ArrayList<Integer> labelList = OwnMethods.readIntegerArray(labelPath);
+      int[] newLabelList = new int[labelList.size()];
+      for (int id = 0; id < labelList.size(); id++) {
+        newLabelList[newIds[id]] = labelList.get(id);
+      }
+      FileWriter writer = Util.getFileWriter(outputPath);
+      for (int label : newLabelList) {
+        writer.write(label + "\n");
+      }
+      Util.close(writer);
+    }
+  }
+
+  public static void writeIdMap(int[] newIds, String outputPath) throws Exception {
+    FileWriter writer = Util.getFileWriter(outputPath);
+    for (int id = 0; id < newIds.length; id++) {
+      writer.write(String.format("%d,%d\n", id, newIds[id]));
+    }
+    Util.close(writer);
+  }
+
+  /**
+   * @param idMapPath written by {@link #writeIdMap(int[], String)}
+   * @return newIds[oldId]
+   * @throws Exception
+   */
+  public static int[] readIdMap(String idMapPath) throws Exception {
+    List<String> lines = ReadWriteUtil.readFileAllLines(idMapPath);
+    int[] newIds = new int[lines.size()];
+    for (String line : lines) {
+      String[] strings = line.split(",");
+      newIds[Integer.parseInt(strings[0])] = Integer.parseInt(strings[1]);
+    }
+    return newIds;
+  }
+
+  /**
+   * Rewrite the Wikidata files keyed by the graph ids into {@code outputDir}:
+   * graph_property_edge.txt ({@code startId,property,endId}), entity_string_label.txt
+   * ({@code id,label}) and entity_map.txt ({@code id,QId}, which must stay sorted by the id).
+   * Files missing in {@code dataDir} are skipped.
+   *
+   * @param dataDir the Wikidata directory (see {@link Wikidata#Wikidata(String)})
+   * @param idMapPath the id_map.txt written by {@link #relabel}
+   * @param outputDir
+   * @throws Exception
+   */
+  public static void relabelWikidataSideFiles(String dataDir, String idMapPath, String outputDir)
+      throws Exception {
+    Util.checkPathExist(idMapPath);
+    int[] newIds = readIdMap(idMapPath);
+    new File(outputDir).mkdirs();
+    Wikidata wikidata = new Wikidata(dataDir);
+    if (exists(wikidata.graphPropertyEdgePath)) {
+      relabelColumns(wikidata.graphPropertyEdgePath, newIds,
+          getOutputPath(outputDir, wikidata.graphPropertyEdgePath), 0, 2);
+    }
+    if (exists(wikidata.entityStringLabelMapPath)) {
+      relabelColumns(wikidata.entityStringLabelMapPath, newIds,
+          getOutputPath(outputDir, wikidata.entityStringLabelMapPath), 0);
+    }
+    if (exists(wikidata.entityMapPath)) {
+      relabelSortedMap(wikidata.entityMapPath, newIds,
+          getOutputPath(outputDir, wikidata.entityMapPath));
+    }
+  }
+
+  private static boolean exists(String path) {
+    if (Util.pathExist(path)) {
+      return true;
+    }
+    LOGGER.info(path + " does not exist and is skipped");
+    return false;
+  }
+
+  /**
+   * Replace the ids in the given columns of a comma separated file. The line order is kept.
+   *
+   * @param inputPath
+   * @param newIds
+   * @param outputPath
+   * @param idColumns
+   * @throws Exception
+   */
+  public static void relabelColumns(String inputPath, int[] newIds, String outputPath,
+      int... idColumns) throws Exception {
+    LOGGER.info(String.format("relabel %s to %s", inputPath, outputPath));
+    BufferedReader reader = Util.getBufferedReader(inputPath);
+    FileWriter writer = Util.getFileWriter(outputPath);
+    String line = null;
+    while ((line = reader.readLine()) != null) {
+      String[] strings = line.split(",", -1);
+      for (int column : idColumns) {
+        strings[column] = Integer.toString(newIds[Integer.parseInt(strings[column])]);
+      }
+      writer.write(String.join(",", strings) + "\n");
+    }
+    Util.close(reader);
+    Util.close(writer);
+  }
+
+  /**
+   * Rewrite a map file {@code id,value} with one line per id, ordered by the new id.
+   *
+   * @param inputPath
+   * @param newIds
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void relabelSortedMap(String inputPath, int[] newIds, String outputPath)
+      throws Exception {
+    LOGGER.info(String.format("relabel %s to %s", inputPath, outputPath));
+    String[] values = new String[newIds.length];
+    for (String line : ReadWriteUtil.readFileAllLines(inputPath)) {
+      int index = line.indexOf(',');
+      values[newIds[Integer.parseInt(line.substring(0, index))]] = line.substring(index + 1);
+    }
+    FileWriter writer = Util.getFileWriter(outputPath);
+    for (int id = 0; id < values.length; id++) {
+      if (values[id] != null) {
+        writer.write(id + "," + values[id] + "\n");
+      }
+    }
+    Util.close(writer);
+  }
+}
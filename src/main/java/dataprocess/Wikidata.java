@@ -38,6 +38,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import commons.ArrayUtil;
+import commons.ChunkedFileReader;
 import commons.Config;
 import commons.Entity;
 import commons.GraphUtil;
@@ -47,6 +48,15 @@ import commons.RisoTreeUtil;
 import commons.Util;
 import graph.Construct_RisoTree;
 
+/**
+ * Extraction and loading of the Wikidata dump.
+ * <p>
+ * To load with the id locality of {@link HilbertRelabel}, run it (Driver function hilbertRelabel
+ * with the dataDir option) after the extraction and before any load function. It rewrites
+ * graph.txt, entity.txt, graph_label.txt and the files keyed by the graph ids
+ * (graph_property_edge.txt, entity_string_label.txt and entity_map.txt). All the load functions
+ * must then read the files of its output directory.
+ */
 public class Wikidata {
 
   /**
@@ -79,7 +89,7 @@ public class Wikidata {
   private final static String propertyStr = "<http://www.wikidata.org/prop/direct/P";
   private final static String entityStr = "<http://www.wikidata.org/entity/Q";
 
-  private final static String instanceOfStr = "<http://www.wikidata.org/prop/direct/P31>";
+  final static String instanceOfStr = "<http://www.wikidata.org/prop/direct/P31>";
   private final static String coordinateStr = "<http://www.wikidata.org/prop/direct/P625>";
 
   private static final Logger LOGGER = Logger.getLogger(Wikidata.class.getName());
@@ -1701,6 +1711,26 @@ public class Wikidata {
     }
   }
 
+  /**
+   * Run {@link #extractEntityMap()}, {@link #extractProperties()}, {@link #extractStringLabels()}
+   * and {@link #extractEntityToEntityRelation()} in a single parallel pass over the full dump. The
+   * cut files are not needed.
+   *
+   * @param threadCount number of parsing threads
+   * @throws Exception
+   */
+  public void extractAll(int threadCount) throws Exception {
+    long start = System.currentTimeMillis();
+    int count = new WikidataDumpPipeline(fullfilePath, entityMapPath, threadCount,
+        ChunkedFileReader.defaultChunkSize)
+            .addExtractor(
+                new WikidataDumpPipeline.PropertiesExtractor(propertyMapPath, entityPropertiesPath))
+            .addExtractor(new WikidataDumpPipeline.StringLabelExtractor(entityStringLabelMapPath))
+            .addExtractor(new WikidataDumpPipeline.EntityRelationExtractor(singleGraphPath)).run();
+    LOGGER.info(String.format("%d entities extracted in %d ms", count,
+        System.currentTimeMillis() - start));
+  }
+
   private void writeGraphRow(FileWriter writer, int graphId, TreeSet<Integer> neighbors)
       throws Exception {
     writer.write(String.format("%d,%d", graphId, neighbors.size()));
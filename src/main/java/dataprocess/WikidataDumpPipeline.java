@@ -0,0 +1,435 @@
+package dataprocess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+import org.roaringbitmap.RoaringBitmap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import commons.ChunkedFileReader;
+import commons.Util;
+
+/**
+ * Single-pass preprocessing of the wikidata truthy dump. It replaces the sequence
+ * {@code cutPropertyAndEdge, cutLabelFile, extractEntityMap, extractProperties,
+ * extractStringLabels, extractEntityToEntityRelation} of {@link Wikidata}, which scans the dump
+ * (or a cut of it) once per step.
+ * <p>
+ * The dump is split into line-aligned chunks that are parsed by a thread pool (see
+ * {@link ChunkedFileReader}). Within a chunk the rows are grouped into segments of consecutive rows
+ * with the same Q-entity subject, and every extractor folds the rows of a segment into its own
+ * state. Chunks are merged
+ * on the calling thread in file order, so a subject split by a chunk boundary is combined before
+ * it is written, and graph ids are assigned in the order subjects first appear, the same as
+ * {@link Wikidata#extractEntityMap()}. Q-entities that only appear as objects are appended as
+ * leaves (in QId order) at the end.
+ * <p>
+ * Outputs (the same paths and formats as the sequential methods):
+ * <ul>
+ * <li>entity_map.txt: {@code graphId,QId};</li>
+ * <li>entity_properties.txt: one json object of the properties of an entity per line;</li>
+ * <li>entity_string_label.txt: {@code graphId,label};</li>
+ * <li>graph_single.txt: single-direction graph without 'instance of' edges. The neighbors of a
+ * subject may not have a graph id yet when the subject is written, so the rows are written with
+ * QIds first and relabeled after the pass.</li>
+ * </ul>
+ */
+public class WikidataDumpPipeline {
+
+  private static final Logger LOGGER = Logger.getLogger(WikidataDumpPipeline.class.getName());
+
+  /**
+   * Extract something from the rows of each subject. {@link #accept(Object, String, String[])} is
+   * called by the parsing threads, the other methods by the merging thread in file order.
+   *
+   * @param <T> the state of a subject
+   */
+  public interface DumpExtractor<T> {
+    /**
+     * Fold a row into the state of its subject.
+     *
+     * @param state null if no row of this subject has been accepted in the current chunk
+     * @param line the raw row
+     * @param spo the decoded row
+     * @return the new state, null if still nothing to extract
+     */
+    T accept(T state, String line, String[] spo);
+
+    /**
+     * Combine the states of the same subject from two consecutive chunks.
+     */
+    T combine(T previous, T next);
+
+    void write(int graphId, int QId, T state) throws Exception;
+
+    /**
+     * Called after all the subjects and leaves have graph ids.
+     *
+     * @param QIdToGraphId
+     * @param nodeCount
+     * @throws Exception
+     */
+    void finish(int[] QIdToGraphId, int nodeCount) throws Exception;
+  }
+
+  /**
+   * Consecutive rows of one subject within a chunk.
+   */
+  private static class Segment {
+    final int QId;
+    final Object[] states;
+
+    Segment(int QId, int extractorCount) {
+      this.QId = QId;
+      this.states = new Object[extractorCount];
+    }
+  }
+
+  private static class Chunk {
+    final List<Segment> segments = new ArrayList<>();
+    final RoaringBitmap objects = new RoaringBitmap();
+    long lineCount = 0;
+  }
+
+  private final String dumpPath;
+  private final String entityMapPath;
+  private final List<DumpExtractor<Object>> extractors = new ArrayList<>();
+  private final int threadCount;
+  private final long chunkSize;
+
+  // merging state
+  private FileWriter mapWriter;
+  private final RoaringBitmap subjects = new RoaringBitmap();
+  private final RoaringBitmap objects = new RoaringBitmap();
+  private int[] graphIdToQId = new int[1024];
+  private int nodeCount = 0;
+  private Segment carry = null;
+
+  public WikidataDumpPipeline(String dumpPath, String entityMapPath, int threadCount,
+      long chunkSize) {
+    this.dumpPath = dumpPath;
+    this.entityMapPath = entityMapPath;
+    this.threadCount = threadCount;
+    this.chunkSize = chunkSize;
+  }
+
+  @SuppressWarnings("unchecked")
+  public WikidataDumpPipeline addExtractor(DumpExtractor<?> extractor) {
+    extractors.add((DumpExtractor<Object>) extractor);
+    return this;
+  }
+
+  /**
+   * Run all the extractors in one pass over the dump.
+   *
+   * @return the number of entities in the entity map
+   * @throws Exception
+   */
+  public int run() throws Exception {
+    LOGGER.info("read from " + dumpPath);
+    mapWriter = Util.getFileWriter(entityMapPath);
+    long[] lineCount = new long[1];
+    int chunkCount = ChunkedFileReader.process(dumpPath, chunkSize, threadCount,
+        this::parseChunk, chunk -> {
+          merge(chunk);
+          lineCount[0] += chunk.lineCount;
+          LOGGER.info(String.format("%d lines, %d subjects", lineCount[0], nodeCount));
+        });
+    LOGGER.info(String.format("%d chunks, %d threads", chunkCount, threadCount));
+
+    if (carry != null) {
+      flush(carry);
+      carry = null;
+    }
+    RoaringBitmap leaves = RoaringBitmap.andNot(objects, subjects);
+    LOGGER.info("leaf count: " + leaves.getCardinality());
+    for (int QId : leaves) {
+      assignGraphId(QId);
+    }
+    Util.close(mapWriter);
+
+    int[] QIdToGraphId = getQIdToGraphIdMap();
+    for (DumpExtractor<Object> extractor : extractors) {
+      extractor.finish(QIdToGraphId, nodeCount);
+    }
+    return nodeCount;
+  }
+
+  private Chunk parseChunk(List<String> lines) {
+    Chunk chunk = new Chunk();
+    Segment segment = null;
+    for (String line : lines) {
+      chunk.lineCount++;
+      if (StringUtils.countMatches(line, ' ') < 2) {
+        continue;
+      }
+      String[] spo = Wikidata.decodeRow(line);
+      if (Wikidata.isQEntity(spo[2])) {
+        chunk.objects.add(Wikidata.getId(spo[2]));
+      }
+      if (!Wikidata.isQEntity(spo[0])) {
+        continue;
+      }
+      int QId = Wikidata.getId(spo[0]);
+      if (segment == null || segment.QId != QId) {
+        segment = new Segment(QId, extractors.size());
+        chunk.segments.add(segment);
+      }
+      for (int j = 0; j < extractors.size(); j++) {
+        segment.states[j] = extractors.get(j).accept(segment.states[j], line, spo);
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * Merge a chunk in file order. The last segment is kept as {@link #carry} because the next chunk
+   * may continue it.
+   */
+  private void merge(Chunk chunk) throws Exception {
+    for (Segment segment : chunk.segments) {
+      if (carry != null && carry.QId == segment.QId) {
+        for (int i = 0; i < extractors.size(); i++) {
+          Object previous = carry.states[i], next = segment.states[i];
+          carry.states[i] = previous == null ? next
+              : next == null ? previous : extractors.get(i).combine(previous, next);
+        }
+        continue;
+      }
+      if (carry != null) {
+        flush(carry);
+      }
+      carry = segment;
+    }
+    objects.or(chunk.objects);
+  }
+
+  private void flush(Segment segment) throws Exception {
+    // Same assumption as the sequential extraction: rows of a subject are clustered.
+    if (subjects.contains(segment.QId)) {
+      throw new Exception(segment.QId + " already exists before here!");
+    }
+    subjects.add(segment.QId);
+    int graphId = assignGraphId(segment.QId);
+    for (int i = 0; i < extractors.size(); i++) {
+      if (segment.states[i] != null) {
+        extractors.get(i).write(graphId, segment.QId, segment.states[i]);
+      }
+    }
+  }
+
+  private int assignGraphId(int QId) throws Exception {
+    if (nodeCount == graphIdToQId.length) {
+      graphIdToQId = Arrays.copyOf(graphIdToQId, nodeCount * 2);
+    }
+    graphIdToQId[nodeCount] = QId;
+    mapWriter.write(String.format("%d,%d\n", nodeCount, QId));
+    return nodeCount++;
+  }
+
+  private int[] getQIdToGraphIdMap() {
+    int maxQId = -1;
+    for (int i = 0; i < nodeCount; i++) {
+      maxQId = Math.max(maxQId, graphIdToQId[i]);
+    }
+    int[] map = new int[maxQId + 1];
+    Arrays.fill(map, -1);
+    for (int i = 0; i < nodeCount; i++) {
+      map[graphIdToQId[i]] = i;
+    }
+    return map;
+  }
+
+  /**
+   * The same rows and rules as {@link Wikidata#extractProperties()} on the attribute cut: property
+   * predicates with a non-entity object.
+   */
+  public static class PropertiesExtractor implements DumpExtractor<JsonObject> {
+    private final Map<Integer, String> propertyMap;
+    private final FileWriter writer;
+
+    public PropertiesExtractor(String propertyMapPath, String entityPropertiesPath)
+        throws Exception {
+      propertyMap = Wikidata.readPropertyMap(propertyMapPath);
+      writer = Util.getFileWriter(entityPropertiesPath);
+    }
+
+    @Override
+    public JsonObject accept(JsonObject properties, String line, String[] spo) {
+      String predicate = spo[1];
+      if (!Wikidata.isPropertyPredicate(predicate) || Wikidata.isQEntity(spo[2])) {
+        return properties;
+      }
+      if (properties == null) {
+        properties = new JsonObject();
+      }
+      String object = StringUtils.remove(spo[2], "\"");
+      // monolingual text of a property predicate is neither label nor description.
+      if (object.endsWith("@en")) {
+        return properties;
+      }
+      String propertyName = propertyMap.get(Wikidata.getId(predicate));
+      if (propertyName == null) {
+        return properties;
+      }
+      if (properties.has(propertyName)) {
+        properties.remove(propertyName);
+      }
+      properties.addProperty(propertyName, object);
+      return properties;
+    }
+
+    @Override
+    public JsonObject combine(JsonObject previous, JsonObject next) {
+      for (Entry<String, JsonElement> entry : next.entrySet()) {
+        if (previous.has(entry.getKey())) {
+          previous.remove(entry.getKey());
+        }
+        previous.add(entry.getKey(), entry.getValue());
+      }
+      return previous;
+    }
+
+    @Override
+    public void write(int graphId, int QId, JsonObject properties) throws Exception {
+      properties.addProperty("id", QId);
+      writer.write(properties.toString() + "\n");
+    }
+
+    @Override
+    public void finish(int[] QIdToGraphId, int nodeCount) throws Exception {
+      Util.close(writer);
+    }
+  }
+
+  /**
+   * The same rows and rules as {@link Wikidata#extractStringLabels()} on the label cut. The state is
+   * the best English label so far.
+   */
+  public static class StringLabelExtractor implements DumpExtractor<String> {
+    private final FileWriter writer;
+
+    public StringLabelExtractor(String entityStringLabelMapPath) throws Exception {
+      writer = Util.getFileWriter(entityStringLabelMapPath);
+    }
+
+    @Override
+    public String accept(String label, String line, String[] spo) {
+      if (!line.contains("@en") || !StringUtils.containsIgnoreCase(line, "label")
+          || !spo[2].contains("@en")) {
+        return label;
+      }
+      return label == null || Wikidata.getLanguageLevel(spo[2]) > Wikidata.getLanguageLevel(label)
+          ? spo[2]
+          : label;
+    }
+
+    @Override
+    public String combine(String previous, String next) {
+      return Wikidata.getLanguageLevel(next) > Wikidata.getLanguageLevel(previous) ? next
+          : previous;
+    }
+
+    @Override
+    public void write(int graphId, int QId, String label) throws Exception {
+      int start = label.indexOf("\"");
+      int end = label.lastIndexOf("\"");
+      writer.write(String.format("%d,%s\n", graphId, label.substring(start + 1, end)));
+    }
+
+    @Override
+    public void finish(int[] QIdToGraphId, int nodeCount) throws Exception {
+      Util.close(writer);
+    }
+  }
+
+  /**
+   * The same rows and rules as {@link Wikidata#extractEntityToEntityRelation()} on the edge cut.
+   * The state is the neighbor QIds.
+   */
+  public static class EntityRelationExtractor implements DumpExtractor<TreeSet<Integer>> {
+    private final String singleGraphPath;
+    private final String tempPath;
+    private final FileWriter tempWriter;
+
+    public EntityRelationExtractor(String singleGraphPath) throws Exception {
+      this.singleGraphPath = singleGraphPath;
+      this.tempPath = singleGraphPath + ".QId";
+      tempWriter = Util.getFileWriter(tempPath);
+    }
+
+    @Override
+    public TreeSet<Integer> accept(TreeSet<Integer> neighbors, String line, String[] spo) {
+      if (!Wikidata.isPropertyPredicate(spo[1]) || spo[1].equals(Wikidata.instanceOfStr)
+          || !Wikidata.isQEntity(spo[2])) {
+        return neighbors;
+      }
+      if (neighbors == null) {
+        neighbors = new TreeSet<>();
+      }
+      neighbors.add(Wikidata.getId(spo[2]));
+      return neighbors;
+    }
+
+    @Override
+    public TreeSet<Integer> combine(TreeSet<Integer> previous, TreeSet<Integer> next) {
+      previous.addAll(next);
+      return previous;
+    }
+
+    @Override
+    public void write(int graphId, int QId, TreeSet<Integer> neighbors) throws Exception {
+      tempWriter.write(String.valueOf(graphId));
+      for (int neighbor : neighbors) {
+        tempWriter.write("," + neighbor);
+      }
+      tempWriter.write("\n");
+    }
+
+    /**
+     * Relabel the neighbors to graph ids. Rows are already in graph id order because graph ids are
+     * assigned in the order they are written.
+     */
+    @Override
+    public void finish(int[] QIdToGraphId, int nodeCount) throws Exception {
+      Util.close(tempWriter);
+      BufferedReader reader = new BufferedReader(new FileReader(tempPath));
+      FileWriter writer = Util.getFileWriter(singleGraphPath);
+      writer.write(nodeCount + "\n");
+      int nextGraphId = 0;
+      String line = null;
+      while ((line = reader.readLine()) != null) {
+        String[] strings = StringUtils.split(line, ',');
+        int graphId = Integer.parseInt(strings[0]);
+        for (; nextGraphId < graphId; nextGraphId++) {
+          writer.write(String.format("%d,0\n", nextGraphId));
+        }
+        TreeSet<Integer> neighbors = new TreeSet<>();
+        for (int i = 1; i < strings.length; i++) {
+          neighbors.add(QIdToGraphId[Integer.parseInt(strings[i])]);
+        }
+        writer.write(String.format("%d,%d", graphId, neighbors.size()));
+        for (int neighbor : neighbors) {
+          writer.write("," + neighbor);
+        }
+        writer.write("\n");
+        nextGraphId = graphId + 1;
+      }
+      for (; nextGraphId < nodeCount; nextGraphId++) {
+        writer.write(String.format("%d,0\n", nextGraphId));
+      }
+      Util.close(reader);
+      Util.close(writer);
+      new File(tempPath).delete();
+    }
+  }
+}
@@ -20,6 +20,7 @@ import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.index.strtree.STRtree;
+import bloomfilter.ReachabilityBloomFilter;
 import commons.Config;
 import commons.Entity;
 import commons.Enums;
@@ -37,7 +38,9 @@ import commons.RunTimeConfigure;
 import commons.SaveRectanglesAsImage;
 import commons.Util;
 import cypher.middleware.CypherUtil;
+import graph.GridPointIndex;
 import graph.Naive_Neo4j_Match;
+import graph.SelectivityStatistics;
 
 /**
  * This is used for analyze experiment results in the RisoTree Paper.
@@ -538,6 +541,63 @@ public class Analyze {
     ReadWriteUtil.WriteMap(outputPath, false, histgram);
   }
 
+  /**
+   * Build the spatial histograms and PNSize statistics used to order the predicates.
+   *
+   * @param dbPath
+   * @param dataset
+   * @param gridSize
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void buildSelectivityStatistics(String dbPath, String dataset, int gridSize,
+      String outputPath) throws Exception {
+    GraphDatabaseService service = Neo4jGraphUtility.getDatabaseService(dbPath);
+    SelectivityStatistics statistics = SelectivityStatistics.build(service, dataset, gridSize);
+    Util.close(service);
+    statistics.write(outputPath);
+  }
+
+  /**
+   * Build the grid point index of a point-only layer used instead of the RisoTree.
+   *
+   * @param dbPath
+   * @param dataset
+   * @param gridSize
+   * @param MAX_HOPNUM
+   * @param maxPNSize
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void buildGridPointIndex(String dbPath, String dataset, int gridSize,
+      int MAX_HOPNUM, int maxPNSize, String outputPath) throws Exception {
+    GraphDatabaseService service = Neo4jGraphUtility.getDatabaseService(dbPath);
+    long start = System.currentTimeMillis();
+    GridPointIndex index =
+        GridPointIndex.build(service, dataset, gridSize, MAX_HOPNUM, maxPNSize);
+    logger.info(String.format("build time: %d ms, points: %d, non-empty cells: %d",
+        System.currentTimeMillis() - start, index.getPointCount(), index.getCellCount()));
+    Util.close(service);
+    index.write(outputPath);
+  }
+
+  /**
+   * Build the reachability index of a graph file and write it to {@code outputPath}.
+   *
+   * @param graphPath
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void buildReachabilityIndex(String graphPath, String outputPath)
+      throws Exception {
+    ArrayList<ArrayList<Integer>> graph = GraphUtil.ReadGraph(graphPath);
+    long start = System.currentTimeMillis();
+    ReachabilityBloomFilter index = ReachabilityBloomFilter.build(graph);
+    logger.info(String.format("build time: %d ms, scc count: %d, size: %d bytes",
+        System.currentTimeMillis() - start, index.getSccCount(), index.getSize()));
+    index.write(outputPath);
+  }
+
   public static void visualizeLeafNodes(String dbPath, String dataset, String rectanglesExtend,
       String imageExtend, String outputPath) throws Exception {
     GraphDatabaseService service = Neo4jGraphUtility.getDatabaseService(dbPath);
@@ -6,6 +6,7 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import org.HdrHistogram.Histogram;
 import org.apache.commons.lang3.StringUtils;
 import org.neo4j.graphdb.ExecutionPlanDescription;
 import org.neo4j.graphdb.GraphDatabaseService;
@@ -20,6 +21,9 @@ import commons.OwnMethods;
 import commons.Query_Graph;
 import commons.ReadWriteUtil;
 import commons.Util;
+import commons.metrics.MetricsRegistry;
+import graph.CostBasedRouter;
+import graph.LeafPathCache;
 import graph.Naive_Neo4j_Match;
 import graph.RisoTreeQueryPN;
 import graph.SpatialFirst_List;
@@ -47,23 +51,52 @@ public class ExperimentUtil {
     queries = queries.subList(0, queryCount);
     int queryId = -1;
     List<ResultRecord> records = new ArrayList<>();
+    // the database is only reopened to drop the page cache for a cold-cache run
+    GraphDatabaseService service = null;
     for (String query : queries) {
       queryId++;
       Util.println(String.format("query id: %d:", queryId));
       Util.println(query);
 
-      GraphDatabaseService service = Neo4jGraphUtility.getDatabaseService(dbPath);
+      if (service == null) {
+        service = Neo4jGraphUtility.getDatabaseService(dbPath);
+      }
       ResultRecord record = runExperiment(service, dataset, method, query, MAX_HOP);
       records.add(record);
 
-      service.shutdown();
       if (clearCache) {
-        OwnMethods.clearCache(password, clearCacheMethod);
+        if (clearCacheMethod != Enums.ClearCacheMethod.INDEX) {
+          service.shutdown();
+          service = null;
+        }
+        clearCache(password, clearCacheMethod);
       }
     }
+    if (service != null) {
+      service.shutdown();
+    }
     return records;
   }
 
+  /**
+   * Clear the cache for a cold-cache run. The INDEX method resets the simulated index page cache
+   * together with the leaf path cache built on top of it, while the others drop the OS page cache
+   * by {@link OwnMethods#clearCache(String, Enums.ClearCacheMethod)}.
+   *
+   * @param password sudo password. Not used by INDEX.
+   * @param clearCacheMethod
+   * @throws Exception
+   */
+  public static void clearCache(String password, Enums.ClearCacheMethod clearCacheMethod)
+      throws Exception {
+    if (clearCacheMethod == Enums.ClearCacheMethod.INDEX) {
+      IndexPageCache.resetAll();
+      LeafPathCache.clearAll();
+    } else {
+      OwnMethods.clearCache(password, clearCacheMethod);
+    }
+  }
+
   /**
    * Run a given query for a method. Print the {@code record} and {@code planDescription}.
    *
@@ -77,42 +110,57 @@ public class ExperimentUtil {
    */
   private static ResultRecord runExperiment(GraphDatabaseService service, String dataset,
       Enums.ExperimentMethod method, String query, int MAX_HOP) throws Exception {
-    ResultRecord record = null;
-    ExecutionPlanDescription planDescription = null;
+    ResultRecord record = executeQuery(service, dataset, method, query, MAX_HOP);
+    Util.println(record);
+    Util.println(record.planDescription);
+    return record;
+  }
+
+  /**
+   * Run a given query for a method with a new query context, so it can be called by concurrent
+   * threads on the same {@code service}.
+   *
+   * @param service
+   * @param dataset
+   * @param method
+   * @param query
+   * @param MAX_HOP
+   * @return
+   * @throws Exception
+   */
+  public static ResultRecord executeQuery(GraphDatabaseService service, String dataset,
+      Enums.ExperimentMethod method, String query, int MAX_HOP) throws Exception {
     switch (method) {
       case NAIVE:
         Naive_Neo4j_Match naive_Neo4j_Match = new Naive_Neo4j_Match(service);
         naive_Neo4j_Match.query(query);
-        planDescription = naive_Neo4j_Match.planDescription;
-        record = new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.NAIVE,
+        return new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.NAIVE,
             naive_Neo4j_Match.getQueryStatisticMap(), naive_Neo4j_Match.planDescription);
-        break;
       case SPATIAL_FIRST:
         SpatialFirst_List spatialFirst_List = new SpatialFirst_List(service, dataset);
         spatialFirst_List.query_Block(query);
-        planDescription = spatialFirst_List.planDescription;
-        record = new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.SPATIAL_FIRST,
+        return new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.SPATIAL_FIRST,
             spatialFirst_List.getQueryStatisticMap(), spatialFirst_List.planDescription);
-        break;
       case RISOTREE:
         RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(service, dataset, MAX_HOP);
         risoTreeQueryPN.queryWithIgnore(query);
-        planDescription = risoTreeQueryPN.planDescription;
-        record = new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.RISOTREE,
+        return new ResultRecord(QueryType.LAGAQ_RANGE, ExperimentMethod.RISOTREE,
             risoTreeQueryPN.getQueryStatisticMap(), risoTreeQueryPN.planDescription);
-        break;
+      case COST_BASED:
+        CostBasedRouter router = new CostBasedRouter(service, dataset, MAX_HOP);
+        router.query(query);
+        return new ResultRecord(QueryType.LAGAQ_RANGE, router.chosenMethod,
+            router.getQueryStatisticMap(), router.planDescription);
       default:
         throw new RuntimeException(String.format("method %s does not exist!", method));
     }
-    Util.println(record);
-    Util.println(planDescription);
-    return record;
   }
 
   public static String getOutputResult(ResultRecord record, Enums.ExperimentMethod method) {
     String string = "";
     switch (method) {
       case NAIVE:
+      case COST_BASED:
         string += record.runTime + "\t";
         string += record.pageHit + "\t";
         string += record.get_iterator_time + "\t";
@@ -170,6 +218,7 @@ public class ExperimentUtil {
     String string = "";
     switch (method) {
       case NAIVE:
+      case COST_BASED:
         string += ResultRecord.getRunTimeAvg(records) + "\t";
         string += ResultRecord.getPageHitAvg(records) + "\t";
         string += ResultRecord.getGetIteratorTimeAvg(records) + "\t";
@@ -208,6 +257,7 @@ public class ExperimentUtil {
   public static String getHeader(Enums.ExperimentMethod method) {
     switch (method) {
       case NAIVE:
+      case COST_BASED:
         return StringUtils.joinWith("\t", "runTime", "pageHit", "getIteratorTime", "iterateTime",
             "resultCount");
       case SPATIAL_FIRST:
@@ -229,16 +279,45 @@ public class ExperimentUtil {
     Util.checkPathExist(dbPath);
     String header = getHeader(method);
     ReadWriteUtil.WriteFile(outputPath, true, "queryPath\t" + header + "\n");
+    String percentileOutputPath = outputPath + "_percentile";
+    ReadWriteUtil.WriteFile(percentileOutputPath, true,
+        "queryPath\tname\t" + String.join("\t", MetricsRegistry.summaryColumns) + "\n");
     String[] queryPathList = queryPaths.split(",");
     for (String queryPath : queryPathList) {
+      RisoTreeQueryPN.metricsRegistry.reset();
       List<ResultRecord> records = runExperiment(dbPath, dataset, method, MAX_HOP, queryPath,
           queryCount, password, clearCache, clearCacheMethod);
       String string = getAverageResultOutput(records, method);
       ReadWriteUtil.WriteFile(outputPath, true,
           StringUtils.joinWith("\t", queryPath, string) + "\n");
+      ReadWriteUtil.WriteFile(percentileOutputPath, true,
+          getPercentileResultOutput(RisoTreeQueryPN.metricsRegistry, queryPath));
     }
   }
 
+  /**
+   * The distribution of each traced phase, e.g., 'RisoTreeQueryPN.LAGAQ_RANGE.verification', one
+   * line per phase. Unlike {@link #getAverageResultOutput(List, ExperimentMethod)}, the times are
+   * in microseconds and the tail (p99) is reported.
+   *
+   * @param registry
+   * @param linePrefix the first column of each line, e.g., the query path
+   * @return
+   */
+  public static String getPercentileResultOutput(MetricsRegistry registry, String linePrefix) {
+    StringBuilder builder = new StringBuilder();
+    Map<String, Histogram> histograms = registry.snapshot();
+    for (String name : histograms.keySet()) {
+      double[] summary = MetricsRegistry.summarize(histograms.get(name));
+      builder.append(linePrefix).append("\t").append(name).append("\t").append((long) summary[0]);
+      for (int i = 1; i < summary.length; i++) {
+        builder.append("\t").append(String.format("%.3f", summary[i]));
+      }
+      builder.append("\n");
+    }
+    return builder.toString();
+  }
+
   /**
    * Get the query statistics to be tracked for given query type and method.
    *
@@ -258,6 +337,11 @@ public class ExperimentUtil {
         return getQueryStatisticsSpatialFirst(queryType);
       case RISOTREE:
         return getQueryStatisticsRisoTreePN(queryType);
+      case COST_BASED:
+        // the statistics shared by all the routed methods
+        return new ArrayList<>(Arrays.asList(QueryStatistic.run_time, QueryStatistic.page_hit_count,
+            QueryStatistic.get_iterator_time, QueryStatistic.iterate_time,
+            QueryStatistic.result_count));
       default:
         throw new Exception(method + " is unknown method!");
     }
@@ -12,12 +12,12 @@ import commons.Enums;
 import commons.Enums.ExperimentMethod;
 import commons.Enums.QueryType;
 import commons.Neo4jGraphUtility;
-import commons.OwnMethods;
 import commons.Query_Graph;
 import commons.Query_Graph.LabelType;
 import commons.ReadWriteUtil;
 import commons.Util;
 import cypher.middleware.CypherDecoder;
+import experiment.ExperimentUtil;
 import experiment.ResultRecord;
 import graph.Naive_Neo4j_Match;
 import graph.RisoTreeQueryPN;
@@ -181,7 +181,7 @@ public class JoinExperimentUtil {
 
       service.shutdown();
       if (clearCache) {
-        OwnMethods.clearCache(password, clearCacheMethod);
+        ExperimentUtil.clearCache(password, clearCacheMethod);
       }
     }
     return records;
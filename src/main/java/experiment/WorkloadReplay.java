@@ -0,0 +1,297 @@
+package experiment;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.neo4j.graphdb.GraphDatabaseService;
+import commons.Config;
+import commons.Enums.CacheMode;
+import commons.Enums.ClearCacheMethod;
+import commons.Enums.ExperimentMethod;
+import commons.Enums.LoadMode;
+import commons.Neo4jGraphUtility;
+import commons.ReadWriteUtil;
+import commons.Util;
+import commons.metrics.MetricsRegistry;
+import graph.IndexPageCache;
+import graph.IndexWarmUp;
+import graph.RisoTreeQueryPN;
+
+/**
+ * Replay a query file against one long-lived database at a given concurrency or arrival rate and
+ * report the throughput and the latency percentiles. Unlike {@link ExperimentUtil#runExperiment},
+ * which measures single queries one by one on a reopened database, it shows how a method behaves
+ * under load.
+ */
+public class WorkloadReplay {
+
+  private static final Logger LOGGER = Logger.getLogger(WorkloadReplay.class.getName());
+
+  /**
+   * Throughput and latency of a replay.
+   */
+  public static class Report {
+    public final ExperimentMethod method;
+    public final LoadMode loadMode;
+    public final int concurrency;
+    /**
+     * queries per second of the open loop. Not used by the closed loop.
+     */
+    public final double rate;
+    /**
+     * latency of the successful requests in nanoseconds. Measured from the scheduled arrival in
+     * the open loop so that the queueing delay is included.
+     */
+    public final Histogram latency;
+    public final long errorCount;
+    public final long elapsedNanos;
+
+    Report(ExperimentMethod method, LoadMode loadMode, int concurrency, double rate,
+        Histogram latency, long errorCount, long elapsedNanos) {
+      this.method = method;
+      this.loadMode = loadMode;
+      this.concurrency = concurrency;
+      this.rate = rate;
+      this.latency = latency;
+      this.errorCount = errorCount;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return completed queries per second
+     */
+    public double getThroughput() {
+      return latency.getTotalCount() * 1000000000.0 / elapsedNanos;
+    }
+
+    public static String getHeader() {
+      return String.join("\t", "method", "loadMode", "concurrency", "rate", "errorCount",
+          "throughput(qps)", String.join("\t", MetricsRegistry.summaryColumns));
+    }
+
+    public String toLine() {
+      StringBuilder builder = new StringBuilder();
+      builder.append(String.join("\t", method.name(), loadMode.name(), "" + concurrency,
+          "" + rate, "" + errorCount, String.format("%.2f", getThroughput())));
+      double[] summary = MetricsRegistry.summarize(latency);
+      builder.append("\t").append((long) summary[0]);
+      for (int i = 1; i < summary.length; i++) {
+        builder.append("\t").append(String.format("%.3f", summary[i]));
+      }
+      return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+      return getHeader() + "\n" + toLine();
+    }
+  }
+
+  /**
+   * Replay the queries of {@code queryPath} for each method and append a report line per method
+   * to {@code outputPath}. The phase percentiles of each method are appended to
+   * '{outputPath}_percentile' and pushed to the exporters of
+   * {@link RisoTreeQueryPN#metricsRegistry} (see the Driver options metricsPath and jmxMetrics).
+   * The label path usage is recorded during the replays (see
+   * {@link RisoTreeQueryPN#pathUsageUsed}) and written to '{outputPath}_path_usage'.
+   *
+   * @param dbPath
+   * @param dataset
+   * @param methods comma separated, e.g., 'RISOTREE,SPATIAL_FIRST'
+   * @param MAX_HOP
+   * @param queryPath in the format of {@link Prepare#generateExperimentCypherQuery}
+   * @param queryCount number of distinct queries read from {@code queryPath}
+   * @param requestCount number of requests. The queries are replayed round-robin.
+   * @param loadMode
+   * @param concurrency number of clients (CLOSED) or workers (OPEN)
+   * @param rate queries per second for the OPEN mode. Must be positive for it.
+   * @param cacheMode PRELOAD reads the path usage recorded in '{outputPath}_path_usage' by the
+   *        previous replays. INDEX_COLD reads the index through an empty
+   *        {@link IndexPageCache} so no password is needed
+   * @param password for clearing the cache in the COLD mode
+   * @param clearCacheMethod
+   * @param outputPath
+   * @throws Exception
+   */
+  public static void replayExperiment(String dbPath, String dataset, String methods, int MAX_HOP,
+      String queryPath, int queryCount, int requestCount, LoadMode loadMode, int concurrency,
+      double rate, CacheMode cacheMode, String password, ClearCacheMethod clearCacheMethod,
+      String outputPath) throws Exception {
+    checkRate(loadMode, rate);
+    Util.checkPathExist(dbPath);
+    List<String> queries = ReadWriteUtil.readFileAllLines(queryPath, Config.SKIPFLAG);
+    queries = queries.subList(0, Math.min(queryCount, queries.size()));
+    if (!new File(outputPath).exists()) {
+      ReadWriteUtil.WriteFile(outputPath, true,
+          "queryPath\tcacheMode\t" + Report.getHeader() + "\n");
+    }
+    String pathUsagePath = outputPath + "_path_usage";
+    if (cacheMode == CacheMode.PRELOAD && new File(pathUsagePath).exists()) {
+      RisoTreeQueryPN.pathUsage.read(pathUsagePath);
+    }
+    boolean pathUsageUsed = RisoTreeQueryPN.pathUsageUsed;
+    RisoTreeQueryPN.pathUsageUsed = true;
+    try {
+      replayMethods(dbPath, dataset, methods, MAX_HOP, queryPath, queries, requestCount,
+          loadMode, concurrency, rate, cacheMode, password, clearCacheMethod, outputPath);
+    } finally {
+      RisoTreeQueryPN.pathUsageUsed = pathUsageUsed;
+    }
+    RisoTreeQueryPN.pathUsage.write(pathUsagePath);
+  }
+
+  private static void replayMethods(String dbPath, String dataset, String methods, int MAX_HOP,
+      String queryPath, List<String> queries, int requestCount, LoadMode loadMode,
+      int concurrency, double rate, CacheMode cacheMode, String password,
+      ClearCacheMethod clearCacheMethod, String outputPath) throws Exception {
+    for (String methodString : methods.split(",")) {
+      ExperimentMethod method = ExperimentMethod.valueOf(methodString.trim());
+      if (cacheMode == CacheMode.COLD || cacheMode == CacheMode.PRELOAD) {
+        ExperimentUtil.clearCache(password, clearCacheMethod);
+      }
+      GraphDatabaseService service = Neo4jGraphUtility.getDatabaseService(dbPath);
+      boolean printEnabled = Util.printEnabled;
+      boolean indexPageCacheUsed = RisoTreeQueryPN.indexPageCacheUsed;
+      Util.printEnabled = false;
+      try {
+        if (cacheMode == CacheMode.WARM) {
+          for (String query : queries) {
+            ExperimentUtil.executeQuery(service, dataset, method, query, MAX_HOP);
+          }
+        } else if (cacheMode == CacheMode.PRELOAD) {
+          new IndexWarmUp(service, dataset).warmUp(concurrency);
+        } else if (cacheMode == CacheMode.INDEX_COLD) {
+          RisoTreeQueryPN.indexPageCacheUsed = true;
+          ExperimentUtil.clearCache(password, ClearCacheMethod.INDEX);
+        }
+        RisoTreeQueryPN.metricsRegistry.reset();
+        Report report = replay(service, dataset, method, MAX_HOP, queries, requestCount,
+            loadMode, concurrency, rate);
+        LOGGER.info(report.toString());
+        if (RisoTreeQueryPN.indexPageCacheUsed) {
+          IndexPageCache indexPageCache = IndexPageCache.getDatabaseCache(service);
+          LOGGER.info(String.format("index page hit: %d, miss: %d", indexPageCache.hitCount,
+              indexPageCache.missCount));
+        }
+        ReadWriteUtil.WriteFile(outputPath, true,
+            String.join("\t", queryPath, cacheMode.name(), report.toLine()) + "\n");
+        ReadWriteUtil.WriteFile(outputPath + "_percentile", true,
+            ExperimentUtil.getPercentileResultOutput(RisoTreeQueryPN.metricsRegistry,
+                queryPath + "\t" + cacheMode));
+        RisoTreeQueryPN.metricsRegistry.export();
+      } finally {
+        Util.printEnabled = printEnabled;
+        RisoTreeQueryPN.indexPageCacheUsed = indexPageCacheUsed;
+        service.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Replay the queries on an open database.
+   *
+   * @param service
+   * @param dataset
+   * @param method
+   * @param MAX_HOP
+   * @param queries
+   * @param requestCount
+   * @param loadMode
+   * @param concurrency
+   * @param rate queries per second for the OPEN mode. Must be positive for it.
+   * @return
+   * @throws Exception
+   */
+  public static Report replay(GraphDatabaseService service, String dataset,
+      ExperimentMethod method, int MAX_HOP, List<String> queries, int requestCount,
+      LoadMode loadMode, int concurrency, double rate) throws Exception {
+    checkRate(loadMode, rate);
+    ConcurrentHistogram latency = new ConcurrentHistogram(MetricsRegistry.significantDigits);
+    AtomicLong errorCount = new AtomicLong();
+    AtomicInteger threadId = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+      Thread thread = new Thread(runnable, "workload-replay-" + threadId.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+    long start = System.nanoTime();
+    try {
+      switch (loadMode) {
+        case CLOSED:
+          AtomicInteger next = new AtomicInteger();
+          List<Future<?>> clients = new ArrayList<>(concurrency);
+          for (int i = 0; i < concurrency; i++) {
+            clients.add(executor.submit(() -> {
+              int requestId;
+              while ((requestId = next.getAndIncrement()) < requestCount) {
+                runRequest(service, dataset, method, MAX_HOP,
+                    queries.get(requestId % queries.size()), System.nanoTime(), latency,
+                    errorCount);
+              }
+            }));
+          }
+          for (Future<?> client : clients) {
+            client.get();
+          }
+          break;
+        case OPEN:
+          long interval = (long) (1000000000.0 / rate);
+          for (int requestId = 0; requestId < requestCount; requestId++) {
+            long arrival = start + requestId * interval;
+            long wait;
+            while ((wait = arrival - System.nanoTime()) > 0) {
+              LockSupport.parkNanos(wait);
+            }
+            String query = queries.get(requestId % queries.size());
+            executor.execute(() -> runRequest(service, dataset, method, MAX_HOP, query, arrival,
+                latency, errorCount));
+          }
+          executor.shutdown();
+          executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+          break;
+        default:
+          throw new Exception(loadMode + " does not exist!");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    return new Report(method, loadMode, concurrency, rate, latency, errorCount.get(),
+        elapsedNanos);
+  }
+
+  /**
+   * The OPEN mode schedules the arrivals 1 / rate apart, so it needs a positive rate.
+   *
+   * @param loadMode
+   * @param rate
+   */
+  private static void checkRate(LoadMode loadMode, double rate) {
+    if (loadMode == LoadMode.OPEN && !(rate > 0)) {
+      throw new IllegalArgumentException(
+          String.format("rate of the OPEN mode should be positive rather than %s!", rate));
+    }
+  }
+
+  private static void runRequest(GraphDatabaseService service, String dataset,
+      ExperimentMethod method, int MAX_HOP, String query, long startNanos, Histogram latency,
+      AtomicLong errorCount) {
+    try {
+      ExperimentUtil.executeQuery(service, dataset, method, query, MAX_HOP);
+      latency.recordValue(System.nanoTime() - startNanos);
+    } catch (Exception e) {
+      errorCount.incrementAndGet();
+      LOGGER.warning(String.format("%s fails: %s", query, e.getMessage()));
+    }
+  }
+}
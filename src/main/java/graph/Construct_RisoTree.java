@@ -7,6 +7,7 @@ import java.io.FileWriter;
 import java.util.*;
 import java.util.logging.Logger;
 
+import bloomfilter.BlockedBloomFilter;
 import bloomfilter.MurmurBloomFilter;
 import bloomfilter.PrimeBloomFilter;
 import com.google.common.hash.BloomFilter;
@@ -50,6 +51,11 @@ public class Construct_RisoTree {
     static ArrayList<Integer> labels;// all labels in the graph
 
     private final static int PNLogCount = 3000;
+    /**
+     * First line of a bloom filter file of {@link BlockedBloomFilter}s. The files written before
+     * it keep {@link MurmurBloomFilter} bits and have to be rebuilt by the PN construction.
+     */
+    static final String BFFileHeader = "#BF_BLOCKED_V1";
 
 
     static void initParametersServer() {
@@ -266,6 +272,65 @@ public class Construct_RisoTree {
     //// }
     // }
 
+    /**
+     * Load the bloom filters of a specific hop from PNPathAndPreffix_hop_BF_0.05.txt. Only the
+     * filters of the ignored PNs ([]) are stored on the leaf nodes, as long[] with property name
+     * BF_... (see {@link BlockedBloomFilter#toLongArray()}). PN of this hop should be loaded
+     * first. The file must start with {@link #BFFileHeader}.
+     *
+     * @param PNPathAndPreffix
+     * @param hop
+     * @param db_path
+     * @throws Exception
+     */
+    public static void loadBloomFilter(String PNPathAndPreffix, int hop, String db_path)
+            throws Exception {
+        String filePath = getBFFilePath(PNPathAndPreffix, hop, Config.bloomFilterFpp);
+        Util.checkPathExist(filePath);
+        Util.checkPathExist(db_path);
+        LOGGER.info("read bloom filter from " + filePath);
+        BufferedReader reader = new BufferedReader(new FileReader(new File(filePath)));
+        String line = reader.readLine();
+        if (!BFFileHeader.equals(line)) {
+            Util.close(reader);
+            throw new Exception(String.format(
+                    "%s is not in the format %s, rebuild it by the PN construction", filePath,
+                    BFFileHeader));
+        }
+        BatchInserter inserter = Util.getBatchInserter(db_path);
+
+        line = reader.readLine();
+        int index = 0, loadCount = 0;
+        while (line != null) {
+            long nodeID = Long.parseLong(line);
+            Map<String, Object> properties = inserter.getNodeProperties(nodeID);
+            while ((line = reader.readLine()) != null && !line.matches("\\d+$")) {
+                // propertyName,[long array of BlockedBloomFilter]
+                String[] lineList = line.split(",", 2);
+                Object pn = properties.get(lineList[0]);
+                if (!(pn instanceof int[]) || ((int[]) pn).length != 0) {
+                    continue; // exact PN is kept, no need of the filter
+                }
+                String content = lineList[1];
+                String[] contentList = content.substring(1, content.length() - 1).split(", ");
+                long[] bf = new long[contentList.length];
+                for (int i = 0; i < contentList.length; i++) {
+                    bf[i] = Long.parseLong(contentList[i]);
+                }
+                properties.put(RisoTreeUtil.getBFName(lineList[0]), bf);
+                loadCount++;
+            }
+            inserter.setNodeProperties(nodeID, properties);
+            index++;
+            if (index % PNLogCount == 0) {
+                LOGGER.info("" + index);
+            }
+        }
+        LOGGER.info(String.format("%d bloom filters loaded", loadCount));
+        Util.close(reader);
+        Util.close(inserter);
+    }
+
     /**
      * The file only contains two hop information
      */
@@ -878,7 +943,9 @@ public class Construct_RisoTree {
         LOGGER.info("construct 0-hop");
         long start = System.currentTimeMillis();
         FileWriter writer1 = new FileWriter(new File(getPNFilePath(PNPathAndPreffix, 0)));
-        FileWriter writer2 = new FileWriter(new File(getBFFilePath(PNPathAndPreffix, 0, 0.05)));
+        FileWriter writer2 = new FileWriter(
+                new File(getBFFilePath(PNPathAndPreffix, 0, Config.bloomFilterFpp)));
+        writer2.write(BFFileHeader + "\n");
         int index = 0;
         for (long nodeId : containIDMap.keySet()) {
             index++;
@@ -889,8 +956,9 @@ public class Construct_RisoTree {
             writer2.write(nodeId + "\n");
             // 0-hop path neighbors are spatial objects themselves.
             TreeSet<Integer> pathNeighbors = new TreeSet<>(containIDMap.get(nodeId));
-            HashMap<Integer, ArrayList<Integer>> pathLabelNeighbor = dividedByLabels(pathNeighbors, labelStringMap, maxPNSize);
-            outPathLabelNeighbors(pathLabelNeighbor, PNPrefix, writer1, writer2, labelStringMap);
+            // bloom filters are built from the complete PN so maxPNSize is applied when output
+            HashMap<Integer, ArrayList<Integer>> pathLabelNeighbor = dividedByLabels(pathNeighbors, labelStringMap, Integer.MAX_VALUE);
+            outPathLabelNeighbors(pathLabelNeighbor, PNPrefix, writer1, writer2, labelStringMap, maxPNSize);
         }
         Util.close(writer1);
         Util.close(writer2);
@@ -987,7 +1055,9 @@ public class Construct_RisoTree {
         // more than one hop
         LOGGER.info(String.format("construct %d hop", hop));
         FileWriter writer1 = new FileWriter(new File(getPNFilePath(PNPathAndPreffix, hop)));
-        FileWriter writer2 = new FileWriter(new File(getBFFilePath(PNPathAndPreffix, hop, 0.05)));
+        FileWriter writer2 = new FileWriter(
+                new File(getBFFilePath(PNPathAndPreffix, hop, Config.bloomFilterFpp)));
+        writer2.write(BFFileHeader + "\n");
 
         int index = 0;
         long start = System.currentTimeMillis();
@@ -1086,9 +1156,9 @@ public class Construct_RisoTree {
                 }
                 TreeSet<Integer> nextPathNeighbors = getNextPathNeighborsInSet(curPathNeighbors, graph);
                 TreeSet<Integer> prePathNeighbors = getNextPathNeighborsInSet(curPathNeighbors, ingoing_graph);
-                HashMap<Integer, ArrayList<Integer>> pathLabelNeighbors = dividedByLabels(nextPathNeighbors, labelStringMap, maxPNSize);
-                HashMap<Integer, ArrayList<Integer>> pathLabelInNeighbors = dividedByLabels(prePathNeighbors, labelStringMap, maxPNSize);
-                InoutPathLabelNeighbors(pathLabelNeighbors, pathLabelInNeighbors, key, writer1, writer2);
+                HashMap<Integer, ArrayList<Integer>> pathLabelNeighbors = dividedByLabels(nextPathNeighbors, labelStringMap, Integer.MAX_VALUE);
+                HashMap<Integer, ArrayList<Integer>> pathLabelInNeighbors = dividedByLabels(prePathNeighbors, labelStringMap, Integer.MAX_VALUE);
+                InoutPathLabelNeighbors(pathLabelNeighbors, pathLabelInNeighbors, key, writer1, writer2, maxPNSize);
             } else {
                 throw new Exception(String.format("key %s format wrong!", key));
             }
@@ -1135,45 +1205,49 @@ public class Construct_RisoTree {
         }
     }
 
+    /**
+     * Output the PN (set as [] if larger than {@code maxPNSize}) and the bloom filter of the complete
+     * PN. Bloom filter line format: propertyName,bfSize,numOfHash,elementsCount,[int array].
+     */
     private static void outPathLabelNeighbors(HashMap<Integer, ArrayList<Integer>> pathLabelNeighbors,
-                                              String key, FileWriter writer1, FileWriter writer2, String[] labelStringMap) throws Exception {
+                                              String key, FileWriter writer1, FileWriter writer2, String[] labelStringMap,
+                                              int maxPNSize) throws Exception {
         for (int pathEndLabel : pathLabelNeighbors.keySet()) {
             String propertyName = getAttachName(key, pathEndLabel);
 //            String propertyName = getAttachName(key, pathEndLabel, labelStringMap);
             ArrayList<Integer> arrayList = pathLabelNeighbors.get(pathEndLabel);
-            writer1.write(String.format("%s,%s\n", propertyName, arrayList));
-
-            MurmurBloomFilter bf = new MurmurBloomFilter(arrayList.size(), 0.05, 5000, 3);
-            for (int id : arrayList) {
-                bf.add(id);
-            }
-            int[] result = bf.toIntArray();
-//            writer2.write(String.format("%s,%s,%s\n", propertyName, Arrays.toString(result), bf.getFpp()));
-            writer2.write(String.format("%s,%s\n", propertyName, Arrays.toString(result)));
+            writer1.write(String.format("%s,%s\n", propertyName,
+                    arrayList.size() > maxPNSize ? new ArrayList<>() : arrayList));
+            outBloomFilter(propertyName, arrayList, null, writer2);
         }
     }
 
     private static void InoutPathLabelNeighbors(HashMap<Integer, ArrayList<Integer>> pathLabelNeighbors, HashMap<Integer, ArrayList<Integer>> pathLabelInNeighbors,
-                                              String key, FileWriter writer1, FileWriter writer2) throws Exception {
+                                              String key, FileWriter writer1, FileWriter writer2, int maxPNSize) throws Exception {
         for (int pathEndLabel : pathLabelNeighbors.keySet()) {
             String propertyName = getAttachName(key, pathEndLabel);
             ArrayList<Integer> arrayList = pathLabelNeighbors.get(pathEndLabel);
             ArrayList<Integer> inArrayList = pathLabelInNeighbors.get(pathEndLabel);
-            int elementCount = arrayList.size() + inArrayList.size();
-            writer1.write(String.format("%s,%s\n", propertyName, arrayList));
-
-            MurmurBloomFilter bf = new MurmurBloomFilter(elementCount, 0.05, 5000, 3);
-            for (int id : arrayList) {
-                bf.add(id);
-            }
+            writer1.write(String.format("%s,%s\n", propertyName,
+                    arrayList.size() > maxPNSize ? new ArrayList<>() : arrayList));
+            outBloomFilter(propertyName, arrayList, inArrayList, writer2);
+        }
+    }
 
+    private static void outBloomFilter(String propertyName, ArrayList<Integer> arrayList,
+                                       ArrayList<Integer> inArrayList, FileWriter writer) throws Exception {
+        int elementCount = arrayList.size() + (inArrayList == null ? 0 : inArrayList.size());
+        BlockedBloomFilter bf = new BlockedBloomFilter(elementCount, Config.bloomFilterFpp,
+                Config.bloomFilterSeed);
+        for (int id : arrayList) {
+            bf.add(id);
+        }
+        if (inArrayList != null) {
             for (int id : inArrayList) {
                 bf.add(id);
             }
-            int[] result = bf.toIntArray();
-//            writer2.write(String.format("%s,%s,%s\n", propertyName, Arrays.toString(result), bf.getFpp()));
-            writer2.write(String.format("%s,%s\n", propertyName, Arrays.toString(result)));
         }
+        writer.write(String.format("%s,%s\n", propertyName, Arrays.toString(bf.toLongArray())));
     }
 
     // private static long wikiConstructPNTimeOneHop(HashMap<Long, ArrayList<Integer>> containIDMap,
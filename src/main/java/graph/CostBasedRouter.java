@@ -0,0 +1,334 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.ExecutionPlanDescription;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import commons.Enums.ExperimentMethod;
+import commons.Enums.QueryStatistic;
+import commons.MyRectangle;
+import commons.Neo4jGraphUtility;
+import commons.Query_Graph;
+import commons.RTreeUtility;
+import commons.RisoTreeUtil;
+import cypher.middleware.CypherDecoder;
+
+/**
+ * Choose the cheapest one among Naive, SpatialFirst and RisoTree for a LAGAQ-Range query. The cost
+ * of each approach is estimated from the label cardinalities, the MBRs and PNSize properties of the
+ * tree nodes above the leaf level and the {@link SelectivityStatistics} if loaded. Neither a leaf
+ * node nor a pn list is read during the estimation, so it costs much less than the query.
+ */
+public class CostBasedRouter {
+
+  private static final Logger LOGGER = Logger.getLogger(CostBasedRouter.class.getName());
+
+  // relative unit costs. Tune them with the experiment results of each approach.
+  /**
+   * Cost of each vertex with the most selective label expanded by Neo4j.
+   */
+  public static double naiveVertexCost = 1.0;
+  /**
+   * Cost of each located-in spatial object expanded in SpatialFirst.
+   */
+  public static double spatialFirstObjectCost = 1.0;
+  /**
+   * Cost of each Cypher query issued by SpatialFirst (one per overlapped leaf node).
+   */
+  public static double spatialFirstLeafCost = 50.0;
+  /**
+   * Cost of each candidate verified by RisoTree.
+   */
+  public static double risoTreeCandidateCost = 1.0;
+  /**
+   * Cost of setting and removing the label of each candidate in RisoTree. Only charged if the
+   * candidates are verified by labels ({@link RisoTreeQueryPN#newLabelUsed}).
+   */
+  public static double risoTreeLabelCost = 2.0;
+  /**
+   * Cost of passing each candidate as an id parameter and seeking it by id in RisoTree, the default
+   * verification.
+   */
+  public static double risoTreeIdParameterCost = 0.5;
+  /**
+   * Cost of checking the paths of each overlapped leaf node in RisoTree.
+   */
+  public static double risoTreeLeafCost = 1.0;
+
+  GraphDatabaseService service;
+  String dataset;
+  int MAX_HOPNUM;
+  private Map<String, Long> labelCounts = new HashMap<>();
+  // shape of the tree read on the first estimation. -1 if not read yet.
+  private int leafDepth = -1;
+  private int referencesPerLeaf;
+
+  // tracking of the last query
+  public Map<ExperimentMethod, Double> costs;
+  public ExperimentMethod chosenMethod;
+  public long estimate_time;
+  public ExecutionPlanDescription planDescription;
+  public Map<QueryStatistic, Object> queryStatisticMap = new HashMap<>();
+
+  public CostBasedRouter(GraphDatabaseService service, String dataset, int MAX_HOPNUM) {
+    this.service = service;
+    this.dataset = dataset;
+    this.MAX_HOPNUM = MAX_HOPNUM;
+  }
+
+  /**
+   * Run the query with the cheapest approach.
+   *
+   * @param query
+   * @throws Exception
+   */
+  public void query(String query) throws Exception {
+    Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, service);
+    chooseMethod(query_Graph);
+    switch (chosenMethod) {
+      case NAIVE:
+        Naive_Neo4j_Match naive_Neo4j_Match = new Naive_Neo4j_Match(service);
+        naive_Neo4j_Match.query(query);
+        planDescription = naive_Neo4j_Match.planDescription;
+        queryStatisticMap = naive_Neo4j_Match.getQueryStatisticMap();
+        break;
+      case SPATIAL_FIRST:
+        SpatialFirst_List spatialFirst_List = new SpatialFirst_List(service, dataset);
+        spatialFirst_List.query_Block(query_Graph, -1);
+        planDescription = spatialFirst_List.planDescription;
+        queryStatisticMap = spatialFirst_List.getQueryStatisticMap();
+        break;
+      case RISOTREE:
+        RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(service, dataset, MAX_HOPNUM);
+        risoTreeQueryPN.queryWithIgnoreDecoded(query, query_Graph);
+        planDescription = risoTreeQueryPN.planDescription;
+        queryStatisticMap = risoTreeQueryPN.getQueryStatisticMap();
+        break;
+      default:
+        throw new RuntimeException(String.format("method %s does not exist!", chosenMethod));
+    }
+    queryStatisticMap.put(QueryStatistic.run_time,
+        (long) queryStatisticMap.getOrDefault(QueryStatistic.run_time, 0L) + estimate_time);
+  }
+
+  public Map<QueryStatistic, Object> getQueryStatisticMap() {
+    return queryStatisticMap;
+  }
+
+  /**
+   * Estimate the cost of each approach and choose the cheapest one.
+   *
+   * @param query_Graph
+   * @return the chosen method, also kept in {@link #chosenMethod}
+   * @throws Exception
+   */
+  public ExperimentMethod chooseMethod(Query_Graph query_Graph) throws Exception {
+    long start = System.currentTimeMillis();
+    costs = new HashMap<>();
+    try (Transaction tx = service.beginTx()) {
+      costs.put(ExperimentMethod.NAIVE, estimateNaive(query_Graph));
+      double[] spatialCosts = estimateSpatial(query_Graph);
+      costs.put(ExperimentMethod.SPATIAL_FIRST, spatialCosts[0]);
+      costs.put(ExperimentMethod.RISOTREE, spatialCosts[1]);
+      tx.success();
+    }
+
+    chosenMethod = null;
+    for (ExperimentMethod method : costs.keySet()) {
+      if (chosenMethod == null || costs.get(method) < costs.get(chosenMethod)) {
+        chosenMethod = method;
+      }
+    }
+    estimate_time = System.currentTimeMillis() - start;
+    LOGGER.info(String.format("estimated costs: %s, choose %s", costs, chosenMethod));
+    return chosenMethod;
+  }
+
+  /**
+   * Neo4j starts from the query vertex with the most selective label.
+   *
+   * @param query_Graph
+   * @return
+   * @throws Exception
+   */
+  private double estimateNaive(Query_Graph query_Graph) throws Exception {
+    long minLabelCount = Long.MAX_VALUE;
+    for (int i = 0; i < query_Graph.graph.size(); i++) {
+      minLabelCount = Math.min(minLabelCount, getLabelCount(query_Graph.getLabel(i)));
+    }
+    return minLabelCount * naiveVertexCost;
+  }
+
+  /**
+   * Estimate SpatialFirst and RisoTree together because both depend on the overlapped leaf nodes.
+   * SpatialFirst uses the spatial predicate with the smallest area. RisoTree uses the spatial
+   * predicate with the smallest candidate count.
+   * <p>
+   * No leaf node is read. The tree is traversed down to the parents of the leaf nodes, and the
+   * leaf nodes, spatial objects and candidates under each overlapped parent are scaled by the
+   * overlapped fraction of its MBR. The candidates come from the PNSize properties of the parent if
+   * it has them. {@link RisoTreeQueryPN#statistics}, if loaded, replaces the spatial object and
+   * candidate counts of the labels it covers.
+   *
+   * @param query_Graph
+   * @return [SpatialFirst cost, RisoTree cost]
+   * @throws Exception
+   */
+  private double[] estimateSpatial(Query_Graph query_Graph) throws Exception {
+    RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(service, dataset, MAX_HOPNUM);
+    HashMap<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap =
+        risoTreeQueryPN.recognizePaths(query_Graph);
+    SelectivityStatistics statistics = RisoTreeQueryPN.statistics;
+    if (leafDepth == -1) {
+      readTreeShape();
+    }
+
+    double verifyCost = RisoTreeQueryPN.newLabelUsed ? risoTreeLabelCost : risoTreeIdParameterCost;
+    double spatialFirstCost = Double.MAX_VALUE, risoTreeCost = Double.MAX_VALUE;
+    double minArea = Double.MAX_VALUE;
+    Map<Integer, MyRectangle> spatialPredicates = query_Graph.getSpatialPredicates();
+    for (int spatialId : spatialPredicates.keySet()) {
+      MyRectangle rectangle = spatialPredicates.get(spatialId);
+      Set<String> pnSizeNames = new HashSet<>();
+      for (Set<String> paths : spaPathsMap.get(spatialId).values()) {
+        for (String path : paths) {
+          pnSizeNames.add(RisoTreeUtil.getPNSizeName(path));
+        }
+      }
+
+      double leafCount = 0, spatialCount = 0, candidateCount = 0;
+      for (Node parent : getOverlapLeafParents(rectangle)) {
+        double ratio = getOverlapRatio(parent, rectangle);
+        double childCount = leafDepth == 0 ? 1
+            : parent.getDegree(RTreeRelationshipTypes.RTREE_CHILD, Direction.OUTGOING);
+        double parentSpatialCount = childCount * ratio * referencesPerLeaf;
+        leafCount += childCount * ratio;
+        spatialCount += parentSpatialCount;
+        int minPNSize = getMinPNSize(parent, pnSizeNames);
+        candidateCount += minPNSize == -1 ? parentSpatialCount : minPNSize * ratio;
+      }
+      if (statistics != null) {
+        String label = query_Graph.getLabel(spatialId);
+        double selectivity = statistics.estimateSpatialSelectivity(label, rectangle);
+        if (selectivity >= 0) {
+          spatialCount = statistics.estimateSpatialCount(label, rectangle);
+          candidateCount = spatialCount;
+          for (String pnSizeName : pnSizeNames) {
+            double pnSize = statistics.estimatePNSize(pnSizeName, selectivity);
+            if (pnSize >= 0 && pnSize < candidateCount) {
+              candidateCount = pnSize;
+            }
+          }
+        }
+      }
+
+      if (rectangle.area() < minArea) {
+        minArea = rectangle.area();
+        spatialFirstCost =
+            spatialCount * spatialFirstObjectCost + leafCount * spatialFirstLeafCost;
+      }
+      risoTreeCost = Math.min(risoTreeCost,
+          candidateCount * (risoTreeCandidateCost + verifyCost) + leafCount * risoTreeLeafCost);
+    }
+    return new double[] {spatialFirstCost, risoTreeCost};
+  }
+
+  /**
+   * Read the depth of the leaf level and the spatial objects of a leaf node along the first path
+   * from the root. The leaf node on the path is the only one read by the estimation.
+   */
+  private void readTreeShape() {
+    Node node = RTreeUtility.getRTreeRoot(service, dataset);
+    int depth = 0;
+    while (!RTreeUtility.isLeaf(node)) {
+      Relationship child =
+          node.getRelationships(RTreeRelationshipTypes.RTREE_CHILD, Direction.OUTGOING).iterator()
+              .next();
+      node = child.getEndNode();
+      depth++;
+    }
+    leafDepth = depth;
+    referencesPerLeaf =
+        node.getDegree(RTreeRelationshipTypes.RTREE_REFERENCE, Direction.OUTGOING);
+  }
+
+  /**
+   * @param rectangle
+   * @return the tree nodes overlapping {@code rectangle} in the level above the leaf nodes. The
+   *         root if it is a leaf node.
+   */
+  private List<Node> getOverlapLeafParents(MyRectangle rectangle) {
+    List<Node> nodes = new ArrayList<>();
+    Node root = RTreeUtility.getRTreeRoot(service, dataset);
+    if (getOverlapRatio(root, rectangle) > 0) {
+      nodes.add(root);
+    }
+    for (int level = 0; level < leafDepth - 1; level++) {
+      List<Node> children = new ArrayList<>();
+      for (Node node : nodes) {
+        for (Relationship relationship : node
+            .getRelationships(RTreeRelationshipTypes.RTREE_CHILD, Direction.OUTGOING)) {
+          Node child = relationship.getEndNode();
+          if (getOverlapRatio(child, rectangle) > 0) {
+            children.add(child);
+          }
+        }
+      }
+      nodes = children;
+    }
+    return nodes;
+  }
+
+  /**
+   * @param node
+   * @param rectangle
+   * @return the fraction of the node MBR overlapped by {@code rectangle} by assuming uniform
+   *         distribution within the MBR
+   */
+  private static double getOverlapRatio(Node node, MyRectangle rectangle) {
+    MyRectangle mbr = RTreeUtility.getNodeMBR(node);
+    MyRectangle intersect = mbr.intersect(rectangle);
+    if (intersect == null) {
+      return 0;
+    }
+    return mbr.area() == 0 ? 1 : intersect.area() / mbr.area();
+  }
+
+  /**
+   * Get the smallest non-ignored PNSize among {@code pnSizeNames}.
+   *
+   * @param leafNode
+   * @param pnSizeNames
+   * @return -1 if all of them are ignored
+   */
+  private static int getMinPNSize(Node leafNode, Set<String> pnSizeNames) {
+    int minPNSize = Integer.MAX_VALUE;
+    for (String pnSizeName : pnSizeNames) {
+      int size = (int) leafNode.getProperty(pnSizeName, 0);
+      if (size != 0 && size < minPNSize) {
+        minPNSize = size;
+      }
+    }
+    return minPNSize == Integer.MAX_VALUE ? -1 : minPNSize;
+  }
+
+  private long getLabelCount(String label) {
+    Long count = labelCounts.get(label);
+    if (count == null) {
+      count = Neo4jGraphUtility.getLabelCount(service, label);
+      labelCounts.put(label, count);
+      LOGGER.fine(String.format("label %s count: %d", label, count));
+    }
+    return count;
+  }
+}
@@ -0,0 +1,472 @@
+package graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import commons.ChunkedFileReader;
+import commons.Config;
+import commons.Labels.GraphRel;
+import commons.OwnMethods;
+import commons.Util;
+
+/**
+ * Edge import for large edge files. Instead of creating the relationships in file order while
+ * reading line by line:
+ * <ol>
+ * <li>the file is parsed in parallel by {@link ChunkedFileReader} into int triples (start, type,
+ * end);</li>
+ * <li>the triples are sorted by start node in runs of {@code runSize} edges, and the runs are spilled
+ * to binary files in {@code tempDir} (external sort);</li>
+ * <li>the runs are merged and the edges are fed to an {@link EdgeSink} in start node order, so the
+ * {@link BatchInserter} touches the node and relationship stores sequentially. The sink can also
+ * write the relationship CSV of neo4j-admin import.</li>
+ * </ol>
+ * The order of the edges with the same start node is kept. {@link BatchInserter} is single-threaded,
+ * so only parsing and sorting are parallel.
+ */
+public class EdgeImporter {
+
+  private static final Logger LOGGER = Logger.getLogger(EdgeImporter.class.getName());
+
+  public static final int defaultRunSize = 1 << 24;
+
+  /**
+   * Parse a line into edges. Called by the worker threads.
+   */
+  public interface EdgeParser {
+    void parse(String line, EdgeBuffer edges);
+  }
+
+  public interface EdgeSink {
+    void accept(int startId, int typeId, int endId) throws Exception;
+  }
+
+  public static class EdgeBuffer {
+    int[] starts, types, ends;
+    int size = 0;
+
+    public EdgeBuffer(int capacity) {
+      capacity = Math.max(capacity, 16);
+      starts = new int[capacity];
+      types = new int[capacity];
+      ends = new int[capacity];
+    }
+
+    public void add(int startId, int typeId, int endId) {
+      if (size == starts.length) {
+        int capacity = size * 2;
+        starts = Arrays.copyOf(starts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+      }
+      starts[size] = startId;
+      types[size] = typeId;
+      ends[size] = endId;
+      size++;
+    }
+
+    void addAll(EdgeBuffer edges) {
+      for (int i = 0; i < edges.size; i++) {
+        add(edges.starts[i], edges.types[i], edges.ends[i]);
+      }
+    }
+
+    /**
+     * @return keys sorted by start node. The low 32 bits of a key is the index of the edge.
+     */
+    long[] getSortedKeys() {
+      long[] keys = new long[size];
+      for (int i = 0; i < size; i++) {
+        keys[i] = ((long) starts[i] << 32) | i;
+      }
+      Arrays.parallelSort(keys);
+      return keys;
+    }
+  }
+
+  /**
+   * A spilled run being merged.
+   */
+  private static class RunReader {
+    final int runIndex;
+    final DataInputStream input;
+    long remaining;
+    int start, type, end;
+
+    RunReader(int runIndex, File file, long count) throws Exception {
+      this.runIndex = runIndex;
+      this.input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 20));
+      this.remaining = count;
+    }
+
+    boolean next() throws Exception {
+      if (remaining == 0) {
+        input.close();
+        return false;
+      }
+      start = input.readInt();
+      type = input.readInt();
+      end = input.readInt();
+      remaining--;
+      return true;
+    }
+  }
+
+  private final int threadCount;
+  private final int runSize;
+  private final File tempDir;
+
+  private final Map<String, Integer> typeIds = new ConcurrentHashMap<>();
+  private final List<String> typeNames = new ArrayList<>();
+
+  // progress metrics
+  private long parsedCount = 0;
+  private long importedCount = 0;
+  private long parseTime = 0;
+  private long importTime = 0;
+
+  public EdgeImporter(int threadCount, int runSize, String tempDir) {
+    this.threadCount = threadCount;
+    this.runSize = runSize;
+    this.tempDir = new File(tempDir);
+  }
+
+  public EdgeImporter(int threadCount) {
+    this(threadCount, defaultRunSize, System.getProperty("java.io.tmpdir"));
+  }
+
+  /**
+   * Get the id of a relationship type name. Thread-safe.
+   *
+   * @param typeName
+   * @return
+   */
+  public int getTypeId(String typeName) {
+    Integer typeId = typeIds.get(typeName);
+    if (typeId != null) {
+      return typeId;
+    }
+    synchronized (typeNames) {
+      return typeIds.computeIfAbsent(typeName, name -> {
+        typeNames.add(name);
+        return typeNames.size() - 1;
+      });
+    }
+  }
+
+  public String getTypeName(int typeId) {
+    synchronized (typeNames) {
+      return typeNames.get(typeId);
+    }
+  }
+
+  /**
+   * Parser of lines '''startId,type,endId''' such as graph_property_edge.txt of wikidata.
+   *
+   * @return
+   */
+  public EdgeParser getTripleParser() {
+    return (line, edges) -> {
+      int first = line.indexOf(',');
+      int last = line.lastIndexOf(',');
+      if (first < 0 || first == last) {
+        return;
+      }
+      edges.add(Integer.parseInt(line.substring(0, first)),
+          getTypeId(line.substring(first + 1, last)), Integer.parseInt(line.substring(last + 1)));
+    };
+  }
+
+  /**
+   * Parser of the graph file '''id,degree,neighbor0,neighbor1,...''' with the node count in the first
+   * line. Each undirected edge is created once, from the smaller graph id, as
+   * {@link GraphRel#GRAPH_LINK}.
+   *
+   * @param idMap graph id to neo4j id. null if they are the same.
+   * @return
+   */
+  public EdgeParser getGraphParser(int[] idMap) {
+    int typeId = getTypeId(GraphRel.GRAPH_LINK.name());
+    return (line, edges) -> {
+      String[] strings = line.split(",");
+      if (strings.length < 2) {
+        return;
+      }
+      int id = Integer.parseInt(strings[0]);
+      for (int i = 2; i < strings.length; i++) {
+        int neighbor = Integer.parseInt(strings[i]);
+        if (id < neighbor) {
+          edges.add(getNeo4jId(idMap, id), typeId, getNeo4jId(idMap, neighbor));
+        }
+      }
+    };
+  }
+
+  private static int getNeo4jId(int[] idMap, int graphId) {
+    if (idMap == null) {
+      return graphId;
+    }
+    if (graphId >= idMap.length || idMap[graphId] == -1) {
+      throw new RuntimeException(String.format("graph id %d is not in the map!", graphId));
+    }
+    return idMap[graphId];
+  }
+
+  /**
+   * Read a map file '''graphId,neo4jId''' into an array.
+   *
+   * @param mapPath
+   * @return
+   */
+  public static int[] readIdMap(String mapPath) {
+    Map<String, String> map = OwnMethods.ReadMap(mapPath);
+    int maxId = -1;
+    for (String key : map.keySet()) {
+      maxId = Math.max(maxId, Integer.parseInt(key));
+    }
+    int[] idMap = new int[maxId + 1];
+    Arrays.fill(idMap, -1);
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      idMap[Integer.parseInt(entry.getKey())] = Integer.parseInt(entry.getValue());
+    }
+    return idMap;
+  }
+
+  /**
+   * Sink creating the relationships through a {@link BatchInserter}.
+   *
+   * @param inserter
+   * @return
+   */
+  public EdgeSink getInserterSink(BatchInserter inserter) {
+    Map<Integer, RelationshipType> types = new HashMap<>();
+    return (startId, typeId, endId) -> {
+      RelationshipType type = types.get(typeId);
+      if (type == null) {
+        type = RelationshipType.withName(getTypeName(typeId));
+        types.put(typeId, type);
+      }
+      inserter.createRelationship(startId, endId, type, null);
+    };
+  }
+
+  /**
+   * Sink writing the relationship CSV of neo4j-admin import. The header is written here.
+   *
+   * @param writer
+   * @return
+   * @throws Exception
+   */
+  public EdgeSink getImportCsvSink(FileWriter writer) throws Exception {
+    writer.write(":START_ID,:END_ID,:TYPE\n");
+    return (startId, typeId, endId) -> writer
+        .write(String.format("%d,%d,%s\n", startId, endId, getTypeName(typeId)));
+  }
+
+  /**
+   * Parse, sort by start node and feed all the edges in {@code inputPath} to {@code sink}.
+   *
+   * @param inputPath
+   * @param parser
+   * @param sink
+   * @return number of edges
+   * @throws Exception
+   */
+  public long importEdges(String inputPath, EdgeParser parser, EdgeSink sink) throws Exception {
+    LOGGER.info(String.format("import edges from %s with %d threads, run size %d", inputPath,
+        threadCount, runSize));
+    List<File> runFiles = new ArrayList<>();
+    List<Long> runCounts = new ArrayList<>();
+    EdgeBuffer run = new EdgeBuffer(Math.min(runSize, 1 << 20));
+    long parseStart = System.currentTimeMillis();
+    ChunkedFileReader.process(inputPath, ChunkedFileReader.defaultChunkSize, threadCount,
+        lines -> {
+          EdgeBuffer edges = new EdgeBuffer(lines.size());
+          for (String line : lines) {
+            parser.parse(line, edges);
+          }
+          return edges;
+        }, edges -> {
+          run.addAll(edges);
+          parsedCount += edges.size;
+          if (run.size >= runSize) {
+            spill(run, runFiles, runCounts);
+          }
+          LOGGER.info(String.format("parsed %d edges, %.0f edges/s", parsedCount,
+              getRate(parsedCount, System.currentTimeMillis() - parseStart)));
+        });
+    parseTime = System.currentTimeMillis() - parseStart;
+
+    long start = System.currentTimeMillis();
+    try {
+      if (runFiles.isEmpty()) {
+        importInMemory(run, sink, start);
+      } else {
+        if (run.size > 0) {
+          spill(run, runFiles, runCounts);
+        }
+        merge(runFiles, runCounts, sink, start);
+      }
+    } finally {
+      for (File file : runFiles) {
+        file.delete();
+      }
+    }
+    importTime = System.currentTimeMillis() - start;
+    LOGGER.info(String.format(
+        "%d edges imported. parse and sort: %d ms (%.0f edges/s), import: %d ms (%.0f edges/s), "
+            + "%d runs, %d types",
+        importedCount, parseTime, getRate(parsedCount, parseTime), importTime,
+        getRate(importedCount, importTime), runFiles.size(), typeNames.size()));
+    return importedCount;
+  }
+
+  private void spill(EdgeBuffer run, List<File> runFiles, List<Long> runCounts)
+      throws Exception {
+    long[] keys = run.getSortedKeys();
+    File file = File.createTempFile("edge_run_", ".bin", tempDir);
+    DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+    for (long key : keys) {
+      int index = (int) key;
+      output.writeInt(run.starts[index]);
+      output.writeInt(run.types[index]);
+      output.writeInt(run.ends[index]);
+    }
+    output.close();
+    LOGGER.info(String.format("spill %d edges to %s", run.size, file));
+    runFiles.add(file);
+    runCounts.add((long) run.size);
+    run.size = 0;
+  }
+
+  private void importInMemory(EdgeBuffer run, EdgeSink sink, long start) throws Exception {
+    for (long key : run.getSortedKeys()) {
+      int index = (int) key;
+      sink.accept(run.starts[index], run.types[index], run.ends[index]);
+      logImportProgress(start);
+    }
+  }
+
+  /**
+   * K-way merge of the runs. Ties are broken by run index to keep the file order.
+   */
+  private void merge(List<File> runFiles, List<Long> runCounts, EdgeSink sink, long start)
+      throws Exception {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runFiles.size()),
+        (a, b) -> a.start != b.start ? Integer.compare(a.start, b.start)
+            : Integer.compare(a.runIndex, b.runIndex));
+    for (int i = 0; i < runFiles.size(); i++) {
+      RunReader reader = new RunReader(i, runFiles.get(i), runCounts.get(i));
+      if (reader.next()) {
+        queue.add(reader);
+      }
+    }
+    while (!queue.isEmpty()) {
+      RunReader reader = queue.poll();
+      sink.accept(reader.start, reader.type, reader.end);
+      logImportProgress(start);
+      if (reader.next()) {
+        queue.add(reader);
+      }
+    }
+  }
+
+  private void logImportProgress(long start) {
+    importedCount++;
+    if (importedCount % Config.logInterval == 0) {
+      LOGGER.info(String.format("imported %d/%d edges, %.0f edges/s", importedCount, parsedCount,
+          getRate(importedCount, System.currentTimeMillis() - start)));
+    }
+  }
+
+  private static double getRate(long count, long time) {
+    return time == 0 ? 0 : count * 1000.0 / time;
+  }
+
+  public long getParsedCount() {
+    return parsedCount;
+  }
+
+  public long getImportedCount() {
+    return importedCount;
+  }
+
+  public long getParseTime() {
+    return parseTime;
+  }
+
+  public long getImportTime() {
+    return importTime;
+  }
+
+  /**
+   * Parallel version of {@code Wikidata.loadEdges}. Relationship types are the labels in the file.
+   *
+   * @param graphPropertyEdgePath '''startId,propertyName,endId'''
+   * @param dbPath
+   * @param outputPath write the neo4j-admin import CSV here instead of inserting into
+   *        {@code dbPath} if not null
+   * @param threadCount
+   * @throws Exception
+   */
+  public static void loadPropertyEdges(String graphPropertyEdgePath, String dbPath,
+      String outputPath, int threadCount) throws Exception {
+    EdgeImporter importer = new EdgeImporter(threadCount);
+    importer.load(graphPropertyEdgePath, importer.getTripleParser(), dbPath, outputPath);
+  }
+
+  /**
+   * Parallel version of {@code LoadDataNoOSM.LoadGraphEdges} and
+   * {@code LoadDataNoOSM.loadGraphEdgesNoMap}.
+   *
+   * @param mapPath '''graphId,neo4jId'''. null if neo4j id equals graph id.
+   * @param graphPath
+   * @param dbPath
+   * @param outputPath write the neo4j-admin import CSV here instead of inserting into
+   *        {@code dbPath} if not null
+   * @param threadCount
+   * @throws Exception
+   */
+  public static void loadGraphEdges(String mapPath, String graphPath, String dbPath,
+      String outputPath, int threadCount) throws Exception {
+    int[] idMap = mapPath == null ? null : readIdMap(mapPath);
+    EdgeImporter importer = new EdgeImporter(threadCount);
+    importer.load(graphPath, importer.getGraphParser(idMap), dbPath, outputPath);
+  }
+
+  private void load(String inputPath, EdgeParser parser, String dbPath, String outputPath)
+      throws Exception {
+    if (outputPath != null) {
+      FileWriter writer = Util.getFileWriter(outputPath);
+      try {
+        importEdges(inputPath, parser, getImportCsvSink(writer));
+      } finally {
+        Util.close(writer);
+      }
+      return;
+    }
+    Util.checkPathExist(dbPath);
+    BatchInserter inserter = Util.getBatchInserter(dbPath);
+    try {
+      importEdges(inputPath, parser, getInserterSink(inserter));
+    } finally {
+      Util.close(inserter);
+    }
+  }
+}
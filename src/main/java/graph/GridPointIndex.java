@@ -0,0 +1,563 @@
+package graph;
+
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.mutable.MutableBoolean;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import commons.Config;
+import commons.MyPoint;
+import commons.MyRectangle;
+import commons.RTreeUtility;
+import commons.ReadWriteUtil;
+import commons.Util;
+
+/**
+ * Uniform grid index for a point-only layer, used by {@link RisoTreeQueryPN} instead of the
+ * RisoTree for the layers in {@link RisoTreeQueryPN#gridPointIndexes}. Each cell keeps its points
+ * and the PNs of the cell, i.e., the union of the path neighbors of its points with the same
+ * ignore rule ([] if larger than maxPNSize) as the leaf nodes. So a cell plays the role of a leaf
+ * node in range, KNN and distance join queries without the tree traversal.
+ *
+ * The index is built by {@link #build(GraphDatabaseService, String, int, int, int)} and stored as
+ * a text file. It is not maintained by {@link RisoTreeMaintenance}, so rebuild it after updates.
+ */
+public class GridPointIndex {
+
+  private static final Logger LOGGER = Logger.getLogger(GridPointIndex.class.getName());
+
+  private static final String extentKey = "extent";
+  private static final String gridSizeKey = "gridSize";
+  private static final String cellKey = "cell";
+  private static final String pnKey = "pn";
+
+  private static class Cell {
+    int size = 0;
+    long[] ids = new long[4];
+    double[] xs = new double[4];
+    double[] ys = new double[4];
+    /**
+     * <PN property name, sorted ids>. [] means the pn is ignored.
+     */
+    Map<String, int[]> pathNeighbors = new HashMap<>();
+
+    void add(long id, double x, double y) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        xs = Arrays.copyOf(xs, size * 2);
+        ys = Arrays.copyOf(ys, size * 2);
+      }
+      ids[size] = id;
+      xs[size] = x;
+      ys[size] = y;
+      size++;
+    }
+  }
+
+  public final MyRectangle extent;
+  public final int gridSize;
+  /**
+   * Cell (x, y) is stored at y * gridSize + x. null if the cell is empty.
+   */
+  private final Cell[] cells;
+  private int pointCount = 0;
+
+  public GridPointIndex(MyRectangle extent, int gridSize) {
+    this.extent = extent;
+    this.gridSize = gridSize;
+    this.cells = new Cell[gridSize * gridSize];
+  }
+
+  /**
+   * Scan the spatial objects of a layer and compute the PNs of each cell.
+   *
+   * @param service
+   * @param dataset the layer name
+   * @param gridSize number of cells in each dimension
+   * @param MAX_HOPNUM
+   * @param maxPNSize a cell pn larger than this is ignored ([])
+   * @return
+   * @throws Exception
+   */
+  public static GridPointIndex build(GraphDatabaseService service, String dataset, int gridSize,
+      int MAX_HOPNUM, int maxPNSize) throws Exception {
+    Transaction tx = service.beginTx();
+    Node root = RTreeUtility.getRTreeRoot(service, dataset);
+    if (root == null) {
+      tx.close();
+      throw new Exception(String.format("layer %s does not exist!", dataset));
+    }
+    GridPointIndex index = new GridPointIndex(RTreeUtility.getNodeMBR(root), gridSize);
+    index.addPoints(service, RTreeUtility.getAllGeometries(service, dataset), MAX_HOPNUM,
+        maxPNSize);
+    tx.success();
+    tx.close();
+    LOGGER.info(String.format("grid of %s: %d points in %d cells", dataset, index.pointCount,
+        index.getCellCount()));
+    return index;
+  }
+
+  /**
+   * Add the points and compute the PNs of the cells they fall in. Must be in a transaction.
+   *
+   * @param service
+   * @param points spatial nodes with the {@link RisoTreeQueryPN#lon_name} and
+   *        {@link RisoTreeQueryPN#lat_name} properties
+   * @param MAX_HOPNUM
+   * @param maxPNSize
+   */
+  public void addPoints(GraphDatabaseService service, Iterable<Node> points, int MAX_HOPNUM,
+      int maxPNSize) {
+    // <cellId, <PN property name, ids>>. null ids means the pn is ignored.
+    Map<Integer, Map<String, TreeSet<Integer>>> cellPNs = new HashMap<>();
+    int index = 0;
+    for (Node point : points) {
+      double x = (Double) point.getProperty(RisoTreeQueryPN.lon_name);
+      double y = (Double) point.getProperty(RisoTreeQueryPN.lat_name);
+      int cellId = addPoint(point.getId(), x, y);
+      Map<String, TreeSet<Integer>> pathNeighbors = cellPNs.get(cellId);
+      if (pathNeighbors == null) {
+        pathNeighbors = new HashMap<>();
+        cellPNs.put(cellId, pathNeighbors);
+      }
+      Map<String, Set<Node>> pointPNs = MaintenanceUtil.getPNGeneral(service, point, MAX_HOPNUM);
+      for (String path : pointPNs.keySet()) {
+        if (pathNeighbors.containsKey(path) && pathNeighbors.get(path) == null) {
+          continue;
+        }
+        TreeSet<Integer> ids = pathNeighbors.computeIfAbsent(path, k -> new TreeSet<>());
+        for (Node neighbor : pointPNs.get(path)) {
+          ids.add((int) neighbor.getId());
+        }
+        if (ids.size() > maxPNSize) {
+          pathNeighbors.put(path, null);
+        }
+      }
+      index++;
+      if (index % Config.logInterval == 0) {
+        LOGGER.info("points: " + index);
+      }
+    }
+
+    for (int cellId : cellPNs.keySet()) {
+      Map<String, TreeSet<Integer>> pathNeighbors = cellPNs.get(cellId);
+      for (String path : pathNeighbors.keySet()) {
+        TreeSet<Integer> ids = pathNeighbors.get(path);
+        int[] pn = new int[ids == null ? 0 : ids.size()];
+        if (ids != null) {
+          int i = 0;
+          for (int id : ids) {
+            pn[i++] = id;
+          }
+        }
+        setPathNeighbors(cellId, path, pn);
+      }
+    }
+  }
+
+  /**
+   * @param id
+   * @param x
+   * @param y
+   * @return the cell id
+   */
+  public int addPoint(long id, double x, double y) {
+    int cellId = getCellId(x, y);
+    if (cells[cellId] == null) {
+      cells[cellId] = new Cell();
+    }
+    cells[cellId].add(id, x, y);
+    pointCount++;
+    return cellId;
+  }
+
+  public void setPathNeighbors(int cellId, String path, int[] pn) {
+    cells[cellId].pathNeighbors.put(path, pn);
+  }
+
+  public int getCellId(double x, double y) {
+    return getCellY(y) * gridSize + getCellX(x);
+  }
+
+  public MyRectangle getCellRectangle(int cellId) {
+    double cellWidth = (extent.max_x - extent.min_x) / gridSize;
+    double cellHeight = (extent.max_y - extent.min_y) / gridSize;
+    int x = cellId % gridSize, y = cellId / gridSize;
+    return new MyRectangle(extent.min_x + x * cellWidth, extent.min_y + y * cellHeight,
+        extent.min_x + (x + 1) * cellWidth, extent.min_y + (y + 1) * cellHeight);
+  }
+
+  public int getPointCount() {
+    return pointCount;
+  }
+
+  /**
+   * @return number of non-empty cells
+   */
+  public int getCellCount() {
+    int count = 0;
+    for (Cell cell : cells) {
+      if (cell != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param cellId
+   * @param path
+   * @return null if the cell is empty or does not have the path
+   */
+  public int[] getPathNeighbors(int cellId, String path) {
+    Cell cell = cells[cellId];
+    return cell == null ? null : cell.pathNeighbors.get(path);
+  }
+
+  /**
+   * Get the non-empty cells overlapping {@code rectangle} and containing all the paths. A path is
+   * contained if the cell has it or any of its shorter paths is ignored, the same as
+   * {@link RisoTreeQueryPN#isNodeContainAllPathsIgnore(Node, Map)}.
+   *
+   * @param rectangle
+   * @param pathsAndShorterPaths <path, shorter paths>
+   * @return
+   */
+  public List<Integer> getOverlapCells(MyRectangle rectangle,
+      Map<String, Set<String>> pathsAndShorterPaths) {
+    List<Integer> overlapCells = new ArrayList<>();
+    MyRectangle intersect = extent.intersect(rectangle);
+    if (intersect == null) {
+      return overlapCells;
+    }
+    for (int y = getCellY(intersect.min_y); y <= getCellY(intersect.max_y); y++) {
+      for (int x = getCellX(intersect.min_x); x <= getCellX(intersect.max_x); x++) {
+        int cellId = y * gridSize + x;
+        if (cells[cellId] != null && containAllPathsIgnore(cellId, pathsAndShorterPaths)) {
+          overlapCells.add(cellId);
+        }
+      }
+    }
+    return overlapCells;
+  }
+
+  public boolean containAllPathsIgnore(int cellId, Map<String, Set<String>> pathsAndShorterPaths) {
+    Map<String, int[]> pathNeighbors = cells[cellId].pathNeighbors;
+    for (String path : pathsAndShorterPaths.keySet()) {
+      if (pathNeighbors.containsKey(path)) {
+        continue;
+      }
+      boolean ignored = false;
+      for (String shorterPath : pathsAndShorterPaths.get(path)) {
+        int[] pn = pathNeighbors.get(shorterPath);
+        if (pn != null && pn.length == 0) {
+          ignored = true;
+          break;
+        }
+      }
+      if (!ignored) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether a cell has all the paths, the same as {@link RisoTreeQueryPN#checkPaths(Node, Set)}.
+   *
+   * @param cellId
+   * @param paths
+   * @return
+   */
+  public boolean containAllPaths(int cellId, Collection<String> paths) {
+    Cell cell = cells[cellId];
+    if (cell == null) {
+      return false;
+    }
+    for (String path : paths) {
+      if (!cell.pathNeighbors.containsKey(path)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Union of the candidates of the cells. The candidates of a cell are the intersection of its
+   * non-ignored pns of {@code labelPaths}. If any cell has no non-ignored pn, {@code complete} is
+   * set to false.
+   *
+   * @param cellIds
+   * @param labelPaths the paths to the same end query node
+   * @param complete
+   * @return sorted candidates
+   */
+  public List<Long> getCandidates(List<Integer> cellIds, Set<String> labelPaths,
+      MutableBoolean complete) {
+    List<Integer> candidates = new ArrayList<>();
+    for (int cellId : cellIds) {
+      List<Integer> curCandidates = new ArrayList<>();
+      // an empty intersection of real pns is still complete
+      boolean pnSeen = false;
+      for (String path : labelPaths) {
+        int[] pn = cells[cellId].pathNeighbors.get(path);
+        if (pn == null || pn.length == 0) {
+          continue;
+        } else if (!pnSeen) {
+          curCandidates = Util.intArrayToList(pn);
+          pnSeen = true;
+        } else {
+          curCandidates = Util.sortedListIntersect(curCandidates, pn);
+        }
+      }
+      if (!pnSeen) {
+        complete.setValue(false);
+      }
+      candidates = Util.sortedListMerge(candidates, curCandidates);
+    }
+
+    List<Long> res = new ArrayList<>(candidates.size());
+    for (int id : candidates) {
+      res.add((long) id);
+    }
+    return res;
+  }
+
+  /**
+   * Iterate the points in the cells containing all the {@code paths} by the ascending distance to
+   * {@code location}. The cells and points are expanded lazily by a priority queue.
+   *
+   * @param location
+   * @param paths
+   * @return point ids
+   */
+  public Iterator<Long> nearestPoints(MyPoint location, Collection<String> paths) {
+    // {distance, cellId, point index in the cell or -1 for the cell itself}
+    PriorityQueue<double[]> queue =
+        new PriorityQueue<>(100, (e1, e2) -> Double.compare(e1[0], e2[0]));
+    for (int cellId = 0; cellId < cells.length; cellId++) {
+      if (containAllPaths(cellId, paths)) {
+        queue.add(new double[] {Util.distance(location, getCellRectangle(cellId)), cellId, -1});
+      }
+    }
+    return new Iterator<Long>() {
+      @Override
+      public boolean hasNext() {
+        while (!queue.isEmpty() && queue.peek()[2] == -1) {
+          double[] element = queue.poll();
+          Cell cell = cells[(int) element[1]];
+          for (int i = 0; i < cell.size; i++) {
+            double distance = Util.distance(location.x, location.y, cell.xs[i], cell.ys[i]);
+            queue.add(new double[] {distance, element[1], i});
+          }
+        }
+        return !queue.isEmpty();
+      }
+
+      @Override
+      public Long next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        double[] element = queue.poll();
+        return cells[(int) element[1]].ids[(int) element[2]];
+      }
+    };
+  }
+
+  /**
+   * Distance join of the points. Only the cell pairs within {@code distance} whose left cell has
+   * all {@code leftPaths} and right cell has all {@code rightPaths} are compared.
+   *
+   * @param distance
+   * @param leftPaths
+   * @param rightPaths
+   * @param leftFilter e.g., the label of the left spatial query node
+   * @param rightFilter
+   * @return <left id, right id> of different points within {@code distance}
+   */
+  public List<long[]> distanceJoin(double distance, Collection<String> leftPaths,
+      Collection<String> rightPaths, LongPredicate leftFilter, LongPredicate rightFilter) {
+    List<long[]> result = new ArrayList<>();
+    int[][] leftPoints = new int[cells.length][];
+    int[][] rightPoints = new int[cells.length][];
+    double cellWidth = (extent.max_x - extent.min_x) / gridSize;
+    double cellHeight = (extent.max_y - extent.min_y) / gridSize;
+    int rangeX = cellWidth == 0 ? gridSize : (int) Math.ceil(distance / cellWidth);
+    int rangeY = cellHeight == 0 ? gridSize : (int) Math.ceil(distance / cellHeight);
+    for (int leftCellId = 0; leftCellId < cells.length; leftCellId++) {
+      if (!containAllPaths(leftCellId, leftPaths)) {
+        continue;
+      }
+      MyRectangle leftRectangle = getCellRectangle(leftCellId);
+      int x = leftCellId % gridSize, y = leftCellId / gridSize;
+      for (int rightY = Math.max(0, y - rangeY); rightY <= Math.min(gridSize - 1, y + rangeY);
+          rightY++) {
+        for (int rightX = Math.max(0, x - rangeX); rightX <= Math.min(gridSize - 1, x + rangeX);
+            rightX++) {
+          int rightCellId = rightY * gridSize + rightX;
+          if (!containAllPaths(rightCellId, rightPaths) || Util.distance(leftRectangle,
+              getCellRectangle(rightCellId)) > distance) {
+            continue;
+          }
+          if (leftPoints[leftCellId] == null) {
+            leftPoints[leftCellId] = filterPoints(cells[leftCellId], leftFilter);
+          }
+          if (rightPoints[rightCellId] == null) {
+            rightPoints[rightCellId] = filterPoints(cells[rightCellId], rightFilter);
+          }
+          joinCells(cells[leftCellId], leftPoints[leftCellId], cells[rightCellId],
+              rightPoints[rightCellId], distance, result);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int[] filterPoints(Cell cell, LongPredicate filter) {
+    int[] points = new int[cell.size];
+    int count = 0;
+    for (int i = 0; i < cell.size; i++) {
+      if (filter.test(cell.ids[i])) {
+        points[count++] = i;
+      }
+    }
+    return Arrays.copyOf(points, count);
+  }
+
+  private static void joinCells(Cell left, int[] leftPoints, Cell right, int[] rightPoints,
+      double distance, List<long[]> result) {
+    for (int i : leftPoints) {
+      for (int j : rightPoints) {
+        if (left.ids[i] != right.ids[j]
+            && Util.distance(left.xs[i], left.ys[i], right.xs[j], right.ys[j]) <= distance) {
+          result.add(new long[] {left.ids[i], right.ids[j]});
+        }
+      }
+    }
+  }
+
+  private int getCellX(double x) {
+    if (extent.max_x == extent.min_x) {
+      return 0;
+    }
+    int cell = (int) ((x - extent.min_x) / (extent.max_x - extent.min_x) * gridSize);
+    return Math.max(0, Math.min(gridSize - 1, cell));
+  }
+
+  private int getCellY(double y) {
+    if (extent.max_y == extent.min_y) {
+      return 0;
+    }
+    int cell = (int) ((y - extent.min_y) / (extent.max_y - extent.min_y) * gridSize);
+    return Math.max(0, Math.min(gridSize - 1, cell));
+  }
+
+  /**
+   * Write the index as a text file. Each line starts with a key. Values are separated by \t. A
+   * cell line has the points as id,x,y separated by ';' and a pn line has the sorted ids separated
+   * by ','.
+   *
+   * @param path
+   * @throws Exception
+   */
+  public void write(String path) throws Exception {
+    FileWriter writer = Util.getFileWriter(path);
+    writer.write(String.format("%s\t%s\n", extentKey, extent));
+    writer.write(String.format("%s\t%d\n", gridSizeKey, gridSize));
+    for (int cellId = 0; cellId < cells.length; cellId++) {
+      Cell cell = cells[cellId];
+      if (cell == null) {
+        continue;
+      }
+      StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < cell.size; i++) {
+        if (builder.length() > 0) {
+          builder.append(';');
+        }
+        builder.append(cell.ids[i]).append(',').append(cell.xs[i]).append(',')
+            .append(cell.ys[i]);
+      }
+      writer.write(String.format("%s\t%d\t%s\n", cellKey, cellId, builder));
+      for (String pnName : cell.pathNeighbors.keySet()) {
+        StringBuilder pnBuilder = new StringBuilder();
+        for (int id : cell.pathNeighbors.get(pnName)) {
+          if (pnBuilder.length() > 0) {
+            pnBuilder.append(',');
+          }
+          pnBuilder.append(id);
+        }
+        writer.write(String.format("%s\t%d\t%s\t%s\n", pnKey, cellId, pnName, pnBuilder));
+      }
+    }
+    Util.close(writer);
+  }
+
+  /**
+   * Read the index written by {@link #write(String)}.
+   *
+   * @param path
+   * @return
+   * @throws Exception
+   */
+  public static GridPointIndex read(String path) throws Exception {
+    List<String> lines = ReadWriteUtil.readFileAllLines(path);
+    MyRectangle extent = null;
+    int gridSize = -1;
+    for (String line : lines) {
+      String[] strings = line.split("\t");
+      if (strings[0].equals(extentKey)) {
+        extent = new MyRectangle(strings[1]);
+      } else if (strings[0].equals(gridSizeKey)) {
+        gridSize = Integer.parseInt(strings[1]);
+      }
+    }
+    if (extent == null || gridSize == -1) {
+      throw new RuntimeException(path + " does not have extent or gridSize!");
+    }
+
+    GridPointIndex index = new GridPointIndex(extent, gridSize);
+    for (String line : lines) {
+      String[] strings = line.split("\t", -1);
+      switch (strings[0]) {
+        case cellKey:
+          int cellId = Integer.parseInt(strings[1]);
+          for (String point : strings[2].split(";")) {
+            String[] values = point.split(",");
+            long id = Long.parseLong(values[0]);
+            double x = Double.parseDouble(values[1]);
+            double y = Double.parseDouble(values[2]);
+            if (index.addPoint(id, x, y) != cellId) {
+              throw new RuntimeException(
+                  String.format("point %d is not in cell %d of %s!", id, cellId, path));
+            }
+          }
+          break;
+        case pnKey:
+          String[] ids = strings[3].isEmpty() ? new String[0] : strings[3].split(",");
+          int[] pn = new int[ids.length];
+          for (int i = 0; i < ids.length; i++) {
+            pn[i] = Integer.parseInt(ids[i]);
+          }
+          index.setPathNeighbors(Integer.parseInt(strings[1]), strings[2], pn);
+          break;
+        default:
+          break;
+      }
+    }
+    return index;
+  }
+}
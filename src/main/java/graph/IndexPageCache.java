@@ -0,0 +1,258 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import commons.Config;
+import commons.Neo4jGraphUtility;
+
+/**
+ * Bounded LRU page cache of the RisoTree index nodes. A page is the tree skeleton of a node (bbox
+ * and child ids) together with all its properties, i.e., the PNs, PN sizes and bloom filters of a
+ * leaf node. Reads of {@link RisoTreeQueryPN} go through it if
+ * {@link RisoTreeQueryPN#indexPageCacheUsed} is set.
+ *
+ * The cache simulates the storage layer of the index: {@link #reset()} makes the next reads cold
+ * without dropping the OS page cache (which requires sudo), and each miss can be charged a fixed
+ * penalty to emulate a device read. Pages are invalidated together with {@link LeafPathCache}
+ * when a leaf is updated, and all of them are dropped when the tree structure changes.
+ * <p>
+ * A cache belongs to a single database (see {@link #getDatabaseCache(GraphDatabaseService)})
+ * because the pages are keyed by the node ids. The layers of a database share its cache.
+ */
+public class IndexPageCache {
+
+  /**
+   * Snapshot of an index node. Never modify the returned arrays.
+   */
+  public static class Page {
+    public final long id;
+    /**
+     * null if the node does not have {@link Config#BBoxName}.
+     */
+    public final double[] bbox;
+    /**
+     * ids of the RTREE_CHILD end nodes. Empty for a leaf node.
+     */
+    public final long[] childIds;
+    /**
+     * whether the node has RTREE_REFERENCE to spatial nodes.
+     */
+    public final boolean isLeaf;
+    private final Map<String, Object> properties;
+
+    private Page(Node node) {
+      id = node.getId();
+      properties = node.getAllProperties();
+      bbox = (double[]) properties.get(Config.BBoxName);
+      List<Long> children = new ArrayList<>();
+      boolean hasReference = false;
+      for (Relationship relationship : node.getRelationships(Direction.OUTGOING)) {
+        if (relationship.isType(RTreeRelationshipTypes.RTREE_CHILD)) {
+          children.add(relationship.getEndNodeId());
+        } else if (relationship.isType(RTreeRelationshipTypes.RTREE_REFERENCE)) {
+          hasReference = true;
+        }
+      }
+      childIds = new long[children.size()];
+      for (int i = 0; i < childIds.length; i++) {
+        childIds[i] = children.get(i);
+      }
+      isLeaf = hasReference;
+    }
+
+    public Object getProperty(String key, Object defaultValue) {
+      Object value = properties.get(key);
+      return value == null ? defaultValue : value;
+    }
+
+    public boolean hasProperty(String key) {
+      return properties.containsKey(key);
+    }
+
+    public Set<String> getPropertyKeys() {
+      return Collections.unmodifiableSet(properties.keySet());
+    }
+  }
+
+  /**
+   * <database key, cache>. See {@link Neo4jGraphUtility#getDatabaseKey}.
+   */
+  private static final Map<Object, IndexPageCache> databaseCaches = new WeakHashMap<>();
+
+  /**
+   * Capacity and miss penalty of the caches created by
+   * {@link #getDatabaseCache(GraphDatabaseService)}.
+   */
+  public static volatile int defaultCapacity = 100000;
+  public static volatile long defaultMissPenaltyNanos = 0;
+
+  private int capacity;
+  private final LinkedHashMap<Long, Page> pages;
+  /**
+   * Incremented by every invalidation. A page read on a miss is not inserted if an invalidation
+   * happens during the read, because the page may not contain the update.
+   */
+  private long epoch = 0;
+
+  /**
+   * Time charged to each miss in nanoseconds. 0 means a miss costs only the Neo4j reads.
+   */
+  public volatile long missPenaltyNanos;
+
+  public long hitCount = 0;
+  public long missCount = 0;
+
+  /**
+   * @param capacity max number of index nodes kept in the cache
+   * @param missPenaltyNanos see {@link #missPenaltyNanos}
+   */
+  public IndexPageCache(int capacity, long missPenaltyNanos) {
+    this.capacity = capacity;
+    this.missPenaltyNanos = missPenaltyNanos;
+    this.pages = new LinkedHashMap<Long, Page>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Page> eldest) {
+        return size() > IndexPageCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * Get the cache of a database. Created on the first call.
+   *
+   * @param service
+   * @return
+   */
+  public static synchronized IndexPageCache getDatabaseCache(GraphDatabaseService service) {
+    Object databaseKey = Neo4jGraphUtility.getDatabaseKey(service);
+    IndexPageCache cache = databaseCaches.get(databaseKey);
+    if (cache == null) {
+      cache = new IndexPageCache(defaultCapacity, defaultMissPenaltyNanos);
+      databaseCaches.put(databaseKey, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Drop the page of a node from the caches of all the databases. A PN update does not always know
+   * its database. The same id in another database only costs a miss.
+   *
+   * @param nodeId
+   */
+  public static synchronized void invalidateNode(long nodeId) {
+    for (IndexPageCache cache : databaseCaches.values()) {
+      cache.invalidate(nodeId);
+    }
+  }
+
+  /**
+   * {@link #clear()} the caches of all the databases.
+   */
+  public static synchronized void clearAll() {
+    for (IndexPageCache cache : databaseCaches.values()) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * {@link #reset()} the caches of all the databases.
+   */
+  public static synchronized void resetAll() {
+    for (IndexPageCache cache : databaseCaches.values()) {
+      cache.reset();
+    }
+  }
+
+  /**
+   * Get the page of an index node. It is read from {@code node} on a miss, so the caller must be in
+   * a transaction. The node is only read on a miss, so it can be a handle that has not been checked
+   * against the store.
+   *
+   * @param node
+   * @return
+   */
+  public Page getPage(Node node) {
+    long id = node.getId();
+    long readEpoch;
+    synchronized (this) {
+      Page page = pages.get(id);
+      if (page != null) {
+        hitCount++;
+        return page;
+      }
+      missCount++;
+      readEpoch = epoch;
+    }
+    long penaltyEnd = System.nanoTime() + missPenaltyNanos;
+    Page page = new Page(node);
+    long wait;
+    while ((wait = penaltyEnd - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(wait);
+    }
+    synchronized (this) {
+      if (epoch == readEpoch) {
+        pages.put(id, page);
+      }
+    }
+    return page;
+  }
+
+  public synchronized void invalidate(long nodeId) {
+    pages.remove(nodeId);
+    epoch++;
+  }
+
+  /**
+   * Drop all the pages, e.g., after the tree structure changes.
+   */
+  public synchronized void clear() {
+    pages.clear();
+    epoch++;
+  }
+
+  /**
+   * Drop all the pages and the counters so that the next reads are cold.
+   */
+  public synchronized void reset() {
+    pages.clear();
+    epoch++;
+    hitCount = 0;
+    missCount = 0;
+  }
+
+  /**
+   * Change the capacity. The least recently used pages are dropped if it shrinks.
+   *
+   * @param capacity
+   */
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    Iterator<Long> iterator = pages.keySet().iterator();
+    while (pages.size() > capacity && iterator.hasNext()) {
+      iterator.next();
+      iterator.remove();
+    }
+  }
+
+  public synchronized int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized int size() {
+    return pages.size();
+  }
+}
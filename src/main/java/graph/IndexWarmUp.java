@@ -0,0 +1,247 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import commons.Config;
+import commons.Neo4jGraphUtility;
+import commons.RTreeUtility;
+
+/**
+ * Preload the RisoTree of a layer right after the database is opened, so the first queries do not
+ * pay for the cold pages. It touches the internal nodes, the bbox and PNSize_* properties of the
+ * leaf nodes and the PN arrays of the hot label paths (see {@link PathUsageStatistics}). The leaf
+ * nodes are read by parallel workers and the warm-up stops at the time budget. If
+ * {@link RisoTreeQueryPN#indexPageCacheUsed} is set, the pages are loaded into the
+ * {@link IndexPageCache} of the database as well. With {@link #warmUpOnOpen}, a layer is warmed up
+ * once per database by {@link #warmUpOnce(GraphDatabaseService, String, int)} when
+ * {@link RisoTreeQueryService} opens it or {@link RisoTreeProcedures} first queries it.
+ */
+public class IndexWarmUp {
+
+  private static final Logger LOGGER = Logger.getLogger(IndexWarmUp.class.getName());
+
+  /**
+   * Default time budget in milliseconds.
+   */
+  public static long budgetMillis = 10000;
+  /**
+   * Default number of hot label paths to be preloaded.
+   */
+  public static int hotPathCount = 100;
+  /**
+   * Warm up a layer when the database is opened. A server plugin enables it by the system property
+   * riso.warmUpOnOpen=true.
+   */
+  public static volatile boolean warmUpOnOpen = Boolean.getBoolean("riso.warmUpOnOpen");
+  /**
+   * Number of workers of the warm-up on open by {@link RisoTreeProcedures}.
+   */
+  public static int threadCount = Runtime.getRuntime().availableProcessors();
+
+  // database key -> the layers warmed up on open
+  private static final Map<Object, Set<String>> warmedLayers = new WeakHashMap<>();
+
+  public static class Report {
+    public final int internalNodeCount;
+    public final int leafNodeCount;
+    public final long pnCount;
+    public final long elapsedMillis;
+    /**
+     * false if the budget runs out before all the leaf nodes are touched.
+     */
+    public final boolean complete;
+
+    Report(int internalNodeCount, int leafNodeCount, long pnCount, long elapsedMillis,
+        boolean complete) {
+      this.internalNodeCount = internalNodeCount;
+      this.leafNodeCount = leafNodeCount;
+      this.pnCount = pnCount;
+      this.elapsedMillis = elapsedMillis;
+      this.complete = complete;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "internal nodes: %d, leaf nodes: %d, PNs: %d, time: %d ms, complete: %s",
+          internalNodeCount, leafNodeCount, pnCount, elapsedMillis, complete);
+    }
+  }
+
+  private final GraphDatabaseService service;
+  private final String dataset;
+
+  public IndexWarmUp(GraphDatabaseService service, String dataset) {
+    this.service = service;
+    this.dataset = dataset;
+  }
+
+  /**
+   * Warm up a layer of a database if {@link #warmUpOnOpen} is set and the layer has not been warmed
+   * up on open, so it can be called by every request. A failure is logged rather than thrown
+   * because the queries do not depend on the warm-up.
+   *
+   * @param service
+   * @param dataset
+   * @param threadCount
+   * @return null if the layer is not warmed up by this call
+   */
+  public static Report warmUpOnce(GraphDatabaseService service, String dataset,
+      int threadCount) {
+    if (!warmUpOnOpen) {
+      return null;
+    }
+    synchronized (warmedLayers) {
+      if (!warmedLayers.computeIfAbsent(Neo4jGraphUtility.getDatabaseKey(service),
+          key -> new HashSet<>()).add(dataset)) {
+        return null;
+      }
+    }
+    try {
+      return new IndexWarmUp(service, dataset).warmUp(threadCount);
+    } catch (Exception e) {
+      LOGGER.warning("warm up " + dataset + " failed: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Warm up with the {@link #hotPathCount} hot paths of {@link RisoTreeQueryPN#pathUsage} in
+   * {@link #budgetMillis}.
+   *
+   * @param threadCount
+   * @return
+   * @throws Exception
+   */
+  public Report warmUp(int threadCount) throws Exception {
+    return warmUp(RisoTreeQueryPN.pathUsage.getHotPaths(hotPathCount), threadCount,
+        budgetMillis);
+  }
+
+  /**
+   * Touch the tree top-down. The internal levels are read by the calling thread because they are
+   * small, and the leaf nodes are split among {@code threadCount} workers.
+   *
+   * @param hotPaths PN property names to be preloaded
+   * @param threadCount
+   * @param budgetMillis
+   * @return
+   * @throws Exception
+   */
+  public Report warmUp(Collection<String> hotPaths, int threadCount, long budgetMillis)
+      throws Exception {
+    long start = System.currentTimeMillis();
+    long deadline = start + budgetMillis;
+    List<Long> leafIds = new ArrayList<>();
+    int internalNodeCount = 0;
+    boolean complete = true;
+    try (Transaction tx = service.beginTx()) {
+      Node root = RTreeUtility.getRTreeRoot(service, dataset);
+      if (root == null) {
+        throw new Exception(String.format("layer %s does not exist!", dataset));
+      }
+      Queue<Node> queue = new LinkedList<>();
+      queue.add(root);
+      while (!queue.isEmpty()) {
+        if (System.currentTimeMillis() > deadline) {
+          complete = false;
+          break;
+        }
+        Node node = queue.poll();
+        if (RTreeUtility.isLeaf(node)) {
+          leafIds.add(node.getId());
+          continue;
+        }
+        internalNodeCount++;
+        touchPage(node);
+        node.getProperty(Config.BBoxName, null);
+        for (Relationship relationship : node.getRelationships(RTreeRelationshipTypes.RTREE_CHILD,
+            Direction.OUTGOING)) {
+          queue.add(relationship.getEndNode());
+        }
+      }
+      tx.success();
+    }
+
+    AtomicInteger leafNodeCount = new AtomicInteger();
+    AtomicLong pnCount = new AtomicLong();
+    if (complete && !leafIds.isEmpty()) {
+      threadCount = Math.max(1, Math.min(threadCount, leafIds.size()));
+      ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+      try {
+        List<Future<Boolean>> workers = new ArrayList<>(threadCount);
+        int chunkSize = (leafIds.size() + threadCount - 1) / threadCount;
+        for (int from = 0; from < leafIds.size(); from += chunkSize) {
+          List<Long> chunk = leafIds.subList(from, Math.min(from + chunkSize, leafIds.size()));
+          workers.add(executor
+              .submit(() -> warmUpLeafNodes(chunk, hotPaths, deadline, leafNodeCount, pnCount)));
+        }
+        for (Future<Boolean> worker : workers) {
+          complete &= worker.get();
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+    Report report = new Report(internalNodeCount, leafNodeCount.get(), pnCount.get(),
+        System.currentTimeMillis() - start, complete);
+    LOGGER.info("warm up " + dataset + ": " + report);
+    return report;
+  }
+
+  /**
+   * @return false if the deadline is reached
+   */
+  private boolean warmUpLeafNodes(List<Long> leafIds, Collection<String> hotPaths, long deadline,
+      AtomicInteger leafNodeCount, AtomicLong pnCount) {
+    String pnSizePrefix = Config.PNSizePrefix + Config.PNSeparator;
+    try (Transaction tx = service.beginTx()) {
+      for (long id : leafIds) {
+        if (System.currentTimeMillis() > deadline) {
+          return false;
+        }
+        Node node = service.getNodeById(id);
+        touchPage(node);
+        node.getProperty(Config.BBoxName, null);
+        for (String key : node.getPropertyKeys()) {
+          if (key.startsWith(pnSizePrefix)) {
+            node.getProperty(key);
+          }
+        }
+        for (String path : hotPaths) {
+          if (node.getProperty(path, null) != null) {
+            pnCount.incrementAndGet();
+          }
+        }
+        leafNodeCount.incrementAndGet();
+      }
+      tx.success();
+    }
+    return true;
+  }
+
+  private void touchPage(Node node) {
+    if (RisoTreeQueryPN.indexPageCacheUsed) {
+      IndexPageCache.getDatabaseCache(service).getPage(node);
+    }
+  }
+}
@@ -0,0 +1,229 @@
+package graph;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import commons.Neo4jGraphUtility;
+import commons.RisoTreeUtil;
+
+/**
+ * Bounded LRU cache for the leaf-level work of a range query. For each leaf node it keeps the
+ * contain-all-paths (ignore) decision and the resolved candidate array for a label path set. The
+ * cache is organized by leaf node so that an update of a single leaf (see
+ * {@link RisoTreeMaintenance}) only drops the entries of that leaf.
+ * <p>
+ * A cache belongs to a single layer of a database (see {@link #getLayerCache(GraphDatabaseService,
+ * String)}) because the leaf ids are only unique within a database. The cached candidates depend on
+ * the pending PN deltas, so a cache is bound to the {@link PNDeltaLog} it was filled with, and the
+ * candidates filtered by the bloom filters are kept apart from the exact ones.
+ */
+public class LeafPathCache {
+
+  /**
+   * Cached results of a single leaf node. Keys are the path keys formed by
+   * {@link #formPathKey(Collection)}.
+   */
+  private static class LeafEntry {
+    Map<String, Boolean> containDecisions = new HashMap<>();
+    Map<String, int[]> candidates = new HashMap<>();
+  }
+
+  /**
+   * <database key, <layer name, cache>>. The key is {@link Neo4jGraphUtility#getDatabaseKey} so
+   * that all the services of a database, e.g., those of the procedures, share the caches. Weak
+   * keys so that the caches of a shut down database are dropped with it.
+   */
+  private static final Map<Object, Map<String, LeafPathCache>> layerCaches =
+      new WeakHashMap<>();
+
+  /**
+   * Capacity of the layer caches created by {@link #getLayerCache(GraphDatabaseService, String)}.
+   */
+  public static int defaultLeafCapacity = 100000;
+
+  /**
+   * path -> shorter paths with the same prefix. Independent of the tree content so it is never
+   * invalidated.
+   */
+  private static final Map<String, Set<String>> ignoreSearchSets = new ConcurrentHashMap<>();
+
+  private final int leafCapacity;
+  private final LinkedHashMap<Long, LeafEntry> leafEntries;
+
+  // the delta log merged into the cached candidates
+  private PNDeltaLog deltaLog = null;
+
+  public long hitCount = 0;
+  public long missCount = 0;
+
+  /**
+   * @param leafCapacity max number of leaf nodes kept in the cache
+   */
+  public LeafPathCache(int leafCapacity) {
+    this.leafCapacity = leafCapacity;
+    this.leafEntries = new LinkedHashMap<Long, LeafEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, LeafEntry> eldest) {
+        return size() > LeafPathCache.this.leafCapacity;
+      }
+    };
+  }
+
+  /**
+   * Get the cache of a layer. Created on the first call.
+   *
+   * @param service
+   * @param layerName
+   * @return
+   */
+  public static synchronized LeafPathCache getLayerCache(GraphDatabaseService service,
+      String layerName) {
+    Object databaseKey = Neo4jGraphUtility.getDatabaseKey(service);
+    Map<String, LeafPathCache> caches = layerCaches.get(databaseKey);
+    if (caches == null) {
+      caches = new HashMap<>();
+      layerCaches.put(databaseKey, caches);
+    }
+    LeafPathCache cache = caches.get(layerName);
+    if (cache == null) {
+      cache = new LeafPathCache(defaultLeafCapacity);
+      caches.put(layerName, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Drop the cached results of a leaf node from the caches of all the layers. A PN update does not
+   * always know its layer. The same id in another database only costs a miss.
+   *
+   * @param leafId
+   */
+  public static synchronized void invalidateLeaf(long leafId) {
+    for (Map<String, LeafPathCache> caches : layerCaches.values()) {
+      for (LeafPathCache cache : caches.values()) {
+        cache.invalidate(leafId);
+      }
+    }
+  }
+
+  /**
+   * Drop the cached results of all the layers.
+   */
+  public static synchronized void clearAll() {
+    for (Map<String, LeafPathCache> caches : layerCaches.values()) {
+      for (LeafPathCache cache : caches.values()) {
+        cache.clear();
+      }
+    }
+  }
+
+  /**
+   * Form an order-independent key for a set of label paths.
+   *
+   * @param paths
+   * @return
+   */
+  public static String formPathKey(Collection<String> paths) {
+    return String.join(",", new TreeSet<>(paths));
+  }
+
+  /**
+   * Same as {@link RisoTreeUtil#formIgnoreSearchSet(String)} but memorized.
+   *
+   * @param path
+   * @return
+   */
+  public static Set<String> getIgnoreSearchSet(String path) {
+    return ignoreSearchSets.computeIfAbsent(path, RisoTreeUtil::formIgnoreSearchSet);
+  }
+
+  /**
+   * Drop the cached results if they were merged with another delta log. Called before each use.
+   *
+   * @param deltaLog the current {@link RisoTreeQueryPN#pnDeltaLog}
+   */
+  public synchronized void bindDeltaLog(PNDeltaLog deltaLog) {
+    if (this.deltaLog != deltaLog) {
+      leafEntries.clear();
+      this.deltaLog = deltaLog;
+    }
+  }
+
+  /**
+   * @param leafId
+   * @param pathKey
+   * @return null if not cached
+   */
+  public synchronized Boolean getContainDecision(long leafId, String pathKey) {
+    LeafEntry entry = leafEntries.get(leafId);
+    Boolean decision = entry == null ? null : entry.containDecisions.get(pathKey);
+    track(decision != null);
+    return decision;
+  }
+
+  public synchronized void putContainDecision(long leafId, String pathKey, boolean decision) {
+    getOrCreate(leafId).containDecisions.put(pathKey, decision);
+  }
+
+  /**
+   * @param leafId
+   * @param pathKey
+   * @return the sorted candidate ids of the leaf for the path set, before any bloom filter. null if
+   *         not cached.
+   */
+  public synchronized int[] getCandidates(long leafId, String pathKey) {
+    LeafEntry entry = leafEntries.get(leafId);
+    int[] candidates = entry == null ? null : entry.candidates.get(pathKey);
+    track(candidates != null);
+    return candidates;
+  }
+
+  public synchronized void putCandidates(long leafId, String pathKey, int[] candidates) {
+    getOrCreate(leafId).candidates.put(pathKey, candidates);
+  }
+
+  /**
+   * Drop all the cached results of a leaf node. Called whenever the pn of the leaf node changes.
+   *
+   * @param leafId
+   */
+  public synchronized void invalidate(long leafId) {
+    leafEntries.remove(leafId);
+  }
+
+  /**
+   * Drop all the cached results. Called when the tree structure changes.
+   */
+  public synchronized void clear() {
+    leafEntries.clear();
+  }
+
+  public synchronized int size() {
+    return leafEntries.size();
+  }
+
+  private LeafEntry getOrCreate(long leafId) {
+    LeafEntry entry = leafEntries.get(leafId);
+    if (entry == null) {
+      entry = new LeafEntry();
+      leafEntries.put(leafId, entry);
+    }
+    return entry;
+  }
+
+  private void track(boolean hit) {
+    if (hit) {
+      hitCount++;
+    } else {
+      missCount++;
+    }
+  }
+}
@@ -46,6 +46,10 @@ import commons.Util;
 
 /**
  * latest load class
+ * <p>
+ * To load with the id locality of {@link dataprocess.HilbertRelabel}, run it (Driver function
+ * hilbertRelabel) on the graph, entity and label files first, and pass the relabelled files of its
+ * output directory to every load function here. The PN lists are then built from the new ids.
  * 
  * @author ysun138
  *
@@ -0,0 +1,443 @@
+package graph;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import commons.RisoTreeUtil;
+import commons.Util;
+
+/**
+ * Write-ahead delta log of the leaf node PNs. An update appends the added or removed ids of a PN
+ * to the log instead of rewriting the whole int[] property, so its cost depends on the delta
+ * rather than |PN|. The deltas are merged into the PNs on read (see
+ * {@link RisoTreeQueryPN#pnDeltaLog}) and compacted into the PN properties by a background thread.
+ * Every append is also written to a file and replayed on start, so the deltas not yet compacted
+ * survive a restart. The deltas of a leaf node are dropped by {@link #dropLeaf(long)} when the
+ * maintenance deletes the leaf node or rebuilds its PNs.
+ */
+public class PNDeltaLog {
+
+  private static final Logger LOGGER = Logger.getLogger(PNDeltaLog.class.getName());
+
+  /**
+   * Pending change of a single PN. The arrays are sorted and never modified once set, so a reader
+   * can use them out of the lock.
+   */
+  private static class Delta {
+    int[] added = new int[0];
+    int[] removed = new int[0];
+
+    void add(int[] ids) {
+      added = Util.sortedArrayMerge(added, ids);
+      removed = Util.arraysDifference(removed, ids);
+    }
+
+    void remove(int[] ids) {
+      removed = Util.sortedArrayMerge(removed, ids);
+      added = Util.arraysDifference(added, ids);
+    }
+
+    /**
+     * Apply a newer delta on top of this one.
+     */
+    void append(Delta newer) {
+      remove(newer.removed);
+      add(newer.added);
+    }
+
+    int[] apply(int[] pn) {
+      return Util.arraysDifference(Util.sortedArrayMerge(pn, added), removed);
+    }
+  }
+
+  private final String logPath;
+  private final int maxPNSize;
+  private FileWriter writer;
+
+  /**
+   * leaf id -> PN name -> delta. New appends go here.
+   */
+  private Map<Long, Map<String, Delta>> deltas = new HashMap<>();
+  /**
+   * The deltas being written into the PN properties by {@link #compact(GraphDatabaseService)}. Still
+   * merged on read until the compaction commits.
+   */
+  private Map<Long, Map<String, Delta>> compacting = null;
+  /**
+   * The leaf nodes in {@link #compacting} dropped during the compaction.
+   */
+  private Set<Long> droppedWhileCompacting = new HashSet<>();
+  private final Object compactLock = new Object();
+  private ScheduledExecutorService compactor = null;
+
+  public long appendCount = 0;
+  public long compactCount = 0;
+  public long compactTime = 0;
+
+  /**
+   * @param logPath the log file. Replayed if it exists.
+   * @param maxPNSize a PN longer than it becomes ignored ([]) when compacted. -1 means no limit.
+   * @throws Exception
+   */
+  public PNDeltaLog(String logPath, int maxPNSize) throws Exception {
+    this.logPath = logPath;
+    this.maxPNSize = maxPNSize == -1 ? Integer.MAX_VALUE : maxPNSize;
+    if (new File(logPath).exists()) {
+      replay();
+    }
+    writer = Util.getFileWriter(logPath, true);
+  }
+
+  private void replay() throws Exception {
+    BufferedReader reader = Util.getBufferedReader(logPath);
+    String line = null;
+    int lineCount = 0;
+    while ((line = reader.readLine()) != null) {
+      String[] strings = StringUtils.split(line, '\t');
+      if (strings.length == 2 && strings[1].equals("x")) {
+        deltas.remove(Long.parseLong(strings[0]));
+        continue;
+      }
+      // a partially written last line
+      if (strings.length != 4) {
+        continue;
+      }
+      long leafId = Long.parseLong(strings[0]);
+      int[] ids = parseIds(strings[3]);
+      if (strings[1].equals("+")) {
+        getDelta(leafId, strings[2]).add(ids);
+      } else {
+        getDelta(leafId, strings[2]).remove(ids);
+      }
+      lineCount++;
+    }
+    Util.close(reader);
+    LOGGER.info(String.format("replay %d deltas of %d leaf nodes from %s", lineCount,
+        deltas.size(), logPath));
+  }
+
+  private static int[] parseIds(String string) {
+    String[] strings = StringUtils.split(string, ',');
+    int[] ids = new int[strings.length];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = Integer.parseInt(strings[i]);
+    }
+    return ids;
+  }
+
+  private Delta getDelta(long leafId, String pnName) {
+    Map<String, Delta> leafDeltas = deltas.get(leafId);
+    if (leafDeltas == null) {
+      leafDeltas = new HashMap<>();
+      deltas.put(leafId, leafDeltas);
+    }
+    Delta delta = leafDeltas.get(pnName);
+    if (delta == null) {
+      delta = new Delta();
+      leafDeltas.put(pnName, delta);
+    }
+    return delta;
+  }
+
+  /**
+   * Append the ids added to a PN of a leaf node.
+   *
+   * @param leafId
+   * @param pnName
+   * @param ids sorted
+   */
+  public void add(long leafId, String pnName, int[] ids) {
+    append(leafId, pnName, ids, true);
+  }
+
+  /**
+   * Append the ids removed from a PN of a leaf node.
+   *
+   * @param leafId
+   * @param pnName
+   * @param ids sorted
+   */
+  public void remove(long leafId, String pnName, int[] ids) {
+    append(leafId, pnName, ids, false);
+  }
+
+  private synchronized void append(long leafId, String pnName, int[] ids, boolean add) {
+    if (ids.length == 0) {
+      return;
+    }
+    try {
+      writer.write(String.format("%d\t%s\t%s\t%s\n", leafId, add ? "+" : "-", pnName,
+          StringUtils.join(ids, ',')));
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    if (add) {
+      getDelta(leafId, pnName).add(ids);
+    } else {
+      getDelta(leafId, pnName).remove(ids);
+    }
+    appendCount++;
+    LeafPathCache.invalidateLeaf(leafId);
+  }
+
+  /**
+   * Drop the pending deltas of a leaf node. Called when the leaf node is deleted or its PNs are
+   * rebuilt, so the deltas are neither merged into the new PNs nor compacted into a deleted node.
+   *
+   * @param leafId
+   */
+  public synchronized void dropLeaf(long leafId) {
+    boolean pending = deltas.remove(leafId) != null;
+    if (compacting != null && compacting.containsKey(leafId)) {
+      droppedWhileCompacting.add(leafId);
+      pending = true;
+    }
+    if (!pending) {
+      return;
+    }
+    try {
+      writer.write(String.format("%d\tx\n", leafId));
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Merge the pending deltas into a PN read from a leaf node. An absent or ignored PN is returned
+   * as it is because a delta is only logged for an existing and not ignored PN.
+   *
+   * @param leafId
+   * @param pnName
+   * @param pn the PN property
+   * @return
+   */
+  public int[] merge(long leafId, String pnName, int[] pn) {
+    if (pn == null || pn.length == 0) {
+      return pn;
+    }
+    Delta older = null, newer = null;
+    synchronized (this) {
+      if (compacting != null && compacting.containsKey(leafId)
+          && !droppedWhileCompacting.contains(leafId)) {
+        older = copy(compacting.get(leafId).get(pnName));
+      }
+      if (deltas.containsKey(leafId)) {
+        newer = copy(deltas.get(leafId).get(pnName));
+      }
+    }
+    if (older != null) {
+      pn = older.apply(pn);
+    }
+    if (newer != null) {
+      pn = newer.apply(pn);
+    }
+    return pn;
+  }
+
+  private static Delta copy(Delta delta) {
+    if (delta == null) {
+      return null;
+    }
+    Delta copy = new Delta();
+    copy.added = delta.added;
+    copy.removed = delta.removed;
+    return copy;
+  }
+
+  /**
+   * @return number of leaf nodes having pending deltas
+   */
+  public synchronized int getPendingLeafCount() {
+    return deltas.size() + (compacting == null ? 0 : compacting.size());
+  }
+
+  /**
+   * Write the pending deltas into the PN properties and PNSize. A PN longer than maxPNSize becomes
+   * ignored, the same as the construction. The deltas of a dropped or deleted leaf node are
+   * skipped. Afterwards the log file is rewritten with the deltas appended meanwhile. If the
+   * transaction fails, the deltas are kept and the log file is untouched.
+   *
+   * @param service
+   * @return number of compacted PNs
+   * @throws Exception
+   */
+  public int compact(GraphDatabaseService service) throws Exception {
+    synchronized (compactLock) {
+      synchronized (this) {
+        if (deltas.isEmpty()) {
+          return 0;
+        }
+        compacting = deltas;
+        deltas = new HashMap<>();
+      }
+      long start = System.currentTimeMillis();
+      int count = 0;
+      try (Transaction tx = service.beginTx()) {
+        for (Entry<Long, Map<String, Delta>> leafEntry : compacting.entrySet()) {
+          synchronized (this) {
+            if (droppedWhileCompacting.contains(leafEntry.getKey())) {
+              continue;
+            }
+          }
+          Node leafNode;
+          try {
+            leafNode = service.getNodeById(leafEntry.getKey());
+          } catch (NotFoundException e) {
+            continue;
+          }
+          for (Entry<String, Delta> entry : leafEntry.getValue().entrySet()) {
+            String pnName = entry.getKey();
+            int[] pn = (int[]) leafNode.getProperty(pnName, null);
+            if (pn == null || pn.length == 0) {
+              continue;
+            }
+            int[] pnAfterUpdate = entry.getValue().apply(pn);
+            if (pnAfterUpdate.length > maxPNSize) {
+              pnAfterUpdate = new int[0];
+            }
+            leafNode.setProperty(pnName, pnAfterUpdate);
+            leafNode.setProperty(RisoTreeUtil.getPNSizeName(pnName), pnAfterUpdate.length);
+            count++;
+          }
+        }
+        tx.success();
+      } catch (Exception e) {
+        synchronized (this) {
+          for (long leafId : droppedWhileCompacting) {
+            compacting.remove(leafId);
+          }
+          droppedWhileCompacting.clear();
+          for (Entry<Long, Map<String, Delta>> leafEntry : deltas.entrySet()) {
+            for (Entry<String, Delta> entry : leafEntry.getValue().entrySet()) {
+              Map<String, Delta> olderDeltas = compacting.get(leafEntry.getKey());
+              if (olderDeltas == null) {
+                olderDeltas = new HashMap<>();
+                compacting.put(leafEntry.getKey(), olderDeltas);
+              }
+              Delta older = olderDeltas.get(entry.getKey());
+              if (older == null) {
+                olderDeltas.put(entry.getKey(), entry.getValue());
+              } else {
+                older.append(entry.getValue());
+              }
+            }
+          }
+          deltas = compacting;
+          compacting = null;
+        }
+        throw e;
+      }
+
+      synchronized (this) {
+        for (long leafId : compacting.keySet()) {
+          LeafPathCache.invalidateLeaf(leafId);
+          IndexPageCache.invalidateNode(leafId);
+        }
+        compacting = null;
+        droppedWhileCompacting.clear();
+        rewriteLog();
+      }
+      compactCount += count;
+      compactTime += System.currentTimeMillis() - start;
+      return count;
+    }
+  }
+
+  /**
+   * Replace the log file by the current deltas.
+   *
+   * @throws Exception
+   */
+  private void rewriteLog() throws Exception {
+    Util.close(writer);
+    String tmpPath = logPath + ".tmp";
+    FileWriter tmpWriter = Util.getFileWriter(tmpPath);
+    for (Entry<Long, Map<String, Delta>> leafEntry : deltas.entrySet()) {
+      for (Entry<String, Delta> entry : leafEntry.getValue().entrySet()) {
+        Delta delta = entry.getValue();
+        if (delta.removed.length > 0) {
+          tmpWriter.write(String.format("%d\t-\t%s\t%s\n", leafEntry.getKey(), entry.getKey(),
+              StringUtils.join(delta.removed, ',')));
+        }
+        if (delta.added.length > 0) {
+          tmpWriter.write(String.format("%d\t+\t%s\t%s\n", leafEntry.getKey(), entry.getKey(),
+              StringUtils.join(delta.added, ',')));
+        }
+      }
+    }
+    Util.close(tmpWriter);
+    File logFile = new File(logPath);
+    if (!new File(tmpPath).renameTo(logFile)) {
+      throw new Exception(String.format("fail to rename %s to %s", tmpPath, logPath));
+    }
+    writer = Util.getFileWriter(logPath, true);
+  }
+
+  /**
+   * Compact periodically in a background thread.
+   *
+   * @param service
+   * @param intervalMillis
+   */
+  public synchronized void startCompaction(GraphDatabaseService service, long intervalMillis) {
+    if (compactor != null) {
+      return;
+    }
+    compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "pn-delta-compaction");
+      thread.setDaemon(true);
+      return thread;
+    });
+    compactor.scheduleWithFixedDelay(() -> {
+      try {
+        int count = compact(service);
+        if (count > 0) {
+          LOGGER.info(String.format("compact %d PNs", count));
+        }
+      } catch (Exception e) {
+        LOGGER.log(Level.WARNING, "PN delta compaction fails", e);
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stop the background compaction and compact the remaining deltas.
+   *
+   * @param service
+   * @throws Exception
+   */
+  public void close(GraphDatabaseService service) throws Exception {
+    ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = compactor;
+      compactor = null;
+    }
+    if (executor != null) {
+      executor.shutdown();
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+    compact(service);
+    synchronized (this) {
+      Util.close(writer);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import commons.ReadWriteUtil;
+
+/**
+ * How often each label path (PN property name) is used by the queries. Recorded by
+ * {@link RisoTreeQueryPN} and used by {@link IndexWarmUp} to preload the hot PNs. It can be
+ * written to a file in the format of {@link ReadWriteUtil#WriteMap(String, boolean, Map)} so that
+ * the statistics of a workload survive a restart.
+ */
+public class PathUsageStatistics {
+
+  private final ConcurrentHashMap<String, LongAdder> counts = new ConcurrentHashMap<>();
+
+  public void record(String path) {
+    counts.computeIfAbsent(path, k -> new LongAdder()).increment();
+  }
+
+  public void add(String path, long count) {
+    counts.computeIfAbsent(path, k -> new LongAdder()).add(count);
+  }
+
+  public long getCount(String path) {
+    LongAdder count = counts.get(path);
+    return count == null ? 0 : count.sum();
+  }
+
+  /**
+   * @param k
+   * @return at most {@code k} paths in descending order of the usage count
+   */
+  public List<String> getHotPaths(int k) {
+    Map<String, Long> snapshot = snapshot();
+    List<String> paths = new ArrayList<>(snapshot.keySet());
+    paths.sort((p1, p2) -> Long.compare(snapshot.get(p2), snapshot.get(p1)));
+    return paths.subList(0, Math.min(k, paths.size()));
+  }
+
+  /**
+   * @return path -> count sorted by the path
+   */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = new TreeMap<>();
+    for (String path : counts.keySet()) {
+      snapshot.put(path, counts.get(path).sum());
+    }
+    return snapshot;
+  }
+
+  public void clear() {
+    counts.clear();
+  }
+
+  /**
+   * Overwrite {@code filename} with the counts.
+   *
+   * @param filename
+   * @throws Exception
+   */
+  public void write(String filename) throws Exception {
+    ReadWriteUtil.WriteMap(filename, false, snapshot());
+  }
+
+  /**
+   * Add the counts written by {@link #write(String)}.
+   *
+   * @param filename
+   * @throws Exception
+   */
+  public void read(String filename) throws Exception {
+    HashMap<String, String> map = ReadWriteUtil.ReadMap(filename);
+    if (map == null) {
+      throw new Exception(String.format("cannot read path usage from %s!", filename));
+    }
+    for (String path : map.keySet()) {
+      add(path, Long.parseLong(map.get(path)));
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import org.neo4j.graphdb.GraphDatabaseService;
+import commons.MyPoint;
+import commons.MyRectangle;
+import commons.Neo4jGraphUtility;
+import commons.Query_Graph;
+import cypher.middleware.CypherUtil;
+
+/**
+ * Semantic result cache for LAGAQ-Range queries. Entries are keyed by the query shape (graph
+ * structure, labels, spatial query vertexes, non-spatial predicates and return clause) plus the
+ * query rectangles. A query
+ * whose rectangles are all contained in the rectangles of a cached query with the same shape is
+ * answered by spatially filtering the cached rows. Eviction is LRU bounded by the total number of
+ * cached rows. The returned rows are shared by the cache and cannot be modified.
+ * <p>
+ * A cache belongs to a single layer of a database (see {@link #getLayerCache(GraphDatabaseService,
+ * String)}) because the key does not contain either of them.
+ */
+public class QueryResultCache {
+
+  public static class CachedResult {
+    String shapeKey;
+    Map<Integer, MyRectangle> rectangles;
+    List<Map<String, Object>> rows;
+    /**
+     * Location of each spatial query vertex for each row. null means the location cannot be
+     * recovered from the rows so that only the exact match can reuse this entry.
+     */
+    List<Map<Integer, MyPoint>> locations;
+  }
+
+  /**
+   * <database key, <layer name, cache>>. See {@link Neo4jGraphUtility#getDatabaseKey}.
+   */
+  private static final Map<Object, Map<String, QueryResultCache>> layerCaches =
+      new WeakHashMap<>();
+
+  /**
+   * Max number of rows of the layer caches created by
+   * {@link #getLayerCache(GraphDatabaseService, String)}.
+   */
+  public static long defaultMaxRowCount = 10000000;
+
+  private final long maxRowCount;
+  private long rowCount = 0;
+  private final LinkedHashMap<String, CachedResult> entries =
+      new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+  /**
+   * Incremented by every invalidation. The result of a query is not cached if an invalidation
+   * happens while it runs, because the result may not contain the update.
+   */
+  private long epoch = 0;
+
+  public long exactHitCount = 0;
+  public long containHitCount = 0;
+  public long missCount = 0;
+
+  /**
+   * @param maxRowCount max number of result rows kept in the cache
+   */
+  public QueryResultCache(long maxRowCount) {
+    this.maxRowCount = maxRowCount;
+  }
+
+  /**
+   * Get the cache of a layer. Created on the first call.
+   *
+   * @param service
+   * @param layerName
+   * @return
+   */
+  public static synchronized QueryResultCache getLayerCache(GraphDatabaseService service,
+      String layerName) {
+    Object databaseKey = Neo4jGraphUtility.getDatabaseKey(service);
+    Map<String, QueryResultCache> caches = layerCaches.get(databaseKey);
+    if (caches == null) {
+      caches = new HashMap<>();
+      layerCaches.put(databaseKey, caches);
+    }
+    QueryResultCache cache = caches.get(layerName);
+    if (cache == null) {
+      cache = new QueryResultCache(defaultMaxRowCount);
+      caches.put(layerName, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * Drop the cached results of all the layers. Called on any graph or tree update, which does not
+   * always know the affected layers.
+   */
+  public static synchronized void invalidateAll() {
+    for (Map<String, QueryResultCache> caches : layerCaches.values()) {
+      for (QueryResultCache cache : caches.values()) {
+        cache.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Form the key of the query shape. Rectangles are not included. The non-spatial predicates are
+   * included in the sorted order so that the key does not depend on the order of the conjuncts.
+   *
+   * @param query the original cypher query
+   * @param query_Graph
+   * @return
+   */
+  public static String formShapeKey(String query, Query_Graph query_Graph) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < query_Graph.graph.size(); i++) {
+      builder.append(query_Graph.nodeVariables[i]).append(':')
+          .append(query_Graph.getNodeLabelString(i)).append(query_Graph.graph.get(i))
+          .append(query_Graph.Has_Spa_Predicate[i] ? "S" : "").append(';');
+    }
+    builder.append(new TreeSet<>(CypherUtil.getNonSpatialPredicates(query))).append(';');
+    int returnIndex = query.toLowerCase().lastIndexOf(" return ");
+    if (returnIndex != -1) {
+      builder.append(query.substring(returnIndex).trim().replaceAll("\\s+", " "));
+    }
+    return builder.toString();
+  }
+
+  private static String formEntryKey(String shapeKey, Map<Integer, MyRectangle> rectangles) {
+    return shapeKey + "|" + new TreeMap<>(rectangles).toString();
+  }
+
+  /**
+   * Get the result rows of a query.
+   *
+   * @param shapeKey formed by {@link #formShapeKey(String, Query_Graph)}
+   * @param rectangles <spatial_id, rectangle>
+   * @return null if the query cannot be answered from the cache
+   */
+  public synchronized List<Map<String, Object>> get(String shapeKey,
+      Map<Integer, MyRectangle> rectangles) {
+    CachedResult exact = entries.get(formEntryKey(shapeKey, rectangles));
+    if (exact != null) {
+      exactHitCount++;
+      return Collections.unmodifiableList(exact.rows);
+    }
+
+    CachedResult container = null;
+    for (CachedResult entry : entries.values()) {
+      if (entry.locations != null && entry.shapeKey.equals(shapeKey)
+          && isContained(rectangles, entry.rectangles)) {
+        container = entry;
+        break;
+      }
+    }
+    if (container == null) {
+      missCount++;
+      return null;
+    }
+    containHitCount++;
+    // touch the entry so that it is kept as recently used
+    entries.get(formEntryKey(container.shapeKey, container.rectangles));
+    return Collections.unmodifiableList(spatialFilter(container, rectangles));
+  }
+
+  /**
+   * @return the current epoch to be passed to
+   *         {@link #put(String, Map, List, List, long)} after the query is run
+   */
+  public synchronized long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Cache the result rows of a query. The lists are copied so that the caller can reuse them.
+   *
+   * @param shapeKey
+   * @param rectangles
+   * @param rows
+   * @param locations can be null if not available
+   */
+  public synchronized void put(String shapeKey, Map<Integer, MyRectangle> rectangles,
+      List<Map<String, Object>> rows, List<Map<Integer, MyPoint>> locations) {
+    put(shapeKey, rectangles, rows, locations, epoch);
+  }
+
+  /**
+   * Cache the result rows of a query unless the cache is invalidated after {@code readEpoch}.
+   *
+   * @param shapeKey
+   * @param rectangles
+   * @param rows
+   * @param locations can be null if not available
+   * @param readEpoch {@link #getEpoch()} before the query is run
+   */
+  public synchronized void put(String shapeKey, Map<Integer, MyRectangle> rectangles,
+      List<Map<String, Object>> rows, List<Map<Integer, MyPoint>> locations, long readEpoch) {
+    if (readEpoch != epoch || rows.size() > maxRowCount) {
+      return;
+    }
+    CachedResult entry = new CachedResult();
+    entry.shapeKey = shapeKey;
+    entry.rectangles = rectangles;
+    entry.rows = new ArrayList<>(rows);
+    entry.locations = locations == null ? null : new ArrayList<>(locations);
+    CachedResult previous = entries.put(formEntryKey(shapeKey, rectangles), entry);
+    if (previous != null) {
+      rowCount -= previous.rows.size();
+    }
+    rowCount += rows.size();
+
+    Iterator<CachedResult> iterator = entries.values().iterator();
+    while (rowCount > maxRowCount && iterator.hasNext()) {
+      CachedResult eldest = iterator.next();
+      iterator.remove();
+      rowCount -= eldest.rows.size();
+    }
+  }
+
+  /**
+   * Drop all the cached results. Called on any graph or tree update.
+   */
+  public synchronized void invalidate() {
+    entries.clear();
+    rowCount = 0;
+    epoch++;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private static boolean isContained(Map<Integer, MyRectangle> rectangles,
+      Map<Integer, MyRectangle> cachedRectangles) {
+    if (!rectangles.keySet().equals(cachedRectangles.keySet())) {
+      return false;
+    }
+    for (int spatialId : rectangles.keySet()) {
+      if (!cachedRectangles.get(spatialId).contains(rectangles.get(spatialId))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<Map<String, Object>> spatialFilter(CachedResult entry,
+      Map<Integer, MyRectangle> rectangles) {
+    List<Map<String, Object>> rows = new ArrayList<>();
+    for (int i = 0; i < entry.rows.size(); i++) {
+      Map<Integer, MyPoint> rowLocations = entry.locations.get(i);
+      boolean inside = true;
+      for (int spatialId : rectangles.keySet()) {
+        if (!rectangles.get(spatialId).contains(rowLocations.get(spatialId))) {
+          inside = false;
+          break;
+        }
+      }
+      if (inside) {
+        rows.add(entry.rows.get(i));
+      }
+    }
+    return rows;
+  }
+}
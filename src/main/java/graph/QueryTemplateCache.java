@@ -0,0 +1,233 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherCompiler;
+import cypher.middleware.CypherCompiler.CompiledQuery;
+import cypher.middleware.CypherUtil;
+
+/**
+ * Bounded LRU cache of the decoded LAGAQ-Range queries keyed by the query shape, i.e., the
+ * normalized query text with the number literals abstracted as parameters. A shape keeps the
+ * Query_Graph skeleton, the literals forming the query rectangles, the min-hop matrix, the label
+ * paths of each spatial query vertex and the rewrite template. A query of a cached shape is only
+ * tokenized to bind its literals; it is neither parsed nor analyzed again.
+ */
+public class QueryTemplateCache {
+
+  private static final Logger LOGGER = Logger.getLogger(QueryTemplateCache.class.getName());
+
+  /**
+   * Name prefix of the parameters replacing the literals in the rewrite template.
+   */
+  public static final String literalParameterPrefix = "riso_literal";
+  private static final Pattern literalParameterPattern =
+      Pattern.compile("\\$" + literalParameterPrefix + "(\\d+)");
+
+  public static class QueryTemplate {
+    public final String shapeKey;
+    private final CompiledQuery compiledQuery;
+    /**
+     * query node id -> literal indexes of minx, miny, maxx and maxy. null for a non-spatial node.
+     */
+    private final int[][] rectangleLiterals;
+    /**
+     * indexes of the literals used by {@link #queryParts}.
+     */
+    private final TreeSet<Integer> templateLiterals = new TreeSet<>();
+    public final int[][] minHop;
+    /**
+     * The match part, the return part and the non-spatial predicates of the query, see
+     * {@link CypherUtil#splitQueryParts(String)}. The literals are parameters.
+     */
+    public final String[] queryParts;
+    /**
+     * MAX_HOPNUM -> label paths of each spatial query vertex, see
+     * {@link RisoTreeQueryPN#recognizePaths(Query_Graph)}.
+     */
+    private final Map<Integer, HashMap<Integer, HashMap<Integer, HashSet<String>>>> spaPathsMaps =
+        new HashMap<>();
+
+    private QueryTemplate(String shapeKey, CompiledQuery compiledQuery, int[][] rectangleLiterals,
+        String[] queryParts) {
+      this.shapeKey = shapeKey;
+      this.compiledQuery = compiledQuery;
+      this.rectangleLiterals = rectangleLiterals;
+      this.queryParts = queryParts;
+      this.minHop = RisoTreeQueryPN.Ini_Minhop(compiledQuery.getQueryGraph());
+      for (String queryPart : queryParts) {
+        Matcher matcher = literalParameterPattern.matcher(queryPart);
+        while (matcher.find()) {
+          templateLiterals.add(Integer.parseInt(matcher.group(1)));
+        }
+      }
+    }
+
+    /**
+     * @param risoTreeQueryPN provides MAX_HOPNUM and the path recognition
+     * @return the label paths of each spatial query vertex. Shared, so never modify it.
+     */
+    public synchronized HashMap<Integer, HashMap<Integer, HashSet<String>>> getSpaPathsMap(
+        RisoTreeQueryPN risoTreeQueryPN) {
+      HashMap<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap =
+          spaPathsMaps.get(risoTreeQueryPN.MAX_HOPNUM);
+      if (spaPathsMap == null) {
+        spaPathsMap = risoTreeQueryPN.recognizePaths(compiledQuery.getQueryGraph());
+        spaPathsMaps.put(risoTreeQueryPN.MAX_HOPNUM, spaPathsMap);
+      }
+      return spaPathsMap;
+    }
+
+    private BoundQuery bind(List<String> literals) {
+      Query_Graph query_Graph = compiledQuery.getQueryGraph();
+      for (int id = 0; id < rectangleLiterals.length; id++) {
+        int[] indexes = rectangleLiterals[id];
+        if (indexes != null) {
+          query_Graph.spa_predicate[id] = new MyRectangle(
+              Double.parseDouble(literals.get(indexes[0])),
+              Double.parseDouble(literals.get(indexes[1])),
+              Double.parseDouble(literals.get(indexes[2])),
+              Double.parseDouble(literals.get(indexes[3])));
+        }
+      }
+      Map<String, Object> parameters = new HashMap<>();
+      for (int index : templateLiterals) {
+        parameters.put(literalParameterPrefix + index, parseLiteral(literals.get(index)));
+      }
+      return new BoundQuery(this, query_Graph, parameters);
+    }
+  }
+
+  /**
+   * A query bound to the template of its shape.
+   */
+  public static class BoundQuery {
+    public final QueryTemplate template;
+    /**
+     * Owned by the query, so it can be modified.
+     */
+    public final Query_Graph query_Graph;
+    /**
+     * Values of the literal parameters in {@link QueryTemplate#queryParts}.
+     */
+    public final Map<String, Object> parameters;
+
+    private BoundQuery(QueryTemplate template, Query_Graph query_Graph,
+        Map<String, Object> parameters) {
+      this.template = template;
+      this.query_Graph = query_Graph;
+      this.parameters = parameters;
+    }
+  }
+
+  private final int capacity;
+  private final LinkedHashMap<String, QueryTemplate> templates;
+
+  public long hitCount = 0;
+  public long missCount = 0;
+
+  /**
+   * @param capacity max number of query shapes kept in the cache
+   */
+  public QueryTemplateCache(int capacity) {
+    this.capacity = capacity;
+    this.templates = new LinkedHashMap<String, QueryTemplate>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, QueryTemplate> eldest) {
+        return size() > QueryTemplateCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * Bind a query to the template of its shape. The template is created if the shape is not cached.
+   *
+   * @param query 'match ... where ... return ...' with range predicates
+   * @return null if the query cannot be templated. Decode it as a whole then.
+   */
+  public BoundQuery bind(String query) {
+    String normalizedQuery = CypherCompiler.normalize(query);
+    List<String> literals = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    String shapeKey = CypherUtil.abstractLiterals(normalizedQuery, literalParameterPrefix,
+        literals, offsets);
+    QueryTemplate template;
+    synchronized (this) {
+      template = templates.get(shapeKey);
+      if (template != null) {
+        hitCount++;
+      } else {
+        missCount++;
+      }
+    }
+    if (template == null) {
+      template = createTemplate(shapeKey, normalizedQuery, offsets);
+      if (template == null) {
+        return null;
+      }
+      synchronized (this) {
+        templates.put(shapeKey, template);
+      }
+    }
+    return template.bind(literals);
+  }
+
+  private static QueryTemplate createTemplate(String shapeKey, String normalizedQuery,
+      List<Integer> offsets) {
+    if (!shapeKey.contains(" where ") || !shapeKey.contains(" return ")) {
+      LOGGER.fine(normalizedQuery + " does not have both where and return");
+      return null;
+    }
+    CompiledQuery compiledQuery = CypherCompiler.compile(normalizedQuery);
+    String[] nodeVariables = compiledQuery.getQueryGraph().nodeVariables;
+    int[][] rectangleLiterals = new int[nodeVariables.length][];
+    for (int id = 0; id < nodeVariables.length; id++) {
+      int[] boundOffsets = compiledQuery.spatialPredicateOffsets.get(nodeVariables[id]);
+      if (boundOffsets == null) {
+        continue;
+      }
+      rectangleLiterals[id] = new int[4];
+      for (int i = 0; i < 4; i++) {
+        rectangleLiterals[id][i] = offsets.indexOf(boundOffsets[i]);
+        if (rectangleLiterals[id][i] == -1) {
+          LOGGER.fine(String.format("bound of %s in %s is not a literal", nodeVariables[id],
+              normalizedQuery));
+          return null;
+        }
+      }
+    }
+    if (StringUtils.countMatches(shapeKey, " return ") != 1) {
+      return null;
+    }
+    String[] queryParts = CypherUtil.splitQueryParts(shapeKey);
+    return new QueryTemplate(shapeKey, compiledQuery, rectangleLiterals, queryParts);
+  }
+
+  private static Object parseLiteral(String literal) {
+    if (StringUtils.containsAny(literal, '.', 'e', 'E')) {
+      return Double.parseDouble(literal);
+    }
+    return Long.parseLong(literal);
+  }
+
+  public synchronized int size() {
+    return templates.size();
+  }
+
+  public synchronized void clear() {
+    templates.clear();
+  }
+}
@@ -1,6 +1,7 @@
 package graph;
 
 import java.io.FileWriter;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -9,8 +10,18 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import org.neo4j.gis.spatial.GeometryEncoder;
+import org.neo4j.gis.spatial.Layer;
+import org.neo4j.gis.spatial.SpatialDatabaseService;
+import org.neo4j.gis.spatial.rtree.RTreeIndex;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Result;
+import commons.Config;
+import commons.Enums.MaintenancePhase;
 import commons.Enums.MaintenanceStatistic;
 import commons.Labels;
 import commons.Neo4jGraphUtility;
@@ -18,6 +29,7 @@ import commons.RTreeUtility;
 import commons.ReadWriteUtil;
 import commons.RisoTreeUtil;
 import commons.Util;
+import commons.metrics.PhaseTrace;
 
 public class RisoTreeMaintenance {
 
@@ -31,6 +43,10 @@ public class RisoTreeMaintenance {
    */
   String safeNodesPath;
   public Set<Long> safeNodes;
+  /**
+   * Number of graph nodes for the GSD of the spatial node insertion. Counted at the first insertion.
+   */
+  int graphNodeCount = -1;
 
   public long runTime = 0;
   public long getGraphNodePNTime = 0;
@@ -44,6 +60,10 @@ public class RisoTreeMaintenance {
   public Map<Long, Long> updateLeafNodeTimeMap = new HashMap<>();
   Map<MaintenanceStatistic, Object> maintenanceStatisticMap = new HashMap<>();
 
+  // nanosecond phase times published to RisoTreeQueryPN.metricsRegistry per update
+  public final PhaseTrace<MaintenancePhase> trace =
+      new PhaseTrace<>(RisoTreeMaintenance.class.getSimpleName(), MaintenancePhase.class);
+
   public int safeCaseHappenCount = 0;
   public int visitedNodeCount = 0;
   public int updatePNCount = 0;
@@ -74,6 +94,8 @@ public class RisoTreeMaintenance {
     visitedNodeCount = 0;
     
     maintenanceStatisticMap = new HashMap<>();
+    trace.clear();
+    trace.begin();
   }
 
   private void setMaintenanceStatisticMap() {
@@ -104,8 +126,10 @@ public class RisoTreeMaintenance {
     iniLogVariables();
     long start = System.currentTimeMillis();
     addEdge(databaseService.getNodeById(src), databaseService.getNodeById(trg));
+    QueryResultCache.invalidateAll();
     runTime += System.currentTimeMillis() - start;
     setMaintenanceStatisticMap();
+    trace.publish(RisoTreeQueryPN.metricsRegistry, "addEdge", MaintenancePhase.total);
   }
 
   private void addEdge(Node src, Node trg) {
@@ -115,16 +139,20 @@ public class RisoTreeMaintenance {
       safeCaseHappenCount++;
     }
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     src.createRelationshipTo(trg, Labels.GraphRel.GRAPH_INSERT);
+    trace.stop(MaintenancePhase.create_edge, spanStart);
     createEdgeTime += System.currentTimeMillis() - start;
   }
 
   private void addEdgeUpdateCase(Node src, Node trg) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     Map<String, Set<Node>> pathNeighborsSrc =
         MaintenanceUtil.getPNGeneral(databaseService, src, MAX_HOPNUM - 1);
     Map<String, Set<Node>> pathNeighborsTrg =
         MaintenanceUtil.getPNGeneral(databaseService, trg, MAX_HOPNUM - 1);
+    trace.stop(MaintenancePhase.get_graph_node_pn, spanStart);
     getGraphNodePNTime += System.currentTimeMillis() - start;
 
     for (Set<Node> nodes : pathNeighborsSrc.values()) {
@@ -154,6 +182,7 @@ public class RisoTreeMaintenance {
    */
   public Map<String, int[]> convertToPNSortedIds(Map<String, Set<Node>> pathNeighbors) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     Map<String, int[]> pnIds = new HashMap<>();
     for (String key : pathNeighbors.keySet()) {
       Set<Node> nodes = pathNeighbors.get(key);
@@ -172,6 +201,7 @@ public class RisoTreeMaintenance {
       }
       pnIds.put(key, ids);
     }
+    trace.stop(MaintenancePhase.convert_id, spanStart);
     convertIdTime += System.currentTimeMillis() - start;
     return pnIds;
   }
@@ -185,6 +215,7 @@ public class RisoTreeMaintenance {
   private void addEdgeUpdateSingleDirection(Map<String, Set<Node>> pathNeighborsSrc,
       Map<String, int[]> pathNeighborsTrgSortedIds) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     Iterator<Entry<String, Set<Node>>> iterator = pathNeighborsSrc.entrySet().iterator();
     int minDist = Integer.MAX_VALUE;// min dist from spatial node to src node
     while (iterator.hasNext()) {
@@ -203,6 +234,7 @@ public class RisoTreeMaintenance {
         }
       }
     }
+    trace.stop(MaintenancePhase.update_pn, spanStart);
     updatePNTimeTotal += System.currentTimeMillis() - start;
     if (safeNodesUsed) {
       updateSafeNodes(pathNeighborsTrgSortedIds, MAX_HOPNUM - minDist);
@@ -217,6 +249,7 @@ public class RisoTreeMaintenance {
    */
   private void updateSafeNodes(Map<String, int[]> pathNeighborsTrgSortedIds, int updateUpperBound) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     Iterator<Entry<String, int[]>> iterator = pathNeighborsTrgSortedIds.entrySet().iterator();
     while (iterator.hasNext()) {
       Entry<String, int[]> entry = iterator.next();
@@ -226,6 +259,7 @@ public class RisoTreeMaintenance {
         }
       }
     }
+    trace.stop(MaintenancePhase.update_safe_nodes, spanStart);
     updateSafeNodesTime += System.currentTimeMillis() - start;
   }
 
@@ -266,6 +300,10 @@ public class RisoTreeMaintenance {
    */
   private void updateLeafNodeSinglePn(Node leafNode, String pnName, int[] nodesAdded) {
     updatePNCount++;
+    if (RisoTreeQueryPN.pnDeltaLog != null) {
+      appendLeafNodeSinglePn(leafNode, pnName, nodesAdded);
+      return;
+    }
     Set<String> shorterPaths = RisoTreeUtil.formIgnoreSearchSet(pnName);
     Map<String, Object> properties = leafNode.getAllProperties();
     Iterator<Map.Entry<String, Object>> iterator = properties.entrySet().iterator();
@@ -279,10 +317,12 @@ public class RisoTreeMaintenance {
         }
         int[] pnAfterUpdate = Util.sortedArrayMerge(pn, nodesAdded);
         if (pn.length != pnAfterUpdate.length) {
-          if (pnAfterUpdate.length >= maxPNSize) {
+          if (pnAfterUpdate.length > maxPNSize) {
             pnAfterUpdate = new int[0];
           }
           leafNode.setProperty(key, pnAfterUpdate);
+          LeafPathCache.invalidateLeaf(leafNode.getId());
+          IndexPageCache.invalidateNode(leafNode.getId());
         }
       } else if (shorterPaths.contains(key)) {
         int[] pn = (int[]) entry.getValue();
@@ -293,6 +333,309 @@ public class RisoTreeMaintenance {
     }
   }
 
+  /**
+   * Same as {@link #updateLeafNodeSinglePn(Node, String, int[])} but the added ids are appended to
+   * {@link RisoTreeQueryPN#pnDeltaLog}. PNSize is checked instead of the PN so that the arrays are
+   * not read.
+   *
+   * @param leafNode
+   * @param pnName
+   * @param nodesAdded
+   */
+  private void appendLeafNodeSinglePn(Node leafNode, String pnName, int[] nodesAdded) {
+    Integer size = getPNSize(leafNode, pnName);
+    if (size == null || size == 0) { // no such label path or pnName is ignored
+      return;
+    }
+    for (String shorterPath : RisoTreeUtil.formIgnoreSearchSet(pnName)) {
+      size = getPNSize(leafNode, shorterPath);
+      if (size != null && size == 0) { // pnName is ignored because of shorter paths
+        return;
+      }
+    }
+    RisoTreeQueryPN.pnDeltaLog.add(leafNode.getId(), pnName, nodesAdded);
+  }
+
+  /**
+   * @param leafNode
+   * @param pnName
+   * @return null if the leaf node does not have the path
+   */
+  private static Integer getPNSize(Node leafNode, String pnName) {
+    Object size = leafNode.getProperty(RisoTreeUtil.getPNSizeName(pnName), null);
+    if (size != null) {
+      return (Integer) size;
+    }
+    int[] pn = (int[]) leafNode.getProperty(pnName, null);
+    return pn == null ? null : pn.length;
+  }
+
+  /**
+   * Insert a spatial node into the RisoTree of a layer. The B-hop PNs of the node are computed
+   * locally and merged into the PNs of the chosen leaf node. If the leaf splits, the PNs of both
+   * leaf nodes are rebuilt from the PNs of their children.
+   *
+   * @param layerName
+   * @param id the spatial node
+   * @param alpha the same as the construction
+   * @throws Exception
+   */
+  public void addSpatialNode(String layerName, long id, double alpha) throws Exception {
+    iniLogVariables();
+    long start = System.currentTimeMillis();
+    Layer layer = getLayer(layerName);
+    Node node = databaseService.getNodeById(id);
+    GeometryEncoder geometryEncoder = layer.getGeometryEncoder();
+    // add BBOX to Node if it's missing
+    geometryEncoder.encodeGeometry(geometryEncoder.decodeGeometry(node), node);
+
+    IndexPathNeighborStore pathNeighborStore = new IndexPathNeighborStore();
+    Map<String, int[]> pathNeighbors = pathNeighborStore.getSpatialPathNeighbors(id);
+    RTreeIndex index = getIndex(layer, pathNeighborStore, alpha);
+    long start2 = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
+    index.add(node, pathNeighbors);
+    trace.stop(MaintenancePhase.update_pn, spanStart);
+    updateLeafNodePNTime += System.currentTimeMillis() - start2;
+
+    if (safeNodesUsed) {
+      updateSafeNodes(pathNeighbors, MAX_HOPNUM);
+    }
+    QueryResultCache.invalidateAll();
+    // splits and bbox updates change the tree skeleton
+    IndexPageCache.clearAll();
+    runTime += System.currentTimeMillis() - start;
+    setMaintenanceStatisticMap();
+    trace.publish(RisoTreeQueryPN.metricsRegistry, "addSpatialNode", MaintenancePhase.total);
+  }
+
+  /**
+   * Remove a spatial node from the RisoTree of a layer. The node itself is kept in the graph. The
+   * PNs of its leaf node are rebuilt from the remaining children so they do not keep the path
+   * neighbors of the removed node.
+   *
+   * @param layerName
+   * @param id the spatial node
+   * @throws Exception
+   */
+  public void deleteSpatialNode(String layerName, long id) throws Exception {
+    iniLogVariables();
+    long start = System.currentTimeMillis();
+    Layer layer = getLayer(layerName);
+    Node node = databaseService.getNodeById(id);
+    long start2 = System.currentTimeMillis();
+    Node leafNode = RTreeUtility.getParentLeafNode(node);
+    getRTreeLeafNodeTime += System.currentTimeMillis() - start2;
+    int childCount = 0;
+    for (Relationship relationship : leafNode.getRelationships(Direction.OUTGOING,
+        RTreeRelationshipTypes.RTREE_REFERENCE)) {
+      childCount++;
+    }
+    // The leaf node is deleted together with its last child.
+    if (childCount == 1) {
+      dropPNDeltas(leafNode.getId());
+    }
+    ((RTreeIndex) layer.getIndex()).remove(id, false, true);
+
+    if (childCount > 1) {
+      start2 = System.currentTimeMillis();
+      long spanStart = PhaseTrace.start();
+      IndexPathNeighborStore pathNeighborStore = new IndexPathNeighborStore();
+      pathNeighborStore.clearLeafPathNeighbors(leafNode.getId());
+      Map<String, int[]> leafPathNeighbors =
+          pathNeighborStore.getLeafPathNeighbors(leafNode.getId());
+      for (Relationship relationship : leafNode.getRelationships(Direction.OUTGOING,
+          RTreeRelationshipTypes.RTREE_REFERENCE)) {
+        long childId = relationship.getEndNode().getId();
+        mergePathNeighbors(leafPathNeighbors,
+            pathNeighborStore.getSpatialPathNeighbors(childId));
+      }
+      trace.stop(MaintenancePhase.update_pn, spanStart);
+      updateLeafNodePNTime += System.currentTimeMillis() - start2;
+    }
+    QueryResultCache.invalidateAll();
+    // splits and bbox updates change the tree skeleton
+    IndexPageCache.clearAll();
+    runTime += System.currentTimeMillis() - start;
+    setMaintenanceStatisticMap();
+    trace.publish(RisoTreeQueryPN.metricsRegistry, "deleteSpatialNode", MaintenancePhase.total);
+  }
+
+  private Layer getLayer(String layerName) throws Exception {
+    Layer layer = new SpatialDatabaseService(databaseService).getLayer(layerName);
+    if (layer == null) {
+      throw new Exception(String.format("layer %s does not exist!", layerName));
+    }
+    return layer;
+  }
+
+  /**
+   * Get the RisoTree of the layer ready for {@link RTreeIndex#add(Node, Map)}. The leaf PNs are
+   * read and written through the PN properties directly.
+   *
+   * @param layer
+   * @param pathNeighborStore
+   * @param alpha
+   * @return
+   */
+  private RTreeIndex getIndex(Layer layer, IndexPathNeighborStore pathNeighborStore,
+      double alpha) {
+    if (graphNodeCount == -1) {
+      // the R-tree and layer nodes have no label, the reference node is not a graph node either
+      Result result = databaseService.execute(String.format(
+          "MATCH (n) WHERE size(labels(n)) > 0 AND NOT n:%s RETURN count(n) AS count",
+          Labels.OSMLabel.ReferenceNode));
+      graphNodeCount = ((Number) result.next().get("count")).intValue();
+      result.close();
+    }
+    RTreeIndex index = (RTreeIndex) layer.getIndex();
+    index.setPathNeighbors(pathNeighborStore, graphNodeCount, alpha, maxPNSize);
+    return index;
+  }
+
+  /**
+   * Merge {@code otherPNs} into {@code basePNs} the same way as a leaf node absorbs a child in the
+   * RisoTree construction.
+   *
+   * @param basePNs
+   * @param otherPNs
+   */
+  private void mergePathNeighbors(Map<String, int[]> basePNs, Map<String, int[]> otherPNs) {
+    for (String key : otherPNs.keySet()) {
+      int[] otherPN = otherPNs.get(key);
+      int[] basePN = basePNs.get(key);
+      if (otherPN.length == 0 || basePN == null) {
+        basePNs.put(key, otherPN);
+        continue;
+      }
+      if (basePN.length == 0) {
+        continue;
+      }
+      int[] expandPN = Util.sortedArrayMerge(otherPN, basePN);
+      if (expandPN.length > basePN.length) {
+        basePNs.put(key, expandPN.length > maxPNSize ? new int[0] : expandPN);
+      }
+    }
+  }
+
+  /**
+   * Drop the pending deltas of a leaf node that is deleted or whose PNs are rebuilt.
+   *
+   * @param leafId
+   */
+  private static void dropPNDeltas(long leafId) {
+    if (RisoTreeQueryPN.pnDeltaLog != null) {
+      RisoTreeQueryPN.pnDeltaLog.dropLeaf(leafId);
+    }
+  }
+
+  /**
+   * The PNs of one maintenance operation. Leaf PNs are read from and written to the PN properties.
+   * Spatial node PNs are computed on first access and kept for the operation.
+   */
+  private class IndexPathNeighborStore implements RTreeIndex.PathNeighborStore {
+    Map<Long, Map<String, int[]>> spatialPathNeighbors = new HashMap<>();
+
+    @Override
+    public Map<String, int[]> getLeafPathNeighbors(long leafId) {
+      return new LeafPathNeighbors(databaseService.getNodeById(leafId));
+    }
+
+    @Override
+    public void clearLeafPathNeighbors(long leafId) {
+      new LeafPathNeighbors(databaseService.getNodeById(leafId)).clear();
+    }
+
+    @Override
+    public Map<String, int[]> getSpatialPathNeighbors(long spatialId) {
+      Map<String, int[]> pns = spatialPathNeighbors.get(spatialId);
+      if (pns == null) {
+        long start = System.currentTimeMillis();
+        Map<String, Set<Node>> pnNodes = MaintenanceUtil.getPNGeneral(databaseService,
+            databaseService.getNodeById(spatialId), MAX_HOPNUM);
+        getGraphNodePNTime += System.currentTimeMillis() - start;
+        for (Set<Node> nodes : pnNodes.values()) {
+          visitedNodeCount += nodes.size();
+        }
+        pns = convertToPNSortedIds(pnNodes);
+        for (Entry<String, int[]> entry : pns.entrySet()) {
+          if (entry.getValue().length > maxPNSize) {
+            entry.setValue(new int[0]);
+          }
+        }
+        spatialPathNeighbors.put(spatialId, pns);
+      }
+      return pns;
+    }
+  }
+
+  /**
+   * The PNs of a leaf node backed by its properties. Writing a PN also writes its PNSize and drops
+   * its bloom filter because the filter does not contain the new path neighbors.
+   */
+  private static class LeafPathNeighbors extends AbstractMap<String, int[]> {
+    Node leafNode;
+
+    LeafPathNeighbors(Node leafNode) {
+      this.leafNode = leafNode;
+    }
+
+    /**
+     * An absent PN is ignored if one of its shorter paths is ignored, as in
+     * {@link RisoTreeMaintenance#updateLeafNodeSinglePn(Node, String, int[])}.
+     */
+    @Override
+    public int[] get(Object key) {
+      Object pn = leafNode.getProperty((String) key, null);
+      if (pn != null) {
+        return (int[]) pn;
+      }
+      for (String shorterPath : RisoTreeUtil.formIgnoreSearchSet((String) key)) {
+        int[] shorterPN = (int[]) leafNode.getProperty(shorterPath, null);
+        if (shorterPN != null && shorterPN.length == 0) {
+          return shorterPN;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public int[] put(String key, int[] pn) {
+      Object previous = leafNode.getProperty(key, null);
+      leafNode.setProperty(key, pn);
+      leafNode.setProperty(RisoTreeUtil.getPNSizeName(key), pn.length);
+      leafNode.removeProperty(RisoTreeUtil.getBFName(key));
+      LeafPathCache.invalidateLeaf(leafNode.getId());
+      IndexPageCache.invalidateNode(leafNode.getId());
+      return (int[]) previous;
+    }
+
+    @Override
+    public void clear() {
+      for (String key : leafNode.getPropertyKeys()) {
+        if (key.startsWith(Config.PNPrefix + Config.PNSeparator)
+            || key.startsWith(Config.PNSizePrefix + Config.PNSeparator)
+            || key.startsWith(Config.BFPrefix + Config.PNSeparator)) {
+          leafNode.removeProperty(key);
+        }
+      }
+      LeafPathCache.invalidateLeaf(leafNode.getId());
+      IndexPageCache.invalidateNode(leafNode.getId());
+      dropPNDeltas(leafNode.getId());
+    }
+
+    @Override
+    public Set<Entry<String, int[]>> entrySet() {
+      Map<String, int[]> pathNeighbors = new HashMap<>();
+      for (Entry<String, Object> entry : leafNode.getAllProperties().entrySet()) {
+        if (RisoTreeUtil.isPNProperty(entry.getKey())) {
+          pathNeighbors.put(entry.getKey(), (int[]) entry.getValue());
+        }
+      }
+      return pathNeighbors.entrySet();
+    }
+  }
+
   public void deleteEdge(long src, long trg) {
     deleteEdge(databaseService.getNodeById(src), databaseService.getNodeById(trg));
   }
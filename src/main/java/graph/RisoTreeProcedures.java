@@ -0,0 +1,206 @@
+package graph;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.logging.Log;
+import org.neo4j.procedure.Context;
+import org.neo4j.procedure.Name;
+import org.neo4j.procedure.Procedure;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherDecoder;
+import cypher.middleware.CypherUtil;
+
+/**
+ * RisoTree queries as stored procedures, so a Neo4j server can answer LAGAQ queries without
+ * shipping the candidates to the client. They are read-only because the candidates are always
+ * verified with id parameters rather than labels (see {@link RisoTreeQueryPN#newLabelUsed}). The
+ * non-spatial predicates in the where clause of a range query are kept in the verification. With
+ * {@link IndexWarmUp#warmUpOnOpen}, the first call on a layer warms it up.
+ *
+ * <pre>
+ * CALL riso.rangeMatch('Yelp', 'match (a0:`A`),(a1:`B`),(a0)--(a1) return id(a0),id(a1)',
+ *     {a0: [-104.44, 27.04, -104.36, 27.12]}, 10)
+ * CALL riso.knn('Yelp', 'match (a0:`A`),(a1:`B`),(a0)--(a1) return id(a0),id(a1)', 'a0',
+ *     [-104.4, 27.1], 5)
+ * CALL riso.join('Yelp', 'match (a0:`A`),(a1:`B`),(a0)--(a1) return id(a0),id(a1)',
+ *     ['a0', 'a1'], 0.01)
+ * </pre>
+ */
+public class RisoTreeProcedures {
+
+  @Context
+  public GraphDatabaseService db;
+
+  @Context
+  public Log log;
+
+  public static class RowResult {
+    public final Map<String, Object> row;
+
+    public RowResult(Map<String, Object> row) {
+      this.row = row;
+    }
+  }
+
+  public static class IdsResult {
+    public final List<Long> ids;
+
+    public IdsResult(List<Long> ids) {
+      this.ids = ids;
+    }
+  }
+
+  /**
+   * LAGAQ-Range.
+   *
+   * @param layerName the RisoTree layer (dataset)
+   * @param query cypher query without the spatial predicates
+   * @param rect spatial query node variable -> [minx, miny, maxx, maxy]
+   * @param limit negative for no limit
+   * @param maxHop MAX_HOPNUM of the RisoTree
+   * @return the result rows, streamed from the verification query
+   * @throws Exception
+   */
+  @Procedure("riso.rangeMatch")
+  public Stream<RowResult> rangeMatch(@Name("layerName") String layerName,
+      @Name("query") String query, @Name("rect") Map<String, Object> rect,
+      @Name(value = "limit", defaultValue = "-1") long limit,
+      @Name(value = "maxHop", defaultValue = "2") long maxHop) throws Exception {
+    Map<String, MyRectangle> rectangles = new HashMap<>();
+    for (String variable : rect.keySet()) {
+      rectangles.put(variable, toRectangle(rect.get(variable)));
+    }
+    IndexWarmUp.warmUpOnce(db, layerName, IndexWarmUp.threadCount);
+    RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(db, layerName, (int) maxHop);
+    risoTreeQueryPN.streamResult = true;
+    risoTreeQueryPN.verifyByNewLabel = false;
+    risoTreeQueryPN.queryWithIgnore(formRangeQuery(query, rectangles, limit));
+    log.debug("riso.rangeMatch: %s", risoTreeQueryPN.getQueryStatisticMap());
+    if (risoTreeQueryPN.streamedResult != null) {
+      return risoTreeQueryPN.streamedResult.stream().map(RowResult::new);
+    }
+    return risoTreeQueryPN.resultRows.stream().map(RowResult::new);
+  }
+
+  /**
+   * LAGAQ-KNN.
+   *
+   * @param layerName the RisoTree layer (dataset)
+   * @param query cypher query without the spatial predicates
+   * @param variable the spatial query node
+   * @param coordinate [x, y]
+   * @param k
+   * @param maxHop MAX_HOPNUM of the RisoTree
+   * @return ids of the query nodes for each result
+   * @throws Exception
+   */
+  @Procedure("riso.knn")
+  public Stream<IdsResult> knn(@Name("layerName") String layerName, @Name("query") String query,
+      @Name("variable") String variable, @Name("coordinate") List<Number> coordinate,
+      @Name("k") long k, @Name(value = "maxHop", defaultValue = "2") long maxHop)
+      throws Exception {
+    double x = coordinate.get(0).doubleValue(), y = coordinate.get(1).doubleValue();
+    Query_Graph query_Graph =
+        CypherDecoder.getQueryGraph(query, variable, new MyRectangle(x, y, x, y), db);
+    IndexWarmUp.warmUpOnce(db, layerName, IndexWarmUp.threadCount);
+    RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(db, layerName, (int) maxHop);
+    List<long[]> results = risoTreeQueryPN.LAGAQ_KNN(query_Graph, (int) k);
+    log.debug("riso.knn: %s", risoTreeQueryPN.getQueryStatisticMap());
+    return results.stream().map(ids -> {
+      List<Long> list = new ArrayList<>(ids.length);
+      for (long id : ids) {
+        list.add(id);
+      }
+      return new IdsResult(list);
+    });
+  }
+
+  /**
+   * LAGAQ-Join.
+   *
+   * @param layerName the RisoTree layer (dataset)
+   * @param query cypher query without the spatial predicates
+   * @param variables the two spatial query nodes
+   * @param distance
+   * @param maxHop MAX_HOPNUM of the RisoTree
+   * @return ids of the two spatial query nodes for each result
+   * @throws Exception
+   */
+  @Procedure("riso.join")
+  public Stream<IdsResult> join(@Name("layerName") String layerName, @Name("query") String query,
+      @Name("variables") List<String> variables, @Name("distance") double distance,
+      @Name(value = "maxHop", defaultValue = "2") long maxHop) throws Exception {
+    if (variables.size() != 2) {
+      throw new IllegalArgumentException(
+          String.format("join requires 2 spatial query nodes rather than %s!", variables));
+    }
+    // only the spatial query nodes are needed by the join
+    Map<String, MyRectangle> spatialPredicates = new HashMap<>();
+    for (String variable : variables) {
+      spatialPredicates.put(variable, new MyRectangle(-180, -90, 180, 90));
+    }
+    Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, spatialPredicates, db);
+    IndexWarmUp.warmUpOnce(db, layerName, IndexWarmUp.threadCount);
+    RisoTreeQueryPN risoTreeQueryPN = new RisoTreeQueryPN(db, layerName, (int) maxHop);
+    List<Long[]> results = risoTreeQueryPN.LAGAQ_Join(query_Graph, distance);
+    log.debug("riso.join: %s", risoTreeQueryPN.getQueryStatisticMap());
+    return results.stream().map(pair -> new IdsResult(Arrays.asList(pair)));
+  }
+
+  private static MyRectangle toRectangle(Object value) {
+    if (!(value instanceof List) || ((List<?>) value).size() != 4) {
+      throw new IllegalArgumentException(
+          String.format("%s is not a rectangle [minx, miny, maxx, maxy]!", value));
+    }
+    List<?> list = (List<?>) value;
+    double[] bbox = new double[4];
+    for (int i = 0; i < 4; i++) {
+      bbox[i] = ((Number) list.get(i)).doubleValue();
+    }
+    return new MyRectangle(bbox);
+  }
+
+  /**
+   * Add the range predicates to the query in the format decoded by
+   * {@link CypherDecoder#getQueryGraph(String, GraphDatabaseService)}, e.g., 'match ... where minx
+   * <= a0.lon <= maxx and miny <= a0.lat <= maxy return ... limit 10'.
+   *
+   * @param query 'match ... return ...' with or without a where clause, in any keyword case. The
+   *        original where clause is parenthesized, so an 'or' in it does not bind the spatial
+   *        predicates.
+   * @param rectangles
+   * @param limit negative for no limit
+   * @return the query with the keywords where and return in lower case
+   */
+  public static String formRangeQuery(String query, Map<String, MyRectangle> rectangles,
+      long limit) {
+    List<String> predicates = new ArrayList<>();
+    for (String variable : rectangles.keySet()) {
+      MyRectangle rectangle = rectangles.get(variable);
+      predicates.add(String.format("%s <= %s.%s <= %s", toPlainString(rectangle.min_x), variable,
+          RisoTreeQueryPN.lon_name, toPlainString(rectangle.max_x)));
+      predicates.add(String.format("%s <= %s.%s <= %s", toPlainString(rectangle.min_y), variable,
+          RisoTreeQueryPN.lat_name, toPlainString(rectangle.max_y)));
+    }
+    String spatialPredicates = String.join(" and ", predicates);
+    String[] clauses = CypherUtil.splitClauses(query);
+    String where = clauses[1].isEmpty() ? spatialPredicates
+        : "(" + clauses[1] + ") and " + spatialPredicates;
+    String rangeQuery = clauses[0] + " where " + where + " return " + clauses[2];
+    if (limit >= 0) {
+      rangeQuery += " limit " + limit;
+    }
+    return rangeQuery;
+  }
+
+  private static String toPlainString(double value) {
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+}
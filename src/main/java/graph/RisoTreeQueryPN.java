@@ -1,11 +1,13 @@
 package graph;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,7 +16,12 @@ import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.mutable.MutableBoolean;
 import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
 import org.neo4j.graphdb.Direction;
@@ -25,10 +32,14 @@ import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.core.EmbeddedProxySPI;
+import bloomfilter.BlockedBloomFilter;
+import bloomfilter.ReachabilityBloomFilter;
 import commons.ArrayUtil;
 import commons.Config;
 import commons.Enums;
 import commons.Enums.Explain_Or_Profile;
+import commons.Enums.QueryPhase;
 import commons.Enums.QueryStatistic;
 import commons.Enums.QueryType;
 import commons.Labels;
@@ -38,14 +49,19 @@ import commons.MyRectangle;
 import commons.Neo4jGraphUtility;
 import commons.OwnMethods;
 import commons.QueryUtil;
+import commons.ReadWriteUtil;
 import commons.Query_Graph;
 import commons.Query_Graph.LabelType;
 import commons.RTreeUtility;
 import commons.RisoTreeUtil;
 import commons.Util;
+import commons.metrics.MetricsRegistry;
+import commons.metrics.PhaseTrace;
+import cypher.middleware.CypherCompiler;
 import cypher.middleware.CypherDecoder;
 import cypher.middleware.CypherEncoder;
 import cypher.middleware.CypherUtil;
+import graph.QueryTemplateCache.BoundQuery;
 import knn.Element;
 import knn.KNNComparator;
 import knn.NodeAndRec;
@@ -95,6 +111,15 @@ public class RisoTreeQueryPN {
   public long overlap_leaf_node_count;
   public long candidate_count;
 
+  // bloom filter mode
+  public long bloom_filter_check_count;
+  public long bloom_filter_pass_count;
+  /**
+   * Expected number of candidates passing the bloom filters by false positive. Each of them costs
+   * an extra verification in the graph query.
+   */
+  public double bloom_filter_false_positive_estimate;
+
   public String logPath;
   public ExecutionPlanDescription planDescription;
 
@@ -109,6 +134,11 @@ public class RisoTreeQueryPN {
 
   public Map<QueryStatistic, Object> queryStatisticMap = new HashMap<>();
 
+  // nanosecond phase times published to metricsRegistry per query
+  public static MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
+  public final PhaseTrace<QueryPhase> trace =
+      new PhaseTrace<>(RisoTreeQueryPN.class.getSimpleName(), QueryPhase.class);
+
   // test control variables
   public static final boolean outputLevelInfo = true;
   public static final boolean outputQuery = true;
@@ -116,15 +146,90 @@ public class RisoTreeQueryPN {
   public static final boolean outputResult = false;
 
   // method control
-  public static boolean forceGraphFirst = true;
+  // The static switches and shared structures below are read by all the instances, possibly
+  // from concurrent requests (see RisoTreeQueryService), so they are volatile and the structures
+  // are thread-safe. A request copies the switches it must not see changing, e.g., newLabelUsed.
+  public boolean forceGraphFirst = true;
   public final static boolean completeStrategyUsed = true;// whether to use the complete approach
   public final static boolean selectivityEstimate = true;
-  public static Boolean candidateComplete = null;
-  public static Map<Integer, MutableBoolean[]> queryNodesComplete = null;
+  public Boolean candidateComplete = null;
+  public Map<Integer, MutableBoolean[]> queryNodesComplete = null;
   public final static int candidateSetsSizeLimit = Integer.MAX_VALUE;
   public final static boolean joinBatch = false;
   public final static int joinBatchSize = 500;
 
+  // leaf-level cache of the layer (see LeafPathCache#getLayerCache). Invalidated by
+  // RisoTreeMaintenance. Off by default so that experiments are not affected.
+  public static volatile boolean leafPathCacheUsed = false;
+
+  // simulated storage layer of the index nodes (skeleton and PNs, see
+  // IndexPageCache#getDatabaseCache). Off by default.
+  public static volatile boolean indexPageCacheUsed = false;
+
+  // usage of the label paths for preloading the hot PNs by IndexWarmUp. Off by default so that
+  // the queries do not pay for the counting.
+  public static volatile boolean pathUsageUsed = false;
+  public static volatile PathUsageStatistics pathUsage = new PathUsageStatistics();
+
+  // decoded LAGAQ-Range queries and rewrite templates by query shape. Off by default so that
+  // experiments are not affected.
+  public static volatile boolean queryTemplateCacheUsed = false;
+  public static volatile QueryTemplateCache queryTemplateCache = new QueryTemplateCache(1000);
+
+  // pending PN updates merged on read. null means the PNs are updated in place.
+  public static volatile PNDeltaLog pnDeltaLog = null;
+
+  // semantic result cache for LAGAQ-Range (see QueryResultCache#getLayerCache). Off by default so
+  // that experiments are not affected.
+  public static volatile boolean resultCacheUsed = false;
+
+  // use the bloom filters (BF_...) of the ignored PNs for leaf pruning and candidate filtering
+  public static volatile boolean bloomFilterUsed = false;
+
+  // verify the candidates by temporary labels (setNewLabel) rather than read-only id parameters
+  public static volatile boolean newLabelUsed = false;
+  // newLabelUsed of this instance, copied when it is created
+  public boolean verifyByNewLabel = newLabelUsed;
+
+  // if set, complete candidate sets are pruned by reachability before the cypher verification
+  public static volatile ReachabilityBloomFilter reachabilityIndex = null;
+  // neo4j id -> node id of the reachabilityIndex
+  public static volatile Map<Long, Integer> reachabilityIdMap = null;
+  public static long reachabilityCheckLimit = 10000000;
+
+  // if set, the spatial predicates are processed from the most selective one
+  public static volatile SelectivityStatistics statistics = null;
+
+  // <layer name, grid index> point-only layers queried through a grid rather than the RisoTree
+  public static Map<String, GridPointIndex> gridPointIndexes = new ConcurrentHashMap<>();
+  private LeafPathCache leafPathCache = null;
+  private IndexPageCache indexPageCache = null;
+  private QueryResultCache resultCache = null;
+  public List<Map<String, Object>> resultRows;
+  private List<Map<Integer, MyPoint>> resultLocations;
+  // keep the result rows of LAGAQ-Range in resultRows, e.g., for RisoTreeQueryService.
+  public boolean keepResultRows = false;
+  // keep the result of the LAGAQ-Range verification by id parameters in streamedResult without
+  // iterating it, so that a caller in an outer transaction (a procedure) streams the rows. The
+  // result count is not tracked and the rows are not put in the result cache.
+  public boolean streamResult = false;
+  // null if the query is answered without verification, then the rows are in resultRows
+  public Result streamedResult = null;
+
+  /**
+   * The candidate labels are named by the query variables and a slot (a0, a1, ... for slot 0 and
+   * a0_1, a1_1, ... for slot 1) so that concurrent requests never use the same label. A slot is
+   * reused after its labels are recovered, which bounds the number of label tokens by the number
+   * of concurrent requests.
+   */
+  private static final Queue<Integer> freeLabelSlots = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger labelSlotCount = new AtomicInteger();
+  private int labelSlot = 0;
+  /**
+   * Serialize the label writes so that two requests labeling the same nodes do not deadlock.
+   */
+  private static final ReentrantLock newLabelLock = new ReentrantLock();
+
   public RisoTreeQueryPN(String db_path, String p_dataset, long[] p_graph_pos_map, int pMAXHOPNUM,
       boolean forceGraphFirst) {
 
@@ -605,7 +710,16 @@ public class RisoTreeQueryPN {
   }
 
   private Query_Graph query_Graph = null;
+  // template of the query decoded by queryWithIgnore(String)
+  private BoundQuery boundQuery = null;
 
+  /**
+   * @param query_Graph
+   * @return the bound query if query_Graph is decoded from the template cache, otherwise null
+   */
+  private BoundQuery getBoundQuery(Query_Graph query_Graph) {
+    return boundQuery != null && boundQuery.query_Graph == query_Graph ? boundQuery : null;
+  }
 
   /**
    * Determine the query plan according to the {@code completeStrategyUsed} value.
@@ -614,8 +728,45 @@ public class RisoTreeQueryPN {
    * @throws Exception
    */
   public void queryWithIgnore(String query) throws Exception {
-    Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, dbservice);
+    long totalStart = System.currentTimeMillis();
+    trace.clear();
+    trace.begin();
+    long spanStart = PhaseTrace.start();
+    boundQuery = queryTemplateCacheUsed ? queryTemplateCache.bind(query) : null;
+    Query_Graph query_Graph = boundQuery != null ? boundQuery.query_Graph
+        : CypherDecoder.getQueryGraph(query, dbservice);
+    trace.stop(QueryPhase.decode, spanStart);
+    runQueryWithIgnore(query, query_Graph, totalStart);
+  }
+
+  /**
+   * {@link #queryWithIgnore(String)} for a query already decoded, e.g., by
+   * {@link CostBasedRouter}.
+   *
+   * @param query
+   * @param query_Graph decoded from {@code query}
+   * @throws Exception
+   */
+  public void queryWithIgnoreDecoded(String query, Query_Graph query_Graph) throws Exception {
+    long totalStart = System.currentTimeMillis();
+    trace.clear();
+    trace.begin();
+    boundQuery = null;
+    runQueryWithIgnore(query, query_Graph, totalStart);
+  }
+
+  private void runQueryWithIgnore(String query, Query_Graph query_Graph, long totalStart)
+      throws Exception {
     this.query_Graph = query_Graph;
+    String shapeKey = null;
+    long resultCacheEpoch = 0;
+    if (resultCacheUsed) {
+      shapeKey = QueryResultCache.formShapeKey(query, query_Graph);
+      resultCacheEpoch = getResultCache().getEpoch();
+      if (queryFromResultCache(shapeKey, query_Graph, totalStart)) {
+        return;
+      }
+    }
     candidateComplete = null;
     queryNodesComplete = new HashMap<>();
     for (int i = 0; i < query_Graph.Has_Spa_Predicate.length; i++) {
@@ -625,7 +776,91 @@ public class RisoTreeQueryPN {
     }
 
     // queryWithIgnore(query, query_Graph);
-    queryWithIgnoreNewLabel(query, query_Graph);
+    if (verifyByNewLabel) {
+      queryWithIgnoreNewLabel(query, query_Graph);
+    } else {
+      queryWithIgnoreIdParameters(query, query_Graph);
+    }
+
+    if (resultCacheUsed && streamedResult == null) {
+      // a limited result cannot be spatially filtered for a smaller rectangle
+      getResultCache().put(shapeKey, query_Graph.getSpatialPredicates(), resultRows,
+          isLimited(query) ? null : resultLocations, resultCacheEpoch);
+    }
+  }
+
+  /**
+   * Whether the rows of a query can be a subset of its matches, i.e., it has a LIMIT or a SKIP. A
+   * query the compiler does not support is treated as limited.
+   *
+   * @param query
+   * @return
+   */
+  private static boolean isLimited(String query) {
+    try {
+      return CypherCompiler.getCompiledQuery(query).limited;
+    } catch (RuntimeException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Answer the query from {@link #getResultCache()} if the same query or a query with the same
+   * shape and a containing rectangle is cached.
+   *
+   * @param shapeKey
+   * @param query_Graph
+   * @param totalStart
+   * @return whether the query is answered
+   * @throws Exception
+   */
+  private boolean queryFromResultCache(String shapeKey, Query_Graph query_Graph, long totalStart)
+      throws Exception {
+    List<Map<String, Object>> rows =
+        getResultCache().get(shapeKey, query_Graph.getSpatialPredicates());
+    if (rows == null) {
+      return false;
+    }
+    clearTrackingVariables();
+    resultRows = rows;
+    result_count = rows.size();
+    run_time = System.currentTimeMillis() - totalStart;
+    setQueryStatistics(QueryType.LAGAQ_RANGE);
+    return true;
+  }
+
+  /**
+   * Record the location of each spatial query vertex of a result row. The spatial node is found
+   * either by the node variable or id(variable) column. If not found, the result cannot be
+   * spatially filtered later.
+   *
+   * @param row
+   */
+  private void addResultLocation(Map<String, Object> row) {
+    if (resultLocations == null) {
+      return;
+    }
+    Map<Integer, MyPoint> rowLocation = new HashMap<>();
+    for (int spatialId : query_Graph.getSpatialPredicates().keySet()) {
+      String variable = query_Graph.nodeVariables[spatialId];
+      Object value = row.get(variable);
+      Node node = null;
+      if (value instanceof Node) {
+        node = (Node) value;
+      } else {
+        Object id = row.get(String.format("id(%s)", variable));
+        if (id instanceof Number) {
+          node = dbservice.getNodeById(((Number) id).longValue());
+        }
+      }
+      if (node == null || !node.hasProperty(lon_name) || !node.hasProperty(lat_name)) {
+        resultLocations = null;
+        return;
+      }
+      rowLocation.put(spatialId,
+          new MyPoint((double) node.getProperty(lon_name), (double) node.getProperty(lat_name)));
+    }
+    resultLocations.add(rowLocation);
   }
 
   /**
@@ -638,7 +873,7 @@ public class RisoTreeQueryPN {
    */
   public String formQueryWithIgnoreNewLabelCombined(String query,
       Map<Integer, Collection<Long>> candidateSets, Query_Graph query_Graph) {
-    query = CypherUtil.removeWhere(query);
+    query = CypherUtil.removeSpatialPredicates(query);
     String queryAfterRewrite = null;
     if (completeStrategyUsed) {
       if (candidateComplete == null) {
@@ -673,7 +908,7 @@ public class RisoTreeQueryPN {
         throw new RuntimeException(query + " does not have " + replaceToken);
       }
       query =
-          query.replace(replaceToken, replaceToken + ":`" + query_Graph.nodeVariables[id] + "`");
+          query.replace(replaceToken, replaceToken + ":`" + getCandidateLabelName(variable) + "`");
     }
     return query;
   }
@@ -701,42 +936,248 @@ public class RisoTreeQueryPN {
   public void queryWithIgnoreNewLabel(String query, Query_Graph query_Graph) throws Exception {
     clearTrackingVariables();
     long totalStart = System.currentTimeMillis();
+    trace.begin();
     this.query_Graph = query_Graph;
-    Transaction tx = dbservice.beginTx();
-    Map<Integer, Collection<Long>> candidateSets = getCandidateSetWithIgnore(query_Graph);
+    Map<Integer, Collection<Long>> candidateSets = getCandidateSetsToVerify(query_Graph);
+    if (candidateSets == null) {
+      run_time = System.currentTimeMillis() - totalStart;
+      setQueryStatistics(QueryType.LAGAQ_RANGE);
+      return;
+    }
 
-    if (candidateSets.isEmpty()) {
+    Integer freeSlot = freeLabelSlots.poll();
+    labelSlot = freeSlot == null ? labelSlotCount.getAndIncrement() : freeSlot;
+    try {
+      setNewLabel(candidateSets, query_Graph.nodeVariables);
+      String queryAfterRewrite =
+          formQueryWithIgnoreNewLabelCombined(query, candidateSets, query_Graph);
+      Util.println("query after rewrite: \n" + queryAfterRewrite);
+
+      try (Transaction tx = dbservice.beginTx()) {
+        runAndTrackTime(queryAfterRewrite, new HashMap<>());
+        tx.success();
+      }
+    } finally {
+      recoverLabel(candidateSets, query_Graph.nodeVariables);
+      freeLabelSlots.add(labelSlot);
+    }
+    run_time = System.currentTimeMillis() - totalStart;
+    setQueryStatistics(QueryType.LAGAQ_RANGE);
+  }
+
+  /**
+   * Execute the query with the candidate sets passed as query parameters. Read-only, unlike
+   * {@link #queryWithIgnoreNewLabel(String, Query_Graph)}, so it neither writes the store nor
+   * serializes with the other queries.
+   *
+   * @param query
+   * @param query_Graph
+   * @throws Exception
+   */
+  public void queryWithIgnoreIdParameters(String query, Query_Graph query_Graph)
+      throws Exception {
+    clearTrackingVariables();
+    long totalStart = System.currentTimeMillis();
+    trace.begin();
+    this.query_Graph = query_Graph;
+    Map<Integer, Collection<Long>> candidateSets = getCandidateSetsToVerify(query_Graph);
+    if (candidateSets == null) {
+      run_time = System.currentTimeMillis() - totalStart;
+      setQueryStatistics(QueryType.LAGAQ_RANGE);
       return;
     }
 
-    Util.println("candidate complete: " + candidateComplete);
-    printCandidateSets(candidateSets);
+    if (completeStrategyUsed && candidateComplete == null) {
+      throw new RuntimeException("candidate complete is null!");
+    }
+    Map<String, Object> parameters = new HashMap<>();
+    BoundQuery boundQuery = getBoundQuery(query_Graph);
+    String[] queryParts;
+    if (boundQuery != null) {
+      queryParts = boundQuery.template.queryParts;
+      parameters.putAll(boundQuery.parameters);
+    } else {
+      queryParts = CypherUtil.splitQueryParts(query);
+    }
+    String queryAfterRewrite = formQueryWithIdParameters(queryParts, candidateSets,
+        query_Graph.nodeVariables, completeStrategyUsed && candidateComplete, parameters);
+    Util.println("query after rewrite: \n" + queryAfterRewrite);
 
-    if (candidateComplete == true && selectivityEstimate) {
-      spatialFilterAllPredicates(candidateSets);
-      if (candidate_count > candidateSetsSizeLimit) {
-        pickup(candidateSets);
+    try (Transaction tx = dbservice.beginTx()) {
+      if (streamResult && !verifyByNewLabel) {
+        streamedResult = dbservice.execute(queryAfterRewrite, parameters);
+      } else {
+        runAndTrackTime(queryAfterRewrite, parameters);
       }
+      tx.success();
     }
+    run_time = System.currentTimeMillis() - totalStart;
+    setQueryStatistics(QueryType.LAGAQ_RANGE);
+  }
 
-    tx.success();
-    tx.close();
-    printCandidateSets(candidateSets);
+  /**
+   * Get the candidate sets and prune them by the spatial predicates and reachability.
+   *
+   * @param query_Graph
+   * @return null if no result satisfies the query
+   * @throws Exception
+   */
+  private Map<Integer, Collection<Long>> getCandidateSetsToVerify(Query_Graph query_Graph)
+      throws Exception {
+    try (Transaction tx = dbservice.beginTx()) {
+      Map<Integer, Collection<Long>> candidateSets = getCandidateSetWithIgnore(query_Graph);
 
-    setNewLabel(candidateSets, query_Graph.nodeVariables);
-    String queryAfterRewrite =
-        formQueryWithIgnoreNewLabelCombined(query, candidateSets, query_Graph);
-    Util.println("query after rewrite: \n" + queryAfterRewrite);
+      if (candidateSets.isEmpty()) {
+        tx.success();
+        return null;
+      }
 
+      Util.println("candidate complete: " + candidateComplete);
+      printCandidateSets(candidateSets);
+      if (bloomFilterUsed) {
+        Util.println(String.format(
+            "bloom filter check: %d, pass: %d, false positive estimate: %.1f",
+            bloom_filter_check_count, bloom_filter_pass_count,
+            bloom_filter_false_positive_estimate));
+      }
 
-    tx = dbservice.beginTx();
-    runAndTrackTime(queryAfterRewrite);
+      if (candidateComplete == true && selectivityEstimate) {
+        spatialFilterAllPredicates(candidateSets);
+        if (candidate_count > candidateSetsSizeLimit) {
+          pickup(candidateSets);
+        }
+      }
 
-    recoverLabel(candidateSets, query_Graph.nodeVariables);
-    tx.success();
-    tx.close();
-    run_time = System.currentTimeMillis() - totalStart;
-    setQueryStatistics(QueryType.LAGAQ_RANGE);
+      if (candidateComplete == true && reachabilityIndex != null && reachabilityIdMap != null
+          && !pruneByReachability(candidateSets)) {
+        Util.println("No result satisfy the query after reachability pruning.");
+        tx.success();
+        return null;
+      }
+
+      tx.success();
+      printCandidateSets(candidateSets);
+      return candidateSets;
+    }
+  }
+
+  /**
+   * Load {@link #reachabilityIndex} and {@link #reachabilityIdMap}.
+   *
+   * @param indexPath written by {@link ReachabilityBloomFilter#write(String)}
+   * @param mapPath the map from graph id to neo4j id. The index is built on the same graph ids.
+   * @throws Exception
+   */
+  public static void loadReachabilityIndex(String indexPath, String mapPath) throws Exception {
+    long[] graphPosMap = ReadWriteUtil.readMapAsArray(mapPath);
+    Map<Long, Integer> idMap = new HashMap<>(graphPosMap.length * 2);
+    for (int graphId = 0; graphId < graphPosMap.length; graphId++) {
+      idMap.put(graphPosMap[graphId], graphId);
+    }
+    reachabilityIndex = ReachabilityBloomFilter.read(indexPath);
+    reachabilityIdMap = idMap;
+  }
+
+  /**
+   * Remove the candidates of a query node that cannot be connected to any candidate of an adjacent
+   * query node. The query patterns are undirected, so the matches of a pattern edge are linked by
+   * a graph edge in one of the two directions and one of them reaches the other. Query nodes
+   * connected only through other query nodes are not checked: in a->b<-c neither a nor c reaches
+   * the other. Candidates without an id in {@link #reachabilityIdMap} are kept.
+   *
+   * On an index built from the bidirectional graph, reachability is connectivity, so the
+   * candidates are checked by their connected components in linear time, and nothing is checked
+   * if the graph is a single component. Otherwise edges whose check count exceeds
+   * {@link #reachabilityCheckLimit} are skipped.
+   *
+   * @param candidateSets complete candidate sets
+   * @return false if any candidate set becomes empty, which means no result.
+   */
+  private boolean pruneByReachability(Map<Integer, Collection<Long>> candidateSets) {
+    boolean connectivityOnly = reachabilityIndex.isConnectivityOnly();
+    if (connectivityOnly && reachabilityIndex.getSccCount() < 2) {
+      return true;
+    }
+    long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
+    for (int id : candidateSets.keySet()) {
+      for (int otherId : query_Graph.graph.get(id)) {
+        Collection<Long> candidates = candidateSets.get(id);
+        Collection<Long> others = candidateSets.get(otherId);
+        if (others == null || (!connectivityOnly
+            && (long) candidates.size() * others.size() > reachabilityCheckLimit)) {
+          continue;
+        }
+        Collection<Long> kept = connectivityOnly ? keepConnected(candidates, others)
+            : keepReachable(candidates, others);
+        if (kept.size() < candidates.size()) {
+          Util.println(String.format("reachability prunes %d candidates of %s",
+              candidates.size() - kept.size(), query_Graph.nodeVariables[id]));
+          candidate_count -= candidates.size() - kept.size();
+          candidateSets.put(id, kept);
+        }
+        if (kept.isEmpty()) {
+          trace.stop(QueryPhase.path_check, spanStart);
+          check_paths_time += System.currentTimeMillis() - start;
+          return false;
+        }
+      }
+    }
+    trace.stop(QueryPhase.path_check, spanStart);
+    check_paths_time += System.currentTimeMillis() - start;
+    return true;
+  }
+
+  /**
+   * @param candidates
+   * @param others
+   * @return the candidates in the same connected component as some of {@code others}
+   */
+  private static Collection<Long> keepConnected(Collection<Long> candidates,
+      Collection<Long> others) {
+    Set<Integer> components = new HashSet<>();
+    for (long other : others) {
+      Integer otherId = reachabilityIdMap.get(other);
+      if (otherId == null) {
+        return candidates;
+      }
+      components.add(reachabilityIndex.getComponent(otherId));
+    }
+    Collection<Long> kept = new ArrayList<>(candidates.size());
+    for (long candidate : candidates) {
+      Integer candidateId = reachabilityIdMap.get(candidate);
+      if (candidateId == null || components.contains(reachabilityIndex.getComponent(candidateId))) {
+        kept.add(candidate);
+      }
+    }
+    return kept;
+  }
+
+  /**
+   * @param candidates
+   * @param others
+   * @return the candidates reaching or reached by some of {@code others}
+   */
+  private static Collection<Long> keepReachable(Collection<Long> candidates,
+      Collection<Long> others) {
+    int[] otherArray = new int[others.size()];
+    int i = 0;
+    for (long other : others) {
+      Integer otherId = reachabilityIdMap.get(other);
+      if (otherId == null) {
+        return candidates;
+      }
+      otherArray[i++] = otherId;
+    }
+    Collection<Long> kept = new ArrayList<>(candidates.size());
+    for (long candidate : candidates) {
+      Integer candidateId = reachabilityIdMap.get(candidate);
+      if (candidateId == null || reachabilityIndex.reachAny(candidateId, otherArray)
+          || reachabilityIndex.reachedByAny(candidateId, otherArray)) {
+        kept.add(candidate);
+      }
+    }
+    return kept;
   }
 
   /**
@@ -747,6 +1188,7 @@ public class RisoTreeQueryPN {
    */
   private void spatialFilterAllPredicates(Map<Integer, Collection<Long>> candidateSets) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     for (int i = 0; i < query_Graph.Has_Spa_Predicate.length; i++) {
       if (query_Graph.Has_Spa_Predicate[i]) {
         Collection<Long> ids = candidateSets.get(i);
@@ -757,6 +1199,7 @@ public class RisoTreeQueryPN {
         candidateSets.put(i, idsAfterFilter);
       }
     }
+    trace.stop(QueryPhase.range_traversal, spanStart);
     range_query_time += System.currentTimeMillis() - start;
   }
 
@@ -801,9 +1244,10 @@ public class RisoTreeQueryPN {
     }
   }
 
-  private void runAndTrackTime(String queryAfterRewrite) {
+  private void runAndTrackTime(String queryAfterRewrite, Map<String, Object> parameters) {
+    long spanStart = PhaseTrace.start();
     long start = System.currentTimeMillis();
-    Result result = dbservice.execute(queryAfterRewrite);
+    Result result = dbservice.execute(queryAfterRewrite, parameters);
     get_iterator_time += System.currentTimeMillis() - start;
 
     start = System.currentTimeMillis();
@@ -814,8 +1258,15 @@ public class RisoTreeQueryPN {
       if (outputResult) {
         Util.println(row);
       }
+      if (resultCacheUsed || keepResultRows) {
+        resultRows.add(row);
+      }
+      if (resultCacheUsed) {
+        addResultLocation(row);
+      }
     }
     iterate_time += System.currentTimeMillis() - start;
+    trace.stop(QueryPhase.verification, spanStart);
 
     result_count += cur_count;
     planDescription = result.getExecutionPlanDescription();
@@ -833,6 +1284,78 @@ public class RisoTreeQueryPN {
     }
   }
 
+  /**
+   * Rewrite the query with the candidate sets as parameters named by the query variables. In the
+   * complete case, the match starts from the smallest candidate set by 'unwind $a0 as a0_id ...
+   * where id(a0) = a0_id' (a NodeByIdSeek per id) and the other variables are constrained by
+   * 'id(a1) in $a1'. Otherwise it is the union all of such a query for each candidate set, the
+   * same as {@link #formQueryWithIgnoreNewLabel(String, Map, Query_Graph)}.
+   *
+   * @param query
+   * @param candidateSets
+   * @param nodeVariables
+   * @param complete
+   * @param parameters the parameters of the rewritten query are put here
+   * @return
+   */
+  public static String formQueryWithIdParameters(String query,
+      Map<Integer, Collection<Long>> candidateSets, String[] nodeVariables, boolean complete,
+      Map<String, Object> parameters) {
+    return formQueryWithIdParameters(CypherUtil.splitQueryParts(query), candidateSets,
+        nodeVariables, complete, parameters);
+  }
+
+  /**
+   * Same as {@link #formQueryWithIdParameters(String, Map, String[], boolean, Map)} but starts from
+   * the query split by {@link CypherUtil#splitQueryParts(String)}.
+   *
+   * @param queryParts
+   * @param candidateSets
+   * @param nodeVariables
+   * @param complete
+   * @param parameters
+   * @return
+   */
+  public static String formQueryWithIdParameters(String[] queryParts,
+      Map<Integer, Collection<Long>> candidateSets, String[] nodeVariables, boolean complete,
+      Map<String, Object> parameters) {
+    for (int id : candidateSets.keySet()) {
+      parameters.put(nodeVariables[id], new ArrayList<>(candidateSets.get(id)));
+    }
+    if (complete) {
+      int driveId = -1;
+      for (int id : candidateSets.keySet()) {
+        if (driveId == -1 || candidateSets.get(id).size() < candidateSets.get(driveId).size()) {
+          driveId = id;
+        }
+      }
+      return "profile "
+          + formIdParametersQuery(queryParts, driveId, candidateSets.keySet(), nodeVariables);
+    }
+
+    List<String> subQueries = new ArrayList<>();
+    for (int id : candidateSets.keySet()) {
+      subQueries.add(formIdParametersQuery(queryParts, id, Arrays.asList(id), nodeVariables));
+    }
+    return "profile " + String.join(" UNION ALL ", subQueries);
+  }
+
+  private static String formIdParametersQuery(String[] queryParts, int driveId,
+      Collection<Integer> ids, String[] nodeVariables) {
+    String driveVariable = nodeVariables[driveId];
+    String query = String.format("unwind $%s as %s_id %s where id(%s) = %s_id", driveVariable,
+        driveVariable, queryParts[0], driveVariable, driveVariable);
+    for (int id : ids) {
+      if (id != driveId) {
+        query += String.format(" and id(%s) in $%s", nodeVariables[id], nodeVariables[id]);
+      }
+    }
+    if (queryParts.length > 2 && !queryParts[2].isEmpty()) {
+      query += " and " + queryParts[2];
+    }
+    return query + " return " + queryParts[1];
+  }
+
   /**
    * Form the query with union all. Used for the non-complete case.
    *
@@ -852,7 +1375,7 @@ public class RisoTreeQueryPN {
         throw new RuntimeException(query + " does not have " + replaceToken);
       }
       subQueries.add(
-          query.replace(replaceToken, replaceToken + ":`" + query_Graph.nodeVariables[id] + "`"));
+          query.replace(replaceToken, replaceToken + ":`" + getCandidateLabelName(variable) + "`"));
     }
 
     String newQuery = null;
@@ -867,38 +1390,63 @@ public class RisoTreeQueryPN {
     return newQuery;
   }
 
+  /**
+   * @param nodeVariable
+   * @return the candidate label of a query variable in the current label slot
+   */
+  private String getCandidateLabelName(String nodeVariable) {
+    return labelSlot == 0 ? nodeVariable : nodeVariable + "_" + labelSlot;
+  }
+
   /**
    * Set the new label for cypher query execution. For each <int, Collection> set its label with
-   * nodeVariableName string, i.e., a0, a1...
+   * nodeVariableName string, i.e., a0, a1... (see {@link #getCandidateLabelName(String)}).
    *
    * @param candidateSets
    * @param nodeVariables
    */
   private void setNewLabel(Map<Integer, Collection<Long>> candidateSets, String[] nodeVariables) {
     long start = System.currentTimeMillis();
-    Transaction tx = dbservice.beginTx();
-    for (int queryNodeId : candidateSets.keySet()) {
-      String nodeVariableName = nodeVariables[queryNodeId];
-      for (long neo4jId : candidateSets.get(queryNodeId)) {
-        Node node = dbservice.getNodeById(neo4jId);
-        node.addLabel(Label.label(nodeVariableName));
-      }
-    }
-    tx.success();
-    tx.close();
+    long spanStart = PhaseTrace.start();
+    writeLabel(candidateSets, nodeVariables, true);
+    trace.stop(QueryPhase.set_label, spanStart);
     set_label_time += System.currentTimeMillis() - start;
   }
 
   private void recoverLabel(Map<Integer, Collection<Long>> candidateSets, String[] nodeVariables) {
     long start = System.currentTimeMillis();
-    for (int queryNodeId : candidateSets.keySet()) {
-      String nodeVariableName = nodeVariables[queryNodeId];
-      for (long neo4jId : candidateSets.get(queryNodeId)) {
-        Node node = dbservice.getNodeById(neo4jId);
-        node.removeLabel(Label.label(nodeVariableName));
+    long spanStart = PhaseTrace.start();
+    writeLabel(candidateSets, nodeVariables, false);
+    trace.stop(QueryPhase.remove_label, spanStart);
+    remove_label_time += System.currentTimeMillis() - start;
+  }
+
+  /**
+   * Add or remove the candidate labels in a transaction of its own.
+   *
+   * @param candidateSets
+   * @param nodeVariables
+   * @param add
+   */
+  private void writeLabel(Map<Integer, Collection<Long>> candidateSets, String[] nodeVariables,
+      boolean add) {
+    newLabelLock.lock();
+    try (Transaction tx = dbservice.beginTx()) {
+      for (int queryNodeId : candidateSets.keySet()) {
+        Label label = Label.label(getCandidateLabelName(nodeVariables[queryNodeId]));
+        for (long neo4jId : candidateSets.get(queryNodeId)) {
+          Node node = dbservice.getNodeById(neo4jId);
+          if (add) {
+            node.addLabel(label);
+          } else {
+            node.removeLabel(label);
+          }
+        }
       }
+      tx.success();
+    } finally {
+      newLabelLock.unlock();
     }
-    remove_label_time += System.currentTimeMillis() - start;
   }
 
   /**
@@ -1023,7 +1571,8 @@ public class RisoTreeQueryPN {
    * For a given query to get several query nodes and their candidate set. Set the complete
    * variables here. If complete, all complete query nodes will be kept and incomplete removed. If
    * not complete, all query nodes are kept and the union strategy will be used. Consider the
-   * ignored PN with [] and PNSize is 0. Assume that only 1 spatial predicate exists.
+   * ignored PN with [] and PNSize is 0. Candidate sets of multiple spatial predicates are
+   * intersected on the shared query nodes.
    *
    * @param query_Graph use the String[] label_list
    * @return null means something wrong
@@ -1041,7 +1590,9 @@ public class RisoTreeQueryPN {
       Map<Integer, Map<Integer, Set<String>>> PN_list_propertyname = new HashMap<>();
 
       // <spa_id, <end_id, path_name>> (path_name: PN_a_endid)
-      Map<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap = recognizePaths(query_Graph);
+      BoundQuery boundQuery = getBoundQuery(query_Graph);
+      Map<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap = boundQuery != null
+          ? boundQuery.template.getSpaPathsMap(this) : recognizePaths(query_Graph);
 
       Util.println(spaPathsMap.toString());
 
@@ -1051,6 +1602,7 @@ public class RisoTreeQueryPN {
         if (query_Graph.Has_Spa_Predicate[i]) {
           spa_predicates.put(i, query_Graph.spa_predicate[i]);
         }
+      spa_predicates = orderSpatialPredicates(query_Graph, spa_predicates, spaPathsMap);
 
       for (int spaID : spaPathsMap.keySet()) {
         PN_size_propertyname.put(spaID, new HashMap<Integer, Set<String>>());
@@ -1069,6 +1621,15 @@ public class RisoTreeQueryPN {
         Util.println(String.format("PNSize_property: %s", PN_size_propertyname));
       }
 
+      GridPointIndex gridIndex = gridPointIndexes.get(dataset);
+      if (gridIndex != null) {
+        candidateSets = getCandidateSetFromGrid(gridIndex, spa_predicates, PN_list_propertyname);
+        for (Collection<Long> candidates : candidateSets.values()) {
+          candidate_count += candidates.size();
+        }
+        return candidateSets;
+      }
+
       Node root_node = RTreeUtility.getRTreeRoot(dbservice, dataset);
 
       // long start = System.currentTimeMillis();
@@ -1079,36 +1640,17 @@ public class RisoTreeQueryPN {
         return candidateSets;
       }
 
-      // current candidateComplete strategy only works for single spatial range predicate
+      // If any query node is complete in any spatial predicate, we can use the complete strategy
+      // which is to form the cypher query without union. candidateComplete is set inside.
+      long spanStart = PhaseTrace.start();
       if (completeStrategyUsed) {
         candidateComplete = false;
         candidateSets = getCandidateSetWithIgnoreComplete(overlapLeafNodes, PN_list_propertyname);
-        for (int spatialId : queryNodesComplete.keySet()) {
-          for (MutableBoolean complete : queryNodesComplete.get(spatialId)) {
-            if (complete.booleanValue()) {
-              candidateComplete = true;
-              break;
-            }
-          }
-        }
-        // If any query node is complete, we can use the complete strategy
-        // which is to form the cypher query without union.
-        // But the incomplete query nodes need to be removed from the candidateSet.
-        if (candidateComplete) {
-          for (int spatialId : queryNodesComplete.keySet()) {
-            for (int i = 0; i < queryNodesComplete.get(spatialId).length; i++) {
-              MutableBoolean complete = queryNodesComplete.get(spatialId)[i];
-              if (complete == null || !complete.booleanValue()) {
-                candidateSets.remove(i);
-              }
-            }
-            break;
-          }
-        }
       } else {
         candidateSets =
             getCandidateSetWithIgnore(overlapLeafNodes, PN_list_propertyname, PN_size_propertyname);
       }
+      trace.stop(QueryPhase.candidate_intersection, spanStart);
 
       for (Collection<Long> candidates : candidateSets.values()) {
         candidate_count += candidates.size();
@@ -1122,6 +1664,111 @@ public class RisoTreeQueryPN {
     return null;
   }
 
+  /**
+   * {@link #getCandidateSetWithIgnore(Query_Graph)} with the cells of a {@link GridPointIndex} as
+   * the leaf nodes. The complete strategy is always used, so {@code candidateComplete} is set in
+   * {@link #intersectCompleteCandidateSets(Map)}.
+   *
+   * @param gridIndex
+   * @param spa_predicates
+   * @param pN_list_propertyname
+   * @return empty if any spatial predicate has no overlapped cell
+   */
+  private Map<Integer, Collection<Long>> getCandidateSetFromGrid(GridPointIndex gridIndex,
+      Map<Integer, MyRectangle> spa_predicates,
+      Map<Integer, Map<Integer, Set<String>>> pN_list_propertyname) {
+    long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
+    Map<Integer, Map<Integer, Collection<Long>>> pathNeighborMultiPredicates = new HashMap<>();
+    for (int spatialId : spa_predicates.keySet()) {
+      Map<Integer, Set<String>> pathsOfPredicate = pN_list_propertyname.get(spatialId);
+      Map<String, Set<String>> pathsAndShorterPaths = new HashMap<>();
+      for (Set<String> pathsToSameNode : pathsOfPredicate.values()) {
+        for (String path : pathsToSameNode) {
+          pathsAndShorterPaths.put(path, LeafPathCache.getIgnoreSearchSet(path));
+          if (pathUsageUsed) {
+            pathUsage.record(path);
+          }
+        }
+      }
+      List<Integer> cellIds =
+          gridIndex.getOverlapCells(spa_predicates.get(spatialId), pathsAndShorterPaths);
+      if (cellIds.isEmpty()) {
+        trace.stop(QueryPhase.range_traversal, spanStart);
+        range_query_time += System.currentTimeMillis() - start;
+        Util.println("No result satisfy the query.");
+        return new HashMap<>();
+      }
+      overlap_leaf_node_count += cellIds.size();
+
+      Map<Integer, Collection<Long>> pathNeighbors = new HashMap<>();
+      for (int endId : pathsOfPredicate.keySet()) {
+        MutableBoolean complete = new MutableBoolean(true);
+        pathNeighbors.put(endId,
+            gridIndex.getCandidates(cellIds, pathsOfPredicate.get(endId), complete));
+        queryNodesComplete.get(spatialId)[endId] = complete;
+      }
+      pathNeighborMultiPredicates.put(spatialId, pathNeighbors);
+    }
+    trace.stop(QueryPhase.range_traversal, spanStart);
+    range_query_time += System.currentTimeMillis() - start;
+
+    spanStart = PhaseTrace.start();
+    candidateComplete = false;
+    Map<Integer, Collection<Long>> candidateSets =
+        intersectCompleteCandidateSets(pathNeighborMultiPredicates);
+    trace.stop(QueryPhase.candidate_intersection, spanStart);
+    return candidateSets;
+  }
+
+  /**
+   * Order the spatial predicates by the estimated candidate count from {@link #statistics} so that
+   * an empty predicate is found before traversing the others. A predicate on a label without
+   * histogram has no selectivity, so its paths cannot be estimated either and it is put last.
+   *
+   * @param query_Graph
+   * @param spa_predicates
+   * @param spaPathsMap
+   * @return the ordered spatial predicates. The original one if no statistics.
+   * @throws Exception
+   */
+  Map<Integer, MyRectangle> orderSpatialPredicates(Query_Graph query_Graph,
+      Map<Integer, MyRectangle> spa_predicates,
+      Map<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap) throws Exception {
+    if (statistics == null || spa_predicates.size() < 2) {
+      return spa_predicates;
+    }
+    Map<Integer, Double> estimations = new HashMap<>();
+    for (int spatialId : spa_predicates.keySet()) {
+      String label = query_Graph.getLabel(spatialId);
+      MyRectangle rectangle = spa_predicates.get(spatialId);
+      double estimation = statistics.estimateSpatialCount(label, rectangle);
+      double selectivity = statistics.estimateSpatialSelectivity(label, rectangle);
+      if (selectivity < 0) {
+        estimations.put(spatialId, Double.MAX_VALUE);
+        continue;
+      }
+      for (Set<String> paths : spaPathsMap.get(spatialId).values()) {
+        for (String path : paths) {
+          double pnSize = statistics.estimatePNSize(RisoTreeUtil.getPNSizeName(path), selectivity);
+          if (pnSize != -1 && pnSize < estimation) {
+            estimation = pnSize;
+          }
+        }
+      }
+      estimations.put(spatialId, estimation);
+    }
+
+    List<Integer> spatialIds = new ArrayList<>(spa_predicates.keySet());
+    spatialIds.sort(Comparator.comparingDouble(estimations::get));
+    Map<Integer, MyRectangle> orderedPredicates = new LinkedHashMap<>();
+    for (int spatialId : spatialIds) {
+      orderedPredicates.put(spatialId, spa_predicates.get(spatialId));
+    }
+    Util.println("spatial predicates estimation: " + estimations);
+    return orderedPredicates;
+  }
+
   /**
    * Set the value of {@code candidateComplete} here.
    *
@@ -1139,10 +1786,49 @@ public class RisoTreeQueryPN {
       pathNeighborMultiPredicates.put(spatialId, pathNeighbors);
     }
 
-    Map<Integer, Collection<Long>> candidateSets =
-        refineMultiPredicatesCandidateSets(pathNeighborMultiPredicates);
+    return intersectCompleteCandidateSets(pathNeighborMultiPredicates);
+  }
 
-    return candidateSets;
+  /**
+   * Keep only the complete candidate sets and intersect the ones of the same query node from
+   * different spatial predicates. A complete candidate set contains all the possible matches of the
+   * query node, so the intersection still does. Set {@code candidateComplete} here. If no
+   * candidate set is complete, fall back to {@link #refineMultiPredicatesCandidateSets(Map)}.
+   *
+   * @param pathNeighborMultiPredicates <spatialId, <endId, sorted candidates>>
+   * @return empty if any intersection is empty, which means no result.
+   */
+  private Map<Integer, Collection<Long>> intersectCompleteCandidateSets(
+      Map<Integer, Map<Integer, Collection<Long>>> pathNeighborMultiPredicates) {
+    Map<Integer, Collection<Long>> candidateSets = new HashMap<>();
+    for (int spatialId : pathNeighborMultiPredicates.keySet()) {
+      MutableBoolean[] completes = queryNodesComplete.get(spatialId);
+      Map<Integer, Collection<Long>> pathNeighbors = pathNeighborMultiPredicates.get(spatialId);
+      for (int endId : pathNeighbors.keySet()) {
+        MutableBoolean complete = completes[endId];
+        if (complete == null || !complete.booleanValue()) {
+          continue;
+        }
+        Collection<Long> candidates = pathNeighbors.get(endId);
+        Collection<Long> existing = candidateSets.get(endId);
+        if (existing != null) {
+          candidates = intersectCandidates(existing, candidates);
+        }
+        if (candidates.isEmpty()) {
+          Util.println(String.format("candidate set of %s is empty after intersection.",
+              query_Graph.nodeVariables[endId]));
+          candidateComplete = true;
+          return new HashMap<>();
+        }
+        candidateSets.put(endId, candidates);
+      }
+    }
+
+    candidateComplete = !candidateSets.isEmpty();
+    if (candidateComplete) {
+      return candidateSets;
+    }
+    return refineMultiPredicatesCandidateSets(pathNeighborMultiPredicates);
   }
 
   /**
@@ -1176,18 +1862,9 @@ public class RisoTreeQueryPN {
   private Collection<Long> getCadidates(List<Node> nodes, Set<String> labelPaths,
       MutableBoolean complete) {
     List<Integer> candidates = new ArrayList<>();
+    String pathKey = leafPathCacheUsed ? LeafPathCache.formPathKey(labelPaths) : null;
     for (Node node : nodes) {
-      List<Integer> curCandidates = new ArrayList<>();
-      for (String path : labelPaths) {
-        int[] pn = (int[]) node.getProperty(path, null);
-        if (pn == null || pn.length == 0) {
-          continue;
-        } else if (curCandidates.size() == 0) {
-          curCandidates = Util.intArrayToList(pn);
-        } else {
-          curCandidates = Util.sortedListIntersect(curCandidates, pn);
-        }
-      }
+      List<Integer> curCandidates = getLeafCandidatesCached(node, labelPaths, pathKey);
       if (curCandidates.size() == 0) {
         complete.setValue(false); // if any leaf node is [], the end query node is
                                   // incomplete
@@ -1202,6 +1879,203 @@ public class RisoTreeQueryPN {
     return res;
   }
 
+  /**
+   * {@link #getLeafCandidates(Node, Set)} through the cache of the layer. Only the exact candidates
+   * are cached, so the bloom filters are applied (and counted) on every call.
+   *
+   * @param node
+   * @param labelPaths
+   * @param pathKey formed by {@link LeafPathCache#formPathKey(Collection)}. Not used if the cache
+   *        is off.
+   * @return
+   */
+  private List<Integer> getLeafCandidatesCached(Node node, Set<String> labelPaths,
+      String pathKey) {
+    int[] cached = leafPathCacheUsed ? getLeafPathCache().getCandidates(node.getId(), pathKey)
+        : null;
+    List<Integer> curCandidates;
+    if (cached != null) {
+      curCandidates = Util.intArrayToList(cached);
+    } else {
+      curCandidates = getLeafCandidates(node, labelPaths);
+      if (leafPathCacheUsed) {
+        getLeafPathCache().putCandidates(node.getId(), pathKey,
+            ArrayUtil.listToArrayInt(curCandidates));
+      }
+    }
+    return bloomFilterUsed ? bloomFilterFilter(node, labelPaths, curCandidates) : curCandidates;
+  }
+
+  /**
+   * @return the leaf path cache of the layer, bound to the current {@link #pnDeltaLog}
+   */
+  private LeafPathCache getLeafPathCache() {
+    if (leafPathCache == null) {
+      leafPathCache = LeafPathCache.getLayerCache(dbservice, dataset);
+    }
+    leafPathCache.bindDeltaLog(pnDeltaLog);
+    return leafPathCache;
+  }
+
+  /**
+   * @return the index page cache of the database
+   */
+  private IndexPageCache getIndexPageCache() {
+    if (indexPageCache == null) {
+      indexPageCache = IndexPageCache.getDatabaseCache(dbservice);
+    }
+    return indexPageCache;
+  }
+
+  /**
+   * @return the result cache of the layer
+   */
+  private QueryResultCache getResultCache() {
+    if (resultCache == null) {
+      resultCache = QueryResultCache.getLayerCache(dbservice, dataset);
+    }
+    return resultCache;
+  }
+
+  /**
+   * Intersect the pns of all the {@code labelPaths} in a leaf node. Ignored pn ([]) is skipped.
+   *
+   * @param node
+   * @param labelPaths
+   * @return
+   */
+  private List<Integer> getLeafCandidates(Node node, Set<String> labelPaths) {
+    List<Integer> curCandidates = new ArrayList<>();
+    for (String path : labelPaths) {
+      int[] pn = getLeafPN(node, path);
+      if (pn == null || pn.length == 0) {
+        continue;
+      } else if (curCandidates.size() == 0) {
+        curCandidates = Util.intArrayToList(pn);
+      } else {
+        curCandidates = Util.sortedListIntersect(curCandidates, pn);
+      }
+    }
+    return curCandidates;
+  }
+
+  /**
+   * Filter the candidates by the bloom filters of the ignored pns in {@code labelPaths}. Only the
+   * ignored pns have a bloom filter stored.
+   *
+   * @param node
+   * @param labelPaths
+   * @param candidates
+   * @return
+   */
+  private List<Integer> bloomFilterFilter(Node node, Set<String> labelPaths,
+      List<Integer> candidates) {
+    for (String path : labelPaths) {
+      if (candidates.isEmpty()) {
+        break;
+      }
+      long[] bf = (long[]) getIndexProperty(node, RisoTreeUtil.getBFName(path), null);
+      if (bf != null) {
+        candidates = bloomFilterFilter(candidates, bf);
+      }
+    }
+    return candidates;
+  }
+
+  /**
+   * Read a PN of a leaf node with the pending deltas of {@link #pnDeltaLog} merged.
+   *
+   * @param node
+   * @param path
+   * @return null if the leaf node does not have the path
+   */
+  private int[] getLeafPN(Node node, String path) {
+    int[] pn = (int[]) getIndexProperty(node, path, null);
+    return pnDeltaLog == null ? pn : pnDeltaLog.merge(node.getId(), path, pn);
+  }
+
+  /**
+   * A handle of an index node whose id comes from a cached page. Unlike getNodeById, it does not
+   * check the node in the store, so a page hit costs no Neo4j read. The node is read by
+   * {@link #getIndexPageCache()} on a miss.
+   *
+   * @param id
+   * @return
+   */
+  private Node getIndexNode(long id) {
+    if (dbservice instanceof EmbeddedProxySPI) {
+      return ((EmbeddedProxySPI) dbservice).newNodeProxy(id);
+    }
+    return dbservice.getNodeById(id);
+  }
+
+  /**
+   * Read a property of an index node through {@link #getIndexPageCache()} if it is used.
+   *
+   * @param node
+   * @param key
+   * @param defaultValue
+   * @return
+   */
+  private Object getIndexProperty(Node node, String key, Object defaultValue) {
+    if (indexPageCacheUsed) {
+      return getIndexPageCache().getPage(node).getProperty(key, defaultValue);
+    }
+    return node.getProperty(key, defaultValue);
+  }
+
+  /**
+   * Keep the candidates that pass the bloom filter and track the statistics.
+   *
+   * @param candidates
+   * @param bf in the format of {@link BlockedBloomFilter#toLongArray()}
+   * @return
+   */
+  private List<Integer> bloomFilterFilter(List<Integer> candidates, long[] bf) {
+    BlockedBloomFilter filter = BlockedBloomFilter.wrap(bf, Config.bloomFilterSeed);
+    int[] res = filter.filter(ArrayUtil.listToArrayInt(candidates));
+    // rejected ones are true negatives, so negatives ~ rejected / (1 - fpp)
+    double fpp = filter.getFpp();
+    int rejectCount = candidates.size() - res.length;
+    bloom_filter_check_count += candidates.size();
+    bloom_filter_pass_count += res.length;
+    if (fpp < 1) {
+      bloom_filter_false_positive_estimate += rejectCount * fpp / (1 - fpp);
+    }
+    return Util.intArrayToList(res);
+  }
+
+  /**
+   * Whether a leaf node has no candidate for some end query node. Only checked for the end query
+   * node having both an exact pn and an ignored pn with bloom filter, because the candidates are
+   * otherwise the same as the exact pns.
+   *
+   * @param node
+   * @param pN_propertyname_single_predicate <endId, paths>
+   * @return
+   */
+  private boolean isLeafPrunedByBloomFilter(Node node,
+      Map<Integer, Set<String>> pN_propertyname_single_predicate) {
+    for (Set<String> labelPaths : pN_propertyname_single_predicate.values()) {
+      boolean hasExact = false, hasBloomFilter = false;
+      for (String path : labelPaths) {
+        int[] pn = getLeafPN(node, path);
+        if (pn == null) {
+          continue;
+        } else if (pn.length > 0) {
+          hasExact = true;
+        } else if (getIndexProperty(node, RisoTreeUtil.getBFName(path), null) != null) {
+          hasBloomFilter = true;
+        }
+      }
+      if (hasExact && hasBloomFilter && getLeafCandidatesCached(node, labelPaths,
+          leafPathCacheUsed ? LeafPathCache.formPathKey(labelPaths) : null).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private Map<Integer, Collection<Long>> getCandidateSetWithIgnore(
       Map<Integer, List<Node>> overlapLeafNodes,
       Map<Integer, Map<Integer, Set<String>>> pN_list_propertyname,
@@ -1223,8 +2097,11 @@ public class RisoTreeQueryPN {
   }
 
   /**
-   * If multiple spatial predicates exist, choose the one with minimum sum pn size. Actually it is
-   * not used now.
+   * Combine the candidate sets of multiple spatial predicates. The candidate sets of one predicate
+   * are a disjunction (union strategy): a match satisfies at least one of them. Start from the
+   * predicate with the minimum sum candidate size. A predicate with a single candidate set is a
+   * conjunctive constraint on that query node, so it is intersected into the chosen one if the same
+   * query node exists there.
    *
    * @param pathNeighborMultiPredicates
    * @return
@@ -1241,9 +2118,54 @@ public class RisoTreeQueryPN {
       }
       if (card < minCard) {
         minPredicate = spatialId;
+        minCard = card;
       }
     }
-    return pathNeighborMultiPredicates.get(minPredicate);
+
+    Map<Integer, Collection<Long>> candidateSets =
+        new HashMap<>(pathNeighborMultiPredicates.get(minPredicate));
+    for (int spatialId : pathNeighborMultiPredicates.keySet()) {
+      Map<Integer, Collection<Long>> other = pathNeighborMultiPredicates.get(spatialId);
+      if (spatialId == minPredicate || other.size() != 1) {
+        continue;
+      }
+      int endId = other.keySet().iterator().next();
+      Collection<Long> candidates = candidateSets.get(endId);
+      if (candidates == null) {
+        continue;
+      }
+      candidates = intersectCandidates(candidates, other.get(endId));
+      if (candidates.isEmpty()) {
+        candidateSets.remove(endId);
+      } else {
+        candidateSets.put(endId, candidates);
+      }
+    }
+    return candidateSets;
+  }
+
+  /**
+   * Intersect two candidate sets of the same query node.
+   *
+   * @param c1
+   * @param c2
+   * @return the sorted common candidates
+   */
+  static List<Long> intersectCandidates(Collection<Long> c1, Collection<Long> c2) {
+    return ArrayUtil.sortedListIntersect(toSortedList(c1), toSortedList(c2));
+  }
+
+  /**
+   * A candidate set is not always a sorted list, e.g. the one from the union of leaf PNs. Sorting
+   * a copy is linear if it is already sorted.
+   *
+   * @param candidates
+   * @return
+   */
+  private static List<Long> toSortedList(Collection<Long> candidates) {
+    List<Long> list = new ArrayList<>(candidates);
+    list.sort(null);
+    return list;
   }
 
   // /**
@@ -1282,7 +2204,7 @@ public class RisoTreeQueryPN {
     // Construct the candidateSet for a endId using different path neighbors ending at it.
     List<Integer> candidates = null;
     for (String path : pN_list_propertyname.get(minEndId)) {
-      int[] pathNeighbors = (int[]) node.getProperty(path);
+      int[] pathNeighbors = getLeafPN(node, path);
       if (pathNeighbors.length == 0) {
         throw new RuntimeException(
             String.format("%s has %s as minCard while it is dropped!", node, path));
@@ -1363,7 +2285,7 @@ public class RisoTreeQueryPN {
     int minEndId = -1;
     for (int endId : pN_size_propertyname.keySet()) {
       for (String pathSizeName : pN_size_propertyname.get(endId)) {
-        Object curSizeObject = node.getProperty(pathSizeName, Integer.MAX_VALUE);
+        Object curSizeObject = getIndexProperty(node, pathSizeName, Integer.MAX_VALUE);
         // Object curSizeObject = node.getProperty(pathSizeName);
         // this case handle the removed pn because of a shorter path
         // if (curSizeObject == null) {
@@ -1397,17 +2319,20 @@ public class RisoTreeQueryPN {
       Map<Integer, MyRectangle> spa_predicates,
       Map<Integer, Map<Integer, Set<String>>> pN_list_propertyname) throws Exception {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     Map<Integer, List<Node>> overlapLeafNodesMultiPredicate = new HashMap<>();
     // for each spatial predicate, get the overlapped leaf nodes.
     for (int spatialId : spa_predicates.keySet()) {
       List<Node> overlapLeafNodes = getOverlapLeafNodesSinglePredicate(root_node,
           spa_predicates.get(spatialId), pN_list_propertyname.get(spatialId));
       if (overlapLeafNodes.isEmpty()) {
+        trace.stop(QueryPhase.range_traversal, spanStart);
         return null;
       }
       overlap_leaf_node_count += overlapLeafNodes.size();
       overlapLeafNodesMultiPredicate.put(spatialId, overlapLeafNodes);
     }
+    trace.stop(QueryPhase.range_traversal, spanStart);
     range_query_time += System.currentTimeMillis() - start;
     return overlapLeafNodesMultiPredicate;
   }
@@ -1432,9 +2357,13 @@ public class RisoTreeQueryPN {
     for (int endId : pN_propertyname_single_predicate.keySet()) {
       Set<String> pathsToSameNode = pN_propertyname_single_predicate.get(endId);
       for (String path : pathsToSameNode) {
-        pathsAndShorterPaths.put(path, RisoTreeUtil.formIgnoreSearchSet(path));
+        pathsAndShorterPaths.put(path, LeafPathCache.getIgnoreSearchSet(path));
+        if (pathUsageUsed) {
+          pathUsage.record(path);
+        }
       }
     }
+    String pathKey = LeafPathCache.formPathKey(pathsAndShorterPaths.keySet());
 
     Util.println("paths and shorter paths: " + pathsAndShorterPaths.toString());
 
@@ -1445,7 +2374,8 @@ public class RisoTreeQueryPN {
       long expandTime = 0;
       if (!isLeafLevel) {
         Node firstNodeThisLevel = cur_list.get(0);
-        isLeafLevel = RTreeUtility.isLeaf(firstNodeThisLevel);
+        isLeafLevel = indexPageCacheUsed ? getIndexPageCache().getPage(firstNodeThisLevel).isLeaf
+            : RTreeUtility.isLeaf(firstNodeThisLevel);
       }
 
       List<Node> overlap_MBR_list = new LinkedList<>();
@@ -1453,15 +2383,27 @@ public class RisoTreeQueryPN {
       for (Node node : cur_list) {
         if (isNodeOverlapRectangle(node, myRectangle)) {
           // if does not contain all the paths (currently only leaf nodes contain path info)
-          if (isLeafLevel && !isNodeContainAllPathsIgnore(node, pathsAndShorterPaths)) {
+          if (isLeafLevel
+              && !isNodeContainAllPathsIgnoreCached(node, pathKey, pathsAndShorterPaths)) {
+            continue;
+          }
+          if (isLeafLevel && bloomFilterUsed
+              && isLeafPrunedByBloomFilter(node, pN_propertyname_single_predicate)) {
             continue;
           }
           overlap_MBR_list.add(node);
           // record the next level tree nodes
           long start = System.currentTimeMillis();
-          Iterable<Relationship> rels = node.getRelationships(RTreeRel.RTREE_CHILD, Direction.OUTGOING);
-          for (Relationship relationship : rels) {
-            next_list.add(relationship.getEndNode());
+          if (indexPageCacheUsed) {
+            for (long childId : getIndexPageCache().getPage(node).childIds) {
+              next_list.add(getIndexNode(childId));
+            }
+          } else {
+            Iterable<Relationship> rels =
+                node.getRelationships(RTreeRel.RTREE_CHILD, Direction.OUTGOING);
+            for (Relationship relationship : rels) {
+              next_list.add(relationship.getEndNode());
+            }
           }
           expandTime += System.currentTimeMillis() - start;
         }
@@ -1498,8 +2440,8 @@ public class RisoTreeQueryPN {
   }
 
   private boolean isNodeOverlapRectangle(Node node, MyRectangle queryRectangle) {
-    if (node.hasProperty(Config.BBoxName)) {
-      double[] bbox = (double[]) node.getProperty(Config.BBoxName);
+    double[] bbox = (double[]) getIndexProperty(node, Config.BBoxName, null);
+    if (bbox != null) {
       MyRectangle MBR = new MyRectangle(bbox[0], bbox[1], bbox[2], bbox[3]);
       MyRectangle intersect = MBR.intersect(queryRectangle);
       return intersect != null;
@@ -1519,23 +2461,51 @@ public class RisoTreeQueryPN {
   public boolean isNodeContainAllPathsIgnore(Node node,
       Map<String, Set<String>> pathsAndShortPaths) {
     long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
     for (String path : pathsAndShortPaths.keySet()) {
       if (!isNodeContainSinglePathIgnore(node, path, pathsAndShortPaths.get(path))) {
+        trace.stop(QueryPhase.path_check, spanStart);
         check_paths_time += System.currentTimeMillis() - start;
         return false;
       }
     }
+    trace.stop(QueryPhase.path_check, spanStart);
     check_paths_time += System.currentTimeMillis() - start;
     return true;
   }
 
+  /**
+   * Cached version of {@link #isNodeContainAllPathsIgnore(Node, Map)}.
+   *
+   * @param node
+   * @param pathKey the key of {@code pathsAndShortPaths} formed by
+   *        {@link LeafPathCache#formPathKey(java.util.Collection)}
+   * @param pathsAndShortPaths
+   * @return
+   */
+  private boolean isNodeContainAllPathsIgnoreCached(Node node, String pathKey,
+      Map<String, Set<String>> pathsAndShortPaths) {
+    if (!leafPathCacheUsed) {
+      return isNodeContainAllPathsIgnore(node, pathsAndShortPaths);
+    }
+    LeafPathCache cache = getLeafPathCache();
+    Boolean decision = cache.getContainDecision(node.getId(), pathKey);
+    if (decision == null) {
+      decision = isNodeContainAllPathsIgnore(node, pathsAndShortPaths);
+      cache.putContainDecision(node.getId(), pathKey, decision);
+    }
+    return decision;
+  }
+
   public boolean isNodeContainSinglePathIgnore(Node node, String path, Set<String> shorterPaths) {
-    for (String key : node.getPropertyKeys()) {
+    Iterable<String> keys = indexPageCacheUsed ? getIndexPageCache().getPage(node).getPropertyKeys()
+        : node.getPropertyKeys();
+    for (String key : keys) {
       if (key.equals(path)) {
         return true;
       }
       if (shorterPaths.contains(key)) {
-        int[] pn = (int[]) node.getProperty(key);
+        int[] pn = (int[]) getIndexProperty(node, key, null);
         if (pn.length == 0) {
           return true;
         }
@@ -1771,7 +2741,7 @@ public class RisoTreeQueryPN {
             for (Node node : overlap_MBR_list) {
               if (node.hasProperty(minPNListPropertyname)) {
                 // here id is graph id rather than neo4j id
-                int[] NL_list_label = (int[]) node.getProperty(minPNListPropertyname);
+                int[] NL_list_label = getLeafPN(node, minPNListPropertyname);
                 for (int node_id : NL_list_label)
                   min_NL_list.add((long) node_id);
               }
@@ -2101,7 +3071,7 @@ public class RisoTreeQueryPN {
             for (Node node : overlap_MBR_list) {
               if (node.hasProperty(minPNListPropertyname)) {
                 // here id is graph id rather than neo4j id
-                int[] NL_list_label = (int[]) node.getProperty(minPNListPropertyname);
+                int[] NL_list_label = getLeafPN(node, minPNListPropertyname);
                 for (int node_id : NL_list_label)
                   min_NL_list.add(node_id);
               }
@@ -2672,6 +3642,8 @@ public class RisoTreeQueryPN {
   public List<long[]> LAGAQ_KNN(Query_Graph query_Graph, int K) throws Exception {
     clearTrackingVariables();
     long sumStart = System.currentTimeMillis();
+    trace.clear();
+    trace.begin();
     List<long[]> resultIDs = new ArrayList<long[]>();
 
     Map<Integer, MyRectangle> spatialPredicatesMap = query_Graph.getSpatialPredicates();
@@ -2700,6 +3672,16 @@ public class RisoTreeQueryPN {
 
     String[] columnNames = CypherEncoder.getReturnColumnNames(query_Graph);
 
+    GridPointIndex gridIndex = gridPointIndexes.get(dataset);
+    if (gridIndex != null) {
+      LAGAQ_KNN_Grid(gridIndex, query_Graph, K, querySpatialVertexID, queryLoc, paths,
+          columnNames, resultIDs);
+      run_time = System.currentTimeMillis() - sumStart;
+      result_count = resultIDs.size();
+      setQueryStatistics(QueryType.LAGAQ_KNN);
+      return resultIDs;
+    }
+
     long start = System.currentTimeMillis();
     Transaction tx = dbservice.beginTx();
     Node root_node = RTreeUtility.getRTreeRoot(dbservice, dataset);
@@ -2802,6 +3784,53 @@ public class RisoTreeQueryPN {
     return resultIDs;
   }
 
+  /**
+   * {@link #LAGAQ_KNN(Query_Graph, int)} on a {@link GridPointIndex}. The points are visited by
+   * the ascending distance from the cells having all the paths.
+   *
+   * @param gridIndex
+   * @param query_Graph
+   * @param K
+   * @param querySpatialVertexID
+   * @param queryLoc
+   * @param paths
+   * @param columnNames
+   * @param resultIDs the result rows are added here
+   * @throws Exception
+   */
+  private void LAGAQ_KNN_Grid(GridPointIndex gridIndex, Query_Graph query_Graph, int K,
+      int querySpatialVertexID, MyPoint queryLoc, Set<String> paths, String[] columnNames,
+      List<long[]> resultIDs) throws Exception {
+    long start = System.currentTimeMillis();
+    Transaction tx = dbservice.beginTx();
+    Iterator<Long> iterator = gridIndex.nearestPoints(queryLoc, paths);
+    while (resultIDs.size() < K && iterator.hasNext()) {
+      long id = iterator.next();
+      visit_spatial_object_count++;
+      queue_time += System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      String query = formQuery_KNN(query_Graph, K - resultIDs.size(),
+          Enums.Explain_Or_Profile.Profile, querySpatialVertexID, id);
+      Result result = dbservice.execute(query);
+      get_iterator_time += System.currentTimeMillis() - start;
+
+      start = System.currentTimeMillis();
+      while (result.hasNext() && resultIDs.size() < K) {
+        Map<String, Object> row = result.next();
+        resultIDs.add(QueryUtil.getResultRowInArray(columnNames, row));
+      }
+      iterate_time += System.currentTimeMillis() - start;
+      start = System.currentTimeMillis();
+
+      planDescription = result.getExecutionPlanDescription();
+      page_hit_count += OwnMethods.GetTotalDBHits(planDescription);
+    }
+    queue_time += System.currentTimeMillis() - start;
+    tx.success();
+    tx.close();
+  }
+
   /**
    * Does not consider condition that area of query rectangle is 0. If so, such function cannot make
    * the correct dicision.
@@ -3004,7 +4033,7 @@ public class RisoTreeQueryPN {
         // NL_list.get(min_NL_spa_id).put(min_NL_neighbor_id, new HashSet<Integer>());
         for (Node node : overlap_MBR_list) {
           if (node.hasProperty(minPropertyName)) {
-            int[] NL_list_label = (int[]) node.getProperty(minPropertyName);
+            int[] NL_list_label = getLeafPN(node, minPropertyName);
             for (int node_id : NL_list_label)
               min_NL_list.add(node_id);
           }
@@ -3273,7 +4302,7 @@ public class RisoTreeQueryPN {
       ArrayList<Integer> pn = new ArrayList<>();
       boolean isFirst = true;
       for (String pnName : paths.get(id)) {
-        int[] l = (int[]) node.getProperty(pnName);
+        int[] l = getLeafPN(node, pnName);
         if (isFirst) {
           for (int element : l)
             pn.add(element);
@@ -3640,9 +4669,48 @@ public class RisoTreeQueryPN {
     return result;
   }
 
+  /**
+   * The candidate pairs of {@link #spatialJoinRTreeOverlap(double, ArrayList, ArrayList, HashMap)}
+   * from a {@link GridPointIndex}.
+   *
+   * @param gridIndex
+   * @param distance
+   * @param pos
+   * @param targetLabels
+   * @param spaPathsMap
+   * @return
+   */
+  public List<Long[]> spatialJoinGrid(GridPointIndex gridIndex, double distance,
+      ArrayList<Integer> pos, ArrayList<Label> targetLabels,
+      HashMap<Integer, HashMap<Integer, HashSet<String>>> spaPathsMap) {
+    List<String> leftpaths = new LinkedList<>();
+    for (HashSet<String> paths : spaPathsMap.get(pos.get(0)).values()) {
+      leftpaths.addAll(paths);
+    }
+    List<String> rightpaths = new LinkedList<>();
+    for (HashSet<String> paths : spaPathsMap.get(pos.get(1)).values()) {
+      rightpaths.addAll(paths);
+    }
+
+    List<Long[]> result = new LinkedList<Long[]>();
+    Transaction tx = dbservice.beginTx();
+    Label leftLabel = targetLabels.get(0);
+    Label rightLabel = targetLabels.get(1);
+    for (long[] pair : gridIndex.distanceJoin(distance, leftpaths, rightpaths,
+        id -> dbservice.getNodeById(id).hasLabel(leftLabel),
+        id -> dbservice.getNodeById(id).hasLabel(rightLabel))) {
+      result.add(new Long[] {pair[0], pair[1]});
+    }
+    tx.success();
+    tx.close();
+    return result;
+  }
+
   public List<Long[]> LAGAQ_Join(Query_Graph query_Graph, double distance) throws Exception {
     clearTrackingVariables();
     long totalStart = System.currentTimeMillis();
+    trace.clear();
+    trace.begin();
     List<Long[]> resultPairs = new LinkedList<Long[]>();
 
     int count = 0;
@@ -3665,7 +4733,10 @@ public class RisoTreeQueryPN {
     long start = System.currentTimeMillis();
     Util.println(pos);
     Util.println(spaPathsMap);
-    List<Long[]> idPairs = this.spatialJoinRTreeOverlap(distance, pos, targetLabels, spaPathsMap);
+    GridPointIndex gridIndex = gridPointIndexes.get(dataset);
+    List<Long[]> idPairs = gridIndex != null
+        ? spatialJoinGrid(gridIndex, distance, pos, targetLabels, spaPathsMap)
+        : this.spatialJoinRTreeOverlap(distance, pos, targetLabels, spaPathsMap);
     // List<Long[]> idPairs = this.spatialJoinRTree(distance, pos, spaPathsMap);
     join_time = System.currentTimeMillis() - start;
     join_result_count = idPairs.size();
@@ -3821,6 +4892,9 @@ public class RisoTreeQueryPN {
     remove_label_time = 0;
     overlap_leaf_node_count = 0;
     candidate_count = 0;
+    bloom_filter_check_count = 0;
+    bloom_filter_pass_count = 0;
+    bloom_filter_false_positive_estimate = 0;
 
     queue_time = 0;
     visit_spatial_object_count = 0;
@@ -3828,6 +4902,10 @@ public class RisoTreeQueryPN {
     join_result_count = 0;
     join_time = 0;
     check_overlap_time = 0;
+
+    resultRows = new ArrayList<>();
+    resultLocations = new ArrayList<>();
+    streamedResult = null;
   }
 
   public Map<QueryStatistic, Object> getQueryStatisticMap() {
@@ -3851,6 +4929,12 @@ public class RisoTreeQueryPN {
         queryStatisticMap.put(QueryStatistic.remove_label_time, remove_label_time);
         queryStatisticMap.put(QueryStatistic.overlap_leaf_node_count, overlap_leaf_node_count);
         queryStatisticMap.put(QueryStatistic.candidate_count, candidate_count);
+        if (bloomFilterUsed) {
+          queryStatisticMap.put(QueryStatistic.bloom_filter_check_count, bloom_filter_check_count);
+          queryStatisticMap.put(QueryStatistic.bloom_filter_pass_count, bloom_filter_pass_count);
+          queryStatisticMap.put(QueryStatistic.bloom_filter_false_positive_estimate,
+              bloom_filter_false_positive_estimate);
+        }
         break;
       case LAGAQ_JOIN:
         queryStatisticMap.put(QueryStatistic.spatial_time, join_time);
@@ -3864,5 +4948,6 @@ public class RisoTreeQueryPN {
       default:
         throw new Exception(queryType + " does not exist!");
     }
+    trace.publish(metricsRegistry, queryType.name(), QueryPhase.total);
   }
 }
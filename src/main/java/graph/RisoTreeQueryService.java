@@ -0,0 +1,155 @@
+package graph;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import org.neo4j.graphdb.ExecutionPlanDescription;
+import org.neo4j.graphdb.GraphDatabaseService;
+import commons.Enums.QueryStatistic;
+import commons.Query_Graph;
+
+/**
+ * Serve LAGAQ queries concurrently from one database handle. Every request runs in a worker of a
+ * bounded pool with its own {@link RisoTreeQueryPN} as the request context, so the tracking
+ * variables of different requests never mix. The caches, the statistics and the other static
+ * structures of {@link RisoTreeQueryPN} are thread-safe and shared by all the requests. How the
+ * candidates are verified ({@link RisoTreeQueryPN#newLabelUsed}) is fixed when the service is
+ * created, so set the static switches before. A request submitted when all the workers are busy
+ * and the queue is full is rejected with {@link java.util.concurrent.RejectedExecutionException}.
+ * With {@link IndexWarmUp#warmUpOnOpen}, the layer is warmed up before the service is returned.
+ */
+public class RisoTreeQueryService {
+
+  private static final Logger LOGGER = Logger.getLogger(RisoTreeQueryService.class.getName());
+
+  /**
+   * The result and the statistics of a request.
+   *
+   * @param <T> type of the result
+   */
+  public static class Response<T> {
+    public final T result;
+    public final Map<QueryStatistic, Object> queryStatisticMap;
+    public final ExecutionPlanDescription planDescription;
+
+    Response(T result, RisoTreeQueryPN context) {
+      this.result = result;
+      this.queryStatisticMap = context.getQueryStatisticMap();
+      this.planDescription = context.planDescription;
+    }
+  }
+
+  private final GraphDatabaseService service;
+  private final String dataset;
+  private final int MAX_HOPNUM;
+  private final boolean newLabelUsed;
+  private final ThreadPoolExecutor executor;
+
+  public final AtomicLong completedCount = new AtomicLong();
+  public final AtomicLong failedCount = new AtomicLong();
+
+  /**
+   * @param service kept open for the lifetime of the service
+   * @param dataset
+   * @param MAX_HOPNUM
+   * @param threadCount number of workers
+   * @param queueCapacity number of requests waiting for a worker
+   */
+  public RisoTreeQueryService(GraphDatabaseService service, String dataset, int MAX_HOPNUM,
+      int threadCount, int queueCapacity) {
+    this.service = service;
+    this.dataset = dataset;
+    this.MAX_HOPNUM = MAX_HOPNUM;
+    this.newLabelUsed = RisoTreeQueryPN.newLabelUsed;
+    AtomicInteger threadId = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+          Thread thread = new Thread(runnable, "risotree-query-" + threadId.getAndIncrement());
+          thread.setDaemon(true);
+          return thread;
+        });
+    IndexWarmUp.warmUpOnce(service, dataset, threadCount);
+  }
+
+  private interface RequestTask<T> {
+    T run(RisoTreeQueryPN context) throws Exception;
+  }
+
+  private <T> Future<Response<T>> submit(RequestTask<T> task) {
+    Callable<Response<T>> callable = () -> {
+      RisoTreeQueryPN context = new RisoTreeQueryPN(service, dataset, MAX_HOPNUM);
+      context.verifyByNewLabel = newLabelUsed;
+      try {
+        Response<T> response = new Response<>(task.run(context), context);
+        completedCount.incrementAndGet();
+        return response;
+      } catch (Exception e) {
+        failedCount.incrementAndGet();
+        throw e;
+      }
+    };
+    return executor.submit(callable);
+  }
+
+  /**
+   * LAGAQ-Range.
+   *
+   * @param query cypher query with the spatial predicates
+   * @return the result rows
+   */
+  public Future<Response<List<Map<String, Object>>>> rangeQuery(String query) {
+    return submit(context -> {
+      context.keepResultRows = true;
+      context.queryWithIgnore(query);
+      return context.resultRows;
+    });
+  }
+
+  /**
+   * LAGAQ-KNN.
+   *
+   * @param query_Graph
+   * @param K
+   * @return
+   */
+  public Future<Response<List<long[]>>> knnQuery(Query_Graph query_Graph, int K) {
+    return submit(context -> context.LAGAQ_KNN(query_Graph, K));
+  }
+
+  /**
+   * LAGAQ-Join.
+   *
+   * @param query_Graph
+   * @param distance
+   * @return
+   */
+  public Future<Response<List<Long[]>>> joinQuery(Query_Graph query_Graph, double distance) {
+    return submit(context -> context.LAGAQ_Join(query_Graph, distance));
+  }
+
+  /**
+   * @return number of requests running or waiting
+   */
+  public int getPendingCount() {
+    return executor.getActiveCount() + executor.getQueue().size();
+  }
+
+  /**
+   * Finish the submitted requests and stop the workers. The database handle is not shut down.
+   *
+   * @throws InterruptedException
+   */
+  public void shutdown() throws InterruptedException {
+    executor.shutdown();
+    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    LOGGER.info(String.format("query service stopped. completed: %d, failed: %d",
+        completedCount.get(), failedCount.get()));
+  }
+}
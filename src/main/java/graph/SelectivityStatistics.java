@@ -0,0 +1,320 @@
+package graph;
+
+import java.io.FileWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import commons.Config;
+import commons.MyRectangle;
+import commons.RTreeUtility;
+import commons.ReadWriteUtil;
+import commons.Util;
+
+/**
+ * Persistent statistics used to order the predicates before the expensive work. It includes:
+ * <ul>
+ * <li>a uniform grid histogram of spatial object count for each label of the spatial nodes;</li>
+ * <li>the PNSize distribution of each label path aggregated from the leaf {@code PNSize_*}
+ * properties.</li>
+ * </ul>
+ * Built by {@link #build(GraphDatabaseService, String, int)} and stored as a text file, which is
+ * loaded into {@link RisoTreeQueryPN#statistics} and {@link SpatialFirst_List#statistics} by the
+ * Driver option {@code -statisticsPath}.
+ */
+public class SelectivityStatistics {
+
+  private static final Logger LOGGER = Logger.getLogger(SelectivityStatistics.class.getName());
+
+  private static final String extentKey = "extent";
+  private static final String gridSizeKey = "gridSize";
+  private static final String spatialKey = "spatial";
+  private static final String pathKey = "path";
+  private static final String leafCountKey = "leafCount";
+
+  /**
+   * PNSize distribution of a single label path over all the leaf nodes.
+   */
+  public static class PathStatistic {
+    /**
+     * leaf nodes having this path (ignored included).
+     */
+    public long leafCount = 0;
+    /**
+     * leaf nodes whose pn is ignored (PNSize is 0).
+     */
+    public long ignoredCount = 0;
+    public long totalSize = 0;
+    public int maxSize = 0;
+
+    public double getAverageSize() {
+      long nonIgnored = leafCount - ignoredCount;
+      return nonIgnored == 0 ? 0 : (double) totalSize / nonIgnored;
+    }
+
+    void add(int size) {
+      leafCount++;
+      if (size == 0) {
+        ignoredCount++;
+      } else {
+        totalSize += size;
+        maxSize = Math.max(maxSize, size);
+      }
+    }
+  }
+
+  public MyRectangle extent;
+  public int gridSize;
+  /**
+   * Total number of leaf nodes in the tree.
+   */
+  public long leafCount = 0;
+  /**
+   * <label, cell counts>. Cell (x, y) is stored at y * gridSize + x.
+   */
+  public Map<String, long[]> spatialHistograms = new HashMap<>();
+  /**
+   * <PNSize property name, statistic>
+   */
+  public Map<String, PathStatistic> pathStatistics = new HashMap<>();
+
+  public SelectivityStatistics(MyRectangle extent, int gridSize) {
+    this.extent = extent;
+    this.gridSize = gridSize;
+  }
+
+  /**
+   * Scan all the spatial objects and leaf nodes of the tree to build the statistics.
+   *
+   * @param service
+   * @param dataset the layer name
+   * @param gridSize number of cells in each dimension
+   * @return
+   * @throws Exception
+   */
+  public static SelectivityStatistics build(GraphDatabaseService service, String dataset,
+      int gridSize) throws Exception {
+    Transaction tx = service.beginTx();
+    Node root = RTreeUtility.getRTreeRoot(service, dataset);
+    SelectivityStatistics statistics =
+        new SelectivityStatistics(RTreeUtility.getNodeMBR(root), gridSize);
+
+    int index = 0;
+    for (Node geom : RTreeUtility.getAllGeometries(service, dataset)) {
+      MyRectangle mbr = RTreeUtility.getNodeMBR(geom);
+      for (Label label : geom.getLabels()) {
+        statistics.addSpatialObject(label.name(), (mbr.min_x + mbr.max_x) / 2,
+            (mbr.min_y + mbr.max_y) / 2);
+      }
+      index++;
+      if (index % Config.logInterval == 0) {
+        LOGGER.info("spatial objects: " + index);
+      }
+    }
+
+    List<Node> leafNodes = RTreeUtility.getRTreeLeafLevelNodes(service, dataset);
+    for (Node leafNode : leafNodes) {
+      statistics.leafCount++;
+      for (Map.Entry<String, Object> entry : leafNode.getAllProperties().entrySet()) {
+        if (entry.getKey().startsWith(Config.PNSizePrefix + Config.PNSeparator)) {
+          statistics.addPNSize(entry.getKey(), (int) entry.getValue());
+        }
+      }
+    }
+    tx.success();
+    tx.close();
+    return statistics;
+  }
+
+  public void addSpatialObject(String label, double x, double y) {
+    long[] histogram = spatialHistograms.get(label);
+    if (histogram == null) {
+      histogram = new long[gridSize * gridSize];
+      spatialHistograms.put(label, histogram);
+    }
+    histogram[getCellY(y) * gridSize + getCellX(x)]++;
+  }
+
+  public void addPNSize(String pnSizeName, int size) {
+    PathStatistic statistic = pathStatistics.get(pnSizeName);
+    if (statistic == null) {
+      statistic = new PathStatistic();
+      pathStatistics.put(pnSizeName, statistic);
+    }
+    statistic.add(size);
+  }
+
+  /**
+   * Estimate the number of spatial objects with {@code label} in {@code rectangle}. Objects are
+   * assumed to be uniformly distributed within a cell.
+   *
+   * @param label
+   * @param rectangle
+   * @return -1 if the label has no histogram
+   */
+  public double estimateSpatialCount(String label, MyRectangle rectangle) {
+    long[] histogram = spatialHistograms.get(label);
+    if (histogram == null) {
+      return -1;
+    }
+    MyRectangle intersect = extent.intersect(rectangle);
+    if (intersect == null) {
+      return 0;
+    }
+    double cellWidth = (extent.max_x - extent.min_x) / gridSize;
+    double cellHeight = (extent.max_y - extent.min_y) / gridSize;
+    double count = 0;
+    for (int y = getCellY(intersect.min_y); y <= getCellY(intersect.max_y); y++) {
+      for (int x = getCellX(intersect.min_x); x <= getCellX(intersect.max_x); x++) {
+        long cellCount = histogram[y * gridSize + x];
+        if (cellCount == 0) {
+          continue;
+        }
+        MyRectangle cell = new MyRectangle(extent.min_x + x * cellWidth,
+            extent.min_y + y * cellHeight, extent.min_x + (x + 1) * cellWidth,
+            extent.min_y + (y + 1) * cellHeight);
+        MyRectangle overlap = cell.intersect(intersect);
+        double ratio = cell.area() == 0 ? 1.0 : overlap.area() / cell.area();
+        count += cellCount * ratio;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Selectivity of a spatial predicate on the spatial objects with {@code label}.
+   *
+   * @param label
+   * @param rectangle
+   * @return in [0, 1]. -1 if the label has no histogram.
+   */
+  public double estimateSpatialSelectivity(String label, MyRectangle rectangle) {
+    long[] histogram = spatialHistograms.get(label);
+    if (histogram == null) {
+      return -1;
+    }
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    return total == 0 ? 0 : estimateSpatialCount(label, rectangle) / total;
+  }
+
+  /**
+   * Estimate the total pn size of a label path over the leaf nodes overlapped by a spatial
+   * predicate with the given selectivity.
+   *
+   * @param pnSizeName the PNSize property name
+   * @param spatialSelectivity
+   * @return -1 if the path has no statistic or it is ignored in all leaf nodes
+   */
+  public double estimatePNSize(String pnSizeName, double spatialSelectivity) {
+    PathStatistic statistic = pathStatistics.get(pnSizeName);
+    if (statistic == null || statistic.leafCount == statistic.ignoredCount) {
+      return -1;
+    }
+    return statistic.totalSize * spatialSelectivity;
+  }
+
+  private int getCellX(double x) {
+    if (extent.max_x == extent.min_x) {
+      return 0;
+    }
+    int cell = (int) ((x - extent.min_x) / (extent.max_x - extent.min_x) * gridSize);
+    return Math.max(0, Math.min(gridSize - 1, cell));
+  }
+
+  private int getCellY(double y) {
+    if (extent.max_y == extent.min_y) {
+      return 0;
+    }
+    int cell = (int) ((y - extent.min_y) / (extent.max_y - extent.min_y) * gridSize);
+    return Math.max(0, Math.min(gridSize - 1, cell));
+  }
+
+  /**
+   * Write the statistics as a text file. Each line starts with a key. Values are separated by \t.
+   *
+   * @param path
+   * @throws Exception
+   */
+  public void write(String path) throws Exception {
+    FileWriter writer = Util.getFileWriter(path);
+    writer.write(String.format("%s\t%s\n", extentKey, extent));
+    writer.write(String.format("%s\t%d\n", gridSizeKey, gridSize));
+    writer.write(String.format("%s\t%d\n", leafCountKey, leafCount));
+    for (String label : spatialHistograms.keySet()) {
+      StringBuilder builder = new StringBuilder();
+      for (long count : spatialHistograms.get(label)) {
+        if (builder.length() > 0) {
+          builder.append(',');
+        }
+        builder.append(count);
+      }
+      writer.write(String.format("%s\t%s\t%s\n", spatialKey, label, builder));
+    }
+    for (String pnSizeName : pathStatistics.keySet()) {
+      PathStatistic statistic = pathStatistics.get(pnSizeName);
+      writer.write(String.format("%s\t%s\t%d\t%d\t%d\t%d\n", pathKey, pnSizeName,
+          statistic.leafCount, statistic.ignoredCount, statistic.totalSize, statistic.maxSize));
+    }
+    Util.close(writer);
+  }
+
+  /**
+   * Read the statistics written by {@link #write(String)}.
+   *
+   * @param path
+   * @return
+   * @throws Exception
+   */
+  public static SelectivityStatistics read(String path) throws Exception {
+    List<String> lines = ReadWriteUtil.readFileAllLines(path);
+    MyRectangle extent = null;
+    int gridSize = -1;
+    for (String line : lines) {
+      String[] strings = line.split("\t");
+      if (strings[0].equals(extentKey)) {
+        extent = new MyRectangle(strings[1]);
+      } else if (strings[0].equals(gridSizeKey)) {
+        gridSize = Integer.parseInt(strings[1]);
+      }
+    }
+    if (extent == null || gridSize == -1) {
+      throw new RuntimeException(path + " does not have extent or gridSize!");
+    }
+
+    SelectivityStatistics statistics = new SelectivityStatistics(extent, gridSize);
+    for (String line : lines) {
+      String[] strings = line.split("\t");
+      switch (strings[0]) {
+        case leafCountKey:
+          statistics.leafCount = Long.parseLong(strings[1]);
+          break;
+        case spatialKey:
+          String[] counts = strings[2].split(",");
+          long[] histogram = new long[counts.length];
+          for (int i = 0; i < counts.length; i++) {
+            histogram[i] = Long.parseLong(counts[i]);
+          }
+          statistics.spatialHistograms.put(strings[1], histogram);
+          break;
+        case pathKey:
+          PathStatistic statistic = new PathStatistic();
+          statistic.leafCount = Long.parseLong(strings[2]);
+          statistic.ignoredCount = Long.parseLong(strings[3]);
+          statistic.totalSize = Long.parseLong(strings[4]);
+          statistic.maxSize = Integer.parseInt(strings[5]);
+          statistics.pathStatistics.put(strings[1], statistic);
+          break;
+        default:
+          break;
+      }
+    }
+    return statistics;
+  }
+}
@@ -2,12 +2,14 @@ package graph;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
 import java.util.logging.Logger;
 import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
 import org.neo4j.graphdb.Direction;
@@ -21,6 +23,7 @@ import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
 import commons.Config;
 import commons.Enums;
+import commons.Enums.QueryPhase;
 import commons.Enums.QueryStatistic;
 import commons.Enums.QueryType;
 import commons.Labels;
@@ -32,7 +35,9 @@ import commons.OwnMethods;
 import commons.Query_Graph;
 import commons.RTreeUtility;
 import commons.Util;
+import commons.metrics.PhaseTrace;
 import cypher.middleware.CypherDecoder;
+import graph.QueryTemplateCache.BoundQuery;
 import knn.Element;
 import knn.KNNComparator;
 import knn.NodeAndRec;
@@ -93,8 +98,26 @@ public class SpatialFirst_List {
 
   public Map<QueryStatistic, Object> queryStatisticMap = new HashMap<>();
 
+  // nanosecond phase times published to RisoTreeQueryPN.metricsRegistry per query
+  public final PhaseTrace<QueryPhase> trace =
+      new PhaseTrace<>(SpatialFirst_List.class.getSimpleName(), QueryPhase.class);
+
   private static final Logger LOGGER = Logger.getLogger(SpatialFirst_List.class.getName());
 
+  /**
+   * If set, the trigger spatial predicate is the one with the smallest estimated object count
+   * rather than the smallest area.
+   */
+  public static SelectivityStatistics statistics = null;
+
+  /**
+   * Max number of located-in spatial ids verified by one parameterized query in
+   * {@link #query_Block(Query_Graph, int)}. The ids of all the overlapped leaf nodes are collected
+   * into batches. Non-positive means one query per overlapped leaf node.
+   */
+  public static int blockBatchSize = 0;
+  public static final String blockIdsParameterName = "spatial_ids";
+
   /**
    * 
    * @param db_path database location
@@ -345,16 +368,18 @@ public class SpatialFirst_List {
 
       int min_pos = 0;
       MyRectangle min_queryRectangle = null;
-      for (int key : spa_predicates.keySet())
-        if (min_queryRectangle == null) {
+      double minCost = Double.MAX_VALUE;
+      boolean useStatistics = isStatisticsAvailable(query_Graph, spa_predicates.keySet());
+      for (int key : spa_predicates.keySet()) {
+        double cost = useStatistics
+            ? statistics.estimateSpatialCount(query_Graph.getLabel(key), spa_predicates.get(key))
+            : spa_predicates.get(key).area();
+        if (min_queryRectangle == null || cost < minCost) {
           min_pos = key;
           min_queryRectangle = spa_predicates.get(key);
-        } else {
-          if (spa_predicates.get(key).area() < min_queryRectangle.area()) {
-            min_pos = key;
-            min_queryRectangle = spa_predicates.get(key);
-          }
+          minCost = cost;
         }
+      }
       spa_predicates.remove(min_pos, min_queryRectangle);
 
       // query vertex to be shrunk <id, hop_num>
@@ -517,6 +542,76 @@ public class SpatialFirst_List {
     return query;
   }
 
+  /**
+   * Form the cypher query for a batch of spatial ids across MBR blocks. The ids are passed as the
+   * {@link #blockIdsParameterName} parameter and each one is sought by 'unwind ... where id(a) =
+   * spatial_id', so the query text and its plan are the same for all the batches.
+   *
+   * @param query_Graph
+   * @param limit -1 is no limit
+   * @param explain_Or_Profile
+   * @param spa_predicates spatial predicates except the min_pos spatial predicate
+   * @param pos query graph node id with the trigger spatial predicate
+   * @return
+   */
+  public String formSubgraphQuery_Batch(Query_Graph query_Graph, int limit,
+      Enums.Explain_Or_Profile explain_Or_Profile, HashMap<Integer, MyRectangle> spa_predicates,
+      int pos) {
+    String query = "";
+    switch (explain_Or_Profile) {
+      case Profile:
+        query += "profile ";
+        break;
+      case Explain:
+        query += "explain ";
+        break;
+      case Nothing:
+        break;
+    }
+    query += String.format("unwind $%s as spatial_id match ", blockIdsParameterName);
+
+    // label
+    for (int i = 0; i < query_Graph.graph.size(); i++) {
+      if (i == 0) {
+        query += String.format("(a%d:`%s`)", i, query_Graph.label_list_string[i]);
+      } else {
+        query += String.format(",(a%d:`%s`)", i, query_Graph.label_list_string[i]);
+      }
+    }
+
+    // edge
+    for (int i = 0; i < query_Graph.graph.size(); i++) {
+      for (int j = 0; j < query_Graph.graph.get(i).size(); j++) {
+        int neighbor = query_Graph.graph.get(i).get(j);
+        if (neighbor > i) {
+          query += String.format(",(a%d)--(a%d)", i, neighbor);
+        }
+      }
+    }
+
+    query += String.format(" where id(a%d) = spatial_id", pos);
+
+    // spatial predicate
+    for (int key : spa_predicates.keySet()) {
+      if (key == pos) {
+        continue;
+      }
+      MyRectangle qRect = spa_predicates.get(key);
+      query += String.format(" and %f <= a%d.%s <= %f", qRect.min_x, key, lon_name, qRect.max_x);
+      query += String.format(" and %f <= a%d.%s <= %f", qRect.min_y, key, lat_name, qRect.max_y);
+    }
+
+    // return
+    query += " return id(a0)";
+    for (int i = 1; i < query_Graph.graph.size(); i++)
+      query += String.format(",id(a%d)", i);
+
+    if (limit != -1)
+      query += String.format(" limit %d", limit);
+
+    return query;
+  }
+
   /**
    * form the cypher query for MBR block
    * 
@@ -630,8 +725,19 @@ public class SpatialFirst_List {
   }
 
   public void query_Block(String query) throws Exception {
-    Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, dbservice);
-    query_Block(query_Graph, -1);
+    trace.clear();
+    trace.begin();
+    long spanStart = PhaseTrace.start();
+    BoundQuery boundQuery = RisoTreeQueryPN.queryTemplateCacheUsed
+        ? RisoTreeQueryPN.queryTemplateCache.bind(query) : null;
+    if (boundQuery == null) {
+      Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, dbservice);
+      trace.stop(QueryPhase.decode, spanStart);
+      query_Block(query_Graph, -1);
+    } else {
+      trace.stop(QueryPhase.decode, spanStart);
+      query_Block(boundQuery.query_Graph, -1, boundQuery.template.minHop);
+    }
   }
 
   /**
@@ -642,13 +748,21 @@ public class SpatialFirst_List {
    * @param limit
    */
   public void query_Block(Query_Graph query_Graph, int limit) {
+    query_Block(query_Graph, limit, Ini_Minhop(query_Graph));
+  }
+
+  /**
+   * @param query_Graph
+   * @param limit
+   * @param min_hop {@link #Ini_Minhop(Query_Graph)} of the query graph
+   */
+  private void query_Block(Query_Graph query_Graph, int limit, int[][] min_hop) {
     try {
       clearTrackingVariables();
       long totalStart = System.currentTimeMillis();
+      trace.begin();
       Transaction tx = dbservice.beginTx();
 
-      int[][] min_hop = Ini_Minhop(query_Graph);
-
       // <spa_id, rectangle>
       HashMap<Integer, MyRectangle> spa_predicates = new HashMap<Integer, MyRectangle>();
       for (int i = 0; i < query_Graph.Has_Spa_Predicate.length; i++)
@@ -677,15 +791,21 @@ public class SpatialFirst_List {
           NL_hopnum.put(i, min_hop[min_pos][i]);
 
       long start_1 = System.currentTimeMillis();
+      long spanStart = PhaseTrace.start();
       Node rootNode = RTreeUtility.getRTreeRoot(dbservice, dataset);
       Util.println("query range: " + min_queryRectangle);
       LinkedList<Node> rangeQueryResult = this.rangeQuery(rootNode, min_queryRectangle);
+      trace.stop(QueryPhase.range_traversal, spanStart);
       range_query_time = System.currentTimeMillis() - start_1;
       overlap_leaf_count += rangeQueryResult.size();
 
       int located_in_count = 0;
+      String batchQuery = blockBatchSize > 0 ? formSubgraphQuery_Batch(query_Graph, limit,
+          Enums.Explain_Or_Profile.Profile, spa_predicates, min_pos) : null;
+      List<Long> batch = new ArrayList<>();
       for (Node rtree_node : rangeQueryResult) {
         start_1 = System.currentTimeMillis();
+        spanStart = PhaseTrace.start();
         Iterable<Relationship> rels =
             rtree_node.getRelationships(Direction.OUTGOING, RTreeRelationshipTypes.RTREE_REFERENCE);
 
@@ -700,32 +820,27 @@ public class SpatialFirst_List {
             ids.add(id);
           }
         }
+        trace.stop(QueryPhase.range_traversal, spanStart);
         range_query_time += System.currentTimeMillis() - start_1;
 
-        if (ids.size() > 0) {
-          start_1 = System.currentTimeMillis();
+        if (batchQuery != null) {
+          batch.addAll(ids);
+          while (batch.size() >= blockBatchSize) {
+            List<Long> head = batch.subList(0, blockBatchSize);
+            verifyBlock(batchQuery, new ArrayList<>(head));
+            head.clear();
+          }
+        } else if (ids.size() > 0) {
           // String query = formSubgraphQuery_Block(query_Graph, limit, Explain_Or_Profile.Profile,
           // spa_predicates, min_pos, ids, NL_hopnum, rtree_node);
           String query = formSubgraphQuery_Block_New(query_Graph, limit,
               Enums.Explain_Or_Profile.Profile, spa_predicates, min_pos, ids);
-          Util.println(query);
-
-          Result result = dbservice.execute(query);
-          get_iterator_time += System.currentTimeMillis() - start_1;
-
-          start_1 = System.currentTimeMillis();
-          int cur_count = 0;
-          while (result.hasNext()) {
-            cur_count++;
-            result.next();
-          }
-          iterate_time += System.currentTimeMillis() - start_1;
-
-          planDescription = result.getExecutionPlanDescription();
-          result_count += cur_count;
-          page_hit_count += OwnMethods.GetTotalDBHits(planDescription);
+          verifyBlock(query, null);
         }
       }
+      if (batchQuery != null && batch.size() > 0) {
+        verifyBlock(batchQuery, batch);
+      }
       Util.println("located in spatial objects count: " + located_in_count);
       candidate_count += located_in_count;
 
@@ -739,6 +854,57 @@ public class SpatialFirst_List {
     // return null;
   }
 
+  /**
+   * Run a block query and track its time, result count and db hits.
+   *
+   * @param query
+   * @param ids value of {@link #blockIdsParameterName} for a batch query. null for a query with
+   *        the ids inlined.
+   */
+  private void verifyBlock(String query, List<Long> ids) {
+    long start = System.currentTimeMillis();
+    long spanStart = PhaseTrace.start();
+    Util.println(query);
+    Result result = ids == null ? dbservice.execute(query)
+        : dbservice.execute(query, Collections.singletonMap(blockIdsParameterName, ids));
+    get_iterator_time += System.currentTimeMillis() - start;
+
+    start = System.currentTimeMillis();
+    int cur_count = 0;
+    while (result.hasNext()) {
+      cur_count++;
+      result.next();
+    }
+    iterate_time += System.currentTimeMillis() - start;
+    trace.stop(QueryPhase.verification, spanStart);
+
+    planDescription = result.getExecutionPlanDescription();
+    result_count += cur_count;
+    page_hit_count += OwnMethods.GetTotalDBHits(planDescription);
+  }
+
+  /**
+   * Whether {@link #statistics} has the spatial histograms of all the spatial query vertexes. Area
+   * and estimated count cannot be compared so either of them is used for all predicates.
+   *
+   * @param query_Graph
+   * @param spatialIds
+   * @return
+   * @throws Exception
+   */
+  private static boolean isStatisticsAvailable(Query_Graph query_Graph, Set<Integer> spatialIds)
+      throws Exception {
+    if (statistics == null) {
+      return false;
+    }
+    for (int spatialId : spatialIds) {
+      if (!statistics.spatialHistograms.containsKey(query_Graph.getLabel(spatialId))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Query function with KNN predicate.
    * 
@@ -748,6 +914,8 @@ public class SpatialFirst_List {
   public ArrayList<Long> LAGAQ_KNN(Query_Graph query_Graph, int K) {
     clearTrackingVariables();
     long totalStart = System.currentTimeMillis();
+    trace.clear();
+    trace.begin();
     try {
       ArrayList<Long> resultIDs = new ArrayList<Long>();
       Map<Integer, MyRectangle> spatialPredicatesMap = query_Graph.getSpatialPredicates();
@@ -929,6 +1097,8 @@ public class SpatialFirst_List {
     try {
       clearTrackingVariables();
       long totalStart = System.currentTimeMillis();
+      trace.clear();
+      trace.begin();
 
       List<Long[]> resultPairs = new LinkedList<Long[]>();
 
@@ -1015,5 +1185,6 @@ public class SpatialFirst_List {
       default:
         throw new Exception(queryType + " does not exist!");
     }
+    trace.publish(RisoTreeQueryPN.metricsRegistry, queryType.name(), QueryPhase.total);
   }
 }
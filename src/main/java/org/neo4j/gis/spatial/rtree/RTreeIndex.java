@@ -225,7 +225,7 @@ public class RTreeIndex implements SpatialIndexWriter {
    */
   private void adjustGraphLoc(Node parent, Map<String, int[]> childLoc) {
     long start = System.currentTimeMillis();
-    HashMap<String, int[]> parentLoc = getLocInGraph(parent);
+    Map<String, int[]> parentLoc = getLocInGraph(parent);
     long startWrite = System.currentTimeMillis();
     adjustGraphLoc(parentLoc, childLoc);
     adjustWriteTime += System.currentTimeMillis() - startWrite;
@@ -272,8 +272,8 @@ public class RTreeIndex implements SpatialIndexWriter {
    */
   private void adjustGraphLoc(Node parent, Node geomNode) {
     long start = System.currentTimeMillis();
-    HashMap<String, int[]> parentLoc = getLocInGraph(parent);
-    Map<String, int[]> childLoc = spatialNodesPathNeighbors.get((int) geomNode.getId());
+    Map<String, int[]> parentLoc = getLocInGraph(parent);
+    Map<String, int[]> childLoc = pathNeighborStore.getSpatialPathNeighbors(geomNode.getId());
     for (String key : childLoc.keySet()) {
       int[] childPN = childLoc.get(key);
 
@@ -357,6 +357,7 @@ public class RTreeIndex implements SpatialIndexWriter {
     // initialize the map for leaf nodes path neighbors
     initializeLeafNodesPathNeighbors();
     this.spatialNodesPathNeighbors = spatialNodesPathNeighbors;
+    this.pathNeighborStore = new ConstructionPathNeighborStore();
     this.graphNodeCount = graphNodeCount;
     this.alpha = alpha;
     this.spatialOnly = Math.abs(alpha - 1) < onlyDecisionThreshold ? true : false;
@@ -382,6 +383,29 @@ public class RTreeIndex implements SpatialIndexWriter {
     }
   }
 
+  /**
+   * Prepare {@link #add(Node, Map)} for the RisoTree insertion into an existing tree. The PN maps
+   * used during the construction do not exist any more, so the caller provides the PNs, e.g., views
+   * over the PN properties of the leaf nodes and the PNs of spatial nodes computed on demand. PNs
+   * are always maintained here. With alpha = 1.0 the GSD is the area enlargement only.
+   *
+   * @param pathNeighborStore
+   * @param graphNodeCount
+   * @param alpha
+   * @param maxPNSize -1 means no limit
+   */
+  public void setPathNeighbors(PathNeighborStore pathNeighborStore, int graphNodeCount,
+      double alpha, int maxPNSize) {
+    this.pathNeighborStore = pathNeighborStore;
+    this.leafNodesPathNeighbors = null;
+    this.spatialNodesPathNeighbors = null;
+    this.graphNodeCount = graphNodeCount;
+    this.alpha = alpha;
+    this.spatialOnly = false;
+    this.graphOnly = Math.abs(alpha - 0) < onlyDecisionThreshold ? true : false;
+    this.MaxPNSize = maxPNSize == -1 ? Integer.MAX_VALUE : maxPNSize;
+  }
+
   private void outputLeafNodesPathNeighors() throws Exception {
     String dir = RTreeIndex.class.getProtectionDomain().getCodeSource().getLocation().getPath();
     String outputPath = dir + alpha;
@@ -1609,7 +1633,7 @@ public class RTreeIndex implements SpatialIndexWriter {
     Node result = null;
     double smallestSGD = Double.MAX_VALUE;
     // Util.println("count: " + indexNodes.size());
-    HashMap<String, int[]> pathNeighbors = getLocInGraph(geomRootNode);
+    Map<String, int[]> pathNeighbors = getLocInGraph(geomRootNode);
     for (Node indexNode : indexNodes) {
       int GD = getExpandGD(indexNode, pathNeighbors);
       double area = getArea(getIndexNodeEnvelope(indexNode));
@@ -1630,10 +1654,9 @@ public class RTreeIndex implements SpatialIndexWriter {
    * @param node
    * @return
    */
-  private HashMap<String, int[]> getLocInGraph(Node node) {
+  private Map<String, int[]> getLocInGraph(Node node) {
     long start = System.currentTimeMillis();
-    HashMap<String, int[]> pathNeighbors =
-        (HashMap<String, int[]>) leafNodesPathNeighbors.get(node.getId());
+    Map<String, int[]> pathNeighbors = pathNeighborStore.getLeafPathNeighbors(node.getId());
     getLocInGraphTime += System.currentTimeMillis() - start;
     return pathNeighbors;
   }
@@ -1649,21 +1672,27 @@ public class RTreeIndex implements SpatialIndexWriter {
     long start = System.currentTimeMillis();
     getGDCount++;
     long indexNodeId = indexNode.getId();
-    Map<String, int[]> indexNodePathNeighbors = leafNodesPathNeighbors.get(indexNodeId);
+    Map<String, int[]> indexNodePathNeighbors = pathNeighborStore.getLeafPathNeighbors(indexNodeId);
     int GD = getExpandGD(indexNodePathNeighbors, pathNeighbors);
     getGDTime += System.currentTimeMillis() - start;
     return GD;
   }
 
+  private int getExpandGD(Map<String, int[]> basePNs, Map<String, int[]> otherPNs) {
+    return getExpandGD(basePNs, otherPNs, MaxPNSize);
+  }
+
   /**
    * Compute the expand if insert @{@code otherPN} into {@code basePN}. (e.g., {@code otherPNs} -
    * {@code basePNs}).
    *
    * @param basePNs
    * @param otherPNs
+   * @param MaxPNSize size counted for an ignored PN
    * @return
    */
-  private int getExpandGD(Map<String, int[]> basePNs, Map<String, int[]> otherPNs) {
+  public static int getExpandGD(Map<String, int[]> basePNs, Map<String, int[]> otherPNs,
+      int MaxPNSize) {
     int expandCount = 0;
     Iterator<Entry<String, int[]>> iterator = otherPNs.entrySet().iterator();
     while (iterator.hasNext()) {
@@ -1915,7 +1944,7 @@ public class RTreeIndex implements SpatialIndexWriter {
       for (Relationship relationship : relationships) {
         Node childNode = relationship.getEndNode();
         long id = childNode.getId();
-        childNodesPNs.put(childNode, spatialNodesPathNeighbors.get((int) id));
+        childNodesPNs.put(childNode, pathNeighborStore.getSpatialPathNeighbors(id));
       }
       return childNodesPNs;
     }
@@ -1926,7 +1955,7 @@ public class RTreeIndex implements SpatialIndexWriter {
       for (Relationship relationship : relationships) {
         Node childnode = relationship.getEndNode();
         long id = childnode.getId();
-        childNodesPNs.put(childnode, leafNodesPathNeighbors.get(id));
+        childNodesPNs.put(childnode, pathNeighborStore.getLeafPathNeighbors(id));
       }
       return childNodesPNs;
     }
@@ -2190,8 +2219,7 @@ public class RTreeIndex implements SpatialIndexWriter {
     // yuhan
     // remove the PN property and reconstruct in addChild() function
     if (!spatialOnly && relationshipType.equals(RTreeRelationshipTypes.RTREE_REFERENCE)) {
-      leafNodesPathNeighbors.remove(indexNode.getId());
-      leafNodesPathNeighbors.put(indexNode.getId(), new HashMap<>());
+      pathNeighborStore.clearLeafPathNeighbors(indexNode.getId());
     }
 
     // LOGGER.info("add group1 into indexNode");
@@ -2205,7 +2233,7 @@ public class RTreeIndex implements SpatialIndexWriter {
 
     // create new node from split
     Node newIndexNode = database.createNode();
-    leafNodesPathNeighbors.put(newIndexNode.getId(), new HashMap<>());
+    pathNeighborStore.clearLeafPathNeighbors(newIndexNode.getId());
     // LOGGER.info("add group2 into newIndexNode");
     for (NodeWithEnvelope entry : group2) {
       // LOGGER
@@ -2279,7 +2307,7 @@ public class RTreeIndex implements SpatialIndexWriter {
     // yuhan
     // only adustGraphLoc when the parent is a leaf node.
     if (spatialOnly == false && type.equals(RTreeRelationshipTypes.RTREE_REFERENCE)) {
-      adjustGraphLoc(parent, spatialNodesPathNeighbors.get((int) newChild.getId()));
+      adjustGraphLoc(parent, pathNeighborStore.getSpatialPathNeighbors(newChild.getId()));
     }
 
     Envelope childEnvelope = getChildNodeEnvelope(newChild, type);
@@ -2541,6 +2569,52 @@ public class RTreeIndex implements SpatialIndexWriter {
 
   public Map<Long, Map<String, int[]>> leafNodesPathNeighbors = null;
   public List<Map<String, int[]>> spatialNodesPathNeighbors = null;
+  private PathNeighborStore pathNeighborStore = null;
+
+  /**
+   * The PNs read and written by the RisoTree insertion.
+   */
+  public interface PathNeighborStore {
+    /**
+     * @param leafId
+     * @return the PNs of a leaf node. Changes to the map are kept as the new PNs of the leaf node.
+     */
+    Map<String, int[]> getLeafPathNeighbors(long leafId);
+
+    /**
+     * Reset the PNs of a leaf node to empty, e.g., for a split before the children are added back.
+     *
+     * @param leafId
+     */
+    void clearLeafPathNeighbors(long leafId);
+
+    /**
+     * @param spatialId
+     * @return the PNs of a spatial node
+     */
+    Map<String, int[]> getSpatialPathNeighbors(long spatialId);
+  }
+
+  /**
+   * {@link PathNeighborStore} over {@link #leafNodesPathNeighbors} and
+   * {@link #spatialNodesPathNeighbors} of the construction.
+   */
+  private class ConstructionPathNeighborStore implements PathNeighborStore {
+    @Override
+    public Map<String, int[]> getLeafPathNeighbors(long leafId) {
+      return leafNodesPathNeighbors.get(leafId);
+    }
+
+    @Override
+    public void clearLeafPathNeighbors(long leafId) {
+      leafNodesPathNeighbors.put(leafId, new HashMap<>());
+    }
+
+    @Override
+    public Map<String, int[]> getSpatialPathNeighbors(long spatialId) {
+      return spatialNodesPathNeighbors.get((int) spatialId);
+    }
+  }
 
   // ******** tracking time *********/
   public long chooseSubTreeTime = 0;
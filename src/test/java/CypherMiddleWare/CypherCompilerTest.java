@@ -0,0 +1,69 @@
+package CypherMiddleWare;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Test;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherCompiler;
+import cypher.middleware.CypherCompiler.CompiledQuery;
+
+public class CypherCompilerTest {
+
+  @Test
+  public void rangeTest() {
+    String query = "match (a0:`heritage designation`)-[b]-(a1:museum)--(a2:A), (a0)--(a2) "
+        + "where 22.18 <= a1.latitude <= 22.22 and 113.50 <= a1.longitude <= 113.56 "
+        + "and a2.name = 'x' return id(a0), id(a1) limit 5";
+    CompiledQuery compiledQuery = CypherCompiler.compile(query);
+    Query_Graph query_Graph = compiledQuery.getQueryGraph();
+    assertArrayEquals(new String[] {"a0", "a1", "a2"}, query_Graph.nodeVariables);
+    assertArrayEquals(new String[] {"heritage designation", "museum", "A"},
+        query_Graph.label_list_string);
+    assertEquals(Arrays.asList(1, 2), query_Graph.graph.get(0));
+    assertEquals(Arrays.asList(0, 2), query_Graph.graph.get(1));
+    assertEquals(Arrays.asList(0, 1), query_Graph.graph.get(2));
+    assertFalse(query_Graph.Has_Spa_Predicate[0]);
+    assertTrue(query_Graph.Has_Spa_Predicate[1]);
+    MyRectangle rectangle = query_Graph.spa_predicate[1];
+    assertEquals(113.50, rectangle.min_x, 0);
+    assertEquals(22.18, rectangle.min_y, 0);
+    assertEquals(113.56, rectangle.max_x, 0);
+    assertEquals(22.22, rectangle.max_y, 0);
+    assertNull(compiledQuery.knnVariable);
+    assertNull(compiledQuery.joinVariables);
+    assertFalse(compiledQuery.getQueryGraphWithoutSpatialPredicate().Has_Spa_Predicate[1]);
+  }
+
+  @Test
+  public void knnAndJoinTest() {
+    CompiledQuery knn = CypherCompiler.compile("match (a0:A)--(a1:B) return id(a0), id(a1) "
+        + "order by distance(a0, point({longitude: -104.4, latitude: 27.1})) limit 5");
+    assertEquals("a0", knn.knnVariable);
+    assertArrayEquals(new double[] {-104.4, 27.1}, knn.knnPoint, 0);
+    assertEquals(5, knn.k);
+
+    CompiledQuery join = CypherCompiler.compile(
+        "match (a0:A)--(a1:B)--(a2:C) where distance(point(a0), a2) <= 0.01 return a0, a2");
+    assertArrayEquals(new String[] {"a0", "a2"}, join.joinVariables);
+    assertEquals(0.01, join.distance, 0);
+  }
+
+  @Test
+  public void cacheTest() {
+    String query = "match (a0:A)--(a1:B) where 1 <= a0.longitude <= 2 and 3 <= a0.latitude <= 4 "
+        + "return a0";
+    assertEquals("match (a0:`A B`)--(a1) return a0",
+        CypherCompiler.normalize("  match  (a0:`A B`)--(a1)\n return a0 "));
+    CompiledQuery compiledQuery = CypherCompiler.getCompiledQuery(query);
+    assertSame(compiledQuery, CypherCompiler.getCompiledQuery(query.replace(" ", "  ")));
+    // the cached skeleton is not changed by the users of the query graph
+    compiledQuery.getQueryGraph().spa_predicate[0] = null;
+    assertEquals(1, compiledQuery.getQueryGraph().spa_predicate[0].min_x, 0);
+  }
+}
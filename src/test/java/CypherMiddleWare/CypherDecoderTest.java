@@ -1,15 +1,22 @@
 package CypherMiddleWare;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import commons.Config;
+import commons.MyRectangle;
 import commons.Neo4jGraphUtility;
 import commons.Query_Graph;
 import commons.Util;
 import cypher.middleware.CypherDecoder;
+import graph.TestRisoTree;
 
 public class CypherDecoderTest {
 
@@ -95,6 +102,26 @@ public class CypherDecoderTest {
 
   }
 
+  @Test
+  public void explainFallbackTest() throws Exception {
+    // the with clause is not supported by the compiler. The explain path needs double literals.
+    String query = String.format("match (a0:A)--(a1:B) with a0, a1 where 0.5 <= a0.%s <= 1.5 "
+        + "and 0.0 <= a0.%s <= 1.0 return id(a0)", Config.longitude_property_name,
+        Config.latitude_property_name);
+    TestRisoTree tree = new TestRisoTree(20);
+    try {
+      Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, tree.service);
+      assertArrayEquals(new String[] {"a0", "a1"}, query_Graph.nodeVariables);
+      assertArrayEquals(new String[] {"A", "B"}, query_Graph.label_list_string);
+      assertEquals(Arrays.asList(1), query_Graph.graph.get(0));
+      assertEquals(new MyRectangle(0.5, 0, 1.5, 1).toString(),
+          query_Graph.spa_predicate[0].toString());
+      assertFalse(query_Graph.Has_Spa_Predicate[1]);
+    } finally {
+      tree.shutdown();
+    }
+  }
+
   // @Test
   // public void getQueryGraphTest() throws Exception {
   // query =
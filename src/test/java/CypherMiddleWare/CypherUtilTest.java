@@ -1,7 +1,14 @@
 package CypherMiddleWare;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
 import commons.Util;
+import cypher.middleware.CypherCompiler;
+import cypher.middleware.CypherCompiler.CompiledQuery;
 import cypher.middleware.CypherUtil;
 
 public class CypherUtilTest {
@@ -13,4 +20,53 @@ public class CypherUtilTest {
     Util.println(CypherUtil.removeWhere(query));
   }
 
+  @Test
+  public void abstractLiteralsTest() {
+    String query = "match (a0:`A 2`)--(a1:B {id: 3}) where -104.4 <= a0.longitude <= -104.3 "
+        + "and 27 <= a0.latitude <= 27.2 and a1.name = 'x 1' return id(a0), a1.v-1 limit 10";
+    List<String> literals = new ArrayList<>();
+    List<Integer> offsets = new ArrayList<>();
+    assertEquals("match (a0:`A 2`)--(a1:B {id: $p0}) where $p1 <= a0.longitude <= $p2 "
+        + "and $p3 <= a0.latitude <= $p4 and a1.name = 'x 1' return id(a0), a1.v-$p5 limit $p6",
+        CypherUtil.abstractLiterals(query, "p", literals, offsets));
+    assertEquals(Arrays.asList("3", "-104.4", "-104.3", "27", "27.2", "1", "10"), literals);
+    assertEquals(query.indexOf("-104.4"), (int) offsets.get(1));
+
+    // the offsets agree with the positions of the range literals in the AST
+    CompiledQuery compiledQuery = CypherCompiler.compile(query);
+    assertArrayEquals(new int[] {offsets.get(1), offsets.get(3), offsets.get(2), offsets.get(4)},
+        compiledQuery.spatialPredicateOffsets.get("a0"));
+  }
+
+  @Test
+  public void getNonSpatialPredicatesTest() {
+    String query = "match (a0:A)--(a1:B) where -104.4 <= a0.longitude <= -104.3 and a1.name = "
+        + "'x and y' and 27 <= a0.latitude <= 27.2 AND (a1.v = 1 and  a1.w = 2) return id(a0)";
+    assertEquals(Arrays.asList("a1.name = 'x and y'", "(a1.v = 1 and a1.w = 2)"),
+        CypherUtil.getNonSpatialPredicates(query));
+    assertEquals(Arrays.asList(),
+        CypherUtil.getNonSpatialPredicates("match (a0:A)--(a1:B) return id(a0)"));
+  }
+
+  @Test
+  public void splitClausesTest() {
+    assertArrayEquals(new String[] {"MATCH (a0:A)--(a1:B)", "a1.v = 1 OR a1.w = 2", "id(a0)"},
+        CypherUtil.splitClauses("MATCH (a0:A)--(a1:B) WHERE a1.v = 1 OR a1.w = 2 RETURN id(a0)"));
+    assertArrayEquals(new String[] {"match (a0:A)--(a1:B)", "", "id(a0) as a0"},
+        CypherUtil.splitClauses("match (a0:A)--(a1:B) return id(a0) as a0"));
+  }
+
+  @Test
+  public void splitQueryPartsTest() {
+    String query = "match (a0:A)--(a1:B) where -104.4 <= a0.longitude <= -104.3 and a1.v = 1 "
+        + "and 27 <= a0.latitude <= 27.2 and a1.name <> 'x' return id(a0)";
+    assertArrayEquals(
+        new String[] {"match (a0:A)--(a1:B)", "id(a0)", "(a1.v = 1) and (a1.name <> 'x')"},
+        CypherUtil.splitQueryParts(query));
+    assertEquals("match (a0:A)--(a1:B) where (a1.v = 1) and (a1.name <> 'x') return id(a0)",
+        CypherUtil.removeSpatialPredicates(query));
+    assertEquals("match (a0:A)--(a1:B) return id(a0)", CypherUtil.removeSpatialPredicates(
+        "match (a0:A)--(a1:B) where -104.4 <= a0.longitude <= -104.3 return id(a0)"));
+  }
+
 }
@@ -0,0 +1,73 @@
+package bloomfilter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class BlockedBloomFilterTest {
+
+  private static BlockedBloomFilter build() {
+    BlockedBloomFilter bf = new BlockedBloomFilter(1000, 0.05, 5000);
+    for (int i = 0; i < 1000; i++) {
+      bf.add(i * 7);
+    }
+    return bf;
+  }
+
+  @Test
+  public void containsTest() {
+    BlockedBloomFilter bf = build();
+    assertEquals(1000, bf.getElementsCount());
+    int falsePositiveCount = 0;
+    for (int i = 0; i < 7000; i++) {
+      if (i % 7 == 0) {
+        assertTrue(bf.contains(i));
+      } else if (bf.contains(i)) {
+        falsePositiveCount++;
+      }
+    }
+    assertTrue(falsePositiveCount < 6000 * 0.1);
+  }
+
+  @Test
+  public void batchTest() {
+    BlockedBloomFilter bf = build();
+    int[] keys = new int[100];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = i * 7;
+    }
+    assertTrue(bf.containsAll(keys));
+    assertArrayEquals(keys, bf.filter(keys));
+
+    int[] mixed = new int[] {0, 1, 2, 7, 8, 14};
+    int[] filtered = bf.filter(mixed);
+    for (int key : mixed) {
+      boolean inFiltered = false;
+      for (int id : filtered) {
+        inFiltered |= id == key;
+      }
+      assertEquals(bf.contains(key), inFiltered);
+    }
+  }
+
+  @Test
+  public void viewTest() {
+    BlockedBloomFilter bf = build();
+    BlockedBloomFilter arrayView = BlockedBloomFilter.wrap(bf.toLongArray(), 5000);
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(bf.getSizeInBytes() + 8);
+    buffer.putLong(-1L);
+    bf.writeTo(buffer);
+    buffer.position(8);
+    BlockedBloomFilter bufferView = BlockedBloomFilter.wrap(buffer, 5000);
+
+    assertEquals(bf.getBlockCount(), bufferView.getBlockCount());
+    assertEquals(bf.getNumOfHash(), bufferView.getNumOfHash());
+    for (int i = 0; i < 7000; i++) {
+      assertEquals(bf.contains(i), arrayView.contains(i));
+      assertEquals(bf.contains(i), bufferView.contains(i));
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package bloomfilter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class ReachabilityBloomFilterTest {
+
+  private static List<List<Integer>> randomGraph(Random random) {
+    int n = 1 + random.nextInt(60);
+    List<List<Integer>> graph = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      graph.add(new ArrayList<>());
+    }
+    int edgeCount = random.nextInt(n * 2 + 1);
+    for (int i = 0; i < edgeCount; i++) {
+      graph.get(random.nextInt(n)).add(random.nextInt(n));
+    }
+    return graph;
+  }
+
+  private static boolean[] bfs(List<List<Integer>> graph, int source) {
+    boolean[] visited = new boolean[graph.size()];
+    Deque<Integer> queue = new ArrayDeque<>();
+    queue.add(source);
+    visited[source] = true;
+    while (!queue.isEmpty()) {
+      for (int neighbor : graph.get(queue.poll())) {
+        if (!visited[neighbor]) {
+          visited[neighbor] = true;
+          queue.add(neighbor);
+        }
+      }
+    }
+    return visited;
+  }
+
+  @Test
+  public void reachTest() {
+    Random random = new Random(1);
+    for (int t = 0; t < 100; t++) {
+      List<List<Integer>> graph = randomGraph(random);
+      ReachabilityBloomFilter index = ReachabilityBloomFilter.build(graph);
+      for (int u = 0; u < graph.size(); u++) {
+        boolean[] reachable = bfs(graph, u);
+        for (int v = 0; v < graph.size(); v++) {
+          assertEquals(reachable[v], index.reach(u, v));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void bidirectionalTest() {
+    Random random = new Random(3);
+    for (int t = 0; t < 100; t++) {
+      List<List<Integer>> graph = randomGraph(random);
+      for (int u = 0; u < graph.size(); u++) {
+        for (int v : new ArrayList<>(graph.get(u))) {
+          graph.get(v).add(u);
+        }
+      }
+      ReachabilityBloomFilter index = ReachabilityBloomFilter.build(graph);
+      assertTrue(index.isConnectivityOnly());
+      for (int u = 0; u < graph.size(); u++) {
+        boolean[] reachable = bfs(graph, u);
+        for (int v = 0; v < graph.size(); v++) {
+          assertEquals(reachable[v], index.getComponent(u) == index.getComponent(v));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void writeReadTest() throws Exception {
+    List<List<Integer>> graph = randomGraph(new Random(2));
+    ReachabilityBloomFilter index = ReachabilityBloomFilter.build(graph);
+    File file = File.createTempFile("reachability", ".bin");
+    file.deleteOnExit();
+    index.write(file.getAbsolutePath());
+    ReachabilityBloomFilter read = ReachabilityBloomFilter.read(file.getAbsolutePath());
+    assertEquals(index.getSccCount(), read.getSccCount());
+    for (int u = 0; u < graph.size(); u++) {
+      for (int v = 0; v < graph.size(); v++) {
+        assertEquals(index.reach(u, v), read.reach(u, v));
+      }
+    }
+  }
+}
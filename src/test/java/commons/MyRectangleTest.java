@@ -39,4 +39,12 @@ public class MyRectangleTest {
     assertTrue(!r1.isSame(r2));
   }
 
+  @Test
+  public void containsTest() {
+    MyRectangle rectangle = new MyRectangle(0, 0, 10, 10);
+    assertTrue(rectangle.contains(new MyRectangle(1, 1, 10, 9)));
+    assertTrue(!rectangle.contains(new MyRectangle(-1, 1, 5, 5)));
+    assertTrue(rectangle.contains(new MyPoint(0, 10)));
+    assertTrue(!rectangle.contains(new MyPoint(5, 10.1)));
+  }
 }
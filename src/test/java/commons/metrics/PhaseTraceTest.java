@@ -0,0 +1,61 @@
+package commons.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.List;
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import commons.Enums.QueryPhase;
+import commons.ReadWriteUtil;
+
+public class PhaseTraceTest {
+
+  @Test
+  public void publishTest() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    PhaseTrace<QueryPhase> trace = new PhaseTrace<>("test", QueryPhase.class);
+    for (int i = 0; i < 3; i++) {
+      trace.clear();
+      trace.begin();
+      long start = PhaseTrace.start();
+      Thread.sleep(1);
+      trace.stop(QueryPhase.decode, start);
+      // spans of a phase are accumulated within a request. A span is recorded even if it is
+      // shorter than the timer resolution.
+      start = PhaseTrace.start();
+      trace.stop(QueryPhase.verification, start);
+      start = PhaseTrace.start();
+      trace.stop(QueryPhase.verification, start);
+      trace.publish(registry, "LAGAQ_RANGE", QueryPhase.total);
+      assertEquals(0, trace.getNanos(QueryPhase.decode));
+    }
+
+    Histogram decode = registry.getHistogram("test.LAGAQ_RANGE.decode");
+    assertEquals(3, decode.getTotalCount());
+    assertTrue(decode.getMinValue() >= 900000);
+    assertEquals(3, registry.getHistogram("test.LAGAQ_RANGE.verification").getTotalCount());
+    Histogram total = registry.getHistogram("test.LAGAQ_RANGE.total");
+    assertTrue(total.getMinValue() >= decode.getMinValue());
+    assertNull(registry.getHistogram("test.LAGAQ_RANGE.set_label"));
+  }
+
+  @Test
+  public void fileExporterTest() throws Exception {
+    File file = File.createTempFile("metrics", ".txt");
+    file.delete();
+    file.deleteOnExit();
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.addExporter(new FileMetricsExporter(file.getAbsolutePath()));
+    registry.record("test.decode", 1000);
+    registry.record("test.decode", 3000);
+    registry.export();
+    registry.export();
+    List<String> lines = ReadWriteUtil.readFileAllLines(file.getAbsolutePath());
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(0).startsWith("timestamp\tname\tcount"));
+    assertEquals("test.decode", lines.get(1).split("\t")[1]);
+    assertEquals("2", lines.get(1).split("\t")[2]);
+  }
+}
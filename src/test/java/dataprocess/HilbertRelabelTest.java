@@ -0,0 +1,86 @@
+package dataprocess;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import commons.Entity;
+import commons.ReadWriteUtil;
+
+public class HilbertRelabelTest {
+
+  private static Entity entity(int id, boolean isSpatial, double lon, double lat) {
+    Entity entity = new Entity(id);
+    entity.IsSpatial = isSpatial;
+    entity.lon = lon;
+    entity.lat = lat;
+    return entity;
+  }
+
+  @Test
+  public void hilbertIndexTest() {
+    // order 1: (0, 0) -> (0, 1) -> (1, 1) -> (1, 0)
+    assertEquals(0, HilbertRelabel.hilbertIndex(1, 0, 0));
+    assertEquals(1, HilbertRelabel.hilbertIndex(1, 0, 1));
+    assertEquals(2, HilbertRelabel.hilbertIndex(1, 1, 1));
+    assertEquals(3, HilbertRelabel.hilbertIndex(1, 1, 0));
+    assertEquals(15, HilbertRelabel.hilbertIndex(2, 3, 0));
+    assertEquals(8, HilbertRelabel.hilbertIndex(2, 2, 2));
+  }
+
+  @Test
+  public void computeNewIdsTest() {
+    // 0 and 2 are spatial, 1 is a neighbor of 2, 3 of 0, 4 and 5 are not reachable.
+    List<List<Integer>> graph = new ArrayList<>();
+    graph.add(Arrays.asList(3));
+    graph.add(Arrays.asList(2));
+    graph.add(Arrays.asList(1));
+    graph.add(Arrays.asList(0));
+    graph.add(Arrays.asList(5));
+    graph.add(Arrays.asList(4));
+    List<Entity> entities = Arrays.asList(entity(0, true, 10, 10), entity(1, false, 0, 0),
+        entity(2, true, 0, 0), entity(3, false, 0, 0), entity(4, false, 0, 0),
+        entity(5, false, 0, 0));
+    int[] newIds = HilbertRelabel.computeNewIds(graph, entities);
+    assertArrayEquals(new int[] {2, 1, 0, 3, 4, 5}, newIds);
+
+    ArrayList<ArrayList<Integer>> newGraph = HilbertRelabel.relabelGraph(graph, newIds);
+    assertEquals(Arrays.asList(1), newGraph.get(0));
+    assertEquals(Arrays.asList(3), newGraph.get(2));
+    ArrayList<Entity> newEntities = HilbertRelabel.relabelEntities(entities, newIds);
+    assertEquals(0, newEntities.get(0).id);
+    assertEquals(0, newEntities.get(0).lon, 0);
+    assertEquals(10, newEntities.get(2).lon, 0);
+  }
+
+  @Test
+  public void relabelSideFilesTest() throws Exception {
+    int[] newIds = {2, 1, 0};
+    File idMap = File.createTempFile("id_map", ".txt");
+    idMap.deleteOnExit();
+    HilbertRelabel.writeIdMap(newIds, idMap.getAbsolutePath());
+    assertArrayEquals(newIds, HilbertRelabel.readIdMap(idMap.getAbsolutePath()));
+
+    File edges = File.createTempFile("graph_property_edge", ".txt");
+    edges.deleteOnExit();
+    ReadWriteUtil.WriteFile(edges.getAbsolutePath(), false, "0,P1,1\n2,P2,0\n");
+    File output = File.createTempFile("graph_property_edge_relabel", ".txt");
+    output.deleteOnExit();
+    HilbertRelabel.relabelColumns(edges.getAbsolutePath(), newIds, output.getAbsolutePath(), 0,
+        2);
+    assertEquals(Arrays.asList("2,P1,1", "0,P2,2"),
+        ReadWriteUtil.readFileAllLines(output.getAbsolutePath()));
+
+    // the entity map stays sorted by the graph id
+    File entityMap = File.createTempFile("entity_map", ".txt");
+    entityMap.deleteOnExit();
+    ReadWriteUtil.WriteFile(entityMap.getAbsolutePath(), false, "0,100\n1,101\n2,102\n");
+    HilbertRelabel.relabelSortedMap(entityMap.getAbsolutePath(), newIds,
+        output.getAbsolutePath());
+    assertEquals(Arrays.asList("0,102", "1,101", "2,100"),
+        ReadWriteUtil.readFileAllLines(output.getAbsolutePath()));
+  }
+}
@@ -0,0 +1,83 @@
+package dataprocess;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.List;
+import org.junit.Test;
+import commons.ChunkedFileReader;
+import commons.ReadWriteUtil;
+
+public class WikidataDumpPipelineTest {
+
+  private static String entity(int QId) {
+    return "<http://www.wikidata.org/entity/Q" + QId + ">";
+  }
+
+  private static String property(int PId) {
+    return "<http://www.wikidata.org/prop/direct/P" + PId + ">";
+  }
+
+  private static File writeDump() throws Exception {
+    File file = File.createTempFile("dump", ".nt");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(entity(26) + " " + property(17) + " " + entity(5) + " .\n");
+    writer.write(entity(26) + " " + property(31) + " " + entity(9) + " .\n");
+    writer.write(
+        entity(26) + " <http://www.w3.org/2000/01/rdf-schema#label> \"Belfast\"@en-gb .\n");
+    writer.write(entity(26) + " <http://www.w3.org/2000/01/rdf-schema#label> \"Belfast city\"@en .\n");
+    writer.write(entity(5) + " " + property(17) + " " + entity(26) + " .\n");
+    writer.write(entity(5) + " " + property(17) + " " + entity(7) + " .\n");
+    writer.write(entity(5) + " " + property(1082) + " \"1000\" .\n");
+    writer.write(entity(7) + " <http://www.w3.org/2000/01/rdf-schema#label> \"Seven\"@en .\n");
+    writer.close();
+    return file;
+  }
+
+  private static List<String> run(File dump, long chunkSize, int threadCount) throws Exception {
+    String mapPath = dump.getAbsolutePath() + ".map";
+    String labelPath = dump.getAbsolutePath() + ".label";
+    String graphPath = dump.getAbsolutePath() + ".graph";
+    new WikidataDumpPipeline(dump.getAbsolutePath(), mapPath, threadCount, chunkSize)
+        .addExtractor(new WikidataDumpPipeline.StringLabelExtractor(labelPath))
+        .addExtractor(new WikidataDumpPipeline.EntityRelationExtractor(graphPath)).run();
+    List<String> lines = ReadWriteUtil.readFileAllLines(mapPath);
+    lines.addAll(ReadWriteUtil.readFileAllLines(labelPath));
+    lines.addAll(ReadWriteUtil.readFileAllLines(graphPath));
+    for (String path : new String[] {mapPath, labelPath, graphPath}) {
+      new File(path).delete();
+    }
+    return lines;
+  }
+
+  @Test
+  public void extractTest() throws Exception {
+    File dump = writeDump();
+    List<String> lines = run(dump, ChunkedFileReader.defaultChunkSize, 1);
+    // entity map: subjects in order, then the leaf Q9 ('instance of' objects are still entities).
+    assertEquals("0,26", lines.get(0));
+    assertEquals("1,5", lines.get(1));
+    assertEquals("2,7", lines.get(2));
+    assertEquals("3,9", lines.get(3));
+    // labels: the exact @en label is preferred.
+    assertEquals("0,Belfast city", lines.get(4));
+    assertEquals("2,Seven", lines.get(5));
+    // single-direction graph without 'instance of'.
+    assertEquals("4", lines.get(6));
+    assertEquals("0,1,1", lines.get(7));
+    assertEquals("1,2,0,2", lines.get(8));
+    assertEquals("2,0", lines.get(9));
+    assertEquals("3,0", lines.get(10));
+  }
+
+  @Test
+  public void chunkBoundaryTest() throws Exception {
+    File dump = writeDump();
+    List<String> expected = run(dump, ChunkedFileReader.defaultChunkSize, 1);
+    // tiny chunks split every subject across chunks.
+    for (long chunkSize : new long[] {1, 50, 200}) {
+      assertEquals(expected, run(dump, chunkSize, 4));
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import commons.Enums.ExperimentMethod;
+import commons.Enums.QueryStatistic;
+import commons.Query_Graph;
+import cypher.middleware.CypherDecoder;
+
+public class CostBasedRouterTest {
+
+  private TestRisoTree tree;
+
+  @Before
+  public void setUp() throws Exception {
+    tree = new TestRisoTree(400);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    RisoTreeQueryPN.newLabelUsed = false;
+    tree.shutdown();
+  }
+
+  @Test
+  public void chooseMethodTest() throws Exception {
+    CostBasedRouter router = new CostBasedRouter(tree.service, TestRisoTree.layerName, 1);
+    // a small range with the frequent label B is cheaper by the RisoTree
+    String query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B");
+    Query_Graph query_Graph = CypherDecoder.getQueryGraph(query, tree.service);
+    assertEquals(ExperimentMethod.RISOTREE, router.chooseMethod(query_Graph));
+    double idParameterCost = router.costs.get(ExperimentMethod.RISOTREE);
+
+    // verification by labels costs more than by id parameters
+    RisoTreeQueryPN.newLabelUsed = true;
+    router.chooseMethod(query_Graph);
+    assertTrue(router.costs.get(ExperimentMethod.RISOTREE) > idParameterCost);
+    RisoTreeQueryPN.newLabelUsed = false;
+
+    // the label C has only 8 vertexes
+    query_Graph = CypherDecoder.getQueryGraph(TestRisoTree.rangeQuery(0, 0, 19, 19, "C"),
+        tree.service);
+    assertEquals(ExperimentMethod.NAIVE, router.chooseMethod(query_Graph));
+  }
+
+  @Test
+  public void statisticsTest() throws Exception {
+    try {
+      RisoTreeQueryPN.statistics =
+          SelectivityStatistics.build(tree.service, TestRisoTree.layerName, 4);
+      CostBasedRouter router = new CostBasedRouter(tree.service, TestRisoTree.layerName, 1);
+      Query_Graph query_Graph = CypherDecoder
+          .getQueryGraph(TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B"), tree.service);
+      assertEquals(ExperimentMethod.RISOTREE, router.chooseMethod(query_Graph));
+      query_Graph = CypherDecoder.getQueryGraph(TestRisoTree.rangeQuery(0, 0, 19, 19, "C"),
+          tree.service);
+      assertEquals(ExperimentMethod.NAIVE, router.chooseMethod(query_Graph));
+      // the 8 candidates of PN_A_C over all the leaf nodes
+      assertEquals(8 * (CostBasedRouter.risoTreeCandidateCost
+          + CostBasedRouter.risoTreeIdParameterCost) + 20 * CostBasedRouter.risoTreeLeafCost,
+          router.costs.get(ExperimentMethod.RISOTREE), 1e-6);
+    } finally {
+      RisoTreeQueryPN.statistics = null;
+    }
+  }
+
+  @Test
+  public void queryTest() throws Exception {
+    CostBasedRouter router = new CostBasedRouter(tree.service, TestRisoTree.layerName, 1);
+    String query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B");
+    router.query(query);
+    assertEquals(ExperimentMethod.RISOTREE, router.chosenMethod);
+    assertEquals(4L, router.getQueryStatisticMap().get(QueryStatistic.result_count));
+    assertEquals(tree.countNaive(query),
+        router.getQueryStatisticMap().get(QueryStatistic.result_count));
+  }
+}
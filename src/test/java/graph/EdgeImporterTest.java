@@ -0,0 +1,57 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class EdgeImporterTest {
+
+  private static File writeFile(String content) throws Exception {
+    File file = File.createTempFile("edges", ".txt");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(content);
+    writer.close();
+    return file;
+  }
+
+  private static List<String> importEdges(EdgeImporter importer, File file,
+      EdgeImporter.EdgeParser parser) throws Exception {
+    List<String> edges = new ArrayList<>();
+    importer.importEdges(file.getAbsolutePath(), parser, (startId, typeId, endId) -> edges
+        .add(String.format("%d,%d,%s", startId, endId, importer.getTypeName(typeId))));
+    return edges;
+  }
+
+  @Test
+  public void sortTest() throws Exception {
+    File file = writeFile("3,P1,0\n1,P2,3\n3,P2,1\n0,P1,2\n1,P1,0\n");
+    List<String> expected = new ArrayList<>();
+    expected.add("0,2,P1");
+    expected.add("1,3,P2");
+    expected.add("1,0,P1");
+    expected.add("3,0,P1");
+    expected.add("3,1,P2");
+
+    EdgeImporter inMemory = new EdgeImporter(2);
+    assertEquals(expected, importEdges(inMemory, file, inMemory.getTripleParser()));
+
+    // runs of 2 edges force the external merge. Edges of the same start keep the file order.
+    EdgeImporter external = new EdgeImporter(2, 2, file.getParentFile().getAbsolutePath());
+    assertEquals(expected, importEdges(external, file, external.getTripleParser()));
+    assertEquals(5, external.getImportedCount());
+  }
+
+  @Test
+  public void graphParserTest() throws Exception {
+    File file = writeFile("3\n0,2,1,2\n1,1,0\n2,1,0\n");
+    EdgeImporter importer = new EdgeImporter(1);
+    List<String> edges = importEdges(importer, file, importer.getGraphParser(new int[] {5, 4, 3}));
+    assertEquals(2, edges.size());
+    assertEquals("5,4,GRAPH_LINK", edges.get(0));
+    assertEquals("5,3,GRAPH_LINK", edges.get(1));
+  }
+}
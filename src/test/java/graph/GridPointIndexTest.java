@@ -0,0 +1,98 @@
+package graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.mutable.MutableBoolean;
+import org.junit.Test;
+import commons.MyPoint;
+import commons.MyRectangle;
+
+public class GridPointIndexTest {
+
+  /**
+   * 4 * 4 cells of size 1. Points 0, 1 in cell 0, point 2 in cell 1 and point 3 in cell 15.
+   */
+  private static GridPointIndex createIndex() {
+    GridPointIndex index = new GridPointIndex(new MyRectangle(0, 0, 4, 4), 4);
+    assertEquals(0, index.addPoint(0, 0.2, 0.2));
+    assertEquals(0, index.addPoint(1, 0.8, 0.8));
+    assertEquals(1, index.addPoint(2, 1.5, 0.5));
+    assertEquals(15, index.addPoint(3, 4, 4));
+    index.setPathNeighbors(0, "PN_A_B", new int[] {10, 11});
+    index.setPathNeighbors(1, "PN_A_B", new int[] {11, 12});
+    index.setPathNeighbors(15, "PN_A", new int[] {});
+    return index;
+  }
+
+  @Test
+  public void rangeTest() {
+    GridPointIndex index = createIndex();
+    Map<String, Set<String>> pathsAndShorterPaths = new HashMap<>();
+    pathsAndShorterPaths.put("PN_A_B", new HashSet<>(Arrays.asList("PN_A")));
+    assertEquals(Arrays.asList(0, 1),
+        index.getOverlapCells(new MyRectangle(0, 0, 1.5, 1.5), pathsAndShorterPaths));
+    // PN_A_B is ignored by the shorter path PN_A
+    assertEquals(Arrays.asList(15),
+        index.getOverlapCells(new MyRectangle(3, 3, 5, 5), pathsAndShorterPaths));
+
+    MutableBoolean complete = new MutableBoolean(true);
+    Set<String> labelPaths = new HashSet<>(Arrays.asList("PN_A_B"));
+    assertEquals(Arrays.asList(10L, 11L, 12L),
+        index.getCandidates(Arrays.asList(0, 1), labelPaths, complete));
+    assertTrue(complete.booleanValue());
+    index.getCandidates(Arrays.asList(0, 15), labelPaths, complete);
+    assertFalse(complete.booleanValue());
+
+    // an empty intersection stays empty and complete
+    index.setPathNeighbors(1, "PN_A_C", new int[] {12});
+    index.setPathNeighbors(1, "PN_A_D", new int[] {11});
+    complete.setValue(true);
+    labelPaths = new LinkedHashSet<>(Arrays.asList("PN_A_C", "PN_A_D", "PN_A_B"));
+    assertEquals(Arrays.asList(), index.getCandidates(Arrays.asList(1), labelPaths, complete));
+    assertTrue(complete.booleanValue());
+  }
+
+  @Test
+  public void knnAndJoinTest() {
+    GridPointIndex index = createIndex();
+    List<Long> ids = new ArrayList<>();
+    Iterator<Long> iterator = index.nearestPoints(new MyPoint(2, 0.5), Arrays.asList("PN_A_B"));
+    while (iterator.hasNext()) {
+      ids.add(iterator.next());
+    }
+    assertEquals(Arrays.asList(2L, 1L, 0L), ids);
+
+    List<long[]> pairs =
+        index.distanceJoin(1, Arrays.asList("PN_A_B"), Arrays.asList("PN_A_B"), id -> id != 1,
+            id -> true);
+    // (2, 0) is out of the distance and the left point 1 is filtered
+    assertEquals(2, pairs.size());
+    assertArrayEquals(new long[] {0, 1}, pairs.get(0));
+    assertArrayEquals(new long[] {2, 1}, pairs.get(1));
+  }
+
+  @Test
+  public void writeReadTest() throws Exception {
+    GridPointIndex index = createIndex();
+    File file = File.createTempFile("grid_point_index", ".txt");
+    file.deleteOnExit();
+    index.write(file.getAbsolutePath());
+    GridPointIndex read = GridPointIndex.read(file.getAbsolutePath());
+    assertEquals(4, read.getPointCount());
+    assertEquals(3, read.getCellCount());
+    assertArrayEquals(new int[] {11, 12}, read.getPathNeighbors(1, "PN_A_B"));
+    assertArrayEquals(new int[] {}, read.getPathNeighbors(15, "PN_A"));
+  }
+}
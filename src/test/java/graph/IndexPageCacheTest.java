@@ -0,0 +1,151 @@
+package graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+import commons.Config;
+import commons.Enums.QueryStatistic;
+import graph.IndexPageCache.Page;
+
+public class IndexPageCacheTest {
+
+  private File dbDir;
+  private GraphDatabaseService service;
+  private long rootId, leafId;
+
+  @Before
+  public void setUp() throws Exception {
+    dbDir = Files.createTempDirectory("index_page_cache").toFile();
+    service = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+    try (Transaction tx = service.beginTx()) {
+      Node root = service.createNode();
+      root.setProperty(Config.BBoxName, new double[] {0, 0, 10, 10});
+      Node leaf = service.createNode();
+      leaf.setProperty(Config.BBoxName, new double[] {0, 0, 5, 5});
+      leaf.setProperty("PN_A_B", new int[] {1, 3});
+      Node spatial = service.createNode();
+      root.createRelationshipTo(leaf, RTreeRelationshipTypes.RTREE_CHILD);
+      leaf.createRelationshipTo(spatial, RTreeRelationshipTypes.RTREE_REFERENCE);
+      rootId = root.getId();
+      leafId = leaf.getId();
+      tx.success();
+    }
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    service.shutdown();
+    FileUtils.deleteRecursively(dbDir);
+  }
+
+  @Test
+  public void getPageTest() {
+    IndexPageCache cache = new IndexPageCache(10, 0);
+    try (Transaction tx = service.beginTx()) {
+      Page root = cache.getPage(service.getNodeById(rootId));
+      assertFalse(root.isLeaf);
+      assertArrayEquals(new long[] {leafId}, root.childIds);
+      Page leaf = cache.getPage(service.getNodeById(leafId));
+      assertTrue(leaf.isLeaf);
+      assertEquals(0, leaf.childIds.length);
+      assertArrayEquals(new double[] {0, 0, 5, 5}, leaf.bbox, 0);
+      assertArrayEquals(new int[] {1, 3}, (int[]) leaf.getProperty("PN_A_B", null));
+      assertEquals(null, leaf.getProperty("PN_A_C", null));
+      assertSame(leaf, cache.getPage(service.getNodeById(leafId)));
+      assertEquals(1, cache.hitCount);
+      assertEquals(2, cache.missCount);
+
+      cache.invalidate(leafId);
+      assertNotSame(leaf, cache.getPage(service.getNodeById(leafId)));
+      tx.success();
+    }
+  }
+
+  @Test
+  public void capacityAndResetTest() {
+    IndexPageCache cache = new IndexPageCache(1, 1000000);
+    try (Transaction tx = service.beginTx()) {
+      long start = System.nanoTime();
+      cache.getPage(service.getNodeById(rootId));
+      cache.getPage(service.getNodeById(leafId));
+      // each miss is charged the penalty
+      assertTrue(System.nanoTime() - start >= 2000000);
+      assertEquals(1, cache.size());
+      cache.getPage(service.getNodeById(rootId));
+      assertEquals(3, cache.missCount);
+
+      cache.setCapacity(0);
+      assertEquals(0, cache.size());
+      cache.setCapacity(10);
+      cache.getPage(service.getNodeById(rootId));
+      cache.reset();
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.hitCount);
+      assertEquals(0, cache.missCount);
+      tx.success();
+    }
+  }
+
+  @Test
+  public void invalidateDuringReadTest() throws Exception {
+    // the miss penalty keeps the read in progress while the page is invalidated
+    IndexPageCache cache = new IndexPageCache(10, 500000000);
+    Thread reader = new Thread(() -> {
+      try (Transaction tx = service.beginTx()) {
+        cache.getPage(service.getNodeById(leafId));
+        tx.success();
+      }
+    });
+    reader.start();
+    Thread.sleep(100);
+    cache.invalidate(leafId);
+    reader.join();
+    assertEquals(0, cache.size());
+
+    try (Transaction tx = service.beginTx()) {
+      cache.getPage(service.getNodeById(leafId));
+      assertEquals(1, cache.size());
+      tx.success();
+    }
+  }
+
+  @Test
+  public void queryTest() throws Exception {
+    TestRisoTree tree = new TestRisoTree(400);
+    IndexPageCache cache = IndexPageCache.getDatabaseCache(tree.service);
+    try {
+      RisoTreeQueryPN.indexPageCacheUsed = true;
+      cache.reset();
+      String query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B");
+      RisoTreeQueryPN risoTreeQueryPN =
+          new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+      risoTreeQueryPN.queryWithIgnore(query);
+      assertEquals(4L, risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count));
+      long missCount = cache.missCount;
+      assertTrue(missCount > 0);
+
+      // the second run reads the index only from the cache
+      risoTreeQueryPN.queryWithIgnore(query);
+      assertEquals(4L, risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count));
+      assertEquals(missCount, cache.missCount);
+    } finally {
+      RisoTreeQueryPN.indexPageCacheUsed = false;
+      cache.reset();
+      tree.shutdown();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.Iterators;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+
+public class IndexWarmUpTest {
+
+  private TestRisoTree tree;
+
+  @Before
+  public void setUp() throws Exception {
+    tree = new TestRisoTree(400);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    IndexWarmUp.warmUpOnOpen = false;
+    RisoTreeQueryPN.indexPageCacheUsed = false;
+    RisoTreeQueryPN.pathUsageUsed = false;
+    RisoTreeQueryPN.pathUsage.clear();
+    tree.shutdown();
+  }
+
+  @Test
+  public void warmUpTest() throws Exception {
+    IndexWarmUp warmUp = new IndexWarmUp(tree.service, TestRisoTree.layerName);
+    IndexWarmUp.Report report = warmUp.warmUp(Arrays.asList("PN_A_B", "PN_A_C"), 4, 60000);
+    assertTrue(report.complete);
+    assertEquals(1, report.internalNodeCount);
+    assertEquals(20, report.leafNodeCount);
+    // PN_A_B is in all the 20 leaf nodes and PN_A_C in the 8 rows with a multiple of 50
+    assertEquals(28, report.pnCount);
+  }
+
+  @Test
+  public void budgetTest() throws Exception {
+    IndexWarmUp warmUp = new IndexWarmUp(tree.service, TestRisoTree.layerName);
+    // the deadline is already passed, so nothing is touched
+    IndexWarmUp.Report report = warmUp.warmUp(Arrays.asList("PN_A_B"), 4, -1);
+    assertFalse(report.complete);
+    assertEquals(0, report.internalNodeCount);
+    assertEquals(0, report.leafNodeCount);
+    assertEquals(0, report.pnCount);
+  }
+
+  @Test
+  public void warmUpOnOpenTest() throws Exception {
+    RisoTreeQueryPN.indexPageCacheUsed = true;
+    IndexPageCache pageCache = IndexPageCache.getDatabaseCache(tree.service);
+    new RisoTreeQueryService(tree.service, TestRisoTree.layerName, 1, 2, 10).shutdown();
+    assertEquals(0, pageCache.size());
+
+    IndexWarmUp.warmUpOnOpen = true;
+    new RisoTreeQueryService(tree.service, TestRisoTree.layerName, 1, 2, 10).shutdown();
+    // the root and the 20 leaf nodes
+    assertEquals(21, pageCache.size());
+    // only once for each layer
+    assertNull(IndexWarmUp.warmUpOnce(tree.service, TestRisoTree.layerName, 2));
+    // a missing layer is logged rather than thrown
+    assertNull(IndexWarmUp.warmUpOnce(tree.service, "missing", 2));
+  }
+
+  @Test
+  public void procedureWarmUpTest() throws Exception {
+    RisoTreeQueryPN.indexPageCacheUsed = true;
+    ((GraphDatabaseAPI) tree.service).getDependencyResolver().resolveDependency(Procedures.class)
+        .registerProcedure(RisoTreeProcedures.class);
+    IndexPageCache pageCache = IndexPageCache.getDatabaseCache(tree.service);
+    rangeMatch();
+    long coldHitCount = pageCache.hitCount;
+
+    IndexPageCache.resetAll();
+    IndexWarmUp.warmUpOnOpen = true;
+    rangeMatch();
+    // the first call warms up the root and the 20 leaf nodes, then its query hits them
+    assertEquals(coldHitCount + 21, pageCache.hitCount);
+    assertNull(IndexWarmUp.warmUpOnce(tree.service, TestRisoTree.layerName, 2));
+  }
+
+  private void rangeMatch() {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("layer", TestRisoTree.layerName);
+    parameters.put("query", "match (a0:`A`)--(a1:`B`) return id(a0) as a0, id(a1) as a1");
+    try (Transaction tx = tree.service.beginTx()) {
+      Result result = tree.service.execute(
+          "call riso.rangeMatch($layer, $query, {a0: [0, 0, 1.5, 1.5]}, -1, 1) yield row "
+              + "return row", parameters);
+      assertEquals(4, Iterators.count(result));
+      tx.success();
+    }
+  }
+
+  @Test
+  public void pathUsageTest() throws Exception {
+    RisoTreeQueryPN.pathUsage.clear();
+    String query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B");
+    RisoTreeQueryPN risoTreeQueryPN =
+        new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+    risoTreeQueryPN.queryWithIgnore(query);
+    assertEquals(0, RisoTreeQueryPN.pathUsage.getCount("PN_A_B"));
+
+    RisoTreeQueryPN.pathUsageUsed = true;
+    risoTreeQueryPN.queryWithIgnore(query);
+    assertEquals(1, RisoTreeQueryPN.pathUsage.getCount("PN_A_B"));
+    // the hot paths are the recorded PN_A and PN_A_B which are in all the 20 leaf nodes
+    assertEquals(Arrays.asList("PN_A", "PN_A_B"), RisoTreeQueryPN.pathUsage.getHotPaths(10));
+    IndexWarmUp.Report report =
+        new IndexWarmUp(tree.service, TestRisoTree.layerName).warmUp(1);
+    assertTrue(report.complete);
+    assertEquals(40, report.pnCount);
+  }
+}
@@ -0,0 +1,102 @@
+package graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+public class LeafPathCacheTest {
+
+  private File dbDir;
+  private GraphDatabaseService service;
+
+  @Before
+  public void setUp() throws Exception {
+    dbDir = Files.createTempDirectory("leaf_path_cache").toFile();
+    service = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    service.shutdown();
+    FileUtils.deleteRecursively(dbDir);
+  }
+
+  @Test
+  public void getPutTest() {
+    LeafPathCache cache = new LeafPathCache(2);
+    String pathKey = LeafPathCache.formPathKey(Arrays.asList("PN_A_C", "PN_A_B"));
+    assertEquals(pathKey, LeafPathCache.formPathKey(Arrays.asList("PN_A_B", "PN_A_C")));
+
+    assertNull(cache.getContainDecision(1, pathKey));
+    cache.putContainDecision(1, pathKey, true);
+    assertTrue(cache.getContainDecision(1, pathKey));
+    assertEquals(1, cache.hitCount);
+    assertEquals(1, cache.missCount);
+
+    assertNull(cache.getCandidates(1, pathKey));
+    cache.putCandidates(1, pathKey, new int[] {1, 2, 3});
+    assertArrayEquals(new int[] {1, 2, 3}, cache.getCandidates(1, pathKey));
+
+    // leaf 2 is evicted as the least recently used one
+    cache.putContainDecision(2, pathKey, false);
+    cache.getContainDecision(1, pathKey);
+    cache.putContainDecision(3, pathKey, false);
+    assertEquals(2, cache.size());
+    assertNull(cache.getContainDecision(2, pathKey));
+
+    cache.invalidate(1);
+    assertNull(cache.getCandidates(1, pathKey));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void bindDeltaLogTest() throws Exception {
+    File logFile = File.createTempFile("pn_delta", ".log");
+    logFile.delete();
+    logFile.deleteOnExit();
+    LeafPathCache cache = new LeafPathCache(10);
+    cache.bindDeltaLog(null);
+    cache.putCandidates(1, "PN_A_B", new int[] {1});
+    cache.bindDeltaLog(null);
+    assertEquals(1, cache.size());
+
+    PNDeltaLog deltaLog = new PNDeltaLog(logFile.getAbsolutePath(), -1);
+    try {
+      cache.bindDeltaLog(deltaLog);
+      assertEquals(0, cache.size());
+    } finally {
+      deltaLog.close(service);
+    }
+  }
+
+  @Test
+  public void layerCacheTest() {
+    LeafPathCache layer1 = LeafPathCache.getLayerCache(service, "layer1");
+    LeafPathCache layer2 = LeafPathCache.getLayerCache(service, "layer2");
+    assertSame(layer1, LeafPathCache.getLayerCache(service, "layer1"));
+    assertNotSame(layer1, layer2);
+
+    layer1.putContainDecision(1, "PN_A_B", true);
+    assertNull(layer2.getContainDecision(1, "PN_A_B"));
+    layer2.putContainDecision(1, "PN_A_B", false);
+    layer2.putContainDecision(2, "PN_A_B", false);
+
+    LeafPathCache.invalidateLeaf(1);
+    assertEquals(0, layer1.size());
+    assertEquals(1, layer2.size());
+    LeafPathCache.clearAll();
+    assertEquals(0, layer2.size());
+  }
+}
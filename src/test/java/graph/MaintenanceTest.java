@@ -1,21 +1,38 @@
 package graph;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.TreeSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.gis.spatial.Layer;
+import org.neo4j.gis.spatial.SpatialDatabaseService;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterator;
 import org.neo4j.graphdb.Result;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+import commons.Config;
+import commons.RTreeUtility;
+import commons.RisoTreeUtil;
 import commons.Util;
 
 public class MaintenanceTest {
@@ -139,6 +156,102 @@ public class MaintenanceTest {
     assertEquals(2, labelId);
   }
 
+  /**
+   * Insert 11 spatial nodes into an empty layer whose leaf nodes hold at most 10 children, so the
+   * last insertion splits the leaf, then delete one. Spatial nodes have label A and each has a
+   * neighbor with label B.
+   */
+  @Test
+  public void addDeleteSpatialNodeTest() throws Exception {
+    File dbDir = Files.createTempDirectory("maintenance").toFile();
+    GraphDatabaseService service = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+    String layerName = "test";
+    try {
+      List<Long> ids = new ArrayList<>();
+      try (Transaction tx = service.beginTx()) {
+        Layer layer = new SpatialDatabaseService(service).createSimplePointLayer(layerName,
+            Config.longitude_property_name, Config.latitude_property_name);
+        layer.getLayerNode()
+            .getSingleRelationship(RTreeRelationshipTypes.RTREE_METADATA, Direction.OUTGOING)
+            .getEndNode().setProperty("maxNodeReferences", 10);
+        for (int i = 0; i < 11; i++) {
+          Node node = service.createNode(Label.label("A"));
+          node.setProperty(Config.longitude_property_name, (double) i);
+          node.setProperty(Config.latitude_property_name, (double) i);
+          node.createRelationshipTo(service.createNode(Label.label("B")),
+              RelationshipType.withName("GRAPH_LINK"));
+          ids.add(node.getId());
+        }
+        tx.success();
+      }
+
+      RisoTreeMaintenance maintenance = new RisoTreeMaintenance(service, 1, -1, false, null);
+      for (int i = 0; i < 10; i++) {
+        try (Transaction tx = service.beginTx()) {
+          maintenance.addSpatialNode(layerName, ids.get(i), 1.0);
+          tx.success();
+        }
+      }
+      checkLeafPathNeighbors(service, layerName, 1, 10);
+
+      // the leaf node is full
+      try (Transaction tx = service.beginTx()) {
+        maintenance.addSpatialNode(layerName, ids.get(10), 1.0);
+        tx.success();
+      }
+      checkLeafPathNeighbors(service, layerName, 2, 11);
+
+      try (Transaction tx = service.beginTx()) {
+        maintenance.deleteSpatialNode(layerName, ids.get(10));
+        tx.success();
+      }
+      checkLeafPathNeighbors(service, layerName, 2, 10);
+    } finally {
+      service.shutdown();
+      FileUtils.deleteRecursively(dbDir);
+    }
+  }
+
+  /**
+   * Check that the PN_A and PN_A_B of each leaf node are exactly the ones of its children.
+   */
+  private static void checkLeafPathNeighbors(GraphDatabaseService service, String layerName,
+      int leafCount, int spatialCount) throws Exception {
+    try (Transaction tx = service.beginTx()) {
+      List<Node> leafNodes = RTreeUtility.getRTreeLeafLevelNodes(service, layerName);
+      assertEquals(leafCount, leafNodes.size());
+      int count = 0;
+      for (Node leafNode : leafNodes) {
+        TreeSet<Integer> spatialIds = new TreeSet<>();
+        TreeSet<Integer> neighborIds = new TreeSet<>();
+        for (Relationship relationship : leafNode.getRelationships(Direction.OUTGOING,
+            RTreeRelationshipTypes.RTREE_REFERENCE)) {
+          Node spatialNode = relationship.getEndNode();
+          spatialIds.add((int) spatialNode.getId());
+          for (Relationship edge : spatialNode.getRelationships(
+              RelationshipType.withName("GRAPH_LINK"))) {
+            neighborIds.add((int) edge.getOtherNode(spatialNode).getId());
+          }
+        }
+        count += spatialIds.size();
+        checkPathNeighbor(leafNode, "PN_A", spatialIds);
+        checkPathNeighbor(leafNode, "PN_A_B", neighborIds);
+      }
+      assertEquals(spatialCount, count);
+      tx.success();
+    }
+  }
+
+  private static void checkPathNeighbor(Node leafNode, String pnName, TreeSet<Integer> ids) {
+    int[] expected = new int[ids.size()];
+    int i = 0;
+    for (int id : ids) {
+      expected[i++] = id;
+    }
+    assertArrayEquals(expected, (int[]) leafNode.getProperty(pnName));
+    assertEquals(expected.length, leafNode.getProperty(RisoTreeUtil.getPNSizeName(pnName)));
+  }
+
   @Test
   public void getReversePropertyNameTest() {
     String[] labelStrings = new String[] {"0", "10", "1"};
@@ -0,0 +1,168 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import bloomfilter.ReachabilityBloomFilter;
+import commons.Config;
+import commons.Enums.QueryStatistic;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherCompiler;
+
+public class MultiPredicateQueryTest {
+
+  private static TestRisoTree tree;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    tree = new TestRisoTree(400);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    tree.shutdown();
+  }
+
+  /**
+   * Two spatial nodes sharing a neighbor with label D. The candidates of a1 come from both spatial
+   * predicates.
+   */
+  private static String formQuery(double[] rect0, double[] rect2) {
+    return String.format("match (a0:A)--(a1:D)--(a2:A) where %s and %s return id(a0), id(a2)",
+        formPredicate("a0", rect0), formPredicate("a2", rect2));
+  }
+
+  private static String formPredicate(String variable, double[] rect) {
+    return String.format("%s <= %s.%s <= %s and %s <= %s.%s <= %s", rect[0], variable,
+        Config.longitude_property_name, rect[2], rect[1], variable, Config.latitude_property_name,
+        rect[3]);
+  }
+
+  private static long count(Object queryMethod, String query) throws Exception {
+    if (queryMethod instanceof RisoTreeQueryPN) {
+      RisoTreeQueryPN risoTreeQueryPN = (RisoTreeQueryPN) queryMethod;
+      risoTreeQueryPN.queryWithIgnore(query);
+      return (long) risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count);
+    }
+    Naive_Neo4j_Match naive_Neo4j_Match = (Naive_Neo4j_Match) queryMethod;
+    naive_Neo4j_Match.query(query);
+    return (long) naive_Neo4j_Match.getQueryStatisticMap().get(QueryStatistic.result_count);
+  }
+
+  @Test
+  public void queryTest() throws Exception {
+    RisoTreeQueryPN risoTreeQueryPN =
+        new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+    Naive_Neo4j_Match naive_Neo4j_Match = new Naive_Neo4j_Match(tree.service);
+    // overlapping, adjacent and disjoint ranges
+    List<double[][]> rects = Arrays.asList(
+        new double[][] {{0, 0, 3.5, 0.5}, {2, 0, 6.5, 0.5}},
+        new double[][] {{0, 0, 3.5, 0.5}, {4, 0, 6.5, 0.5}},
+        new double[][] {{0, 0, 19, 0.5}, {0, 1, 19, 1.5}},
+        new double[][] {{0, 0, 3.5, 0.5}, {10, 10, 12, 12}});
+    long[] expected = new long[] {4, 1, 1, 0};
+    for (int i = 0; i < rects.size(); i++) {
+      String query = formQuery(rects.get(i)[0], rects.get(i)[1]);
+      assertEquals(query, expected[i], count(naive_Neo4j_Match, query));
+      assertEquals(query, expected[i], count(risoTreeQueryPN, query));
+    }
+  }
+
+  /**
+   * Build a reachability index on the directed graph edges, where the ids are the neo4j ids.
+   *
+   * @param excludedSource whose edges are not indexed. -1 to index all the edges.
+   */
+  private static void setReachabilityIndex(long excludedSource) {
+    List<List<Integer>> graph = new ArrayList<>();
+    Map<Long, Integer> idMap = new HashMap<>();
+    try (Transaction tx = tree.service.beginTx()) {
+      for (Node node : tree.service.getAllNodes()) {
+        idMap.put(node.getId(), (int) node.getId());
+        while (graph.size() <= node.getId()) {
+          graph.add(new ArrayList<>());
+        }
+        if (node.getId() == excludedSource) {
+          continue;
+        }
+        for (Relationship relationship : node.getRelationships(Direction.OUTGOING,
+            TestRisoTree.edgeType)) {
+          graph.get((int) node.getId()).add((int) relationship.getEndNode().getId());
+        }
+      }
+      tx.success();
+    }
+    RisoTreeQueryPN.reachabilityIndex = ReachabilityBloomFilter.build(graph);
+    RisoTreeQueryPN.reachabilityIdMap = idMap;
+  }
+
+  @Test
+  public void reachabilityTest() throws Exception {
+    RisoTreeQueryPN risoTreeQueryPN =
+        new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+    try {
+      // a0 and a2 both link to a1, so neither of them reaches the other
+      setReachabilityIndex(-1);
+      String query = formQuery(new double[] {0, 0, 3.5, 0.5}, new double[] {2, 0, 6.5, 0.5});
+      assertEquals(4, count(risoTreeQueryPN, query));
+
+      // the spatial node without indexed edge cannot reach any candidate of a1
+      setReachabilityIndex(tree.spatialIds.get(0));
+      query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B");
+      assertEquals(3, count(risoTreeQueryPN, query));
+    } finally {
+      RisoTreeQueryPN.reachabilityIndex = null;
+      RisoTreeQueryPN.reachabilityIdMap = null;
+    }
+  }
+
+  @Test
+  public void orderUnseenLabelTest() throws Exception {
+    RisoTreeQueryPN risoTreeQueryPN =
+        new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+    // Z has pn statistics but no histogram
+    SelectivityStatistics statistics = new SelectivityStatistics(new MyRectangle(0, 0, 20, 20), 4);
+    for (int i = 0; i < 20; i++) {
+      statistics.addSpatialObject("A", i + 0.5, i + 0.5);
+    }
+    statistics.addPNSize("PNSize_A_D", 100);
+    statistics.addPNSize("PNSize_Z_D", 100);
+    statistics.leafCount = 1;
+    String query = String.format("match (a0:Z)--(a1:D)--(a2:A) where %s and %s return id(a0)",
+        formPredicate("a0", new double[] {0, 0, 3.5, 0.5}),
+        formPredicate("a2", new double[] {0, 0, 19, 19}));
+    Query_Graph query_Graph = CypherCompiler.compile(query).getQueryGraph();
+    Map<Integer, MyRectangle> spa_predicates = new LinkedHashMap<>();
+    spa_predicates.put(0, query_Graph.spa_predicate[0]);
+    spa_predicates.put(2, query_Graph.spa_predicate[2]);
+    try {
+      RisoTreeQueryPN.statistics = statistics;
+      Map<Integer, MyRectangle> ordered = risoTreeQueryPN.orderSpatialPredicates(query_Graph,
+          spa_predicates, risoTreeQueryPN.recognizePaths(query_Graph));
+      assertEquals(Arrays.asList(2, 0), new ArrayList<>(ordered.keySet()));
+    } finally {
+      RisoTreeQueryPN.statistics = null;
+    }
+  }
+
+  @Test
+  public void intersectCandidatesTest() {
+    assertEquals(Arrays.asList(2L, 5L, 9L), RisoTreeQueryPN.intersectCandidates(
+        Arrays.asList(1L, 2L, 5L, 9L), new HashSet<>(Arrays.asList(9L, 5L, 2L, 3L))));
+    assertEquals(Arrays.asList(), RisoTreeQueryPN.intersectCandidates(Arrays.asList(1L),
+        new HashSet<>(Arrays.asList(2L))));
+  }
+}
@@ -0,0 +1,110 @@
+package graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+
+public class PNDeltaLogTest {
+
+  private static File logFile() throws Exception {
+    File file = File.createTempFile("pn_delta", ".log");
+    file.delete();
+    file.deleteOnExit();
+    return file;
+  }
+
+  @Test
+  public void mergeTest() throws Exception {
+    File file = logFile();
+    PNDeltaLog log = new PNDeltaLog(file.getAbsolutePath(), -1);
+    log.add(10, "PN_A_B", new int[] {3, 7});
+    log.add(10, "PN_A_B", new int[] {9});
+    log.remove(10, "PN_A_B", new int[] {1, 9});
+    assertArrayEquals(new int[] {2, 3, 5, 7}, log.merge(10, "PN_A_B", new int[] {1, 2, 5}));
+    // other PN, absent and ignored PN are not changed.
+    assertArrayEquals(new int[] {1, 2}, log.merge(10, "PN_A", new int[] {1, 2}));
+    assertArrayEquals(new int[] {1}, log.merge(11, "PN_A_B", new int[] {1}));
+    assertNull(log.merge(10, "PN_A_C", null));
+    assertEquals(0, log.merge(10, "PN_A_B", new int[0]).length);
+    assertEquals(1, log.getPendingLeafCount());
+  }
+
+  @Test
+  public void replayTest() throws Exception {
+    File file = logFile();
+    PNDeltaLog log = new PNDeltaLog(file.getAbsolutePath(), -1);
+    log.add(10, "PN_A_B", new int[] {3, 7});
+    log.remove(10, "PN_A_B", new int[] {3});
+    log.add(12, "PN_A", new int[] {4});
+
+    PNDeltaLog replayed = new PNDeltaLog(file.getAbsolutePath(), -1);
+    assertEquals(2, replayed.getPendingLeafCount());
+    assertArrayEquals(log.merge(10, "PN_A_B", new int[] {1, 3}),
+        replayed.merge(10, "PN_A_B", new int[] {1, 3}));
+    assertArrayEquals(new int[] {1, 4}, replayed.merge(12, "PN_A", new int[] {1}));
+  }
+
+  @Test
+  public void dropLeafTest() throws Exception {
+    File file = logFile();
+    PNDeltaLog log = new PNDeltaLog(file.getAbsolutePath(), -1);
+    log.add(10, "PN_A_B", new int[] {3});
+    log.add(12, "PN_A", new int[] {4});
+    log.dropLeaf(10);
+    assertArrayEquals(new int[] {1}, log.merge(10, "PN_A_B", new int[] {1}));
+    assertEquals(1, log.getPendingLeafCount());
+
+    PNDeltaLog replayed = new PNDeltaLog(file.getAbsolutePath(), -1);
+    assertEquals(1, replayed.getPendingLeafCount());
+    assertArrayEquals(new int[] {1}, replayed.merge(10, "PN_A_B", new int[] {1}));
+  }
+
+  @Test
+  public void compactTest() throws Exception {
+    File dbDir = Files.createTempDirectory("pn_delta").toFile();
+    GraphDatabaseService service = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+    try {
+      long leafId, deletedLeafId;
+      try (Transaction tx = service.beginTx()) {
+        Node leaf = service.createNode();
+        leaf.setProperty("PN_A_B", new int[] {1, 2});
+        leaf.setProperty("PN_A_C", new int[] {1, 2});
+        leafId = leaf.getId();
+        deletedLeafId = service.createNode().getId();
+        tx.success();
+      }
+      PNDeltaLog log = new PNDeltaLog(logFile().getAbsolutePath(), 3);
+      log.add(leafId, "PN_A_B", new int[] {3});
+      log.add(leafId, "PN_A_C", new int[] {3, 4});
+      log.add(deletedLeafId, "PN_A_B", new int[] {3});
+      try (Transaction tx = service.beginTx()) {
+        service.getNodeById(deletedLeafId).delete();
+        tx.success();
+      }
+
+      // the deleted leaf node is skipped
+      assertEquals(2, log.compact(service));
+      assertEquals(0, log.getPendingLeafCount());
+      try (Transaction tx = service.beginTx()) {
+        Node leaf = service.getNodeById(leafId);
+        // a PN of maxPNSize is kept as the construction does
+        assertArrayEquals(new int[] {1, 2, 3}, (int[]) leaf.getProperty("PN_A_B"));
+        assertEquals(3, leaf.getProperty("PNSize_A_B"));
+        assertEquals(0, ((int[]) leaf.getProperty("PN_A_C")).length);
+        tx.success();
+      }
+      log.close(service);
+    } finally {
+      service.shutdown();
+      FileUtils.deleteRecursively(dbDir);
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class PathUsageStatisticsTest {
+
+  @Test
+  public void hotPathsTest() throws Exception {
+    PathUsageStatistics statistics = new PathUsageStatistics();
+    statistics.record("PN_A_B");
+    statistics.record("PN_A");
+    statistics.record("PN_A_B");
+    statistics.add("PN_C", 5);
+    assertEquals(Arrays.asList("PN_C", "PN_A_B"), statistics.getHotPaths(2));
+    assertEquals(3, statistics.getHotPaths(10).size());
+
+    File file = File.createTempFile("path_usage", ".txt");
+    file.deleteOnExit();
+    statistics.write(file.getAbsolutePath());
+    PathUsageStatistics read = new PathUsageStatistics();
+    read.read(file.getAbsolutePath());
+    assertEquals(statistics.snapshot(), read.snapshot());
+    assertEquals(0, read.getCount("PN_D"));
+  }
+}
@@ -0,0 +1,171 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import commons.Enums.QueryStatistic;
+import commons.MyPoint;
+import commons.MyRectangle;
+import commons.Query_Graph;
+import cypher.middleware.CypherCompiler;
+
+public class QueryResultCacheTest {
+
+  private static final String shapeKey = "a:A[1]S;b:B[0]; return id(a), id(b)";
+
+  private static Map<Integer, MyRectangle> rectangles(MyRectangle rectangle) {
+    Map<Integer, MyRectangle> rectangles = new HashMap<>();
+    rectangles.put(0, rectangle);
+    return rectangles;
+  }
+
+  private static void addRow(List<Map<String, Object>> rows, List<Map<Integer, MyPoint>> locations,
+      long id, double x, double y) {
+    Map<String, Object> row = new HashMap<>();
+    row.put("id(a)", id);
+    rows.add(row);
+    Map<Integer, MyPoint> location = new HashMap<>();
+    location.put(0, new MyPoint(x, y));
+    locations.add(location);
+  }
+
+  @Test
+  public void containmentReuseTest() {
+    QueryResultCache cache = new QueryResultCache(100);
+    List<Map<String, Object>> rows = new ArrayList<>();
+    List<Map<Integer, MyPoint>> locations = new ArrayList<>();
+    addRow(rows, locations, 1, 1, 1);
+    addRow(rows, locations, 2, 5, 5);
+    addRow(rows, locations, 3, 9, 9);
+    cache.put(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10)), rows, locations);
+
+    assertEquals(3, cache.get(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10))).size());
+    assertEquals(1, cache.exactHitCount);
+
+    List<Map<String, Object>> filtered =
+        cache.get(shapeKey, rectangles(new MyRectangle(4, 4, 10, 10)));
+    assertEquals(2, filtered.size());
+    assertEquals(1, cache.containHitCount);
+
+    assertNull(cache.get(shapeKey, rectangles(new MyRectangle(4, 4, 11, 10))));
+    assertNull(cache.get("other", rectangles(new MyRectangle(4, 4, 10, 10))));
+
+    cache.invalidate();
+    assertNull(cache.get(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10))));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void unmodifiableRowsTest() {
+    QueryResultCache cache = new QueryResultCache(100);
+    List<Map<String, Object>> rows = new ArrayList<>();
+    List<Map<Integer, MyPoint>> locations = new ArrayList<>();
+    addRow(rows, locations, 1, 1, 1);
+    cache.put(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10)), rows, locations);
+    // the list of the caller is copied
+    rows.clear();
+    List<Map<String, Object>> cached =
+        cache.get(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10)));
+    assertEquals(1, cached.size());
+    cached.clear();
+  }
+
+  @Test
+  public void shapeKeyTest() {
+    String range = "-104.4 <= a0.longitude <= -104.3 and 27 <= a0.latitude <= 27.2";
+    String query1 = "match (a0:A)--(a1:B) where " + range + " and a1.name = 'x' and a1.v = 1 "
+        + "return id(a0), id(a1)";
+    String query2 = "match (a0:A)--(a1:B) where a1.v = 1 and " + range + " and a1.name = 'x' "
+        + "return id(a0), id(a1)";
+    String query3 = "match (a0:A)--(a1:B) where " + range + " and a1.name = 'y' and a1.v = 1 "
+        + "return id(a0), id(a1)";
+    String key1 = QueryResultCache.formShapeKey(query1, getQueryGraph(query1));
+    assertEquals(key1, QueryResultCache.formShapeKey(query2, getQueryGraph(query2)));
+    assertNotEquals(key1, QueryResultCache.formShapeKey(query3, getQueryGraph(query3)));
+  }
+
+  private static Query_Graph getQueryGraph(String query) {
+    return CypherCompiler.getCompiledQuery(query).getQueryGraph();
+  }
+
+  @Test
+  public void evictionTest() {
+    QueryResultCache cache = new QueryResultCache(3);
+    for (int i = 0; i < 3; i++) {
+      List<Map<String, Object>> rows = new ArrayList<>();
+      List<Map<Integer, MyPoint>> locations = new ArrayList<>();
+      addRow(rows, locations, i, i, i);
+      addRow(rows, locations, i + 10, i, i);
+      cache.put(shapeKey, rectangles(new MyRectangle(i, i, i, i)), rows, locations);
+    }
+    assertEquals(1, cache.size());
+    assertNull(cache.get(shapeKey, rectangles(new MyRectangle(0, 0, 0, 0))));
+  }
+
+  @Test
+  public void invalidateDuringQueryTest() {
+    QueryResultCache cache = new QueryResultCache(100);
+    List<Map<String, Object>> rows = new ArrayList<>();
+    List<Map<Integer, MyPoint>> locations = new ArrayList<>();
+    addRow(rows, locations, 1, 1, 1);
+    long epoch = cache.getEpoch();
+    // an update between running the query and caching its result
+    cache.invalidate();
+    cache.put(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10)), rows, locations, epoch);
+    assertEquals(0, cache.size());
+    cache.put(shapeKey, rectangles(new MyRectangle(0, 0, 10, 10)), rows, locations,
+        cache.getEpoch());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void layerCacheTest() throws Exception {
+    TestRisoTree tree1 = new TestRisoTree(20);
+    TestRisoTree tree2 = new TestRisoTree(20);
+    try {
+      QueryResultCache cache = QueryResultCache.getLayerCache(tree1.service, "layer1");
+      assertSame(cache, QueryResultCache.getLayerCache(tree1.service, "layer1"));
+      assertNotSame(cache, QueryResultCache.getLayerCache(tree1.service, "layer2"));
+      assertNotSame(cache, QueryResultCache.getLayerCache(tree2.service, "layer1"));
+    } finally {
+      tree1.shutdown();
+      tree2.shutdown();
+    }
+  }
+
+  @Test
+  public void limitedQueryTest() throws Exception {
+    TestRisoTree tree = new TestRisoTree(400);
+    try {
+      RisoTreeQueryPN.resultCacheUsed = true;
+      QueryResultCache cache = QueryResultCache.getLayerCache(tree.service, TestRisoTree.layerName);
+      RisoTreeQueryPN risoTreeQueryPN =
+          new RisoTreeQueryPN(tree.service, TestRisoTree.layerName, 1);
+      // the LIMIT on another line keeps only 4 of the 400 rows
+      String query = TestRisoTree.rangeQuery(0, 0, 19, 19, "B") + "\nLIMIT 4";
+      risoTreeQueryPN.queryWithIgnore(query);
+      assertEquals(4L, risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count));
+
+      // the 4 matches of the contained rectangle are not filtered from the 4 rows
+      query = TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B") + "\nLIMIT 4";
+      risoTreeQueryPN.queryWithIgnore(query);
+      assertEquals(4L, risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count));
+      assertEquals(0, cache.containHitCount);
+
+      // without the limit the contained rectangle is answered from the cache
+      risoTreeQueryPN.queryWithIgnore(TestRisoTree.rangeQuery(0, 0, 19, 19, "B"));
+      risoTreeQueryPN.queryWithIgnore(TestRisoTree.rangeQuery(0, 0, 1.5, 1.5, "B"));
+      assertEquals(4L, risoTreeQueryPN.getQueryStatisticMap().get(QueryStatistic.result_count));
+      assertEquals(1, cache.containHitCount);
+    } finally {
+      RisoTreeQueryPN.resultCacheUsed = false;
+      tree.shutdown();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import commons.MyRectangle;
+import graph.QueryTemplateCache.BoundQuery;
+
+public class QueryTemplateCacheTest {
+
+  private static final String format = "match (a0:`hill`)--(a1:B) where %s <= a0.longitude <= %s "
+      + "and %s <= a0.latitude <= %s return id(a0), id(a1) limit %d";
+
+  @Test
+  public void bindTest() {
+    QueryTemplateCache cache = new QueryTemplateCache(10);
+    BoundQuery first = cache.bind(String.format(format, "-104.5", "-104.3", "27.0", "27.2", 10));
+    BoundQuery second =
+        cache.bind(String.format(format, "-80.1", "-80.1", "26.18", "26.19", 5).replace(" ", "  "));
+    assertSame(first.template, second.template);
+    assertNotSame(first.query_Graph, second.query_Graph);
+    assertEquals(1, cache.hitCount);
+    assertEquals(1, cache.missCount);
+
+    assertTrue(second.query_Graph.Has_Spa_Predicate[0]);
+    assertFalse(second.query_Graph.Has_Spa_Predicate[1]);
+    MyRectangle rectangle = second.query_Graph.spa_predicate[0];
+    assertEquals(-80.1, rectangle.min_x, 0);
+    assertEquals(26.18, rectangle.min_y, 0);
+    assertEquals(-80.1, rectangle.max_x, 0);
+    assertEquals(26.19, rectangle.max_y, 0);
+    assertEquals(-104.5, first.query_Graph.spa_predicate[0].min_x, 0);
+
+    // the where clause is removed and the limit is a parameter
+    assertArrayEquals(new String[] {"match (a0:`hill`)--(a1:B)", "id(a0), id(a1) limit $"
+        + QueryTemplateCache.literalParameterPrefix + "4", ""}, second.template.queryParts);
+    assertEquals(5L, second.parameters.get(QueryTemplateCache.literalParameterPrefix + "4"));
+    assertEquals(1, second.template.minHop[0][1]);
+
+    // the non-spatial predicates are kept with their literals as parameters
+    BoundQuery third = cache.bind("match (a0:`hill`)--(a1:B) where -1 <= a0.longitude <= 1 "
+        + "and 0 <= a0.latitude <= 1 and a1.v = 3 return id(a0)");
+    assertEquals("(a1.v = $" + QueryTemplateCache.literalParameterPrefix + "4)",
+        third.template.queryParts[2]);
+    assertEquals(3L, third.parameters.get(QueryTemplateCache.literalParameterPrefix + "4"));
+  }
+
+  @Test
+  public void notTemplatedTest() {
+    QueryTemplateCache cache = new QueryTemplateCache(10);
+    assertEquals(null, cache.bind("match (a0:A)--(a1:B) return id(a0), id(a1)"));
+    assertEquals(0, cache.size());
+  }
+}
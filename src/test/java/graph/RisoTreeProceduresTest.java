@@ -0,0 +1,95 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.proc.Procedures;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
+import commons.MyRectangle;
+
+public class RisoTreeProceduresTest {
+
+  @Test
+  public void formRangeQueryTest() {
+    Map<String, MyRectangle> rectangles = new LinkedHashMap<>();
+    rectangles.put("a0", new MyRectangle(-104.44265, 0.00001, -104.36119, 27.1));
+    String query = "match (a0:`hill`),(a1:`B`),(a0)--(a1) return id(a0),id(a1)";
+    String predicates = String.format(
+        "-104.44265 <= a0.%s <= -104.36119 and 0.00001 <= a0.%s <= 27.1",
+        RisoTreeQueryPN.lon_name, RisoTreeQueryPN.lat_name);
+    assertEquals(
+        "match (a0:`hill`),(a1:`B`),(a0)--(a1) where " + predicates
+            + " return id(a0),id(a1) limit 10",
+        RisoTreeProcedures.formRangeQuery(query, rectangles, 10));
+    assertEquals(
+        "match (a0:`hill`),(a1:`B`),(a0)--(a1) where (a1.name = 'x') and " + predicates
+            + " return id(a0),id(a1)",
+        RisoTreeProcedures.formRangeQuery(
+            "match (a0:`hill`),(a1:`B`),(a0)--(a1) where a1.name = 'x' return id(a0),id(a1)",
+            rectangles, -1));
+    assertEquals(
+        "MATCH (a0:`hill`)--(a1:`B`) where (a1.name = 'x' OR a1.name = 'y') and " + predicates
+            + " return id(a0)",
+        RisoTreeProcedures.formRangeQuery(
+            "MATCH (a0:`hill`)--(a1:`B`) WHERE a1.name = 'x' OR a1.name = 'y' RETURN id(a0)",
+            rectangles, -1));
+  }
+
+  @Test
+  public void rangeMatchTest() throws Exception {
+    TestRisoTree tree = new TestRisoTree(400);
+    try {
+      ((GraphDatabaseAPI) tree.service).getDependencyResolver().resolveDependency(Procedures.class)
+          .registerProcedure(RisoTreeProcedures.class);
+      String call = "call riso.rangeMatch($layer, $query, {a0: [0, 0, 1.5, 1.5]}, -1, 1) "
+          + "yield row return row";
+      String query = "match (a0:`A`)--(a1:`B`) return id(a0) as a0, id(a1) as a1";
+      assertEquals(4, rangeMatch(tree, call, query).size());
+
+      // the non-spatial predicate is kept by the verification
+      long excluded = tree.spatialIds.get(0);
+      query = "match (a0:`A`)--(a1:`B`) where id(a0) <> " + excluded
+          + " return id(a0) as a0, id(a1) as a1";
+      for (boolean queryTemplateCacheUsed : new boolean[] {false, true}) {
+        RisoTreeQueryPN.queryTemplateCacheUsed = queryTemplateCacheUsed;
+        Set<Long> ids = rangeMatch(tree, call, query);
+        assertEquals(3, ids.size());
+        assertEquals(false, ids.contains(excluded));
+      }
+
+      // the disjunction is not bound to the spatial predicates
+      long outOfRange = tree.spatialIds.get(100);
+      query = String.format("MATCH (a0:`A`)--(a1:`B`) WHERE id(a0) = %d OR id(a0) = %d "
+          + "RETURN id(a0) AS a0, id(a1) AS a1", excluded, outOfRange);
+      assertEquals(Collections.singleton(excluded), rangeMatch(tree, call, query));
+    } finally {
+      RisoTreeQueryPN.queryTemplateCacheUsed = false;
+      tree.shutdown();
+    }
+  }
+
+  /**
+   * @return ids of a0 in the rows
+   */
+  private static Set<Long> rangeMatch(TestRisoTree tree, String call, String query) {
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put("layer", TestRisoTree.layerName);
+    parameters.put("query", query);
+    Set<Long> ids = new HashSet<>();
+    try (Transaction tx = tree.service.beginTx()) {
+      Result result = tree.service.execute(call, parameters);
+      while (result.hasNext()) {
+        Map<?, ?> row = (Map<?, ?>) result.next().get("row");
+        ids.add((Long) row.get("a0"));
+      }
+      tx.success();
+    }
+    return ids;
+  }
+}
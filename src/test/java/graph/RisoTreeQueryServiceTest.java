@@ -0,0 +1,96 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+
+public class RisoTreeQueryServiceTest {
+
+  private TestRisoTree tree;
+
+  @Before
+  public void setUp() throws Exception {
+    tree = new TestRisoTree(400);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    RisoTreeQueryPN.newLabelUsed = false;
+    tree.shutdown();
+  }
+
+  /**
+   * The labels are quoted as required by the rewrite with candidate labels.
+   */
+  private List<String> queries() {
+    List<String> queries = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      queries.add(TestRisoTree.rangeQuery(i, i, i + 2.5, i + 2.5, "B"));
+      queries.add(TestRisoTree.rangeQuery(i, 0, i + 5.5, 19, "C"));
+      queries.add(TestRisoTree.rangeQuery(0, i, 19, i + 0.5, "D"));
+    }
+    for (int i = 0; i < queries.size(); i++) {
+      queries.set(i, queries.get(i).replaceAll("\\((a\\d):(\\w+)\\)", "($1:`$2`)"));
+    }
+    return queries;
+  }
+
+  /**
+   * Run the same queries from 4 workers several times and compare the results with the naive
+   * approach.
+   *
+   * @param newLabelUsed
+   * @throws Exception
+   */
+  private void concurrentRangeQuery(boolean newLabelUsed) throws Exception {
+    List<String> queries = queries();
+    List<Long> expected = new ArrayList<>();
+    for (String query : queries) {
+      expected.add(tree.countNaive(query));
+    }
+
+    RisoTreeQueryPN.newLabelUsed = newLabelUsed;
+    RisoTreeQueryService service =
+        new RisoTreeQueryService(tree.service, TestRisoTree.layerName, 1, 4, 1000);
+    RisoTreeQueryPN.newLabelUsed = !newLabelUsed;
+    List<Future<RisoTreeQueryService.Response<List<Map<String, Object>>>>> futures =
+        new ArrayList<>();
+    for (int round = 0; round < 3; round++) {
+      for (String query : queries) {
+        futures.add(service.rangeQuery(query));
+      }
+    }
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(expected.get(i % queries.size()).longValue(),
+          futures.get(i).get().result.size());
+    }
+    service.shutdown();
+    assertEquals(futures.size(), service.completedCount.get());
+    assertEquals(0, service.failedCount.get());
+
+    // all the candidate labels are recovered
+    try (Transaction tx = tree.service.beginTx()) {
+      Result result = tree.service.execute("match (n) where any(label in labels(n) "
+          + "where label starts with 'a') return count(n) as count");
+      assertEquals(0L, result.next().get("count"));
+      tx.success();
+    }
+  }
+
+  @Test
+  public void concurrentIdParametersTest() throws Exception {
+    concurrentRangeQuery(false);
+  }
+
+  @Test
+  public void concurrentNewLabelTest() throws Exception {
+    concurrentRangeQuery(true);
+  }
+}
@@ -1,6 +1,8 @@
 package graph;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -60,4 +62,31 @@ public class RisoTreeQueryUtilTest {
         "explain match (a:A)-[]->(b:B) where (id(a) in [0, 1] or id(b) in [20, 10]) and 20 < a.lon < 30 and 10 < a.lat < 20 return *"));
   }
 
+  @Test
+  public void formQueryWithIdParametersTest() {
+    Map<Integer, Collection<Long>> candidateSets = new HashMap<>();
+    candidateSets.put(0, Arrays.asList(0L, 1L, 2L));
+    candidateSets.put(1, Arrays.asList(10L));
+    String[] nodeVariables = new String[] {"a0", "a1"};
+    String query = "match (a0:`A`),(a1:`B`),(a0)--(a1) where 20 < a0.lon < 30 and 10 < a0.lat < 20"
+        + " return id(a0),id(a1)";
+
+    // complete: start from the smallest candidate set.
+    Map<String, Object> parameters = new HashMap<>();
+    assertEquals(
+        "profile unwind $a1 as a1_id match (a0:`A`),(a1:`B`),(a0)--(a1) where id(a1) = a1_id"
+            + " and id(a0) in $a0 return id(a0),id(a1)",
+        RisoTreeQueryPN.formQueryWithIdParameters(query, candidateSets, nodeVariables, true,
+            parameters));
+    assertEquals(Arrays.asList(0L, 1L, 2L), parameters.get("a0"));
+    assertEquals(Arrays.asList(10L), parameters.get("a1"));
+
+    // not complete: one sub query for each candidate set.
+    assertEquals(
+        "profile unwind $a0 as a0_id match (a0:`A`),(a1:`B`),(a0)--(a1) where id(a0) = a0_id"
+            + " return id(a0),id(a1) UNION ALL unwind $a1 as a1_id"
+            + " match (a0:`A`),(a1:`B`),(a0)--(a1) where id(a1) = a1_id return id(a0),id(a1)",
+        RisoTreeQueryPN.formQueryWithIdParameters(query, candidateSets, nodeVariables, false,
+            new HashMap<>()));
+  }
 }
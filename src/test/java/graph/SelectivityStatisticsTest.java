@@ -0,0 +1,62 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import org.junit.Test;
+import commons.MyRectangle;
+
+public class SelectivityStatisticsTest {
+
+  private static SelectivityStatistics build() {
+    SelectivityStatistics statistics =
+        new SelectivityStatistics(new MyRectangle(0, 0, 10, 10), 10);
+    for (int i = 0; i < 10; i++) {
+      statistics.addSpatialObject("A", i + 0.5, i + 0.5);
+    }
+    statistics.addSpatialObject("B", 0.5, 0.5);
+    statistics.addPNSize("PNSize_0_B", 4);
+    statistics.addPNSize("PNSize_0_B", 0);
+    statistics.leafCount = 2;
+    return statistics;
+  }
+
+  @Test
+  public void estimateTest() {
+    SelectivityStatistics statistics = build();
+    assertEquals(5.0, statistics.estimateSpatialCount("A", new MyRectangle(0, 0, 5, 5)), 1e-9);
+    assertEquals(0.5, statistics.estimateSpatialCount("B", new MyRectangle(0, 0, 0.5, 1)), 1e-9);
+    assertEquals(-1, statistics.estimateSpatialCount("C", new MyRectangle(0, 0, 5, 5)), 1e-9);
+    assertEquals(0.5, statistics.estimateSpatialSelectivity("A", new MyRectangle(0, 0, 5, 5)),
+        1e-9);
+    assertEquals(2.0, statistics.estimatePNSize("PNSize_0_B", 0.5), 1e-9);
+    assertEquals(-1, statistics.estimatePNSize("PNSize_0_C", 0.5), 1e-9);
+  }
+
+  @Test
+  public void zeroExtentTest() {
+    // all the spatial objects on a vertical line
+    SelectivityStatistics statistics = new SelectivityStatistics(new MyRectangle(1, 0, 1, 10), 10);
+    for (int i = 0; i < 10; i++) {
+      statistics.addSpatialObject("A", 1, i + 0.5);
+    }
+    assertEquals(5.0, statistics.estimateSpatialCount("A", new MyRectangle(0, 0, 2, 4.5)), 1e-9);
+    assertEquals(1.0, statistics.estimateSpatialSelectivity("A", new MyRectangle(0, 0, 2, 10)),
+        1e-9);
+  }
+
+  @Test
+  public void writeReadTest() throws Exception {
+    File file = File.createTempFile("selectivity", ".txt");
+    file.deleteOnExit();
+    SelectivityStatistics statistics = build();
+    statistics.write(file.getAbsolutePath());
+
+    SelectivityStatistics read = SelectivityStatistics.read(file.getAbsolutePath());
+    assertEquals(statistics.gridSize, read.gridSize);
+    assertEquals(statistics.leafCount, read.leafCount);
+    assertEquals(statistics.estimateSpatialCount("A", new MyRectangle(2, 2, 7, 7)),
+        read.estimateSpatialCount("A", new MyRectangle(2, 2, 7, 7)), 1e-9);
+    assertEquals(1, read.pathStatistics.get("PNSize_0_B").ignoredCount);
+    assertEquals(4, read.pathStatistics.get("PNSize_0_B").totalSize);
+  }
+}
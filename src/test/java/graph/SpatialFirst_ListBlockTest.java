@@ -0,0 +1,65 @@
+package graph;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import commons.Config;
+import commons.Enums.QueryStatistic;
+
+public class SpatialFirst_ListBlockTest {
+
+  private static TestRisoTree tree;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    tree = new TestRisoTree(400);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    tree.shutdown();
+  }
+
+  @After
+  public void tearDown() {
+    SpatialFirst_List.blockBatchSize = 0;
+  }
+
+  private static long countBlock(String query) throws Exception {
+    SpatialFirst_List spatialFirst_List =
+        new SpatialFirst_List(tree.service, TestRisoTree.layerName);
+    spatialFirst_List.query_Block(query);
+    return (long) spatialFirst_List.getQueryStatisticMap().get(QueryStatistic.result_count);
+  }
+
+  /**
+   * The batched verification returns the same results as one query per leaf node, whether a batch
+   * holds a part of a leaf node or the ids of several leaf nodes.
+   */
+  @Test
+  public void blockBatchSizeTest() throws Exception {
+    String twoPredicates = String.format(
+        "match (a0:A)--(a1:D)--(a2:A) where 0 <= a0.%1$s <= 3.5 and 0 <= a0.%2$s <= 0.5 "
+            + "and 2 <= a2.%1$s <= 6.5 and 0 <= a2.%2$s <= 0.5 return id(a0), id(a2)",
+        Config.longitude_property_name, Config.latitude_property_name);
+    // 3 of the 20 leaf nodes, all the leaf nodes and two spatial predicates
+    List<String> queries = Arrays.asList(TestRisoTree.rangeQuery(0.5, 0.5, 5.5, 3.5, "B"),
+        TestRisoTree.rangeQuery(0, 0, 19, 19, "C"), twoPredicates);
+    long[] expected = new long[] {15, 8, 4};
+    for (int i = 0; i < queries.size(); i++) {
+      String query = queries.get(i);
+      assertEquals(query, expected[i], tree.countNaive(query));
+      SpatialFirst_List.blockBatchSize = 0;
+      assertEquals(query, expected[i], countBlock(query));
+      // 21 is more than the spatial ids of a leaf node and 1000 more than all of them
+      for (int batchSize : new int[] {1, 2, 21, 1000}) {
+        SpatialFirst_List.blockBatchSize = batchSize;
+        assertEquals(query + " batch size " + batchSize, expected[i], countBlock(query));
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package graph;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.neo4j.gis.spatial.rtree.RTreeRelationshipTypes;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.io.fs.FileUtils;
+import commons.Config;
+import commons.Enums.QueryStatistic;
+import commons.Labels.OSMLabel;
+import commons.Labels.RTreeRel;
+import commons.RTreeUtility;
+import commons.RisoTreeUtil;
+
+/**
+ * A small RisoTree with MAX_HOPNUM 1 in an embedded database. Spatial node i has label A and is
+ * located at (i % 20, i / 20). Each spatial node is connected to a node with label B, and every
+ * 50th spatial node also to a node with label C. Spatial nodes i and i + 1 share a neighbor with
+ * label D. The R-tree is built in the layout of
+ * neo4j-spatial with one leaf node for each row of 20 spatial nodes under the root. The PN_A,
+ * PN_A_B, PN_A_C and PN_A_D lists (and their sizes) are set on all the tree nodes.
+ */
+public class TestRisoTree {
+
+  public static final String layerName = "test";
+  public static final RelationshipType edgeType = RelationshipType.withName("GRAPH_LINK");
+
+  public final File dbDir;
+  public final GraphDatabaseService service;
+  public final List<Long> spatialIds = new ArrayList<>();
+
+  public TestRisoTree(int spatialCount) throws Exception {
+    dbDir = Files.createTempDirectory("riso_tree").toFile();
+    service = new GraphDatabaseFactory().newEmbeddedDatabase(dbDir);
+    try (Transaction tx = service.beginTx()) {
+      List<Node> spatialNodes = new ArrayList<>();
+      for (int i = 0; i < spatialCount; i++) {
+        Node spatialNode = createSpatialNode(i % 20, i / 20);
+        spatialNodes.add(spatialNode);
+        spatialIds.add(spatialNode.getId());
+        spatialNode.createRelationshipTo(service.createNode(Label.label("B")), edgeType);
+        if (i % 50 == 0) {
+          spatialNode.createRelationshipTo(service.createNode(Label.label("C")), edgeType);
+        }
+        if (i > 0) {
+          Node shared = service.createNode(Label.label("D"));
+          spatialNodes.get(i - 1).createRelationshipTo(shared, edgeType);
+          spatialNode.createRelationshipTo(shared, edgeType);
+        }
+      }
+      createRTree(spatialNodes);
+      tx.success();
+    }
+    try (Transaction tx = service.beginTx()) {
+      setPathNeighbors(RTreeUtility.getRTreeRoot(service, layerName));
+      tx.success();
+    }
+  }
+
+  private void createRTree(List<Node> spatialNodes) {
+    Node layerNode = service.createNode();
+    layerNode.setProperty("layer", layerName);
+    service.createNode(OSMLabel.ReferenceNode).createRelationshipTo(layerNode, RTreeRel.LAYER);
+    Node root = service.createNode();
+    root.setProperty(Config.BBoxName, new double[] {0, 0, 19, (spatialNodes.size() - 1) / 20});
+    layerNode.createRelationshipTo(root, RTreeRel.RTREE_ROOT);
+    for (int start = 0; start < spatialNodes.size(); start += 20) {
+      Node leaf = service.createNode();
+      int end = Math.min(start + 20, spatialNodes.size());
+      leaf.setProperty(Config.BBoxName, new double[] {0, start / 20, end - start - 1, start / 20});
+      root.createRelationshipTo(leaf, RTreeRelationshipTypes.RTREE_CHILD);
+      for (Node spatialNode : spatialNodes.subList(start, end)) {
+        leaf.createRelationshipTo(spatialNode, RTreeRelationshipTypes.RTREE_REFERENCE);
+      }
+    }
+  }
+
+  public Node createSpatialNode(double x, double y) {
+    Node node = service.createNode(Label.label("A"));
+    node.setProperty(Config.longitude_property_name, x);
+    node.setProperty(Config.latitude_property_name, y);
+    node.setProperty(Config.BBoxName, new double[] {x, y, x, y});
+    return node;
+  }
+
+  /**
+   * Set the PNs of a tree node as the union of its children.
+   *
+   * @param node
+   * @return the PNs of the node
+   */
+  private Map<String, TreeSet<Integer>> setPathNeighbors(Node node) {
+    Map<String, TreeSet<Integer>> pns = new TreeMap<>();
+    if (RTreeUtility.isLeaf(node)) {
+      for (Relationship relationship : node.getRelationships(Direction.OUTGOING,
+          RTreeRelationshipTypes.RTREE_REFERENCE)) {
+        Node spatialNode = relationship.getEndNode();
+        add(pns, "PN_A", spatialNode.getId());
+        for (Relationship edge : spatialNode.getRelationships(edgeType)) {
+          Node neighbor = edge.getOtherNode(spatialNode);
+          add(pns, "PN_A_" + neighbor.getLabels().iterator().next().name(), neighbor.getId());
+        }
+      }
+    } else {
+      for (Relationship relationship : node.getRelationships(Direction.OUTGOING,
+          RTreeRelationshipTypes.RTREE_CHILD)) {
+        for (Map.Entry<String, TreeSet<Integer>> entry : setPathNeighbors(
+            relationship.getEndNode()).entrySet()) {
+          pns.computeIfAbsent(entry.getKey(), key -> new TreeSet<>()).addAll(entry.getValue());
+        }
+      }
+    }
+    for (Map.Entry<String, TreeSet<Integer>> entry : pns.entrySet()) {
+      int[] pn = new int[entry.getValue().size()];
+      int i = 0;
+      for (int id : entry.getValue()) {
+        pn[i++] = id;
+      }
+      node.setProperty(entry.getKey(), pn);
+      node.setProperty(RisoTreeUtil.getPNSizeName(entry.getKey()), pn.length);
+    }
+    return pns;
+  }
+
+  private static void add(Map<String, TreeSet<Integer>> pns, String pnName, long id) {
+    pns.computeIfAbsent(pnName, key -> new TreeSet<>()).add((int) id);
+  }
+
+  /**
+   * @param minX
+   * @param minY
+   * @param maxX
+   * @param maxY
+   * @param label of the neighbor of the spatial node
+   * @return a LAGAQ-Range query
+   */
+  public static String rangeQuery(double minX, double minY, double maxX, double maxY,
+      String label) {
+    return String.format("match (a0:A)--(a1:%s) where %s <= a0.%s <= %s and %s <= a0.%s <= %s "
+        + "return id(a0), id(a1)", label, minX, Config.longitude_property_name, maxX, minY,
+        Config.latitude_property_name, maxY);
+  }
+
+  /**
+   * @param query
+   * @return the result count of the query by {@link Naive_Neo4j_Match}
+   * @throws Exception
+   */
+  public long countNaive(String query) throws Exception {
+    Naive_Neo4j_Match naive_Neo4j_Match = new Naive_Neo4j_Match(service);
+    naive_Neo4j_Match.query(query);
+    return (long) naive_Neo4j_Match.getQueryStatisticMap().get(QueryStatistic.result_count);
+  }
+
+  public void shutdown() throws Exception {
+    service.shutdown();
+    FileUtils.deleteRecursively(dbDir);
+  }
+}